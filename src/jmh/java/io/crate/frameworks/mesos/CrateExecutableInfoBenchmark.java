@@ -0,0 +1,78 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import io.crate.frameworks.mesos.config.Configuration;
+import org.apache.mesos.Protos;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the command line of a Crate node, which contains the
+ * unicast hosts of all instances.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CrateExecutableInfoBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int instances;
+
+    private CrateExecutableInfo info;
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() {
+        Configuration configuration = new Configuration();
+        configuration.version("0.54.8");
+        CrateInstances cluster = new CrateInstances();
+        for (int i = 0; i < instances; i++) {
+            cluster.addInstance(new CrateInstance(
+                    String.format("mesos-agent-%05d.example.com", i), "task-" + i, "0.54.8", 4300, "exec-" + i, "slave-" + i));
+        }
+        info = new CrateExecutableInfo(configuration, "mesos-agent-00000.example.com", cluster,
+                Collections.<Protos.Attribute>emptyList(), instances);
+        serialized = info.toStream();
+    }
+
+    @Benchmark
+    public List<String> arguments() {
+        return info.arguments();
+    }
+
+    @Benchmark
+    public byte[] toStream() {
+        return info.toStream();
+    }
+
+    @Benchmark
+    public CrateExecutableInfo fromStream() throws Exception {
+        return CrateExecutableInfo.fromStream(serialized);
+    }
+}
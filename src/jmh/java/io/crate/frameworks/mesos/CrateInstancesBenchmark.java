@@ -0,0 +1,105 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link CrateInstances} operations that are done for each task
+ * status update and for each REST call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CrateInstancesBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int instances;
+
+    private CrateInstances cluster;
+    private String[] taskIds;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        cluster = new CrateInstances();
+        taskIds = new String[instances];
+        for (int i = 0; i < instances; i++) {
+            taskIds[i] = String.format("task-%05d", i);
+            cluster.addInstance(instance(taskIds[i]));
+            if (i % 2 == 0) {
+                cluster.setToRunning(taskIds[i], "node-" + i);
+            }
+        }
+    }
+
+    private static CrateInstance instance(String taskId) {
+        return new CrateInstance("agent-" + taskId + ".example.com", taskId, "0.54.8", 4300, "exec-" + taskId, "slave-" + taskId);
+    }
+
+    private String nextTaskId() {
+        next = (next + 1) % instances;
+        return taskIds[next];
+    }
+
+    /**
+     * TASK_RUNNING: look up the task and mark it as running.
+     */
+    @Benchmark
+    public CrateInstance statusUpdateRunning() {
+        String taskId = nextTaskId();
+        CrateInstance instance = cluster.byTaskId(taskId);
+        cluster.setToRunning(taskId, "node");
+        return instance;
+    }
+
+    /**
+     * TASK_FAILED followed by the launch of a replacement task.
+     */
+    @Benchmark
+    public int statusUpdateFailedAndRelaunch() {
+        String taskId = nextTaskId();
+        cluster.removeTask(taskId);
+        cluster.addInstance(instance(taskId));
+        return cluster.size();
+    }
+
+    @Benchmark
+    public String[] connectionHosts() {
+        return cluster.connectionHosts();
+    }
+
+    @Benchmark
+    public String unicastHosts() {
+        return cluster.unicastHosts();
+    }
+
+    @Benchmark
+    public boolean anyOnHost() {
+        return cluster.anyOnHost("agent-" + nextTaskId() + ".example.com");
+    }
+}
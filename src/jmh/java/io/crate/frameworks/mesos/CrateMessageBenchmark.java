@@ -0,0 +1,55 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CrateMessageBenchmark {
+
+    private CrateMessage<MessageMissingResource> message;
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() {
+        message = new CrateMessage<>(CrateMessage.Type.MESSAGE_MISSING_RESOURCE, MessageMissingResource.MISSING_DATA_PATH);
+        serialized = message.toStream();
+    }
+
+    @Benchmark
+    public byte[] toStream() {
+        return message.toStream();
+    }
+
+    @Benchmark
+    public CrateMessage<MessageMissingResource> fromStream() throws IOException {
+        return CrateMessage.fromStream(serialized);
+    }
+}
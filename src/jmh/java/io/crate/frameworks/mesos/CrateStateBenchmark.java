@@ -0,0 +1,112 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the binary {@link CrateStateCodec} with the Java serialization
+ * that was used to persist the {@link CrateState} before.
+ *
+ * The states of the benchmark have the following payload sizes:
+ *
+ * <pre>
+ * instances    binary    java serialization
+ *        10     1,814                 4,057
+ *       100    17,880                27,637
+ *     1,000   179,880               264,787
+ *    10,000 1,813,381             2,649,787
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CrateStateBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int instances;
+
+    private CrateState state;
+    private byte[] encoded;
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        state = new CrateState();
+        state.desiredInstances(instances);
+        state.frameworkId("20160622-101517-16842879-5050-1-0000");
+        CrateInstances cluster = new CrateInstances();
+        for (int i = 0; i < instances; i++) {
+            cluster.addInstance(new CrateInstance(
+                    String.format("mesos-agent-%05d.example.com", i),
+                    UUID.randomUUID().toString(),
+                    "0.54.8",
+                    4300,
+                    UUID.randomUUID().toString(),
+                    String.format("20160622-101517-16842879-5050-1-S%d", i)
+            ));
+            if (i % 2 == 0) {
+                state.slavesWithInstances().add(String.format("20160622-101517-16842879-5050-1-S%d", i));
+            }
+        }
+        state.instances(cluster);
+        encoded = CrateStateCodec.encode(state);
+        serialized = javaSerialize(state);
+    }
+
+    private static byte[] javaSerialize(CrateState state) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream objOut = new ObjectOutputStream(out)) {
+            objOut.writeObject(state);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() throws IOException {
+        return CrateStateCodec.encode(state);
+    }
+
+    @Benchmark
+    public byte[] encodeJavaSerialization() throws IOException {
+        return javaSerialize(state);
+    }
+
+    @Benchmark
+    public CrateState decodeBinary() throws IOException {
+        return CrateStateCodec.decode(encoded);
+    }
+
+    @Benchmark
+    public CrateState decodeJavaSerialization() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return (CrateState) in.readObject();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import io.crate.frameworks.mesos.config.Configuration;
+import org.apache.mesos.Protos;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link CrateScheduler#resourceOffers} for a batch of synthetic
+ * offers, including the save of the state after the batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResourceOffersBenchmark {
+
+    private static final Protos.FrameworkID FRAMEWORK_ID = Protos.FrameworkID.newBuilder().setValue("benchmark").build();
+
+    @Param({"10", "100", "1000"})
+    public int offers;
+
+    private RecordingSchedulerDriver driver;
+    private PersistentStateStore store;
+    private CrateScheduler scheduler;
+    private List<Protos.Offer> matchingOffers;
+    private List<Protos.Offer> insufficientOffers;
+
+    @Setup
+    public void setUp() {
+        Configuration configuration = new Configuration();
+        configuration.version("0.54.8");
+        configuration.nodeCount = offers / 2;
+        driver = new RecordingSchedulerDriver();
+        store = new PersistentStateStore(new InMemoryState(), configuration.nodeCount);
+        scheduler = new CrateScheduler(store, configuration);
+        scheduler.registered(driver, FRAMEWORK_ID, Protos.MasterInfo.getDefaultInstance());
+
+        List<Protos.Resource> resources = new ArrayList<>();
+        List<Protos.Resource> tooSmall = new ArrayList<>();
+        for (Protos.Resource resource : configuration.getAllRequiredResources()) {
+            resources.add(resource);
+            tooSmall.add(resource.getName().equals("cpus") ?
+                    Protos.Resource.newBuilder(resource).setScalar(Protos.Value.Scalar.newBuilder().setValue(0.01)).build() :
+                    resource);
+        }
+        matchingOffers = new ArrayList<>(offers);
+        insufficientOffers = new ArrayList<>(offers);
+        for (int i = 0; i < offers; i++) {
+            matchingOffers.add(offer(i, resources));
+            insufficientOffers.add(offer(i, tooSmall));
+        }
+    }
+
+    private static Protos.Offer offer(int i, List<Protos.Resource> resources) {
+        return Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("offer-" + i))
+                .setHostname(String.format("mesos-agent-%05d.example.com", i))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-" + i))
+                .setFrameworkId(FRAMEWORK_ID)
+                .addAllResources(resources)
+                .build();
+    }
+
+    @Setup(Level.Invocation)
+    public void removeInstances() {
+        driver.reset();
+        List<String> taskIds = new ArrayList<>();
+        for (CrateInstance instance : store.state().crateInstances()) {
+            taskIds.add(instance.taskId());
+        }
+        for (String taskId : taskIds) {
+            store.state().crateInstances().removeTask(taskId);
+        }
+    }
+
+    /**
+     * Half of the offers are used to launch instances, the rest is declined.
+     */
+    @Benchmark
+    public int launch() {
+        scheduler.resourceOffers(driver, matchingOffers);
+        return driver.launchedTasks.size();
+    }
+
+    /**
+     * None of the offers has enough resources.
+     */
+    @Benchmark
+    public int declineInsufficient() {
+        scheduler.resourceOffers(driver, insufficientOffers);
+        return driver.declinedOffers.size();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import io.crate.frameworks.mesos.config.Configuration;
+import io.crate.frameworks.mesos.config.Resources;
+import org.apache.mesos.Protos;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResourcesBenchmark {
+
+    private Configuration configuration;
+    private List<Protos.Resource> matching;
+    private List<Protos.Resource> noPorts;
+
+    @Setup
+    public void setUp() {
+        configuration = new Configuration();
+        // resources of a typical agent: a few scalars and a couple of port ranges
+        matching = new ArrayList<>();
+        matching.add(scalar("cpus", 8));
+        matching.add(scalar("mem", 16384));
+        matching.add(scalar("disk", 100000));
+        matching.add(Protos.Resource.newBuilder()
+                .setName("ports")
+                .setType(Protos.Value.Type.RANGES)
+                .setRanges(Protos.Value.Ranges.newBuilder()
+                        .addRange(Protos.Value.Range.newBuilder().setBegin(31000).setEnd(32000))
+                        .addRange(Protos.Value.Range.newBuilder().setBegin(4200).setEnd(4300)))
+                .build());
+        noPorts = new ArrayList<>(matching.subList(0, 3));
+    }
+
+    private static Protos.Resource scalar(String name, double value) {
+        return Protos.Resource.newBuilder()
+                .setName(name)
+                .setType(Protos.Value.Type.SCALAR)
+                .setScalar(Protos.Value.Scalar.newBuilder().setValue(value))
+                .build();
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return Resources.matches(matching, configuration);
+    }
+
+    @Benchmark
+    public boolean missingPorts() {
+        return Resources.matches(noPorts, configuration);
+    }
+}
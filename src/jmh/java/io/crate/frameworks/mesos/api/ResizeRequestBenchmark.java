@@ -0,0 +1,89 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.api;
+
+import io.crate.frameworks.mesos.CrateInstance;
+import io.crate.frameworks.mesos.CrateInstances;
+import io.crate.frameworks.mesos.InMemoryState;
+import io.crate.frameworks.mesos.PersistentStateStore;
+import io.crate.frameworks.mesos.config.Configuration;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.core.Response;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of resize requests with the shared client compared to creating a
+ * client for every request, as it was done before.
+ *
+ * No Crate node is running, so the queries fail fast and the client setup
+ * dominates, which is the overhead the pool removes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResizeRequestBenchmark {
+
+    private CrateRestResource resource;
+    private PersistentStateStore store;
+
+    @Setup
+    public void setUp() {
+        Configuration configuration = new Configuration();
+        store = new PersistentStateStore(new InMemoryState(), configuration.nodeCount);
+        CrateInstances instances = new CrateInstances();
+        for (int i = 0; i < 3; i++) {
+            instances.addInstance(new CrateInstance("127.0.0." + (i + 1), "task-" + i, "0.54.8", 4300,
+                    "exec-" + i, "slave-" + i));
+            instances.setToRunning("task-" + i, "node-" + i);
+        }
+        store.state().instances(instances);
+        resource = new CrateRestResource(store, configuration) {
+            @Override
+            String mesosMasterAddress() {
+                // not part of the measurement
+                return null;
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        resource.close();
+    }
+
+    @Benchmark
+    public Response resize() {
+        return resource.clusterResize(new ClusterResizeRequest(3));
+    }
+
+    @Benchmark
+    public Response resizeWithNewClient() {
+        Response response = resource.clusterResize(new ClusterResizeRequest(3));
+        // closes the client, so the next request has to create a new one
+        resource.close();
+        return response;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.fetch;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares extracting a tarball while reading it with the previous approach of
+ * downloading it into the sandbox and forking {@code tar}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TarballExtractionBenchmark {
+
+    @Param({"100", "1000"})
+    public int files;
+
+    private File directory;
+    private URI tarball;
+    private File target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tarball-benchmark").toFile();
+        File file = new File(directory, "crate.tar.gz");
+        Random random = new Random(0);
+        byte[] content = new byte[64 * 1024];
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(new BufferedOutputStream(new FileOutputStream(file))))) {
+            for (int i = 0; i < files; i++) {
+                // half random, half compressible
+                random.nextBytes(content);
+                Arrays.fill(content, content.length / 2, content.length, (byte) i);
+                TarArchiveEntry entry = new TarArchiveEntry(String.format("crate/lib/lib-%05d.jar", i));
+                entry.setSize(content.length);
+                tar.putArchiveEntry(entry);
+                tar.write(content);
+                tar.closeArchiveEntry();
+            }
+        }
+        tarball = file.toURI();
+    }
+
+    @Setup(Level.Invocation)
+    public void createTarget() throws IOException {
+        target = Files.createTempDirectory(directory.toPath(), "target").toFile();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteTarget() throws IOException {
+        ArtifactCache.deleteRecursively(target.toPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ArtifactCache.deleteRecursively(directory.toPath());
+    }
+
+    @Benchmark
+    public void streaming() throws IOException {
+        new TarballLoader().load(tarball, null, target);
+    }
+
+    @Benchmark
+    public void downloadAndFork() throws Exception {
+        File downloaded = new File(target, "crate.tar.gz");
+        try (InputStream in = tarball.toURL().openStream()) {
+            Files.copy(in, downloaded.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Process process = new ProcessBuilder("tar", "-C", target.getAbsolutePath(), "-xf", downloaded.getAbsolutePath())
+                .redirectErrorStream(true)
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IOException("tar failed");
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import com.google.common.base.Objects;
+
+import java.io.Serializable;
+
+/**
+ * The artifacts of a Crate version that have been pre-staged in the
+ * artifact cache of an agent by a staging task.
+ */
+public class AgentStaging implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum State {
+        STAGING,
+        STAGED,
+        FAILED
+    }
+
+    private final String slaveId;
+    private final String hostname;
+    private final String version;
+    private final String taskId;
+    private final String offerId;
+    private final long startedMillis;
+    private State state = State.STAGING;
+    private long finishedMillis = 0L;
+
+    public AgentStaging(String slaveId,
+                        String hostname,
+                        String version,
+                        String taskId,
+                        String offerId,
+                        long startedMillis) {
+        this.slaveId = slaveId;
+        this.hostname = hostname;
+        this.version = version;
+        this.taskId = taskId;
+        this.offerId = offerId;
+        this.startedMillis = startedMillis;
+    }
+
+    public String slaveId() {
+        return slaveId;
+    }
+
+    public String hostname() {
+        return hostname;
+    }
+
+    /**
+     * Crate version or download URL that is staged.
+     */
+    public String version() {
+        return version;
+    }
+
+    public String taskId() {
+        return taskId;
+    }
+
+    /**
+     * The offer that was used to launch the staging task.
+     */
+    public String offerId() {
+        return offerId;
+    }
+
+    public long startedMillis() {
+        return startedMillis;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * Time the staging task finished or failed, 0 while it is running.
+     */
+    public long finishedMillis() {
+        return finishedMillis;
+    }
+
+    public void finished(State state, long finishedMillis) {
+        this.state = state;
+        this.finishedMillis = finishedMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AgentStaging that = (AgentStaging) o;
+        return startedMillis == that.startedMillis &&
+               finishedMillis == that.finishedMillis &&
+               state == that.state &&
+               Objects.equal(slaveId, that.slaveId) &&
+               Objects.equal(hostname, that.hostname) &&
+               Objects.equal(version, that.version) &&
+               Objects.equal(taskId, that.taskId) &&
+               Objects.equal(offerId, that.offerId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(slaveId, hostname, version, taskId, offerId, startedMillis, state, finishedMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "AgentStaging{" +
+                "slaveId='" + slaveId + '\'' +
+                ", hostname='" + hostname + '\'' +
+                ", version='" + version + '\'' +
+                ", state=" + state +
+                '}';
+    }
+}
@@ -39,37 +39,71 @@ public class CrateExecutableInfo implements Serializable {
     private static final Logger LOGGER = LoggerFactory.getLogger(CrateExecutableInfo.class);
 
     private final List<URI> downloadURIs;
-    private final String nodeNode;
+    private String nodeNode;
     private final String unicastHosts;
     private final String hostname;   // todo:  this is never used
     private final String execId;
     private final Configuration configuration;
     private final List<Attribute> attributes;
     private final int numExpectedNodes;
+    private final String checksum;
+    private boolean staging = false;
+    private String volumePath = null;
 
     public CrateExecutableInfo(Configuration configuration,
                                String hostname,
                                CrateInstances crateInstances,
                                List<Attribute> attributes,
                                int numExpectedNodes) {
+        this(configuration, hostname, crateInstances, attributes, numExpectedNodes,
+                configuration.version, configuration.checksum);
+    }
+
+    /**
+     * @param version  Crate version or download URL, which may differ from the
+     *                 configured version while the cluster is upgraded
+     * @param checksum SHA-256 checksum of the tarball of the version or null
+     */
+    public CrateExecutableInfo(Configuration configuration,
+                               String hostname,
+                               CrateInstances crateInstances,
+                               List<Attribute> attributes,
+                               int numExpectedNodes,
+                               String version,
+                               String checksum) {
         this.execId = UUID.randomUUID().toString();
         this.hostname = hostname;
         this.configuration = configuration;
         this.attributes = attributes;
-        this.downloadURIs = asList(
-                URI.create(configuration.versionIsDownloadURL() ?
-                        configuration.version :
-                        String.format("%s/crate-%s.tar.gz", CDN_URL, configuration.version))
-        );
+        this.checksum = checksum;
+        this.downloadURIs = asList(downloadURI(version));
         this.nodeNode = String.format("%s-%s", configuration.clusterName, execId);
         this.unicastHosts = crateInstances.unicastHosts();
         this.numExpectedNodes = numExpectedNodes;
     }
 
+    /**
+     * Returns the location of the tarball of a Crate version, which is
+     * either a version number or a download URL.
+     */
+    public static URI downloadURI(String version) {
+        return URI.create(version != null && version.startsWith("http") ?
+                version :
+                String.format("%s/crate-%s.tar.gz", CDN_URL, version));
+    }
+
     public String nodeName() {
         return nodeNode;
     }
 
+    /**
+     * Replaces the generated node name, e.g. with the name of a lost node
+     * whose data is reused.
+     */
+    public void nodeName(String nodeName) {
+        this.nodeNode = nodeName;
+    }
+
     public int transportPort() {
         return configuration.transportPort;
     }
@@ -90,8 +124,9 @@ public class CrateExecutableInfo implements Serializable {
                 String.format("-Des.gateway.recover_after_nodes=%d", minimumMasterNodes),
                 String.format("-Des.gateway.expected_nodes=%d", numExpectedNodes)
         ));
-        if (configuration.dataPath != null) {
-            args.add(String.format("-Des.path.data=%s", configuration.dataPath));
+        File dataDir = dataDir();
+        if (dataDir != null) {
+            args.add(String.format("-Des.path.data=%s", dataDir.getPath()));
         }
         if (configuration.blobPath != null) {
             args.add(String.format("-Des.path.blobs=%s", configuration.blobPath));
@@ -122,14 +157,102 @@ public class CrateExecutableInfo implements Serializable {
         return downloadURIs;
     }
 
+    /**
+     * The persistent volume of the task if it has one, otherwise the
+     * configured data path or null.
+     */
     public File dataDir() {
+        if (volumePath != null) {
+            // the volume is mounted into the sandbox, which is the working directory of the executor
+            return new File(volumePath).getAbsoluteFile();
+        }
         return configuration.dataPath == null ? null : new File(configuration.dataPath);
     }
 
+    /**
+     * @param volumePath path of the persistent volume relative to the sandbox
+     */
+    public void volumePath(String volumePath) {
+        this.volumePath = volumePath;
+    }
+
     public File blobDir() {
         return configuration.blobPath == null ? null : new File(configuration.blobPath);
     }
 
+    /**
+     * SHA-256 checksum of the Crate tarball or null if it is not known.
+     */
+    public String checksum() {
+        return checksum;
+    }
+
+    /**
+     * True if the task only stages the artifacts in the artifact cache of
+     * the agent and finishes without starting Crate.
+     */
+    public boolean staging() {
+        return staging;
+    }
+
+    public void staging(boolean staging) {
+        this.staging = staging;
+    }
+
+    /**
+     * Directory of the artifact cache shared by all executors on the agent
+     * or null if the cache is disabled.
+     */
+    public File cacheDir() {
+        return configuration.agentCacheDir == null || configuration.agentCacheDir.isEmpty() ?
+                null : new File(configuration.agentCacheDir);
+    }
+
+    public long cacheSizeBytes() {
+        return configuration.agentCacheSize * 1024 * 1024;
+    }
+
+    /**
+     * Number of connections used to download a single artifact.
+     */
+    public int fetchParallelism() {
+        return configuration.fetchParallelism;
+    }
+
+    public long fetchChunkSizeBytes() {
+        return configuration.fetchChunkSize * 1024 * 1024;
+    }
+
+    /**
+     * Time a Crate node may take to start before the task fails.
+     */
+    public long startupTimeoutMillis() {
+        return configuration.startupTimeout * 1000L;
+    }
+
+    public long healthCheckIntervalMillis() {
+        return configuration.healthCheckInterval * 1000L;
+    }
+
+    public int healthCheckTimeoutMillis() {
+        return configuration.healthCheckTimeout * 1000;
+    }
+
+    /**
+     * Number of failed health checks in a row after which the node is
+     * restarted or the task fails.
+     */
+    public int healthCheckFailures() {
+        return configuration.healthCheckFailures;
+    }
+
+    /**
+     * Interval at which telemetry samples are taken, 0 if telemetry is disabled.
+     */
+    public long telemetryIntervalMillis() {
+        return Math.max(0, configuration.telemetryInterval) * 1000L;
+    }
+
     /**
      * Helper function for Serializable
      * @param value
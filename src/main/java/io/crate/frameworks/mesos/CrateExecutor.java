@@ -22,16 +22,17 @@
 package io.crate.frameworks.mesos;
 
 import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.ByteString;
 import io.crate.action.sql.SQLRequest;
 import io.crate.action.sql.SQLResponse;
 import io.crate.client.CrateClient;
+import io.crate.frameworks.mesos.fetch.ArtifactCache;
+import io.crate.frameworks.mesos.fetch.Downloader;
+import io.crate.frameworks.mesos.fetch.TarballLoader;
+import io.crate.frameworks.mesos.health.HealthChecker;
+import io.crate.frameworks.mesos.health.TelemetryCollector;
 import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.mesos.Executor;
 import org.apache.mesos.ExecutorDriver;
@@ -43,17 +44,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.URI;
-import java.net.URL;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-
-import static java.util.concurrent.TimeUnit.SECONDS;
+import java.util.Set;
+import java.util.concurrent.*;
 
 
 public class CrateExecutor implements Executor {
@@ -63,40 +59,103 @@ public class CrateExecutor implements Executor {
     private File workingDirectory;
     private TaskID currentTaskId = null;
     private ExecutorDriver driver;
-    private ScheduledFuture<?> healthCheck;
+    private HealthChecker healthCheck;
+    private ScheduledFuture<?> telemetry;
+    private CrateClient telemetryClient;
+    private String nodeId;
     private Boolean forceShutdown = false;
     private final ScheduledExecutorService healthCheckScheduler = Executors.newScheduledThreadPool(1);
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("crate-prefetch").setDaemon(true).build());
+    private ReadinessProbe<String> readinessProbe;
+    // phases of the current task that are only known to the executor
+    private TaskLifecycle lifecycle = new TaskLifecycle();
+
+    private static final long READINESS_INITIAL_DELAY_MILLIS = 100L;
+    private static final long READINESS_MAX_DELAY_MILLIS = 2000L;
+    private static final int READINESS_TIMEOUT_MILLIS = 2000;
+    // samples are sent to the scheduler in batches to keep the number of framework messages low
+    private static final int TELEMETRY_BATCH_SIZE = 6;
+    private static final String HEAP_STATEMENT = "SELECT heap['used'], heap['max'] FROM sys.nodes WHERE name = ?";
 
-    private class StartupInspectionTask implements Runnable {
+    /**
+     * Returns the id of the Crate node once it answers queries. The HTTP port
+     * is checked first, so the client is only created when the node is
+     * about to be ready.
+     */
+    private static class NodeIdCheck implements ReadinessProbe.Check<String> {
 
         private static final String STATEMENT = "SELECT id FROM sys.nodes WHERE name = ?";
-        private final CrateClient client;
-        private final Object[] args;
+        private final int httpPort;
+        private final String transportHost;
+        private final SQLRequest request;
+        private boolean listening = false;
+        private CrateClient client;
+
+        NodeIdCheck(int httpPort, int transportPort, String nodeName) {
+            this.httpPort = httpPort;
+            this.transportHost = String.format("localhost:%s", transportPort);
+            this.request = new SQLRequest(STATEMENT, new Object[] { nodeName });
+        }
 
-        public StartupInspectionTask(String host, String nodeName) {
-            client = new CrateClient(host);
-            args = new Object[] { nodeName };
+        @Override
+        public String check() {
+            if (!listening) {
+                listening = ReadinessProbe.isListening("localhost", httpPort, READINESS_TIMEOUT_MILLIS);
+                if (!listening) {
+                    LOGGER.debug("Crate node is not listening yet ... waiting to start up!");
+                    return null;
+                }
+            }
+            if (client == null) {
+                client = new CrateClient(transportHost);
+            }
+            SQLResponse response = client.sql(request).actionGet(READINESS_TIMEOUT_MILLIS);
+            if (response.rows().length == 0) {
+                return null;
+            }
+            return (String) response.rows()[0][0];
         }
 
         @Override
-        public void run() {
-            SQLRequest request = new SQLRequest(STATEMENT, args);
-            SQLResponse response = null;
-            while (response == null) {
-                try {
-                    Thread.sleep(1000L);
-                    response = client.sql(request).actionGet();
-                } catch (InterruptedException e) {
-                    LOGGER.error("Crate startup was interrupted. Could not obtain node id.", e);
-                } catch (Exception e) {
-                    LOGGER.debug("Crate node is not running yet ... waiting to start up!");
-                    response = null;
+        public void close() {
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Remembers when the download of the last artifact was complete. Tarballs
+     * that are extracted while they are downloaded are complete when the
+     * extraction is almost done, cached artifacts are not reported at all.
+     */
+    private static class FetchProgress implements TarballLoader.Progress {
+
+        private final TarballLoader.Progress delegate;
+        private final Set<URI> complete = new HashSet<>();
+        private long lastCompleteMillis = 0L;
+
+        FetchProgress(TarballLoader.Progress delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void update(URI uri, long bytes, long total) {
+            delegate.update(uri, bytes, total);
+            if (total > 0 && bytes >= total) {
+                synchronized (this) {
+                    // ranged downloads are read again when they are extracted
+                    if (complete.add(uri)) {
+                        lastCompleteMillis = System.currentTimeMillis();
+                    }
                 }
             }
-            client.close();
-            onCrateClientResponse(response);
         }
 
+        synchronized long lastCompleteMillis() {
+            return lastCompleteMillis;
+        }
     }
 
     @Override
@@ -123,6 +182,7 @@ public class CrateExecutor implements Executor {
             return;
         }
         currentTaskId = taskInfo.getTaskId();
+        lifecycle = new TaskLifecycle();
         sendTaskStatus(driver, TaskState.TASK_STARTING);
 
         CrateExecutableInfo crateTask = null;
@@ -131,17 +191,16 @@ public class CrateExecutor implements Executor {
         } catch (IOException e) {
             LOGGER.error("Could not de-serialize TaskInfo", e);
         }
+        if (crateTask != null && crateTask.staging()) {
+            stage(driver, crateTask);
+            return;
+        }
         if (crateTask != null) {
             LOGGER.debug("Prepare crateTask: {}", crateTask);
             boolean prepared = prepare(driver, crateTask);
             if (prepared) {
                 task = new Task(crateTask);
                 startProcess(driver, task);
-                Thread startupCheck = new Thread(new StartupInspectionTask(
-                        String.format("localhost:%s", crateTask.transportPort()),
-                        crateTask.nodeName())
-                );
-                startupCheck.start();
                 return;
             }
         }
@@ -151,7 +210,8 @@ public class CrateExecutor implements Executor {
     @Override
     public void killTask(ExecutorDriver driver, TaskID taskId) {
         LOGGER.info("Killing task : " + taskId.getValue());
-        healthCheck.cancel(true);
+        cancelReadinessProbeIfExists();
+        cancelHealthCheckIfExists();
         int pid = task.pid();
         if (forceShutdown){
             forceShutdownCrate(driver);
@@ -198,6 +258,7 @@ public class CrateExecutor implements Executor {
 
     private void restartCrate(ExecutorDriver driver) {
         LOGGER.debug("Restart Crate process.");
+        cancelHealthCheckIfExists();
         task.destroy();
         startProcess(driver, task);
     }
@@ -209,6 +270,8 @@ public class CrateExecutor implements Executor {
             CrateMessage crateMessage = CrateMessage.fromStream(data);
             if (crateMessage != null && crateMessage.type().equals(CrateMessage.Type.MESSAGE_CLUSTER_SHUTDOWN)) {
               forceShutdown = true;
+            } else if (crateMessage != null && crateMessage.type().equals(CrateMessage.Type.MESSAGE_PREFETCH)) {
+                prefetch((CrateExecutableInfo) crateMessage.data());
             }
         } catch (IOException e) {
             LOGGER.error("Could not process message", e);
@@ -246,38 +309,123 @@ public class CrateExecutor implements Executor {
             driver.sendFrameworkMessage(msg.toStream());
             return false;
         }
-        boolean success = true;
+        final ArtifactCache cache = info.cacheDir() == null ?
+                null : new ArtifactCache(info.cacheDir(), info.cacheSizeBytes());
+        FetchProgress progress = new FetchProgress(TarballLoader.logProgress());
+        final TarballLoader loader = new TarballLoader(progress,
+                new Downloader(info.fetchParallelism(), info.fetchChunkSizeBytes(), progress),
+                cache == null ? workingDirectory : cache.downloadDir());
+        boolean fetched = fetchAndExtract(info.uris(), info.checksum(), cache, loader);
+        long now = System.currentTimeMillis();
+        long lastComplete = progress.lastCompleteMillis();
+        lifecycle.reached(TaskLifecycle.Phase.FETCHED, lastComplete > 0 ? lastComplete : now);
+        lifecycle.reached(TaskLifecycle.Phase.EXTRACTED, now);
+        return fetched;
+    }
+
+    /**
+     * Downloads the artifacts of a task that is going to be launched on this
+     * agent (e.g. the next version during an upgrade) into the artifact
+     * cache, without interrupting the running Crate process.
+     */
+    private void prefetch(final CrateExecutableInfo info) {
+        if (info.cacheDir() == null) {
+            LOGGER.info("Artifact cache is disabled, not pre-fetching {}", info.uris());
+            return;
+        }
+        prefetcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                fetchIntoCache(info);
+            }
+        });
+    }
+
+    /**
+     * Runs a staging task: the artifacts are fetched into the artifact cache,
+     * so that a Crate task that is launched on this agent later doesn't have
+     * to download them, and the executor exits.
+     */
+    private void stage(ExecutorDriver driver, CrateExecutableInfo info) {
+        boolean staged;
+        if (info.cacheDir() == null) {
+            LOGGER.warn("Artifact cache is disabled, cannot stage {}", info.uris());
+            staged = false;
+        } else {
+            staged = fetchIntoCache(info);
+        }
+        sendTaskStatus(driver, staged ? TaskState.TASK_FINISHED : TaskState.TASK_FAILED);
+        driver.stop();
+    }
+
+    private static boolean fetchIntoCache(CrateExecutableInfo info) {
+        ArtifactCache cache = new ArtifactCache(info.cacheDir(), info.cacheSizeBytes());
+        TarballLoader loader = new TarballLoader(TarballLoader.logProgress(),
+                new Downloader(info.fetchParallelism(), info.fetchChunkSizeBytes(), TarballLoader.logProgress()),
+                cache.downloadDir());
+        boolean fetched = true;
         for (URI uri : info.uris()) {
-            success = fetchAndExtractUri(uri);
-            if (!success) {
-                break;
+            try {
+                cache.get(uri, info.checksum(), loader);
+                LOGGER.info("Pre-fetched {}", uri);
+            } catch (IOException e) {
+                LOGGER.warn("Could not pre-fetch " + uri, e);
+                fetched = false;
             }
         }
-        return success;
+        return fetched;
     }
 
-    private boolean fetchAndExtractUri(URI uri) {
-        boolean success;
+    private boolean fetchAndExtract(List<URI> uris,
+                                    final String checksum,
+                                    final ArtifactCache cache,
+                                    final TarballLoader loader) {
+        if (uris.size() == 1) {
+            return fetchAndExtractUri(uris.get(0), checksum, cache, loader);
+        }
+        // artifacts are independent of each other, so they are fetched in parallel
+        ExecutorService fetchers = Executors.newFixedThreadPool(uris.size(),
+                new ThreadFactoryBuilder().setNameFormat("crate-fetch-%d").setDaemon(true).build());
         try {
-            URL download = uri.toURL();
-            String fn = new File(download.getFile()).getName();
-            File tmpFile = new File(fn);
-            if (!tmpFile.exists()) {
-                if(tmpFile.createNewFile()) {
-                  LOGGER.debug("Fetch: {} -> {}", download, tmpFile);
-                  ReadableByteChannel rbc = Channels.newChannel(download.openStream());
-                  FileOutputStream stream = new FileOutputStream(tmpFile);
-                  stream.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
-                }
-            } else {
-                LOGGER.debug("tarball already downloaded");
+            List<Future<Boolean>> results = new ArrayList<>(uris.size());
+            for (final URI uri : uris) {
+                results.add(fetchers.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return fetchAndExtractUri(uri, checksum, cache, loader);
+                    }
+                }));
+            }
+            boolean success = true;
+            for (Future<Boolean> result : results) {
+                success &= result.get();
             }
-            success = extractFile(tmpFile);
+            return success;
+        } catch (InterruptedException | ExecutionException e) {
+            LOGGER.error("Failed to fetch " + uris, e);
+            return false;
+        } finally {
+            fetchers.shutdownNow();
+        }
+    }
+
+    private boolean fetchAndExtractUri(URI uri, String checksum, ArtifactCache cache, TarballLoader loader) {
+        if (cache != null) {
+            try {
+                LOGGER.debug("Materialize cached {} in {}", uri, workingDirectory);
+                cache.materialize(uri, checksum, loader, workingDirectory);
+                return true;
+            } catch (IOException e) {
+                LOGGER.warn("Could not use artifact cache, fetching " + uri + " into the sandbox", e);
+            }
+        }
+        try {
+            loader.load(uri, checksum, workingDirectory);
+            return true;
         } catch (IOException e) {
-            e.printStackTrace();
-            success = false;
+            LOGGER.error("Failed to fetch " + uri, e);
+            return false;
         }
-        return success;
     }
 
     @NotNull
@@ -292,44 +440,38 @@ public class CrateExecutor implements Executor {
         return dataDir;
     }
 
-    private boolean extractFile(File tmpFile) {
-        LOGGER.debug("Extracting file {} to {}", tmpFile.getName(), workingDirectory.getAbsolutePath());
-        boolean success = true;
-        try {
-            Process process = Runtime.getRuntime().exec(
-                    new String[]{
-                            "tar",
-                            "-C", workingDirectory.getAbsolutePath(),
-                            "-xf", tmpFile.getAbsolutePath()
-                    },
-                    new String[]{},
-                    workingDirectory
-            );
-            process.waitFor();
-        } catch (IOException|InterruptedException e) {
-            LOGGER.error("Failed to extract file", e);
-            success = false;
-        }
-        return success;
-    }
-
     /**
      * Starts a task's process so it goes into running state.
      **/
-    protected void startProcess(ExecutorDriver driver, Task task) {
+    protected void startProcess(final ExecutorDriver driver, Task task) {
         if (task.process == null) {
             try {
                 task.run();
+                lifecycle.reached(TaskLifecycle.Phase.PROCESS_STARTED, System.currentTimeMillis());
+                sendLifecycle(driver);
                 // TODO: do we really want to redirect the Crate log output to stdout?
                 redirectProcess(task.process);
-                try {
-                    Thread.sleep(10000);
-                    task.process.exitValue();
-                    fail(driver);
-                } catch (InterruptedException | IllegalThreadStateException e) {
-                    // task is still running, all good!
-                    LOGGER.debug("task still running after 10s");
-                }
+                cancelReadinessProbeIfExists();
+                CrateExecutableInfo info = task.executableInfo;
+                readinessProbe = new ReadinessProbe<>(
+                        healthCheckScheduler,
+                        task.process,
+                        new NodeIdCheck(info.httpPort(), info.transportPort(), info.nodeName()),
+                        new ReadinessProbe.Listener<String>() {
+                            @Override
+                            public void ready(String nodeId) {
+                                onNodeReady(nodeId);
+                            }
+
+                            @Override
+                            public void failed(String reason) {
+                                LOGGER.error("Crate node did not start: {}", reason);
+                                fail(driver);
+                            }
+                        },
+                        READINESS_INITIAL_DELAY_MILLIS,
+                        READINESS_MAX_DELAY_MILLIS,
+                        info.startupTimeoutMillis()).start();
             } catch (IOException e) {
                 LOGGER.error("Failed to run command", e);
                 fail(driver);
@@ -339,7 +481,17 @@ public class CrateExecutor implements Executor {
         }
     }
 
+    private void sendLifecycle(ExecutorDriver driver) {
+        CrateMessage<MessageLifecycle> msg = new CrateMessage<>(CrateMessage.Type.MESSAGE_LIFECYCLE,
+                new MessageLifecycle(currentTaskId.getValue(), lifecycle));
+        driver.sendFrameworkMessage(msg.toStream());
+    }
+
     private void fail(ExecutorDriver driver) {
+        cancelReadinessProbeIfExists();
+        if (task != null && task.process != null) {
+            task.destroy();
+        }
         cancelHealthCheckIfExists();
         healthCheckScheduler.shutdown();
         sendTaskStatus(driver, TaskState.TASK_FAILED);
@@ -353,64 +505,124 @@ public class CrateExecutor implements Executor {
         stderrRedirect.start();
     }
 
-    private void onCrateClientResponse(SQLResponse response) {
+    private void onNodeReady(String nodeId) {
+        LOGGER.info("NODE ID = {}", nodeId);
+        this.nodeId = nodeId;
+        sendRunning(null);
+        cancelHealthCheckIfExists();
+        healthCheck = scheduleHealthCheck(driver, "localhost", task.executableInfo.httpPort());
+        if (task.executableInfo.telemetryIntervalMillis() > 0) {
+            telemetry = scheduleTelemetry(driver, healthCheck);
+        }
+    }
+
+    private void cancelReadinessProbeIfExists() {
+        if (readinessProbe != null) {
+            readinessProbe.cancel();
+        }
+    }
+
+    /**
+     * Sends a TASK_RUNNING update that carries the node id, which the
+     * scheduler expects in every update of a running task.
+     */
+    private void sendRunning(Boolean healthy) {
         TaskStatus.Builder status = TaskStatus.newBuilder()
                 .setTaskId(currentTaskId)
-                .setState(TaskState.TASK_RUNNING);
-        if (response != null) {
-            String nodeId = (String) response.rows()[0][0];
-            LOGGER.info("NODE ID = {}", nodeId);
-            status.setData(ByteString.copyFromUtf8(nodeId));
+                .setState(TaskState.TASK_RUNNING)
+                .setData(ByteString.copyFromUtf8(nodeId));
+        if (healthy != null) {
+            status.setHealthy(healthy);
         }
         driver.sendStatusUpdate(status.build());
-        cancelHealthCheckIfExists();
-        healthCheck = scheduleHealthCheck(driver, "localhost", task.executableInfo.httpPort());
     }
 
     private void cancelHealthCheckIfExists() {
-        if (healthCheck != null && (!healthCheck.isCancelled() || !healthCheck.isDone())) {
-            healthCheck.cancel(false);
+        if (healthCheck != null) {
+            healthCheck.close();
+            healthCheck = null;
+        }
+        if (telemetry != null) {
+            telemetry.cancel(false);
+            telemetry = null;
+        }
+        if (telemetryClient != null) {
+            telemetryClient.close();
+            telemetryClient = null;
         }
     }
 
-    public ScheduledFuture<?> scheduleHealthCheck(final ExecutorDriver driver, final String host, final Integer port) {
-        final Runnable checker = new Runnable() {
+    private ScheduledFuture<?> scheduleTelemetry(final ExecutorDriver driver, HealthChecker healthChecker) {
+        final CrateExecutableInfo info = task.executableInfo;
+        final SQLRequest heapRequest = new SQLRequest(HEAP_STATEMENT, new Object[] { info.nodeName() });
+        final TelemetryCollector collector = new TelemetryCollector(
+                currentTaskId.getValue(),
+                info.nodeName(),
+                new File("crate.pid"),
+                info.dataDir() == null ? workingDirectory : info.dataDir(),
+                healthChecker.latencies(),
+                new TelemetryCollector.HeapReader() {
+                    @Override
+                    public long[] heap() throws Exception {
+                        if (telemetryClient == null) {
+                            telemetryClient = new CrateClient(String.format("localhost:%s", info.transportPort()));
+                        }
+                        Object[] row = telemetryClient.sql(heapRequest).actionGet(READINESS_TIMEOUT_MILLIS).rows()[0];
+                        return new long[] { ((Number) row[0]).longValue(), ((Number) row[1]).longValue() };
+                    }
+                },
+                TELEMETRY_BATCH_SIZE);
+        long interval = info.telemetryIntervalMillis();
+        return healthCheckScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
             public void run() {
-                HttpClient client = HttpClientBuilder.create()
-                        .setDefaultRequestConfig(
-                                RequestConfig.custom()
-                                        .setConnectTimeout(5000) // 5s timeout
-                                        .build()
-                        ).build();
-                HttpGet request = new HttpGet("http://" + host + ":" + port);
                 try {
-                    HttpResponse response = client.execute(request);
-                    int statusCode = response.getStatusLine().getStatusCode();
-                    if(!(statusCode >= 200 || statusCode < 300)) {
-                        LOGGER.error("Health check failed: Crate returned status {}. Waiting ...", statusCode);
-                    } else {
-                        LOGGER.info("Health check: OK ({})", statusCode);
-                    }
-                } catch (IOException e) {
-                    LOGGER.error("Failed to perform health check:", e);
-                    int exitCode = -1;
-                    try {
-                        LOGGER.debug("Check if process already exited ...");
-                        exitCode = task.process.exitValue();
-                    } catch (IllegalThreadStateException ex) {
-                        LOGGER.warn("Health check failed, but process is still running. Kill it!");
-                        task.process.destroy();
-                        task.process = null;
-                        fail(driver);
-                    }
-                    if (exitCode >= 0) {
-                        LOGGER.error("Crate process exited with status {}. Restarting now ...", exitCode);
-                        restartCrate(driver);
+                    MessageTelemetry message = collector.sample();
+                    if (message != null) {
+                        driver.sendFrameworkMessage(
+                                new CrateMessage<>(CrateMessage.Type.MESSAGE_TELEMETRY, message).toStream());
                     }
+                } catch (RuntimeException e) {
+                    // an exception would cancel further samples
+                    LOGGER.warn("Could not collect telemetry", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public HealthChecker scheduleHealthCheck(final ExecutorDriver driver, final String host, final Integer port) {
+        CrateExecutableInfo info = task.executableInfo;
+        HealthChecker.Listener listener = new HealthChecker.Listener() {
+            @Override
+            public void healthChanged(boolean healthy) {
+                LOGGER.info("Crate node is {}", healthy ? "healthy" : "unhealthy");
+                sendRunning(healthy);
+            }
+
+            @Override
+            public void failed(int consecutiveFailures) {
+                LOGGER.error("Health check failed {} times in a row", consecutiveFailures);
+                int exitCode = -1;
+                try {
+                    LOGGER.debug("Check if process already exited ...");
+                    exitCode = task.process.exitValue();
+                } catch (IllegalThreadStateException ex) {
+                    LOGGER.warn("Health check failed, but process is still running. Kill it!");
+                    fail(driver);
+                }
+                if (exitCode >= 0) {
+                    LOGGER.error("Crate process exited with status {}. Restarting now ...", exitCode);
+                    restartCrate(driver);
                 }
             }
         };
-        return healthCheckScheduler.scheduleWithFixedDelay(checker, 10, 10, SECONDS);
+        return new HealthChecker(
+                healthCheckScheduler,
+                URI.create("http://" + host + ":" + port),
+                info.healthCheckIntervalMillis(),
+                info.healthCheckTimeoutMillis(),
+                info.healthCheckFailures(),
+                listener).start();
     }
 
     public class Task {
@@ -25,14 +25,24 @@ import java.io.Serializable;
 
 public class CrateInstance implements Serializable {
 
+    private static final long serialVersionUID = -4563677024880800638L;
+
     private final String taskId;
     private final String hostname;
     private final String version;
     private final int transportPort;
     private final String executorID;
     private final String slaveID;
-    private String nodeId;  // todo:  this is never read
+    private String nodeId;
     private State state;
+    // null in instances that were serialized before the lifecycle was tracked
+    private TaskLifecycle lifecycle;
+    // persistence id of the volume that holds the data, null without persistent volumes
+    private String volumeId;
+    private String nodeName;
+    private transient String connectionString;
+    // reported by the health checks of the executor, null if unknown
+    private transient Boolean healthy;
 
     public enum State implements Serializable {
         PENDING,
@@ -49,12 +59,17 @@ public class CrateInstance implements Serializable {
         this.slaveID = slaveID;
         nodeId = null;
         state = State.PENDING;
+        lifecycle = new TaskLifecycle();
     }
 
     public String taskId() {
         return taskId;
     }
 
+    public String nodeId() {
+        return nodeId;
+    }
+
     public void nodeId(String nodeId) {
         this.nodeId = nodeId;
     }
@@ -79,12 +94,49 @@ public class CrateInstance implements Serializable {
         return transportPort;
     }
 
+    public Boolean healthy() {
+        return healthy;
+    }
+
+    public void healthy(Boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    public TaskLifecycle lifecycle() {
+        if (lifecycle == null) {
+            lifecycle = new TaskLifecycle();
+        }
+        return lifecycle;
+    }
+
+    public String volumeId() {
+        return volumeId;
+    }
+
+    public void volumeId(String volumeId) {
+        this.volumeId = volumeId;
+    }
+
+    /**
+     * The name of the Crate node, which is set when the task is launched.
+     */
+    public String nodeName() {
+        return nodeName;
+    }
+
+    public void nodeName(String nodeName) {
+        this.nodeName = nodeName;
+    }
+
     public String executorID() { return executorID; }
 
     public String slaveID() { return slaveID; }
 
     public String connectionString() {
-        return String.format("%s:%d", hostname, transportPort);
+        if (connectionString == null) {
+            connectionString = hostname + ":" + transportPort;
+        }
+        return connectionString;
     }
 
     @Override
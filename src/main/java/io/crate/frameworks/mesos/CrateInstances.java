@@ -22,39 +22,69 @@
 package io.crate.frameworks.mesos;
 
 import com.google.common.base.Joiner;
-import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.*;
 
+/**
+ * The instances of the cluster in the order they were added.
+ *
+ * Instances are indexed by task id, host and state, and the unicast and
+ * connection host lists are cached until the instances change, so lookups
+ * during status updates and REST calls don't depend on the cluster size.
+ * The state of an instance must therefore only be changed using
+ * {@link #setToRunning(String, String)}.
+ */
 public class CrateInstances implements Serializable, Iterable<CrateInstance> {
 
-    private final ArrayList<CrateInstance> instances = new ArrayList<>();
-    private HashSet<String> hosts;
+    private static final long serialVersionUID = 777997697739678452L;
+
+    // keep the serialized form of previous versions which used an ArrayList of instances
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("instances", ArrayList.class),
+        new ObjectStreamField("hosts", HashSet.class)
+    };
+
+    private transient LinkedHashMap<String, CrateInstance> instances = new LinkedHashMap<>();
+    private transient HashMap<String, Integer> hostCounts = new HashMap<>();
+    private transient LinkedHashSet<CrateInstance> running = new LinkedHashSet<>();
+    private transient String unicastHosts = null;
+    private transient String[] connectionHosts = null;
 
     public int size() {
         return instances.size();
     }
 
     public boolean anyOnHost(final String hostname) {
-        return hosts().contains(hostname);
+        return hostCounts.containsKey(hostname);
     }
 
     public String unicastHosts() {
-        List<String> hosts = new ArrayList<>(instances.size());
-        for (CrateInstance instance : instances) {
-            hosts.add(instance.connectionString());
+        if (unicastHosts == null) {
+            List<String> hosts = new ArrayList<>(instances.size());
+            for (CrateInstance instance : instances.values()) {
+                hosts.add(instance.connectionString());
+            }
+            unicastHosts = Joiner.on(",").join(hosts);
         }
-        return Joiner.on(",").join(hosts);
+        return unicastHosts;
     }
 
     public String[] connectionHosts() {
-        List<String> hosts = new ArrayList<>();
-        for (CrateInstance instance : runningInstances()) {
-            hosts.add(instance.connectionString());
+        if (connectionHosts == null) {
+            List<String> hosts = new ArrayList<>(running.size());
+            for (CrateInstance instance : running) {
+                hosts.add(instance.connectionString());
+            }
+            connectionHosts = hosts.toArray(new String[hosts.size()]);
         }
-        return hosts.toArray(new String[hosts.size()]);
+        return connectionHosts.clone();
     }
 
     public static int calculateQuorum(int expectedNodes) {
@@ -62,69 +92,110 @@ public class CrateInstances implements Serializable, Iterable<CrateInstance> {
     }
 
     public Set<CrateInstance> runningInstances() {
-        HashSet<CrateInstance> running = new HashSet<>();
-        for (CrateInstance instance : instances) {
-            if (instance.state() == CrateInstance.State.RUNNING) {
-                running.add(instance);
-            }
-        }
-        return running;
+        return Collections.unmodifiableSet(running);
     }
 
     public Set<String> hosts() {
-        // TODO: probably just expose hosts as iterable and avoid the internal set...
-        if (hosts == null) {
-            hosts = new HashSet<>(instances.size());
-            for (CrateInstance instance : instances) {
-                hosts.add(instance.hostname());
-            }
-        }
-        return hosts;
+        return Collections.unmodifiableSet(hostCounts.keySet());
     }
 
     public void addInstance(CrateInstance crateInstance) {
-        instances.add(crateInstance);
-        if (hosts != null) {
-            hosts.add(crateInstance.hostname());
+        CrateInstance previous = instances.put(crateInstance.taskId(), crateInstance);
+        if (previous != null) {
+            unindex(previous);
+            unicastHosts = null;
         }
+        index(crateInstance);
+    }
+
+    /**
+     * Replaces the instance with the same task id or adds the instance if
+     * there is none.
+     */
+    public void putInstance(CrateInstance crateInstance) {
+        // LinkedHashMap keeps the position of a replaced instance
+        addInstance(crateInstance);
     }
 
     public void setToRunning(String taskId, String nodeId) {
-        for (CrateInstance instance : instances) {
-            if (instance.taskId().equals(taskId)) {
-                instance.state(CrateInstance.State.RUNNING);
-                instance.nodeId(nodeId);
+        CrateInstance instance = instances.get(taskId);
+        if (instance != null) {
+            instance.state(CrateInstance.State.RUNNING);
+            instance.nodeId(nodeId);
+            if (running.add(instance)) {
+                connectionHosts = null;
             }
         }
     }
 
     public void removeTask(String taskId) {
-        for (int i = instances.size() -1; i >= 0; i--) {
-            CrateInstance crateInstance = instances.get(i);
-            if (crateInstance.taskId().equals(taskId)) {
-                instances.remove(i);
-                if (hosts != null) {
-                    hosts.remove(crateInstance.hostname());
-                }
-            }
+        CrateInstance crateInstance = instances.remove(taskId);
+        if (crateInstance != null) {
+            unindex(crateInstance);
         }
     }
 
+    private void index(CrateInstance crateInstance) {
+        Integer count = hostCounts.get(crateInstance.hostname());
+        hostCounts.put(crateInstance.hostname(), count == null ? 1 : count + 1);
+        if (crateInstance.state() == CrateInstance.State.RUNNING) {
+            running.add(crateInstance);
+            connectionHosts = null;
+        }
+        if (unicastHosts != null) {
+            // new instances are appended, so the cached list can be extended
+            unicastHosts = unicastHosts.isEmpty() ?
+                    crateInstance.connectionString() :
+                    unicastHosts + "," + crateInstance.connectionString();
+        }
+    }
+
+    private void unindex(CrateInstance crateInstance) {
+        int count = hostCounts.get(crateInstance.hostname());
+        if (count == 1) {
+            hostCounts.remove(crateInstance.hostname());
+        } else {
+            hostCounts.put(crateInstance.hostname(), count - 1);
+        }
+        running.remove(crateInstance);
+        unicastHosts = null;
+        connectionHosts = null;
+    }
+
     @Override
     public Iterator<CrateInstance> iterator() {
-        return instances.iterator();
+        return Iterators.unmodifiableIterator(instances.values().iterator());
     }
 
     public CrateInstance get(int index) {
-        return instances.get(index);
+        return Iterables.get(instances.values(), index);
     }
 
+    /**
+     * Returns the instance with the given task id or null if there is none.
+     */
     public CrateInstance byTaskId(final String taskId) {
-        return Iterables.find(this, new Predicate<CrateInstance>() {
-            @Override
-            public boolean apply(CrateInstance input) {
-                return input.taskId().equals(taskId);
+        return instances.get(taskId);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("instances", new ArrayList<>(instances.values()));
+        fields.put("hosts", null);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        instances = new LinkedHashMap<>();
+        hostCounts = new HashMap<>();
+        running = new LinkedHashSet<>();
+        ArrayList<CrateInstance> serialized = (ArrayList<CrateInstance>) fields.get("instances", null);
+        if (serialized != null) {
+            for (CrateInstance instance : serialized) {
+                addInstance(instance);
             }
-        });
+        }
     }
 }
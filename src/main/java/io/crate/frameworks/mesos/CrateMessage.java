@@ -48,7 +48,10 @@ public final class CrateMessage<T extends Serializable> implements Serializable
 
     public enum Type {
         MESSAGE_MISSING_RESOURCE,
-        MESSAGE_CLUSTER_SHUTDOWN
+        MESSAGE_CLUSTER_SHUTDOWN,
+        MESSAGE_TELEMETRY,
+        MESSAGE_LIFECYCLE,
+        MESSAGE_PREFETCH
     }
 
     @SuppressWarnings("unchecked")
@@ -21,24 +21,34 @@
 
 package io.crate.frameworks.mesos;
 
+import com.google.common.base.Objects;
 import com.google.protobuf.ByteString;
 import io.crate.action.sql.SQLActionException;
 import io.crate.action.sql.SQLRequest;
 import io.crate.client.CrateClient;
+import io.crate.frameworks.mesos.allocation.InstanceDrainer;
 import io.crate.frameworks.mesos.api.CrateHttpService;
 import io.crate.frameworks.mesos.config.Configuration;
-import io.crate.frameworks.mesos.config.Resources;
+import io.crate.frameworks.mesos.metrics.MetricsRegistry;
+import io.crate.frameworks.mesos.metrics.SchedulerMetrics;
+import io.crate.frameworks.mesos.relaunch.StickyRelaunch;
+import io.crate.frameworks.mesos.staging.Prestager;
+import io.crate.frameworks.mesos.volume.PersistentVolumes;
 import io.crate.shade.org.elasticsearch.client.transport.NoNodeAvailableException;
 import org.apache.mesos.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static io.crate.frameworks.mesos.SaneProtos.taskID;
@@ -84,7 +94,9 @@ public class CrateScheduler implements Scheduler {
         @Override
         public void run() {
             LOGGER.debug("Remove {} from list of excluded slaves", slaveId);
-            stateStore.state().removeSlaveIdFromExcludeList(reason, slaveId);
+            synchronized (stateStore) {
+                stateStore.state().removeSlaveIdFromExcludeList(reason, slaveId);
+            }
         }
     }
 
@@ -107,88 +119,289 @@ public class CrateScheduler implements Scheduler {
         }
     }
 
+    /**
+     * A launch that is only sent to Mesos once the new instance is persisted.
+     */
+    private static class PendingLaunch {
+
+        private final CrateInstance instance;
+        private final LostInstance lost;
+        private final boolean staged;
+
+        PendingLaunch(CrateInstance instance, @Nullable LostInstance lost, boolean staged) {
+            this.instance = instance;
+            this.lost = lost;
+            this.staged = staged;
+        }
+    }
+
     private static final Logger LOGGER = LoggerFactory.getLogger(CrateScheduler.class);
 
+    /**
+     * How long the offers are held while the new instances are persisted.
+     */
+    static final long SAVE_TIMEOUT_MILLIS = 10_000L;
+
     private final PersistentStateStore stateStore;
     private final Configuration configuration;
+    private final TelemetryStore telemetry;
+    private final SchedulerMetrics metrics;
+    private final InstanceDrainer drainer;
+    private final Prestager prestager;
+    private final PersistentVolumes volumes;
+    private final StickyRelaunch sticky;
 
     private InstancesObserver instancesObserver = new InstancesObserver(null);
     private CrateInstances crateInstances;
     ArrayList<Protos.TaskStatus> reconcileTasks = new ArrayList<>();
 
+    /**
+     * Collects the optional collaborators of the scheduler; any that is not
+     * set is left out or replaced by a default.
+     */
+    public static class Builder {
+
+        private final PersistentStateStore store;
+        private final Configuration configuration;
+        private TelemetryStore telemetry = new TelemetryStore();
+        private SchedulerMetrics metrics;
+        private InstanceDrainer drainer;
+        private Prestager prestager;
+        private PersistentVolumes volumes;
+        private StickyRelaunch sticky;
+
+        private Builder(PersistentStateStore store, Configuration configuration) {
+            this.store = store;
+            this.configuration = configuration;
+        }
+
+        public Builder telemetry(TelemetryStore telemetry) {
+            this.telemetry = telemetry;
+            return this;
+        }
+
+        public Builder metrics(SchedulerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param drainer drains instances before they are killed when the cluster
+         *                is scaled down, if null they are killed right away
+         */
+        public Builder drainer(@Nullable InstanceDrainer drainer) {
+            this.drainer = drainer;
+            return this;
+        }
+
+        /**
+         * @param prestager decides which agents stage the Crate tarball with offers
+         *                  that are not used otherwise, if null nothing is staged
+         */
+        public Builder prestager(@Nullable Prestager prestager) {
+            this.prestager = prestager;
+            return this;
+        }
+
+        /**
+         * @param volumes keeps the data of the instances on persistent volumes,
+         *                if null the data is kept in the sandbox or the data path
+         */
+        public Builder volumes(@Nullable PersistentVolumes volumes) {
+            this.volumes = volumes;
+            return this;
+        }
+
+        /**
+         * @param sticky relaunches lost instances on their agent, if null
+         *               instances are relaunched on any agent
+         */
+        public Builder sticky(@Nullable StickyRelaunch sticky) {
+            this.sticky = sticky;
+            return this;
+        }
+
+        public CrateScheduler build() {
+            return new CrateScheduler(this);
+        }
+    }
+
+    public static Builder builder(PersistentStateStore store, Configuration configuration) {
+        return new Builder(store, configuration);
+    }
+
     public CrateScheduler(PersistentStateStore store, Configuration configuration) {
-        this.stateStore = store;
-        this.configuration = configuration;
+        this(builder(store, configuration));
+    }
+
+    private CrateScheduler(Builder builder) {
+        this.stateStore = builder.store;
+        this.configuration = builder.configuration;
+        this.telemetry = builder.telemetry;
+        this.metrics = builder.metrics == null ? new SchedulerMetrics(new MetricsRegistry()) : builder.metrics;
+        this.drainer = builder.drainer;
+        this.prestager = builder.prestager;
+        this.volumes = builder.volumes;
+        this.sticky = builder.sticky;
     }
 
     @Override
     public void registered(SchedulerDriver driver, Protos.FrameworkID frameworkID, Protos.MasterInfo masterInfo) {
-        String[] version = MesosNativeLibrary.VERSION.split("\\.", -1);
-        int major = Integer.parseInt(version[0]);
-        int minor = Integer.parseInt(version[1]);
-        if (major == 0 && minor < 21) {
-            // There is already a JIRA ticket for proper version validation.
-            // todo: improve version validation once available
-            LOGGER.error("Crate Framework requires MesosNativeLibrary >= 0.21.0, version is {}. Shutting down driver!",
-                    MesosNativeLibrary.VERSION);
-            driver.stop();
-        }
-        LOGGER.info("Registered framework with frameworkId {}", frameworkID.getValue());
-        hostIP = Main.host();
-        CrateState state = stateStore.state();
-        assert stateStore.state() != null : "State must not be null";
-        state.frameworkId(frameworkID.getValue());
-        stateStore.save();
-        crateInstances = state.crateInstances();
-
-        instancesObserver.driver(driver);
-        state.desiredInstances().clearObservers();
-        state.desiredInstances(configuration.nodeCount);
-        state.desiredInstances().addObserver(instancesObserver);
-        reconcileTasks(driver);
-        for (String reason : state.excludedSlaves().keySet()) {
-            for (String slaveId : state.excludedSlaveIds(reason)) {
-                scheduleReAddSlaveId(reason, slaveId);
+        synchronized (stateStore) {
+            String[] version = MesosNativeLibrary.VERSION.split("\\.", -1);
+            int major = Integer.parseInt(version[0]);
+            int minor = Integer.parseInt(version[1]);
+            if (major == 0 && minor < 21) {
+                // There is already a JIRA ticket for proper version validation.
+                // todo: improve version validation once available
+                LOGGER.error("Crate Framework requires MesosNativeLibrary >= 0.21.0, version is {}. Shutting down driver!",
+                        MesosNativeLibrary.VERSION);
+                driver.stop();
             }
+            LOGGER.info("Registered framework with frameworkId {}", frameworkID.getValue());
+            hostIP = Main.host();
+            CrateState state = stateStore.state();
+            assert stateStore.state() != null : "State must not be null";
+            state.frameworkId(frameworkID.getValue());
+            stateStore.save();
+            crateInstances = state.crateInstances();
+
+            instancesObserver.driver(driver);
+            state.desiredInstances().clearObservers();
+            state.desiredInstances(configuration.nodeCount);
+            state.desiredInstances().addObserver(instancesObserver);
+            reconcileTasks(driver);
+            for (String reason : state.excludedSlaves().keySet()) {
+                for (String slaveId : state.excludedSlaveIds(reason)) {
+                    scheduleReAddSlaveId(reason, slaveId);
+                }
 
+            }
         }
     }
 
     @Override
     public void reregistered(SchedulerDriver driver, Protos.MasterInfo masterInfo) {
-        LOGGER.info("Reregistered framework. Starting task reconciliation.");
-        hostIP = Main.host();
-        CrateState state = stateStore.state();
-        assert stateStore.state() != null : "State must not be null";
-        crateInstances = state.crateInstances();
-        instancesObserver.driver(driver);
-        state.desiredInstances().clearObservers();
-        state.desiredInstances().addObserver(instancesObserver);
-        reconcileTasks(driver);
+        synchronized (stateStore) {
+            LOGGER.info("Reregistered framework. Starting task reconciliation.");
+            hostIP = Main.host();
+            CrateState state = stateStore.state();
+            assert stateStore.state() != null : "State must not be null";
+            crateInstances = state.crateInstances();
+            instancesObserver.driver(driver);
+            state.desiredInstances().clearObservers();
+            state.desiredInstances().addObserver(instancesObserver);
+            reconcileTasks(driver);
+        }
     }
 
     @Override
     public void resourceOffers(SchedulerDriver driver, List<Protos.Offer> offers) {
+        LaunchBatch batch = new LaunchBatch();
+        List<PendingLaunch> pending = new ArrayList<>();
+        Future<Void> saved;
+        synchronized (stateStore) {
+            saved = evaluateOffers(driver, offers, batch, pending);
+        }
+        if (saved == null || batch.size() == 0) {
+            return;
+        }
+        // the lock is not held while waiting, the background components would be blocked by the write
+        boolean persisted = awaitSave(saved);
+        synchronized (stateStore) {
+            if (!persisted) {
+                rollback(stateStore.state(), pending);
+                metrics.offersDeclined(batch.decline(driver));
+                return;
+            }
+            for (PendingLaunch launch : pending) {
+                metrics.launched(launch.instance.taskId(), launch.staged);
+                if (sticky != null) {
+                    sticky.launched(launch.instance.taskId(), launch.lost);
+                }
+            }
+            Protos.Filters filters = Protos.Filters.newBuilder().setRefuseSeconds(1).build();
+            metrics.offersUsed(batch.accept(driver, filters));
+        }
+    }
+
+    /**
+     * Adds the instances that are launched with the offers to the state and
+     * their launches to the batch, declining or staging the other offers.
+     *
+     * @return the save of the new instances or null if there is nothing to launch
+     */
+    @Nullable
+    private Future<Void> evaluateOffers(SchedulerDriver driver,
+                                        List<Protos.Offer> offers,
+                                        LaunchBatch batch,
+                                        List<PendingLaunch> pending) {
+        metrics.offersReceived(offers.size());
         if (!reconcileTasks.isEmpty()) {
             LOGGER.info("reconcileTasks size={}", reconcileTasks.size());
             declineAllOffers(driver, offers);
-            return;
+            return null;
         }
         CrateState state = stateStore.state();
         int required = state.missingInstances();
         if (required <= 0) {
-            declineAllOffers(driver, offers);
+            if (prestager == null) {
+                declineAllOffers(driver, offers);
+                return null;
+            }
+            boolean staged = false;
+            for (Protos.Offer offer : offers) {
+                staged |= stageOrDecline(driver, offer, state);
+            }
+            if (staged) {
+                stateStore.save();
+            }
         } else {
+            long startNanos = System.nanoTime();
+            OfferEvaluator evaluator = new OfferEvaluator(configuration, state, volumes);
+            List<Protos.Offer> ordered = batch.merge(offers);
+            if (volumes != null) {
+                ordered = volumes.volumesFirst(ordered);
+            }
+            if (sticky != null) {
+                sticky.expire(state, System.currentTimeMillis());
+                ordered = sticky.lostFirst(state, ordered);
+            }
             int launched = 0;
-            for (Protos.Offer offer : offers) {
-                if (launched == required || !slaveWithRunningInstance(offer.getSlaveId().getValue())) {
-                    driver.declineOffer(offer.getId());
+            for (Protos.Offer offer : ordered) {
+                if (launched == required) {
+                    stageOrDecline(driver, batch.originals(offer), state);
                     continue;
                 }
-                CrateExecutableInfo crateInfo = obtainExecInfo(offer, offer.getAttributesList());
-                if (crateInfo == null) {
-                    driver.declineOffer(offer.getId());
+                OfferEvaluator.Decision decision = evaluator.evaluate(offer);
+                if (decision == OfferEvaluator.Decision.NOT_PREFERRED) {
+                    stageOrDecline(driver, batch.originals(offer), state);
+                    continue;
+                }
+                if (decision != OfferEvaluator.Decision.ACCEPT) {
+                    LOGGER.debug("can't use offer {} from {}: {}", offer.getId().getValue(), offer.getHostname(), decision);
+                    stageOrDecline(driver, batch.originals(offer), state);
+                } else if (sticky != null && !state.lostInstances().containsKey(offer.getSlaveId().getValue())
+                           && launched + sticky.pending(state) >= required) {
+                    LOGGER.debug("keep offer {} from {}: waiting for the agents of lost instances",
+                            offer.getId().getValue(), offer.getHostname());
+                    stageOrDecline(driver, batch.originals(offer), state);
                 } else {
+                    evaluator.accepted(offer);
+                    LostInstance lost = sticky == null ? null : sticky.claim(state, offer);
+                    final String version = launchVersion(state);
+                    CrateExecutableInfo crateInfo = obtainExecInfo(offer, offer.getAttributesList(), version);
+                    if (lost != null) {
+                        crateInfo.nodeName(lost.nodeName());
+                    }
+                    String volumeId = null;
+                    if (volumes != null) {
+                        volumeId = volumes.volumeId(offer);
+                        if (volumeId == null) {
+                            volumeId = volumes.newVolumeId();
+                        }
+                        crateInfo.volumePath(PersistentVolumes.CONTAINER_PATH);
+                    }
                     Protos.TaskID taskId = taskID(UUID.randomUUID().toString());
                     Protos.TaskInfo taskInfo = Protos.TaskInfo.newBuilder()
                             .setName(configuration.clusterName)
@@ -196,35 +409,81 @@ public class CrateScheduler implements Scheduler {
                             .setData(ByteString.copyFrom(crateInfo.toStream()))
                             .setExecutor(createExecutor())
                             .setSlaveId(offer.getSlaveId())
-                            .addAllResources(configuration.getAllRequiredResources())
+                            .addAllResources(volumeId == null ?
+                                    configuration.getAllRequiredResources() :
+                                    volumes.taskResources(offer, volumeId))
                             .build();
 
-                    final String version = crateInstances.size() > 0 ? crateInstances.get(0).version() : configuration.version;
-                    crateInstances.addInstance(new CrateInstance(
+                    CrateInstance instance = new CrateInstance(
                             offer.getHostname(),
                             taskId.getValue(),
                             version,
                             configuration.transportPort,
                             taskInfo.getExecutor().getExecutorId().getValue(),
                             taskInfo.getSlaveId().getValue()
-                    ));
+                    );
+                    instance.volumeId(volumeId);
+                    instance.nodeName(crateInfo.nodeName());
+                    instance.lifecycle().reached(TaskLifecycle.Phase.OFFER_ACCEPTED, System.currentTimeMillis());
+                    crateInstances.addInstance(instance);
                     state.instances(crateInstances);
 
-                    Protos.Filters filters = Protos.Filters.newBuilder().setRefuseSeconds(1).build();
-                    driver.launchTasks(asList(offer.getId()), asList(taskInfo), filters);
+                    List<Protos.Offer.Operation> operations = new ArrayList<>(2);
+                    if (volumeId != null) {
+                        LOGGER.info("Launch task {} on {} with volume {}", taskId.getValue(), offer.getHostname(), volumeId);
+                        operations.addAll(volumes.prepare(offer, volumeId));
+                    }
+                    operations.add(Protos.Offer.Operation.newBuilder()
+                            .setType(Protos.Offer.Operation.Type.LAUNCH)
+                            .setLaunch(Protos.Offer.Operation.Launch.newBuilder().addTaskInfos(taskInfo))
+                            .build());
+                    batch.launch(offer, operations);
+                    pending.add(new PendingLaunch(instance, lost,
+                            Prestager.staged(state, offer.getSlaveId().getValue(), version)));
                     launched++;
                 }
                 stateStore.state().slavesWithInstances().remove(offer.getSlaveId().getValue());
             }
-            stateStore.save();
+            long evaluationNanos = System.nanoTime() - startNanos;
+            metrics.offerBatchEvaluated(evaluationNanos);
+            LOGGER.debug("Evaluated {} of {} offers in {}us, launched {} tasks",
+                    evaluator.evaluated(), offers.size(), TimeUnit.NANOSECONDS.toMicros(evaluationNanos), launched);
+            // persist the new instances before they are launched
+            return stateStore.save();
         }
-
+        return null;
     }
 
-    private boolean slaveWithRunningInstance(String slaveId) {
-        return stateStore.state().slavesWithInstances().isEmpty() ||
-                stateStore.state().slavesWithInstances().contains(slaveId);
+    private boolean awaitSave(Future<Void> saved) {
+        try {
+            saved.get(SAVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted while saving the new instances, the offers are declined");
+        } catch (ExecutionException e) {
+            LOGGER.error("Couldn't save the new instances, the offers are declined", e.getCause());
+        } catch (TimeoutException e) {
+            LOGGER.error("Saving the new instances took longer than {}ms, the offers are declined",
+                    SAVE_TIMEOUT_MILLIS);
+        }
+        return false;
+    }
 
+    /**
+     * Removes the instances that couldn't be persisted, so they are launched
+     * with later offers, and gives lost instances back their agent.
+     */
+    private void rollback(CrateState state, List<PendingLaunch> pending) {
+        for (PendingLaunch launch : pending) {
+            crateInstances.removeTask(launch.instance.taskId());
+            if (launch.lost != null) {
+                state.lostInstances().put(launch.lost.slaveId(), launch.lost);
+            }
+        }
+        state.instances(crateInstances);
+        // overwrite the state in case the failed write completes after all
+        stateStore.save();
     }
 
     @NotNull
@@ -239,6 +498,8 @@ public class CrateScheduler implements Scheduler {
                         Protos.CommandInfo.URI.newBuilder()
                                 .setValue(Main.JAVA_URL)
                                 .setExtract(true)
+                                // the JRE never changes for a given URL, let the Mesos fetcher cache it
+                                .setCache(true)
                                 .build()
                 ))
                 .setValue(
@@ -256,41 +517,99 @@ public class CrateScheduler implements Scheduler {
                 .build();
     }
 
-    private CrateExecutableInfo obtainExecInfo(Protos.Offer offer, List<Protos.Attribute> attributes) {
-        if (crateInstances.anyOnHost(offer.getHostname())) {
-            LOGGER.debug("got already an instance on {}, rejecting offer {}", offer.getHostname(), offer.getId().getValue());
-            return null;
-        }
-        if (!Resources.matches(offer.getResourcesList(), configuration)) {
-            LOGGER.debug("can't use offer {}; not enough resources", offer.getId().getValue());
-            return null;
-        }
-        if (offer.hasSlaveId() && stateStore.state().excludedSlaveIds().contains(offer.getSlaveId().getValue())) {
-            LOGGER.debug("can't use offer {}; slaveId {} is blacklisted", offer.getId().getValue(), offer.getSlaveId().getValue());
-            return null;
+    private CrateExecutableInfo obtainExecInfo(Protos.Offer offer, List<Protos.Attribute> attributes, String version) {
+        Upgrade upgrade = stateStore.state().upgrade();
+        String checksum;
+        if (upgrade != null) {
+            checksum = upgrade.targetChecksum();
+        } else {
+            checksum = Objects.equal(version, configuration.version) ? configuration.checksum : null;
         }
         return new CrateExecutableInfo(
                 configuration,
                 offer.getHostname(),
                 crateInstances,
                 attributes,
-                stateStore.state().desiredInstances().getValue()
+                stateStore.state().desiredInstances().getValue(),
+                version,
+                checksum
         );
     }
 
+    /**
+     * New instances run the target version of an upgrade that is in
+     * progress, otherwise the version of the running cluster.
+     */
+    private String launchVersion(CrateState state) {
+        if (state.upgrade() != null) {
+            return state.upgrade().targetVersion();
+        }
+        return crateInstances.size() > 0 ? crateInstances.get(0).version() : configuration.version;
+    }
+
+    /**
+     * Launches a staging task with an offer that isn't used to launch an
+     * instance if the prestager wants to stage its agent, otherwise the offer
+     * is declined.
+     *
+     * @return true if the offer was used
+     */
+    private boolean stageOrDecline(SchedulerDriver driver, Protos.Offer offer, CrateState state) {
+        long now = System.currentTimeMillis();
+        String version = launchVersion(state);
+        if (prestager == null || !prestager.shouldStage(state, offer, version, now)) {
+            declineOffer(driver, offer);
+            return false;
+        }
+        CrateExecutableInfo crateInfo = obtainExecInfo(offer, offer.getAttributesList(), version);
+        crateInfo.staging(true);
+        Protos.TaskID taskId = taskID(Prestager.TASK_ID_PREFIX + UUID.randomUUID().toString());
+        Protos.TaskInfo taskInfo = Protos.TaskInfo.newBuilder()
+                .setName(configuration.clusterName + "-prestage")
+                .setTaskId(taskId)
+                .setData(ByteString.copyFrom(crateInfo.toStream()))
+                .setExecutor(createExecutor())
+                .setSlaveId(offer.getSlaveId())
+                .addAllResources(Prestager.resources())
+                .build();
+        prestager.staging(state, offer, version, taskId.getValue(), now);
+        Protos.Filters filters = Protos.Filters.newBuilder().setRefuseSeconds(1).build();
+        driver.launchTasks(asList(offer.getId()), asList(taskInfo), filters);
+        metrics.offerStaged();
+        return true;
+    }
+
+    private void stageOrDecline(SchedulerDriver driver, List<Protos.Offer> offers, CrateState state) {
+        for (Protos.Offer offer : offers) {
+            stageOrDecline(driver, offer, state);
+        }
+    }
+
     private void declineAllOffers(SchedulerDriver driver, List<Protos.Offer> offers) {
         for (Protos.Offer offer : offers) {
             driver.declineOffer(offer.getId());
         }
+        metrics.offersDeclined(offers.size());
+    }
+
+    private void declineOffer(SchedulerDriver driver, Protos.Offer offer) {
+        driver.declineOffer(offer.getId());
+        metrics.offerDeclined();
     }
 
     private void killInstances(SchedulerDriver driver, int toKill) {
         if (toKill == 0) return;
         if (toKill == crateInstances.size()) {
+            // the whole cluster is shut down, there is nowhere to move the shards to
+            if (drainer != null) {
+                drainer.scaleDown();
+            }
             markForceShutdown(driver);
+        } else if (drainer != null) {
+            drainer.scaleDown();
+            return;
         }
         int killed = 0;
-        // TODO: need to check cluster state to make sure cluster has enough time to re-balance between kills
         LOGGER.debug("Too many instances running. Killing {} tasks", toKill);
         for (CrateInstance crateInstance : crateInstances) {
             if (killed == toKill) {
@@ -320,65 +639,130 @@ public class CrateScheduler implements Scheduler {
 
     @Override
     public void statusUpdate(SchedulerDriver driver, Protos.TaskStatus taskStatus) {
-        final String taskId = taskStatus.getTaskId().getValue();
-        LOGGER.info("statusUpdate() {}", taskStatus.getMessage());
-        LOGGER.debug("{} {}", taskStatus.getState(), taskId);
+        synchronized (stateStore) {
+            final String taskId = taskStatus.getTaskId().getValue();
+            LOGGER.info("statusUpdate() {}", taskStatus.getMessage());
+            LOGGER.debug("{} {}", taskStatus.getState(), taskId);
+            metrics.statusUpdate(taskId, taskStatus.getState());
+            if (prestager != null && prestager.statusUpdate(stateStore.state(), taskStatus, System.currentTimeMillis())) {
+                stateStore.save();
+                return;
+            }
 
-        if (!reconcileTasks.isEmpty()) {
-            for (int i = reconcileTasks.size()-1; i >= 0; i--) {
-                if (reconcileTasks.get(i).getTaskId().getValue().equals(taskId)) {
-                    LOGGER.debug("remove reconcile task: {}", i, reconcileTasks.get(i));
-                    reconcileTasks.remove(i);
+            if (!reconcileTasks.isEmpty()) {
+                for (int i = reconcileTasks.size()-1; i >= 0; i--) {
+                    if (reconcileTasks.get(i).getTaskId().getValue().equals(taskId)) {
+                        LOGGER.debug("remove reconcile task: {}", i, reconcileTasks.get(i));
+                        reconcileTasks.remove(i);
+                        if (reconcileTasks.isEmpty()) {
+                            metrics.reconciliationFinished();
+                        }
 
-                    if (taskStatus.getState() != Protos.TaskState.TASK_LOST) {
-                        CrateInstance instance = crateInstances.byTaskId(taskId);
-                        if (instance == null) {
-                            LOGGER.error("Got a task for an instance that isn't tracked. HELP :(");
-                        } else if (!instance.version().equals(configuration.version)) {
-                            LOGGER.warn("Running instance has version {}, Configured is {}. " +
-                                    "If you are not upgrading your cluster, make sure you configured your framework correctly!", instance.version(), configuration.version);
+                        if (taskStatus.getState() != Protos.TaskState.TASK_LOST) {
+                            CrateInstance instance = crateInstances.byTaskId(taskId);
+                            if (instance == null) {
+                                LOGGER.error("Got a task for an instance that isn't tracked. HELP :(");
+                            } else if (!instance.version().equals(configuration.version) && stateStore.state().upgrade() == null) {
+                                LOGGER.warn("Running instance has version {}, Configured is {}. " +
+                                        "Use /cluster/upgrade to upgrade the cluster, otherwise make sure you configured your framework correctly!", instance.version(), configuration.version);
+                            }
                         }
                     }
                 }
+                driver.reviveOffers();
+            }
+
+            switch (taskStatus.getState()) {
+                case TASK_RUNNING:
+                    LOGGER.debug("update state to running ...");
+                    crateInstances.setToRunning(taskId, taskStatus.getData().toStringUtf8());
+                    phaseReached(taskStatus, TaskLifecycle.Phase.RUNNING);
+                    if (taskStatus.hasHealthy()) {
+                        updateHealth(taskId, taskStatus.getHealthy());
+                        if (taskStatus.getHealthy()) {
+                            phaseReached(taskStatus, TaskLifecycle.Phase.HEALTHY);
+                        }
+                    }
+                    retryTasks.remove(taskStatus.getSlaveId().getValue());
+                    stateStore.state().removeSlaveIdFromExcludeList(taskStatus.getSlaveId().getValue());
+                    if (sticky != null) {
+                        sticky.running(taskId);
+                    }
+                    break;
+                case TASK_STARTING:
+                    phaseReached(taskStatus, TaskLifecycle.Phase.STARTING);
+                    // Crate node is about to start.
+                    LOGGER.debug("Waiting for new node to start ...");
+                    break;
+                case TASK_STAGING:
+                    // Crate node is about to start.
+                    LOGGER.debug("Waiting for new node to start ...");
+                    break;
+                case TASK_KILLING:
+                    // Crate node is about to be killed.
+                    LOGGER.debug("Waiting for node to stop ...");
+                    break;
+                case TASK_LOST:
+                case TASK_FAILED:
+                case TASK_KILLED:
+                case TASK_FINISHED:
+                case TASK_ERROR:
+                    LOGGER.debug("remove task ...");
+                    if (sticky != null) {
+                        CrateInstance instance = crateInstances.byTaskId(taskId);
+                        // instances that are removed on scale down are not relaunched
+                        if (instance != null && (drainer == null || !drainer.draining().contains(taskId))) {
+                            sticky.lost(stateStore.state(), instance, System.currentTimeMillis());
+                        }
+                        sticky.terminated(taskId);
+                    }
+                    crateInstances.removeTask(taskId);
+                    telemetry.remove(taskId);
+                    break;
+                default:
+                    LOGGER.warn("invalid state");
+                    break;
             }
-            driver.reviveOffers();
+
+            stateStore.state().instances(crateInstances);
+            stateStore.save();
         }
+    }
 
-        switch (taskStatus.getState()) {
-            case TASK_RUNNING:
-                LOGGER.debug("update state to running ...");
-                crateInstances.setToRunning(taskId, taskStatus.getData().toStringUtf8());
-                retryTasks.remove(taskStatus.getSlaveId().getValue());
-                stateStore.state().removeSlaveIdFromExcludeList(taskStatus.getSlaveId().getValue());
-                break;
-            case TASK_STAGING:
-            case TASK_STARTING:
-                // Crate node is about to start.
-                LOGGER.debug("Waiting for new node to start ...");
-                break;
-            case TASK_KILLING:
-                // Crate node is about to be killed.
-                LOGGER.debug("Waiting for node to stop ...");
-                break;
-            case TASK_LOST:
-            case TASK_FAILED:
-            case TASK_KILLED:
-            case TASK_FINISHED:
-            case TASK_ERROR:
-                LOGGER.debug("remove task ...");
-                crateInstances.removeTask(taskId);
-                break;
-            default:
-                LOGGER.warn("invalid state");
-                break;
+    /**
+     * Records the phase of the task with the time of the status update, which
+     * is set by the executor driver on the agent.
+     */
+    private void phaseReached(Protos.TaskStatus taskStatus, TaskLifecycle.Phase phase) {
+        CrateInstance instance = crateInstances.byTaskId(taskStatus.getTaskId().getValue());
+        if (instance != null) {
+            long timestamp = taskStatus.hasTimestamp() ?
+                    (long) (taskStatus.getTimestamp() * 1000) : System.currentTimeMillis();
+            instance.lifecycle().reached(phase, timestamp);
         }
+    }
 
-        stateStore.state().instances(crateInstances);
-        stateStore.save();
+    private void updateHealth(String taskId, boolean healthy) {
+        CrateInstance instance = crateInstances.byTaskId(taskId);
+        if (instance == null) {
+            return;
+        }
+        if (!Boolean.valueOf(healthy).equals(instance.healthy())) {
+            if (healthy) {
+                LOGGER.info("Task {} on {} is healthy", taskId, instance.hostname());
+            } else {
+                LOGGER.warn("Task {} on {} is unhealthy", taskId, instance.hostname());
+            }
+        }
+        instance.healthy(healthy);
     }
 
     private void resizeCluster(SchedulerDriver driver) {
         int instancesMissing = stateStore.state().missingInstances();
+        if (instancesMissing >= 0 && drainer != null) {
+            // stop draining instances that are not killed yet
+            drainer.scaleDown();
+        }
         if (instancesMissing != 0) {
             LOGGER.debug("Resize cluster. {} missing instances.", instancesMissing);
             if (instancesMissing > 0) {
@@ -407,24 +791,41 @@ public class CrateScheduler implements Scheduler {
 
     @Override
     public void frameworkMessage(SchedulerDriver driver, Protos.ExecutorID executorID, Protos.SlaveID slaveID, byte[] bytes) {
-        LOGGER.info("Received framework message from executor {} on slave {}", executorID.getValue(), slaveID.getValue());
-        CrateMessage data;
-        try {
-            data = CrateMessage.fromStream(bytes);
-        } catch (IOException e) {
-            LOGGER.error("Failed to read message from stream.", e);
-            return;
-        }
-        switch (data.type()) {
-            case MESSAGE_MISSING_RESOURCE:
-                MessageMissingResource.Reason reason = ((MessageMissingResource) data.data()).reason();
-                LOGGER.info("Remove bad host from offers: {} Reason: {}", slaveID.getValue(), reason.toString());
-                stateStore.state().addSlaveIdToExcludeList(reason.toString(), slaveID.getValue());
-                stateStore.save();
-                scheduleReAddSlaveId(reason.toString(), slaveID.getValue());
-                break;
-            default:
-                LOGGER.info("Switched on none cased data type: {}", data.type());
+        synchronized (stateStore) {
+            LOGGER.info("Received framework message from executor {} on slave {}", executorID.getValue(), slaveID.getValue());
+            CrateMessage data;
+            try {
+                data = CrateMessage.fromStream(bytes);
+            } catch (IOException e) {
+                LOGGER.error("Failed to read message from stream.", e);
+                return;
+            }
+            switch (data.type()) {
+                case MESSAGE_MISSING_RESOURCE:
+                    MessageMissingResource.Reason reason = ((MessageMissingResource) data.data()).reason();
+                    LOGGER.info("Remove bad host from offers: {} Reason: {}", slaveID.getValue(), reason.toString());
+                    stateStore.state().addSlaveIdToExcludeList(reason.toString(), slaveID.getValue());
+                    stateStore.save();
+                    scheduleReAddSlaveId(reason.toString(), slaveID.getValue());
+                    break;
+                case MESSAGE_TELEMETRY:
+                    MessageTelemetry message = (MessageTelemetry) data.data();
+                    if (crateInstances.byTaskId(message.taskId()) != null) {
+                        telemetry.add(message);
+                    } else {
+                        LOGGER.debug("Ignoring telemetry of unknown task {}", message.taskId());
+                    }
+                    break;
+                case MESSAGE_LIFECYCLE:
+                    MessageLifecycle lifecycle = (MessageLifecycle) data.data();
+                    CrateInstance instance = crateInstances.byTaskId(lifecycle.taskId());
+                    if (instance != null && instance.lifecycle().merge(lifecycle.lifecycle())) {
+                        stateStore.save();
+                    }
+                    break;
+                default:
+                    LOGGER.info("Switched on none cased data type: {}", data.type());
+            }
         }
     }
 
@@ -479,6 +880,7 @@ public class CrateScheduler implements Scheduler {
                 builder.setTaskId(taskID(instance.taskId()));
                 reconcileTasks.add(builder.build());
             }
+            metrics.reconciliationStarted();
             driver.reconcileTasks(reconcileTasks);
         }
     }
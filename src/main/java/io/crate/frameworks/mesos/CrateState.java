@@ -37,16 +37,27 @@ public class CrateState implements Serializable {
     private CrateInstances crateInstances = new CrateInstances();
     private HashMap<String, List<String>> excludedSlaves = new HashMap<>();
     private Set<String> slavesWithInstance = new HashSet<>();
+    private Upgrade upgrade = null;
+    private HashMap<String, AgentStaging> staging = new HashMap<>();
+    private HashMap<String, LostInstance> lostInstances = new HashMap<>();
 
     private static final long serialVersionUID = 1L;
 
     public static final int UNDEFINED_DESIRED_INSTANCES = -1;
 
 
+    /**
+     * Reads a state written by {@link #toStream()}.
+     * States that were written with Java serialization by previous versions
+     * of the framework are still supported.
+     */
     public static CrateState fromStream(byte[] value) throws IOException {
         if (value.length == 0) {
             return new CrateState();
         }
+        if (CrateStateCodec.isEncoded(value)) {
+            return CrateStateCodec.decode(value);
+        }
         ByteArrayInputStream in = new ByteArrayInputStream(value);
         try (ObjectInputStream objectInputStream = new ObjectInputStream(in)) {
             return (CrateState) objectInputStream.readObject();
@@ -57,13 +68,12 @@ public class CrateState implements Serializable {
     }
 
     public byte[] toStream() {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        try (ObjectOutputStream objOut = new ObjectOutputStream(out)) {
-            objOut.writeObject(this);
-        } catch (IOException e){
+        try {
+            return CrateStateCodec.encode(this);
+        } catch (IOException e) {
             LOGGER.error("Could not serialize ClusterState:", e);
         }
-        return out.toByteArray();
+        return new byte[0];
     }
 
     public CrateInstances crateInstances() {
@@ -90,6 +100,40 @@ public class CrateState implements Serializable {
         return Optional.fromNullable(frameworkId);
     }
 
+    /**
+     * The rolling upgrade that is in progress or null.
+     */
+    public Upgrade upgrade() {
+        return upgrade;
+    }
+
+    public void upgrade(Upgrade upgrade) {
+        this.upgrade = upgrade;
+    }
+
+    /**
+     * Artifacts pre-staged on agents by slave id.
+     */
+    public Map<String, AgentStaging> staging() {
+        if (staging == null) {
+            // states written with Java serialization by previous versions
+            staging = new HashMap<>();
+        }
+        return staging;
+    }
+
+    /**
+     * Recently terminated instances whose data is left on their agent, by
+     * slave id.
+     */
+    public Map<String, LostInstance> lostInstances() {
+        if (lostInstances == null) {
+            // states written with Java serialization by previous versions
+            lostInstances = new HashMap<>();
+        }
+        return lostInstances;
+    }
+
     public int missingInstances() {
         return desiredInstances().getValue() - crateInstances().size();
     }
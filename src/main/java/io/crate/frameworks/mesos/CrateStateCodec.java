@@ -0,0 +1,736 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of the {@link CrateState}.
+ *
+ * The payload is prefixed with a magic header and a schema version and uses
+ * the protobuf wire format, so fields can be added without bumping the version
+ * and unknown fields written by newer versions are skipped when reading.
+ *
+ * <pre>
+ * message CrateState {
+ *   optional sint32 desired_instances = 1;
+ *   optional string framework_id = 2;
+ *   repeated Instance instances = 3;
+ *   repeated ExcludedSlaves excluded_slaves = 4;
+ *   repeated string slaves_with_instances = 5;
+ *   optional Upgrade upgrade = 6;
+ *   repeated Staging staging = 7;
+ *   repeated LostInstance lost_instances = 8;
+ *   // sequence of the first journal entry that is not contained in the state
+ *   optional int64 journal_start = 9;
+ * }
+ * message Instance {
+ *   optional string task_id = 1;
+ *   optional string hostname = 2;
+ *   optional string version = 3;
+ *   optional int32 transport_port = 4;
+ *   optional string executor_id = 5;
+ *   optional string slave_id = 6;
+ *   optional string node_id = 7;
+ *   optional State state = 8;
+ *   repeated PhaseTimestamp lifecycle = 9;
+ *   optional string volume_id = 10;
+ *   optional string node_name = 11;
+ * }
+ * message PhaseTimestamp {
+ *   optional Phase phase = 1;
+ *   optional int64 timestamp = 2;
+ * }
+ * message ExcludedSlaves {
+ *   optional string reason = 1;
+ *   repeated string slave_ids = 2;
+ * }
+ * message Upgrade {
+ *   optional string from_version = 1;
+ *   optional string from_checksum = 2;
+ *   optional string to_version = 3;
+ *   optional string to_checksum = 4;
+ *   optional int32 parallelism = 5;
+ *   optional bool paused = 6;
+ *   optional bool rolled_back = 7;
+ * }
+ * message Staging {
+ *   optional string slave_id = 1;
+ *   optional string hostname = 2;
+ *   optional string version = 3;
+ *   optional string task_id = 4;
+ *   optional string offer_id = 5;
+ *   optional int64 started = 6;
+ *   optional State state = 7;
+ *   optional int64 finished = 8;
+ * }
+ * message LostInstance {
+ *   optional string slave_id = 1;
+ *   optional string hostname = 2;
+ *   optional string node_name = 3;
+ *   optional string data_path = 4;
+ *   optional string volume_id = 5;
+ *   optional int64 lost = 6;
+ *   optional int64 data_bytes = 7;
+ * }
+ * </pre>
+ */
+public class CrateStateCodec {
+
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = new byte[]{'C', 'R', 'S'};
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    private static final int STATE_DESIRED_INSTANCES = 1;
+    private static final int STATE_FRAMEWORK_ID = 2;
+    private static final int STATE_INSTANCES = 3;
+    private static final int STATE_EXCLUDED_SLAVES = 4;
+    private static final int STATE_SLAVES_WITH_INSTANCES = 5;
+    private static final int STATE_UPGRADE = 6;
+    private static final int STATE_STAGING = 7;
+    private static final int STATE_LOST_INSTANCES = 8;
+    private static final int STATE_JOURNAL_START = 9;
+
+    private static final int INSTANCE_TASK_ID = 1;
+    private static final int INSTANCE_HOSTNAME = 2;
+    private static final int INSTANCE_VERSION = 3;
+    private static final int INSTANCE_TRANSPORT_PORT = 4;
+    private static final int INSTANCE_EXECUTOR_ID = 5;
+    private static final int INSTANCE_SLAVE_ID = 6;
+    private static final int INSTANCE_NODE_ID = 7;
+    private static final int INSTANCE_STATE = 8;
+    private static final int INSTANCE_LIFECYCLE = 9;
+    private static final int INSTANCE_VOLUME_ID = 10;
+    private static final int INSTANCE_NODE_NAME = 11;
+
+    private static final int PHASE_PHASE = 1;
+    private static final int PHASE_TIMESTAMP = 2;
+
+    private static final int EXCLUDED_REASON = 1;
+    private static final int EXCLUDED_SLAVE_IDS = 2;
+
+    private static final int UPGRADE_FROM_VERSION = 1;
+    private static final int UPGRADE_FROM_CHECKSUM = 2;
+    private static final int UPGRADE_TO_VERSION = 3;
+    private static final int UPGRADE_TO_CHECKSUM = 4;
+    private static final int UPGRADE_PARALLELISM = 5;
+    private static final int UPGRADE_PAUSED = 6;
+    private static final int UPGRADE_ROLLED_BACK = 7;
+
+    private static final int STAGING_SLAVE_ID = 1;
+    private static final int STAGING_HOSTNAME = 2;
+    private static final int STAGING_VERSION = 3;
+    private static final int STAGING_TASK_ID = 4;
+    private static final int STAGING_OFFER_ID = 5;
+    private static final int STAGING_STARTED = 6;
+    private static final int STAGING_STATE = 7;
+    private static final int STAGING_FINISHED = 8;
+
+    private static final int LOST_SLAVE_ID = 1;
+    private static final int LOST_HOSTNAME = 2;
+    private static final int LOST_NODE_NAME = 3;
+    private static final int LOST_DATA_PATH = 4;
+    private static final int LOST_VOLUME_ID = 5;
+    private static final int LOST_LOST = 6;
+    private static final int LOST_DATA_BYTES = 7;
+
+    /**
+     * Returns true if the value starts with the header written by {@link #encode(CrateState)}.
+     */
+    public static boolean isEncoded(byte[] value) {
+        if (value.length < HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (value[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static byte[] encode(CrateState state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 128 * state.crateInstances().size());
+        bytes.write(MAGIC);
+        bytes.write(VERSION);
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+
+        out.writeSInt32(STATE_DESIRED_INSTANCES, state.desiredInstances().getValue());
+        if (state.frameworkId().isPresent()) {
+            out.writeString(STATE_FRAMEWORK_ID, state.frameworkId().get());
+        }
+        for (CrateInstance instance : state.crateInstances()) {
+            writeMessageHeader(out, STATE_INSTANCES, instanceSize(instance));
+            writeInstance(out, instance);
+        }
+        for (Map.Entry<String, List<String>> entry : state.excludedSlaves().entrySet()) {
+            int size = CodedOutputStream.computeStringSize(EXCLUDED_REASON, entry.getKey());
+            for (String slaveId : entry.getValue()) {
+                size += CodedOutputStream.computeStringSize(EXCLUDED_SLAVE_IDS, slaveId);
+            }
+            writeMessageHeader(out, STATE_EXCLUDED_SLAVES, size);
+            out.writeString(EXCLUDED_REASON, entry.getKey());
+            for (String slaveId : entry.getValue()) {
+                out.writeString(EXCLUDED_SLAVE_IDS, slaveId);
+            }
+        }
+        for (String slaveId : state.slavesWithInstances()) {
+            out.writeString(STATE_SLAVES_WITH_INSTANCES, slaveId);
+        }
+        if (state.upgrade() != null) {
+            writeMessageHeader(out, STATE_UPGRADE, upgradeSize(state.upgrade()));
+            writeUpgrade(out, state.upgrade());
+        }
+        for (AgentStaging staging : state.staging().values()) {
+            writeMessageHeader(out, STATE_STAGING, stagingSize(staging));
+            writeStaging(out, staging);
+        }
+        for (LostInstance lost : state.lostInstances().values()) {
+            writeMessageHeader(out, STATE_LOST_INSTANCES, lostInstanceSize(lost));
+            writeLostInstance(out, lost);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Appends the sequence of the first journal entry that is not contained
+     * in an encoded state, which is written as snapshot.
+     */
+    public static byte[] withJournalStart(byte[] value, long sequence) throws IOException {
+        if (!isEncoded(value)) {
+            return value;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length + 11);
+        bytes.write(value, 0, value.length);
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        out.writeInt64(STATE_JOURNAL_START, sequence);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the sequence written by {@link #withJournalStart(byte[], long)}
+     * or 0 if the value doesn't contain one.
+     */
+    public static long journalStart(byte[] value) throws IOException {
+        if (!isEncoded(value)) {
+            return 0L;
+        }
+        CodedInputStream in = CodedInputStream.newInstance(value, HEADER_LENGTH, value.length - HEADER_LENGTH);
+        long sequence = 0L;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) == STATE_JOURNAL_START) {
+                sequence = in.readInt64();
+            } else {
+                in.skipField(tag);
+            }
+        }
+        return sequence;
+    }
+
+    public static CrateState decode(byte[] value) throws IOException {
+        if (!isEncoded(value)) {
+            throw new IOException("Value is not an encoded CrateState");
+        }
+        int version = value[MAGIC.length];
+        if (version > VERSION) {
+            throw new IOException(String.format(
+                    "Cannot read CrateState with version %d, supported version is %d", version, VERSION));
+        }
+        CodedInputStream in = CodedInputStream.newInstance(value, HEADER_LENGTH, value.length - HEADER_LENGTH);
+        CrateState state = new CrateState();
+        CrateInstances instances = new CrateInstances();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case STATE_DESIRED_INSTANCES:
+                    state.desiredInstances(in.readSInt32());
+                    break;
+                case STATE_FRAMEWORK_ID:
+                    state.frameworkId(in.readString());
+                    break;
+                case STATE_INSTANCES:
+                    int instanceLimit = in.pushLimit(in.readRawVarint32());
+                    instances.addInstance(readInstance(in));
+                    in.popLimit(instanceLimit);
+                    break;
+                case STATE_EXCLUDED_SLAVES:
+                    int excludedLimit = in.pushLimit(in.readRawVarint32());
+                    readExcludedSlaves(in, state);
+                    in.popLimit(excludedLimit);
+                    break;
+                case STATE_SLAVES_WITH_INSTANCES:
+                    state.slavesWithInstances().add(in.readString());
+                    break;
+                case STATE_UPGRADE:
+                    state.upgrade(decodeUpgrade(in.readBytes().toByteArray()));
+                    break;
+                case STATE_STAGING:
+                    AgentStaging staging = decodeStaging(in.readBytes().toByteArray());
+                    state.staging().put(staging.slaveId(), staging);
+                    break;
+                case STATE_LOST_INSTANCES:
+                    LostInstance lost = decodeLostInstance(in.readBytes().toByteArray());
+                    state.lostInstances().put(lost.slaveId(), lost);
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+        state.instances(instances);
+        return state;
+    }
+
+    private static void writeMessageHeader(CodedOutputStream out, int field, int size) throws IOException {
+        out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeRawVarint32(size);
+    }
+
+    static int instanceSize(CrateInstance instance) {
+        int size = CodedOutputStream.computeStringSize(INSTANCE_TASK_ID, instance.taskId())
+                   + CodedOutputStream.computeStringSize(INSTANCE_HOSTNAME, instance.hostname())
+                   + CodedOutputStream.computeStringSize(INSTANCE_VERSION, instance.version())
+                   + CodedOutputStream.computeInt32Size(INSTANCE_TRANSPORT_PORT, instance.transportPort())
+                   + CodedOutputStream.computeStringSize(INSTANCE_EXECUTOR_ID, instance.executorID())
+                   + CodedOutputStream.computeStringSize(INSTANCE_SLAVE_ID, instance.slaveID())
+                   + CodedOutputStream.computeEnumSize(INSTANCE_STATE, instance.state().ordinal());
+        if (instance.nodeId() != null) {
+            size += CodedOutputStream.computeStringSize(INSTANCE_NODE_ID, instance.nodeId());
+        }
+        if (instance.volumeId() != null) {
+            size += CodedOutputStream.computeStringSize(INSTANCE_VOLUME_ID, instance.volumeId());
+        }
+        if (instance.nodeName() != null) {
+            size += CodedOutputStream.computeStringSize(INSTANCE_NODE_NAME, instance.nodeName());
+        }
+        TaskLifecycle lifecycle = instance.lifecycle();
+        for (TaskLifecycle.Phase phase : TaskLifecycle.Phase.values()) {
+            if (lifecycle.reached(phase)) {
+                int phaseSize = phaseSize(phase, lifecycle.timestamp(phase));
+                size += CodedOutputStream.computeTagSize(INSTANCE_LIFECYCLE)
+                        + CodedOutputStream.computeRawVarint32Size(phaseSize) + phaseSize;
+            }
+        }
+        return size;
+    }
+
+    private static int phaseSize(TaskLifecycle.Phase phase, long timestamp) {
+        return CodedOutputStream.computeEnumSize(PHASE_PHASE, phase.ordinal())
+               + CodedOutputStream.computeInt64Size(PHASE_TIMESTAMP, timestamp);
+    }
+
+    static byte[] encodeInstance(CrateInstance instance) throws IOException {
+        byte[] bytes = new byte[instanceSize(instance)];
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        writeInstance(out, instance);
+        out.checkNoSpaceLeft();
+        return bytes;
+    }
+
+    static CrateInstance decodeInstance(byte[] bytes) throws IOException {
+        return readInstance(CodedInputStream.newInstance(bytes));
+    }
+
+    static void writeInstance(CodedOutputStream out, CrateInstance instance) throws IOException {
+        out.writeString(INSTANCE_TASK_ID, instance.taskId());
+        out.writeString(INSTANCE_HOSTNAME, instance.hostname());
+        out.writeString(INSTANCE_VERSION, instance.version());
+        out.writeInt32(INSTANCE_TRANSPORT_PORT, instance.transportPort());
+        out.writeString(INSTANCE_EXECUTOR_ID, instance.executorID());
+        out.writeString(INSTANCE_SLAVE_ID, instance.slaveID());
+        if (instance.nodeId() != null) {
+            out.writeString(INSTANCE_NODE_ID, instance.nodeId());
+        }
+        out.writeEnum(INSTANCE_STATE, instance.state().ordinal());
+        TaskLifecycle lifecycle = instance.lifecycle();
+        for (TaskLifecycle.Phase phase : TaskLifecycle.Phase.values()) {
+            if (lifecycle.reached(phase)) {
+                long timestamp = lifecycle.timestamp(phase);
+                writeMessageHeader(out, INSTANCE_LIFECYCLE, phaseSize(phase, timestamp));
+                out.writeEnum(PHASE_PHASE, phase.ordinal());
+                out.writeInt64(PHASE_TIMESTAMP, timestamp);
+            }
+        }
+        if (instance.volumeId() != null) {
+            out.writeString(INSTANCE_VOLUME_ID, instance.volumeId());
+        }
+        if (instance.nodeName() != null) {
+            out.writeString(INSTANCE_NODE_NAME, instance.nodeName());
+        }
+    }
+
+    static CrateInstance readInstance(CodedInputStream in) throws IOException {
+        String taskId = null;
+        String hostname = null;
+        String version = null;
+        int transportPort = 0;
+        String executorId = null;
+        String slaveId = null;
+        String nodeId = null;
+        String volumeId = null;
+        String nodeName = null;
+        CrateInstance.State state = CrateInstance.State.PENDING;
+        TaskLifecycle lifecycle = new TaskLifecycle();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case INSTANCE_TASK_ID:
+                    taskId = in.readString();
+                    break;
+                case INSTANCE_HOSTNAME:
+                    hostname = in.readString();
+                    break;
+                case INSTANCE_VERSION:
+                    version = in.readString();
+                    break;
+                case INSTANCE_TRANSPORT_PORT:
+                    transportPort = in.readInt32();
+                    break;
+                case INSTANCE_EXECUTOR_ID:
+                    executorId = in.readString();
+                    break;
+                case INSTANCE_SLAVE_ID:
+                    slaveId = in.readString();
+                    break;
+                case INSTANCE_NODE_ID:
+                    nodeId = in.readString();
+                    break;
+                case INSTANCE_STATE:
+                    int ordinal = in.readEnum();
+                    if (ordinal < CrateInstance.State.values().length) {
+                        state = CrateInstance.State.values()[ordinal];
+                    }
+                    break;
+                case INSTANCE_LIFECYCLE:
+                    int phaseLimit = in.pushLimit(in.readRawVarint32());
+                    readPhase(in, lifecycle);
+                    in.popLimit(phaseLimit);
+                    break;
+                case INSTANCE_VOLUME_ID:
+                    volumeId = in.readString();
+                    break;
+                case INSTANCE_NODE_NAME:
+                    nodeName = in.readString();
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+        CrateInstance instance = new CrateInstance(hostname, taskId, version, transportPort, executorId, slaveId);
+        instance.nodeId(nodeId);
+        instance.volumeId(volumeId);
+        instance.nodeName(nodeName);
+        instance.state(state);
+        instance.lifecycle().merge(lifecycle);
+        return instance;
+    }
+
+    private static void readPhase(CodedInputStream in, TaskLifecycle lifecycle) throws IOException {
+        int ordinal = -1;
+        long timestamp = 0;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case PHASE_PHASE:
+                    ordinal = in.readEnum();
+                    break;
+                case PHASE_TIMESTAMP:
+                    timestamp = in.readInt64();
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+        // phases added by newer versions are skipped
+        if (ordinal >= 0 && ordinal < TaskLifecycle.Phase.values().length) {
+            lifecycle.reached(TaskLifecycle.Phase.values()[ordinal], timestamp);
+        }
+    }
+
+    private static int upgradeSize(Upgrade upgrade) {
+        int size = CodedOutputStream.computeStringSize(UPGRADE_FROM_VERSION, upgrade.fromVersion())
+                   + CodedOutputStream.computeStringSize(UPGRADE_TO_VERSION, upgrade.toVersion())
+                   + CodedOutputStream.computeInt32Size(UPGRADE_PARALLELISM, upgrade.parallelism())
+                   + CodedOutputStream.computeBoolSize(UPGRADE_PAUSED, upgrade.paused())
+                   + CodedOutputStream.computeBoolSize(UPGRADE_ROLLED_BACK, upgrade.rolledBack());
+        if (upgrade.fromChecksum() != null) {
+            size += CodedOutputStream.computeStringSize(UPGRADE_FROM_CHECKSUM, upgrade.fromChecksum());
+        }
+        if (upgrade.toChecksum() != null) {
+            size += CodedOutputStream.computeStringSize(UPGRADE_TO_CHECKSUM, upgrade.toChecksum());
+        }
+        return size;
+    }
+
+    static byte[] encodeUpgrade(Upgrade upgrade) throws IOException {
+        byte[] bytes = new byte[upgradeSize(upgrade)];
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        writeUpgrade(out, upgrade);
+        out.checkNoSpaceLeft();
+        return bytes;
+    }
+
+    private static void writeUpgrade(CodedOutputStream out, Upgrade upgrade) throws IOException {
+        out.writeString(UPGRADE_FROM_VERSION, upgrade.fromVersion());
+        if (upgrade.fromChecksum() != null) {
+            out.writeString(UPGRADE_FROM_CHECKSUM, upgrade.fromChecksum());
+        }
+        out.writeString(UPGRADE_TO_VERSION, upgrade.toVersion());
+        if (upgrade.toChecksum() != null) {
+            out.writeString(UPGRADE_TO_CHECKSUM, upgrade.toChecksum());
+        }
+        out.writeInt32(UPGRADE_PARALLELISM, upgrade.parallelism());
+        out.writeBool(UPGRADE_PAUSED, upgrade.paused());
+        out.writeBool(UPGRADE_ROLLED_BACK, upgrade.rolledBack());
+    }
+
+    static Upgrade decodeUpgrade(byte[] bytes) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(bytes);
+        String fromVersion = null;
+        String fromChecksum = null;
+        String toVersion = null;
+        String toChecksum = null;
+        int parallelism = 1;
+        boolean paused = false;
+        boolean rolledBack = false;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case UPGRADE_FROM_VERSION:
+                    fromVersion = in.readString();
+                    break;
+                case UPGRADE_FROM_CHECKSUM:
+                    fromChecksum = in.readString();
+                    break;
+                case UPGRADE_TO_VERSION:
+                    toVersion = in.readString();
+                    break;
+                case UPGRADE_TO_CHECKSUM:
+                    toChecksum = in.readString();
+                    break;
+                case UPGRADE_PARALLELISM:
+                    parallelism = in.readInt32();
+                    break;
+                case UPGRADE_PAUSED:
+                    paused = in.readBool();
+                    break;
+                case UPGRADE_ROLLED_BACK:
+                    rolledBack = in.readBool();
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+        Upgrade upgrade = new Upgrade(fromVersion, fromChecksum, toVersion, toChecksum, parallelism);
+        upgrade.paused(paused);
+        upgrade.rolledBack(rolledBack);
+        return upgrade;
+    }
+
+    private static void readExcludedSlaves(CodedInputStream in, CrateState state) throws IOException {
+        String reason = null;
+        List<String> slaveIds = new ArrayList<>();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case EXCLUDED_REASON:
+                    reason = in.readString();
+                    break;
+                case EXCLUDED_SLAVE_IDS:
+                    slaveIds.add(in.readString());
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+        if (reason != null) {
+            state.excludedSlaves().put(reason, slaveIds);
+        }
+    }
+
+    private static int stagingSize(AgentStaging staging) {
+        return CodedOutputStream.computeStringSize(STAGING_SLAVE_ID, staging.slaveId())
+               + CodedOutputStream.computeStringSize(STAGING_HOSTNAME, staging.hostname())
+               + CodedOutputStream.computeStringSize(STAGING_VERSION, staging.version())
+               + CodedOutputStream.computeStringSize(STAGING_TASK_ID, staging.taskId())
+               + CodedOutputStream.computeStringSize(STAGING_OFFER_ID, staging.offerId())
+               + CodedOutputStream.computeInt64Size(STAGING_STARTED, staging.startedMillis())
+               + CodedOutputStream.computeEnumSize(STAGING_STATE, staging.state().ordinal())
+               + CodedOutputStream.computeInt64Size(STAGING_FINISHED, staging.finishedMillis());
+    }
+
+    static byte[] encodeStaging(AgentStaging staging) throws IOException {
+        byte[] bytes = new byte[stagingSize(staging)];
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        writeStaging(out, staging);
+        out.checkNoSpaceLeft();
+        return bytes;
+    }
+
+    private static void writeStaging(CodedOutputStream out, AgentStaging staging) throws IOException {
+        out.writeString(STAGING_SLAVE_ID, staging.slaveId());
+        out.writeString(STAGING_HOSTNAME, staging.hostname());
+        out.writeString(STAGING_VERSION, staging.version());
+        out.writeString(STAGING_TASK_ID, staging.taskId());
+        out.writeString(STAGING_OFFER_ID, staging.offerId());
+        out.writeInt64(STAGING_STARTED, staging.startedMillis());
+        out.writeEnum(STAGING_STATE, staging.state().ordinal());
+        out.writeInt64(STAGING_FINISHED, staging.finishedMillis());
+    }
+
+    static AgentStaging decodeStaging(byte[] bytes) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(bytes);
+        String slaveId = null;
+        String hostname = null;
+        String version = null;
+        String taskId = null;
+        String offerId = null;
+        long started = 0L;
+        AgentStaging.State state = AgentStaging.State.FAILED;
+        long finished = 0L;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case STAGING_SLAVE_ID:
+                    slaveId = in.readString();
+                    break;
+                case STAGING_HOSTNAME:
+                    hostname = in.readString();
+                    break;
+                case STAGING_VERSION:
+                    version = in.readString();
+                    break;
+                case STAGING_TASK_ID:
+                    taskId = in.readString();
+                    break;
+                case STAGING_OFFER_ID:
+                    offerId = in.readString();
+                    break;
+                case STAGING_STARTED:
+                    started = in.readInt64();
+                    break;
+                case STAGING_STATE:
+                    int ordinal = in.readEnum();
+                    if (ordinal < AgentStaging.State.values().length) {
+                        state = AgentStaging.State.values()[ordinal];
+                    }
+                    break;
+                case STAGING_FINISHED:
+                    finished = in.readInt64();
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+        AgentStaging staging = new AgentStaging(slaveId, hostname, version, taskId, offerId, started);
+        staging.finished(state, finished);
+        return staging;
+    }
+
+    private static int lostInstanceSize(LostInstance lost) {
+        int size = CodedOutputStream.computeStringSize(LOST_SLAVE_ID, lost.slaveId())
+                   + CodedOutputStream.computeStringSize(LOST_HOSTNAME, lost.hostname())
+                   + CodedOutputStream.computeStringSize(LOST_NODE_NAME, lost.nodeName())
+                   + CodedOutputStream.computeInt64Size(LOST_LOST, lost.lostMillis())
+                   + CodedOutputStream.computeInt64Size(LOST_DATA_BYTES, lost.dataBytes());
+        if (lost.dataPath() != null) {
+            size += CodedOutputStream.computeStringSize(LOST_DATA_PATH, lost.dataPath());
+        }
+        if (lost.volumeId() != null) {
+            size += CodedOutputStream.computeStringSize(LOST_VOLUME_ID, lost.volumeId());
+        }
+        return size;
+    }
+
+    static byte[] encodeLostInstance(LostInstance lost) throws IOException {
+        byte[] bytes = new byte[lostInstanceSize(lost)];
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        writeLostInstance(out, lost);
+        out.checkNoSpaceLeft();
+        return bytes;
+    }
+
+    private static void writeLostInstance(CodedOutputStream out, LostInstance lost) throws IOException {
+        out.writeString(LOST_SLAVE_ID, lost.slaveId());
+        out.writeString(LOST_HOSTNAME, lost.hostname());
+        out.writeString(LOST_NODE_NAME, lost.nodeName());
+        if (lost.dataPath() != null) {
+            out.writeString(LOST_DATA_PATH, lost.dataPath());
+        }
+        if (lost.volumeId() != null) {
+            out.writeString(LOST_VOLUME_ID, lost.volumeId());
+        }
+        out.writeInt64(LOST_LOST, lost.lostMillis());
+        out.writeInt64(LOST_DATA_BYTES, lost.dataBytes());
+    }
+
+    static LostInstance decodeLostInstance(byte[] bytes) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(bytes);
+        String slaveId = null;
+        String hostname = null;
+        String nodeName = null;
+        String dataPath = null;
+        String volumeId = null;
+        long lost = 0L;
+        long dataBytes = -1L;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case LOST_SLAVE_ID:
+                    slaveId = in.readString();
+                    break;
+                case LOST_HOSTNAME:
+                    hostname = in.readString();
+                    break;
+                case LOST_NODE_NAME:
+                    nodeName = in.readString();
+                    break;
+                case LOST_DATA_PATH:
+                    dataPath = in.readString();
+                    break;
+                case LOST_VOLUME_ID:
+                    volumeId = in.readString();
+                    break;
+                case LOST_LOST:
+                    lost = in.readInt64();
+                    break;
+                case LOST_DATA_BYTES:
+                    dataBytes = in.readInt64();
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+        return new LostInstance(slaveId, hostname, nodeName, dataPath, volumeId, lost, dataBytes);
+    }
+}
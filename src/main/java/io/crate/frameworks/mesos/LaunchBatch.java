@@ -0,0 +1,155 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the launches of a single {@code resourceOffers} callback.
+ *
+ * Offers from the same agent are merged into one offer first, so an instance
+ * can be launched with resources that are split across several offers of an
+ * agent. The launches are only sent by {@link #accept} once the scheduler has
+ * persisted the new instances, with a single {@code acceptOffers} call per
+ * agent; Mesos doesn't accept offers of several agents in one call. If the
+ * instances couldn't be persisted the offers are returned with
+ * {@link #decline} instead.
+ */
+public class LaunchBatch {
+
+    // original offers by the id of the merged offer
+    private final Map<String, List<Protos.Offer>> originals = new HashMap<>();
+    private final LinkedHashMap<String, List<Protos.Offer.Operation>> launches = new LinkedHashMap<>();
+
+    /**
+     * Returns the offers with the offers from the same agent merged into the
+     * first of them, which keeps its id. The order of the agents is kept.
+     */
+    public List<Protos.Offer> merge(List<Protos.Offer> offers) {
+        LinkedHashMap<String, List<Protos.Offer>> bySlave = new LinkedHashMap<>();
+        for (Protos.Offer offer : offers) {
+            String slaveId = offer.getSlaveId().getValue();
+            List<Protos.Offer> agentOffers = bySlave.get(slaveId);
+            if (agentOffers == null) {
+                agentOffers = new ArrayList<>(1);
+                bySlave.put(slaveId, agentOffers);
+            }
+            agentOffers.add(offer);
+        }
+        List<Protos.Offer> merged = new ArrayList<>(bySlave.size());
+        for (List<Protos.Offer> agentOffers : bySlave.values()) {
+            Protos.Offer first = agentOffers.get(0);
+            if (agentOffers.size() == 1) {
+                merged.add(first);
+                continue;
+            }
+            Protos.Offer.Builder builder = Protos.Offer.newBuilder(first);
+            for (Protos.Offer offer : agentOffers.subList(1, agentOffers.size())) {
+                builder.addAllResources(offer.getResourcesList());
+            }
+            originals.put(first.getId().getValue(), agentOffers);
+            merged.add(builder.build());
+        }
+        return merged;
+    }
+
+    /**
+     * The offers that were merged into the offer, or the offer itself.
+     */
+    public List<Protos.Offer> originals(Protos.Offer offer) {
+        List<Protos.Offer> offers = originals.get(offer.getId().getValue());
+        return offers == null ? Collections.singletonList(offer) : offers;
+    }
+
+    /**
+     * Adds the operations that launch an instance with a (merged) offer.
+     */
+    public void launch(Protos.Offer offer, List<Protos.Offer.Operation> operations) {
+        String offerId = offer.getId().getValue();
+        List<Protos.Offer.Operation> agentOperations = launches.get(offerId);
+        if (agentOperations == null) {
+            launches.put(offerId, new ArrayList<>(operations));
+        } else {
+            agentOperations.addAll(operations);
+        }
+    }
+
+    /**
+     * Number of agents with launches.
+     */
+    public int size() {
+        return launches.size();
+    }
+
+    /**
+     * Accepts the offers of every agent with its operations.
+     *
+     * @return the number of accepted offers
+     */
+    public int accept(SchedulerDriver driver, Protos.Filters filters) {
+        int accepted = 0;
+        for (Map.Entry<String, List<Protos.Offer.Operation>> entry : launches.entrySet()) {
+            List<Protos.OfferID> offerIds = offerIds(entry.getKey());
+            driver.acceptOffers(offerIds, entry.getValue(), filters);
+            accepted += offerIds.size();
+        }
+        launches.clear();
+        return accepted;
+    }
+
+    /**
+     * Declines the offers of every agent with launches, without launching.
+     *
+     * @return the number of declined offers
+     */
+    public int decline(SchedulerDriver driver) {
+        int declined = 0;
+        for (String offerId : launches.keySet()) {
+            for (Protos.OfferID id : offerIds(offerId)) {
+                driver.declineOffer(id);
+                declined++;
+            }
+        }
+        launches.clear();
+        return declined;
+    }
+
+    private List<Protos.OfferID> offerIds(String offerId) {
+        List<Protos.Offer> offers = originals.get(offerId);
+        if (offers == null) {
+            return Collections.singletonList(Protos.OfferID.newBuilder().setValue(offerId).build());
+        }
+        List<Protos.OfferID> offerIds = new ArrayList<>(offers.size());
+        for (Protos.Offer offer : offers) {
+            offerIds.add(offer.getId());
+        }
+        return offerIds;
+    }
+}
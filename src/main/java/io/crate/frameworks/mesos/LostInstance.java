@@ -0,0 +1,125 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import com.google.common.base.Objects;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+
+/**
+ * An instance that terminated recently and left its data on the disk of its
+ * agent. A replacement that is launched on the same agent with the same node
+ * name recovers the shards of the instance from the local disk.
+ */
+public class LostInstance implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String slaveId;
+    private final String hostname;
+    private final String nodeName;
+    private final String dataPath;
+    private final String volumeId;
+    private final long lostMillis;
+    private final long dataBytes;
+
+    /**
+     * @param dataPath  configured data path of the instance or null
+     * @param volumeId  persistent volume of the instance or null
+     * @param dataBytes size of the shards of the node, -1 if unknown
+     */
+    public LostInstance(String slaveId,
+                        String hostname,
+                        String nodeName,
+                        @Nullable String dataPath,
+                        @Nullable String volumeId,
+                        long lostMillis,
+                        long dataBytes) {
+        this.slaveId = slaveId;
+        this.hostname = hostname;
+        this.nodeName = nodeName;
+        this.dataPath = dataPath;
+        this.volumeId = volumeId;
+        this.lostMillis = lostMillis;
+        this.dataBytes = dataBytes;
+    }
+
+    public String slaveId() {
+        return slaveId;
+    }
+
+    public String hostname() {
+        return hostname;
+    }
+
+    public String nodeName() {
+        return nodeName;
+    }
+
+    @Nullable
+    public String dataPath() {
+        return dataPath;
+    }
+
+    @Nullable
+    public String volumeId() {
+        return volumeId;
+    }
+
+    public long lostMillis() {
+        return lostMillis;
+    }
+
+    public long dataBytes() {
+        return dataBytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        LostInstance that = (LostInstance) o;
+        return lostMillis == that.lostMillis &&
+               dataBytes == that.dataBytes &&
+               Objects.equal(slaveId, that.slaveId) &&
+               Objects.equal(hostname, that.hostname) &&
+               Objects.equal(nodeName, that.nodeName) &&
+               Objects.equal(dataPath, that.dataPath) &&
+               Objects.equal(volumeId, that.volumeId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(slaveId, hostname, nodeName, dataPath, volumeId, lostMillis, dataBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "LostInstance{" +
+                "slaveId='" + slaveId + '\'' +
+                ", hostname='" + hostname + '\'' +
+                ", nodeName='" + nodeName + '\'' +
+                ", lostMillis=" + lostMillis +
+                '}';
+    }
+}
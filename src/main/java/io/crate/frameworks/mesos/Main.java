@@ -23,9 +23,23 @@ package io.crate.frameworks.mesos;
 
 import com.beust.jcommander.JCommander;
 import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
 import com.google.common.collect.Sets;
+import io.crate.frameworks.mesos.allocation.InstanceDrainer;
+import io.crate.frameworks.mesos.allocation.ShardAllocation;
+import io.crate.frameworks.mesos.allocation.SqlShardAllocation;
+import io.crate.frameworks.mesos.api.CrateClientPool;
 import io.crate.frameworks.mesos.api.CrateHttpService;
+import io.crate.frameworks.mesos.autoscale.AutoscalePolicy;
+import io.crate.frameworks.mesos.autoscale.Autoscaler;
+import io.crate.frameworks.mesos.autoscale.SysNodesLoadSampler;
 import io.crate.frameworks.mesos.config.Configuration;
+import io.crate.frameworks.mesos.metrics.MetricsRegistry;
+import io.crate.frameworks.mesos.metrics.SchedulerMetrics;
+import io.crate.frameworks.mesos.relaunch.StickyRelaunch;
+import io.crate.frameworks.mesos.staging.Prestager;
+import io.crate.frameworks.mesos.volume.PersistentVolumes;
+import io.crate.frameworks.mesos.upgrade.RollingUpgrade;
 import io.crate.shade.org.apache.commons.lang3.ObjectUtils;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.mesos.MesosSchedulerDriver;
@@ -49,6 +63,10 @@ public class Main {
     private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
     public static final String JAVA_URL = "https://cdn.crate.io/downloads/openjdk/jre-7u80-linux.tar.gz";
 
+    private static final long CLUSTER_QUERY_TIMEOUT_MILLIS = 10_000L;
+    private static final long DRAIN_INTERVAL_MILLIS = 5_000L;
+    private static final long RELAUNCH_INTERVAL_MILLIS = 10_000L;
+    private static final long UPGRADE_INTERVAL_MILLIS = 5_000L;
     private static final Set<String> HELP_OPTIONS = Sets.newHashSet("-h", "--help", "help");
     private static final Set<String> PROTECTED_CRATE_ARGS = Sets.newHashSet(
             "-Des.cluster.name",
@@ -138,35 +156,115 @@ public class Main {
         PersistentStateStore stateStore = new PersistentStateStore(
                 new ZooKeeperState(configuration.zookeeper, 20_000, TimeUnit.MILLISECONDS,
                         String.format("/%s/%s", configuration.frameworkName, configuration.clusterName)),
-                configuration.nodeCount);
+                configuration.nodeCount,
+                configuration.stateWriteBehind,
+                configuration.stateJournalCompactAfter);
 
         Optional<String> frameworkId = stateStore.state().frameworkId();
         if (frameworkId.isPresent()) {
             frameworkBuilder.setId(Protos.FrameworkID.newBuilder().setValue(frameworkId.get()).build());
         }
 
-        final Scheduler scheduler = new CrateScheduler(stateStore, configuration);
+        final TelemetryStore telemetry = new TelemetryStore();
+        final MetricsRegistry metrics = new MetricsRegistry();
+        stateStore.registerMetrics(metrics);
+
+        // used by the framework itself, the API has its own clients
+        final PersistentStateStore store = stateStore;
+        CrateClientPool clusterClients = new CrateClientPool(new Supplier<String[]>() {
+            @Override
+            public String[] get() {
+                return store.state().crateInstances().connectionHosts();
+            }
+        });
+        ShardAllocation allocation = new SqlShardAllocation(clusterClients, CLUSTER_QUERY_TIMEOUT_MILLIS);
+        InstanceDrainer drainer = null;
+        if (configuration.scaleDownDrainTimeout > 0) {
+            drainer = new InstanceDrainer(stateStore,
+                    allocation,
+                    configuration.scaleDownParallelism,
+                    TimeUnit.SECONDS.toMillis(configuration.scaleDownDrainTimeout));
+        }
+        Prestager prestager = null;
+        if (configuration.agentPrestage) {
+            if (configuration.agentCacheDir == null || configuration.agentCacheDir.isEmpty()) {
+                LOGGER.warn("--agent-prestage requires the agent cache, nothing will be pre-staged");
+            } else {
+                prestager = new Prestager(configuration, configuration.agentPrestageSpares);
+            }
+        }
+        Optional<Protos.Credential> credential = readCredentials();
+        String principal = credential.isPresent() ? credential.get().getPrincipal() : "crate-framework";
+        PersistentVolumes volumes = null;
+        if (configuration.persistentVolumes) {
+            if ("*".equals(configuration.role)) {
+                LOGGER.error("--persistent-volumes requires a --framework-role other than *");
+                System.exit(1);
+            }
+            volumes = new PersistentVolumes(configuration, principal);
+        }
+        SchedulerMetrics schedulerMetrics = new SchedulerMetrics(metrics);
+        StickyRelaunch sticky = null;
+        if (configuration.stickyRelaunchWindow > 0) {
+            sticky = new StickyRelaunch(configuration,
+                    TimeUnit.SECONDS.toMillis(configuration.stickyRelaunchWindow),
+                    allocation,
+                    schedulerMetrics);
+            sticky.start(RELAUNCH_INTERVAL_MILLIS);
+        }
+        final Scheduler scheduler = CrateScheduler.builder(stateStore, configuration)
+                .telemetry(telemetry)
+                .metrics(schedulerMetrics)
+                .drainer(drainer)
+                .prestager(prestager)
+                .volumes(volumes)
+                .sticky(sticky)
+                .build();
 
         // create the driver
         MesosSchedulerDriver driver;
 
         String mesosMaster = configuration.mesosMaster();
-        Optional<Protos.Credential> credential = readCredentials();
+        frameworkBuilder.setPrincipal(principal);
         if (credential.isPresent()) {
-            frameworkBuilder.setPrincipal(credential.get().getPrincipal());
             driver = new MesosSchedulerDriver(scheduler, frameworkBuilder.build(), mesosMaster, credential.get());
         } else {
-            frameworkBuilder.setPrincipal("crate-framework");
             driver = new MesosSchedulerDriver(scheduler, frameworkBuilder.build(), mesosMaster);
         }
 
-        CrateHttpService api = new CrateHttpService(stateStore, configuration);
+        if (drainer != null) {
+            drainer.start(driver, DRAIN_INTERVAL_MILLIS);
+        }
+        RollingUpgrade upgrade = new RollingUpgrade(stateStore, configuration, allocation, driver);
+        upgrade.start(UPGRADE_INTERVAL_MILLIS);
+
+        CrateHttpService api = new CrateHttpService(stateStore, configuration, telemetry, metrics);
         api.start();
+        Autoscaler autoscaler = null;
+        if (configuration.autoscale) {
+            autoscaler = new Autoscaler(stateStore,
+                    new SysNodesLoadSampler(clusterClients, CLUSTER_QUERY_TIMEOUT_MILLIS),
+                    new AutoscalePolicy(configuration),
+                    clusterClients);
+            autoscaler.start(TimeUnit.SECONDS.toMillis(configuration.autoscaleInterval));
+        }
         int status = driver.run() == Protos.Status.DRIVER_STOPPED ? 0 : 1;
 
         // Ensure that the driver process terminates.
+        if (autoscaler != null) {
+            autoscaler.close();
+        }
+        if (drainer != null) {
+            drainer.close();
+        }
+        if (sticky != null) {
+            sticky.close();
+        }
+        upgrade.close();
+        clusterClients.close();
         api.stop();
         driver.stop();
+        stateStore.close();
         System.exit(status);
     }
 
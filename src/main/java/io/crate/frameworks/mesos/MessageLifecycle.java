@@ -0,0 +1,49 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import java.io.Serializable;
+
+/**
+ * The phases of a task that are only known to the executor, sent once the
+ * Crate process has been started.
+ */
+public class MessageLifecycle implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String taskId;
+    private final TaskLifecycle lifecycle;
+
+    public MessageLifecycle(String taskId, TaskLifecycle lifecycle) {
+        this.taskId = taskId;
+        this.lifecycle = lifecycle;
+    }
+
+    public String taskId() {
+        return taskId;
+    }
+
+    public TaskLifecycle lifecycle() {
+        return lifecycle;
+    }
+}
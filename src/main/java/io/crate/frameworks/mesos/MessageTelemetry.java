@@ -0,0 +1,107 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A batch of telemetry samples of a Crate node, sent by the executor.
+ */
+public class MessageTelemetry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Values that could not be determined are -1.
+     */
+    public static class Sample implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public final long timestamp;
+        public final long healthChecks;
+        public final long healthLatencyMicros;
+        public final long rssBytes;
+        public final long heapUsedBytes;
+        public final long heapMaxBytes;
+        public final long diskUsedBytes;
+        public final long diskTotalBytes;
+
+        public Sample(long timestamp,
+                      long healthChecks,
+                      long healthLatencyMicros,
+                      long rssBytes,
+                      long heapUsedBytes,
+                      long heapMaxBytes,
+                      long diskUsedBytes,
+                      long diskTotalBytes) {
+            this.timestamp = timestamp;
+            this.healthChecks = healthChecks;
+            this.healthLatencyMicros = healthLatencyMicros;
+            this.rssBytes = rssBytes;
+            this.heapUsedBytes = heapUsedBytes;
+            this.heapMaxBytes = heapMaxBytes;
+            this.diskUsedBytes = diskUsedBytes;
+            this.diskTotalBytes = diskTotalBytes;
+        }
+
+        public Map<String, Long> toMap() {
+            Map<String, Long> map = new LinkedHashMap<>();
+            map.put("timestamp", timestamp);
+            map.put("healthChecks", healthChecks);
+            map.put("healthLatencyMicros", healthLatencyMicros);
+            map.put("rssBytes", rssBytes);
+            map.put("heapUsedBytes", heapUsedBytes);
+            map.put("heapMaxBytes", heapMaxBytes);
+            map.put("diskUsedBytes", diskUsedBytes);
+            map.put("diskTotalBytes", diskTotalBytes);
+            return map;
+        }
+    }
+
+    private final String taskId;
+    private final String nodeName;
+    private final ArrayList<Sample> samples;
+
+    public MessageTelemetry(String taskId, String nodeName, List<Sample> samples) {
+        this.taskId = taskId;
+        this.nodeName = nodeName;
+        this.samples = new ArrayList<>(samples);
+    }
+
+    public String taskId() {
+        return taskId;
+    }
+
+    public String nodeName() {
+        return nodeName;
+    }
+
+    public List<Sample> samples() {
+        return Collections.unmodifiableList(samples);
+    }
+}
@@ -29,6 +29,8 @@ import java.util.List;
 
 public class Observable<ObservedType extends Serializable> implements Serializable {
 
+    private static final long serialVersionUID = -4358405845895598855L;
+
     private List<Observer<ObservedType>> observers = new LinkedList<>();
     private ObservedType value;
 
@@ -0,0 +1,117 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import io.crate.frameworks.mesos.config.Configuration;
+import io.crate.frameworks.mesos.config.Resources;
+import io.crate.frameworks.mesos.volume.PersistentVolumes;
+import org.apache.mesos.Protos;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Evaluates the offers of a single {@code resourceOffers} callback.
+ *
+ * Everything that does not change while a batch is processed (excluded slaves,
+ * hosts that already run an instance) is indexed once when the evaluator is
+ * created, so each offer is checked with a few hash lookups and a single pass
+ * over its resources.
+ */
+public class OfferEvaluator {
+
+    public enum Decision {
+        ACCEPT,
+        NOT_PREFERRED,
+        EXCLUDED,
+        HOST_OCCUPIED,
+        INSUFFICIENT_RESOURCES
+    }
+
+    private final Configuration configuration;
+    private final PersistentVolumes volumes;
+    private final Set<String> excludedSlaveIds;
+    private final Set<String> occupiedHosts;
+    private final Set<String> preferredSlaveIds;
+    private final int[] decisions = new int[Decision.values().length];
+
+    public OfferEvaluator(Configuration configuration, CrateState state) {
+        this(configuration, state, null);
+    }
+
+    /**
+     * @param volumes if not null offers must also have the disk for the volume of an instance
+     */
+    public OfferEvaluator(Configuration configuration, CrateState state, @Nullable PersistentVolumes volumes) {
+        this.configuration = configuration;
+        this.volumes = volumes;
+        this.excludedSlaveIds = new HashSet<>(state.excludedSlaveIds());
+        this.occupiedHosts = new HashSet<>(state.crateInstances().hosts());
+        // live view: slaves are removed from this set while the batch is processed
+        this.preferredSlaveIds = state.slavesWithInstances();
+    }
+
+    public Decision evaluate(Protos.Offer offer) {
+        Decision decision = decide(offer);
+        decisions[decision.ordinal()]++;
+        return decision;
+    }
+
+    private Decision decide(Protos.Offer offer) {
+        String slaveId = offer.getSlaveId().getValue();
+        if (!preferredSlaveIds.isEmpty() && !preferredSlaveIds.contains(slaveId)) {
+            return Decision.NOT_PREFERRED;
+        }
+        if (offer.hasSlaveId() && excludedSlaveIds.contains(slaveId)) {
+            return Decision.EXCLUDED;
+        }
+        if (occupiedHosts.contains(offer.getHostname())) {
+            return Decision.HOST_OCCUPIED;
+        }
+        if (!Resources.matches(offer.getResourcesList(), configuration)
+            || (volumes != null && !volumes.hasDisk(offer))) {
+            return Decision.INSUFFICIENT_RESOURCES;
+        }
+        return Decision.ACCEPT;
+    }
+
+    /**
+     * Marks the host of an accepted offer as occupied so that further offers
+     * of the same batch from that host are rejected.
+     */
+    public void accepted(Protos.Offer offer) {
+        occupiedHosts.add(offer.getHostname());
+    }
+
+    public int count(Decision decision) {
+        return decisions[decision.ordinal()];
+    }
+
+    public int evaluated() {
+        int sum = 0;
+        for (int count : decisions) {
+            sum += count;
+        }
+        return sum;
+    }
+}
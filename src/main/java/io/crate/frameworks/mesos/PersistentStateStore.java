@@ -21,31 +21,112 @@
 
 package io.crate.frameworks.mesos;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.crate.frameworks.mesos.metrics.Counter;
+import io.crate.frameworks.mesos.metrics.Gauge;
+import io.crate.frameworks.mesos.metrics.LatencyHistogram;
+import io.crate.frameworks.mesos.metrics.MetricsRegistry;
+import org.apache.mesos.state.State;
 import org.apache.mesos.state.Variable;
-import org.apache.mesos.state.ZooKeeperState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Stores the {@link CrateState} in ZooKeeper.
+ *
+ * By default every {@link #save()} blocks until the state has been written.
+ * In write-behind mode {@link #save()} only takes a snapshot of the state and
+ * hands it to a single background writer. Saves that happen while a write is
+ * in flight are collapsed into one write of the latest snapshot. Callers that
+ * need a durability barrier can wait on the future returned by {@link #save()}.
+ *
+ * Unless the journal is disabled, a save only writes the changes since the
+ * previous save as a new {@code crate.journal.<sequence>} entry next to the
+ * {@code crate} snapshot (see {@link StateJournal}). After
+ * {@code compactAfter} entries the full state is written to the snapshot and
+ * the journal entries are removed. The snapshot records the sequence of the
+ * first journal entry it doesn't contain, so entries that were left behind
+ * by a failed compaction are skipped. On restore the snapshot is read and the
+ * journal entries from that sequence on are replayed in sequence order.
+ *
+ * A failed write leaves a gap in the journal, so the save after it writes a
+ * full snapshot. In write-behind mode a write that is pending by then is
+ * replaced by a snapshot, its entries depend on the failed one.
+ *
+ * The state is not thread-safe. The scheduler callbacks and the background
+ * components that read or change it synchronize on the store, which
+ * {@link #save()} does as well; queries to the cluster are made without
+ * holding that lock.
+ */
 public class PersistentStateStore {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PersistentStateStore.class);
     private static final String CRATE_STATE = "crate";
+    private static final String JOURNAL_PREFIX = CRATE_STATE + ".journal.";
+    public static final int DEFAULT_COMPACT_AFTER = 100;
 
-    private final ZooKeeperState zk;
+    private final State zk;
     private final CrateState state;
+    private final boolean writeBehind;
+    private final int compactAfter;
+    private final StateJournal journal;
 
     private final Future<Variable> zkFuture;
     private Variable stateVariable = null;
+    // sequence numbers of the journal entries that are stored in ZooKeeper are in [journalStart, journalEnd)
+    private long journalStart = 0L;
+    private long journalEnd = 0L;
+    private Future<Variable> nextEntryVariable = null;
+    // set when a write failed, the next save writes a snapshot
+    private volatile boolean snapshotRequired = false;
+
+    private final ExecutorService writer;
+    private final Object pendingLock = new Object();
+    private Write pendingWrite = null;
+    private SettableFuture<Void> pendingFuture = null;
+    private int pendingSaves = 0;
+
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong coalescedWrites = new AtomicLong();
+    private final AtomicLong snapshotWrites = new AtomicLong();
+    private final AtomicLong totalWriteNanos = new AtomicLong();
+    private volatile long lastWriteNanos = 0L;
+    private volatile int lastWriteBytes = 0;
+    private final Counter totalWriteBytes = new Counter();
+    private final LatencyHistogram writeLatencies = new LatencyHistogram();
 
+    public PersistentStateStore(State zk, int desiredInstances) {
+        this(zk, desiredInstances, false);
+    }
+
+    public PersistentStateStore(State zk, int desiredInstances, boolean writeBehind) {
+        this(zk, desiredInstances, writeBehind, DEFAULT_COMPACT_AFTER);
+    }
 
-    public PersistentStateStore(ZooKeeperState zk, int desiredInstances) {
+    /**
+     * @param compactAfter number of journal entries after which a snapshot is written;
+     *                     0 disables the journal and every save writes a snapshot.
+     */
+    public PersistentStateStore(State zk, int desiredInstances, boolean writeBehind, int compactAfter) {
         this.zk = zk;
+        this.writeBehind = writeBehind;
+        this.compactAfter = compactAfter;
+        this.writer = writeBehind ? Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("state-writer-%d").setDaemon(true).build()) : null;
         this.zkFuture = zk.fetch(CRATE_STATE);
         this.state = restore();
+        this.journal = compactAfter > 0 ? createJournal(state) : null;
         int nodeCount = state.desiredInstances().getValue() == CrateState.UNDEFINED_DESIRED_INSTANCES ?
                 desiredInstances :
                 state.desiredInstances().getValue();
@@ -56,16 +137,319 @@ public class PersistentStateStore {
         return state;
     }
 
-    public synchronized void save() {
-        stateVariable = stateVariable.mutate(state.toStream());
+    /**
+     * Persists the current state.
+     *
+     * @return a future that completes once the state (or a later snapshot of it)
+     *         has been written to ZooKeeper.
+     */
+    public synchronized Future<Void> save() {
+        Write write = prepareWrite();
+        if (write == null) {
+            return Futures.immediateFuture(null);
+        }
+        if (!writeBehind) {
+            try {
+                write(write);
+            } catch (InterruptedException | ExecutionException e) {
+                LOGGER.error("Couldn't save state in Zookeeper", e);
+                snapshotRequired = true;
+                return Futures.immediateFailedFuture(e);
+            }
+            return Futures.immediateFuture(null);
+        }
+        synchronized (pendingLock) {
+            pendingWrite = pendingWrite == null ? write : pendingWrite.merge(write);
+            pendingSaves++;
+            if (pendingFuture == null) {
+                pendingFuture = SettableFuture.create();
+                writer.execute(new FlushTask());
+            }
+            return pendingFuture;
+        }
+    }
+
+    /**
+     * Takes a snapshot or a journal entry of the current state.
+     * Returns null if the state didn't change since the last save.
+     */
+    private Write prepareWrite() {
+        if (journal == null) {
+            return Write.snapshot(state.toStream());
+        }
         try {
-            stateVariable = zk.store(stateVariable).get();
-            if (stateVariable == null) {
-                LOGGER.error("Couldn't save state in Zookeeper");
+            if (journal.entries() >= compactAfter || snapshotRequired) {
+                snapshotRequired = false;
+                byte[] snapshot = state.toStream();
+                journal.reset(state);
+                return Write.snapshot(snapshot);
             }
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
+            byte[] entry = journal.entry(state);
+            return entry == null ? null : Write.entry(entry);
+        } catch (IOException e) {
+            LOGGER.error("Couldn't create journal entry, writing a snapshot instead", e);
+            return Write.snapshot(state.toStream());
+        }
+    }
+
+    /**
+     * A snapshot and/or journal entries that are written together.
+     * Entries are concatenated which is equivalent to a single entry
+     * containing the operations of all of them.
+     */
+    private static class Write {
+
+        private byte[] snapshot;
+        private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+
+        static Write snapshot(byte[] snapshot) {
+            Write write = new Write();
+            write.snapshot = snapshot;
+            return write;
+        }
+
+        static Write entry(byte[] entry) {
+            Write write = new Write();
+            write.entries.write(entry, 0, entry.length);
+            return write;
+        }
+
+        Write merge(Write later) {
+            if (later.snapshot != null) {
+                // the later snapshot already contains all changes of this write
+                return later;
+            }
+            byte[] entry = later.entries.toByteArray();
+            entries.write(entry, 0, entry.length);
+            return this;
+        }
+    }
+
+    /**
+     * Blocks until all pending saves have been written.
+     */
+    public void flush() throws ExecutionException, InterruptedException {
+        Future<Void> future;
+        synchronized (pendingLock) {
+            future = pendingFuture;
+        }
+        if (future != null) {
+            future.get();
+        }
+    }
+
+    /**
+     * Writes pending saves and stops the background writer.
+     */
+    public void close() {
+        if (writer != null) {
+            try {
+                flush();
+            } catch (InterruptedException | ExecutionException e) {
+                LOGGER.error("Failed to write pending state to Zookeeper", e);
+            }
+            writer.shutdown();
+        }
+    }
+
+    private class FlushTask implements Runnable {
+
+        @Override
+        public void run() {
+            Write write;
+            SettableFuture<Void> future;
+            int saves;
+            synchronized (pendingLock) {
+                write = pendingWrite;
+                future = pendingFuture;
+                saves = pendingSaves;
+                pendingWrite = null;
+                pendingFuture = null;
+                pendingSaves = 0;
+            }
+            if (saves > 1) {
+                coalescedWrites.addAndGet(saves - 1);
+            }
+            try {
+                write(write);
+                future.set(null);
+            } catch (Throwable t) {
+                LOGGER.error("Couldn't save state in Zookeeper", t);
+                replacePendingEntries();
+                future.setException(t);
+            }
+        }
+    }
+
+    /**
+     * Journal entries that were prepared while the failed write was in
+     * flight are computed against an image that was never stored, so the
+     * pending write is replaced by a snapshot of the current state. Without
+     * a pending write the next save writes a snapshot.
+     */
+    private synchronized void replacePendingEntries() {
+        synchronized (pendingLock) {
+            if (pendingWrite == null) {
+                snapshotRequired = true;
+            } else if (pendingWrite.snapshot == null) {
+                LOGGER.info("Replacing the pending journal entries with a snapshot");
+                pendingWrite = Write.snapshot(state.toStream());
+                try {
+                    journal.reset(state);
+                } catch (IOException e) {
+                    LOGGER.error("Couldn't reset the journal, the next save writes a snapshot", e);
+                    snapshotRequired = true;
+                }
+            }
+        }
+    }
+
+    private void write(Write write) throws ExecutionException, InterruptedException {
+        long startNanos = System.nanoTime();
+        int bytes = 0;
+        if (write.snapshot != null) {
+            writeSnapshot(write.snapshot);
+            bytes += write.snapshot.length;
+        }
+        if (write.entries.size() > 0) {
+            byte[] entry = write.entries.toByteArray();
+            writeEntry(entry);
+            bytes += entry.length;
+        }
+        lastWriteNanos = System.nanoTime() - startNanos;
+        lastWriteBytes = bytes;
+        totalWriteNanos.addAndGet(lastWriteNanos);
+        totalWriteBytes.add(bytes);
+        writeLatencies.record(lastWriteNanos);
+        writes.incrementAndGet();
+    }
+
+    private void writeSnapshot(byte[] value) throws ExecutionException, InterruptedException {
+        byte[] snapshot;
+        try {
+            // the snapshot contains all journal entries written so far
+            snapshot = CrateStateCodec.withJournalStart(value, journalEnd);
+        } catch (IOException e) {
+            throw new ExecutionException(e);
+        }
+        Variable stored = zk.store(stateVariable.mutate(snapshot)).get();
+        if (stored == null) {
+            stateVariable = zk.fetch(CRATE_STATE).get();
+            throw new ExecutionException(new IllegalStateException("State was modified concurrently"));
+        }
+        stateVariable = stored;
+        snapshotWrites.incrementAndGet();
+        expungeJournal(journalEnd);
+    }
+
+    /**
+     * Removes the journal entries before the sequence, which are contained in
+     * the snapshot. Entries that are left behind are skipped on restore and
+     * removed with the next snapshot.
+     */
+    private void expungeJournal(long sequence) {
+        try {
+            while (journalStart < sequence) {
+                zk.expunge(zk.fetch(journalName(journalStart)).get()).get();
+                journalStart++;
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            LOGGER.warn("Couldn't remove journal entry " + journalName(journalStart), e);
+        }
+    }
+
+    private void writeEntry(byte[] entry) throws ExecutionException, InterruptedException {
+        if (nextEntryVariable == null) {
+            nextEntryVariable = zk.fetch(journalName(journalEnd));
+        }
+        Variable stored = zk.store(nextEntryVariable.get().mutate(entry)).get();
+        if (stored == null) {
+            nextEntryVariable = null;
+            throw new ExecutionException(new IllegalStateException(
+                "Journal entry " + journalName(journalEnd) + " was modified concurrently"));
         }
+        journalEnd++;
+        // the variable of the next entry is fetched ahead so that an entry only takes one round trip
+        nextEntryVariable = zk.fetch(journalName(journalEnd));
+    }
+
+    private static String journalName(long sequence) {
+        return String.format("%s%019d", JOURNAL_PREFIX, sequence);
+    }
+
+    /**
+     * Number of writes to ZooKeeper.
+     */
+    public long writes() {
+        return writes.get();
+    }
+
+    /**
+     * Number of saves that didn't result in a write of their own because
+     * they were collapsed with a later save.
+     */
+    public long coalescedWrites() {
+        return coalescedWrites.get();
+    }
+
+    /**
+     * Number of writes of the full state to the snapshot.
+     */
+    public long snapshotWrites() {
+        return snapshotWrites.get();
+    }
+
+    /**
+     * Number of journal entries that haven't been compacted into the snapshot yet.
+     */
+    public long journalEntries() {
+        return journalEnd - journalStart;
+    }
+
+    /**
+     * Number of saves that are waiting to be written.
+     */
+    public int queueDepth() {
+        synchronized (pendingLock) {
+            return pendingSaves;
+        }
+    }
+
+    public long lastWriteNanos() {
+        return lastWriteNanos;
+    }
+
+    public long totalWriteNanos() {
+        return totalWriteNanos.get();
+    }
+
+    public int lastWriteBytes() {
+        return lastWriteBytes;
+    }
+
+    public long totalWriteBytes() {
+        return totalWriteBytes.get();
+    }
+
+    public LatencyHistogram writeLatencies() {
+        return writeLatencies;
+    }
+
+    /**
+     * Exports the write statistics of the store.
+     */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.histogram("crate_mesos_state_write_seconds",
+                "Time it took to write the framework state to ZooKeeper.", writeLatencies);
+        registry.counter("crate_mesos_state_write_bytes_total", "Bytes of framework state written to ZooKeeper.",
+                totalWriteBytes);
+        registry.gauge("crate_mesos_state_last_write_bytes", "Size of the last write of the framework state.",
+                new Gauge() {
+                    @Override
+                    public double value() {
+                        return lastWriteBytes;
+                    }
+                });
     }
 
     private CrateState restore() {
@@ -75,18 +459,84 @@ public class PersistentStateStore {
             e.printStackTrace();
             LOGGER.error(e.getMessage());
         }
+        CrateState st = new CrateState();
+        long snapshotJournalStart = 0L;
         if (stateVariable != null) {
             try {
-                CrateState st = CrateState.fromStream(stateVariable.value());
-                LOGGER.info("Restored state from Zookeeper: {}", st);
-                LOGGER.debug(st.toString());
-                return st;
+                st = CrateState.fromStream(stateVariable.value());
+                snapshotJournalStart = CrateStateCodec.journalStart(stateVariable.value());
             } catch (IOException e) {
                 e.printStackTrace();
                 LOGGER.error(e.getMessage());
             }
         }
-        return new CrateState();
+        replayJournal(st, snapshotJournalStart);
+        LOGGER.info("Restored state from Zookeeper: {}", st);
+        LOGGER.debug(st.toString());
+        return st;
+    }
+
+    /**
+     * @param snapshotJournalStart sequence of the first entry that is not
+     *                             contained in the snapshot
+     */
+    private void replayJournal(CrateState st, long snapshotJournalStart) {
+        journalStart = snapshotJournalStart;
+        journalEnd = snapshotJournalStart;
+        List<Long> sequences = new ArrayList<>();
+        try {
+            Iterator<String> names = zk.names().get();
+            while (names.hasNext()) {
+                String name = names.next();
+                if (name.startsWith(JOURNAL_PREFIX)) {
+                    sequences.add(Long.parseLong(name.substring(JOURNAL_PREFIX.length())));
+                }
+            }
+        } catch (ExecutionException | InterruptedException | NumberFormatException e) {
+            LOGGER.error("Couldn't list journal entries", e);
+            return;
+        }
+        if (sequences.isEmpty()) {
+            return;
+        }
+        Collections.sort(sequences);
+        List<Long> stale = new ArrayList<>();
+        Iterator<Long> it = sequences.iterator();
+        while (it.hasNext()) {
+            long sequence = it.next();
+            if (sequence < snapshotJournalStart) {
+                stale.add(sequence);
+                it.remove();
+            }
+        }
+        if (!stale.isEmpty()) {
+            LOGGER.info("Skipping {} journal entries that are contained in the snapshot", stale.size());
+            journalStart = stale.get(0);
+            expungeJournal(snapshotJournalStart);
+        }
+        if (sequences.isEmpty()) {
+            return;
+        }
+        // entries are expunged from the oldest to the newest, so there are no gaps
+        journalEnd = sequences.get(sequences.size() - 1) + 1;
+        for (long sequence : sequences) {
+            try {
+                StateJournal.apply(st, zk.fetch(journalName(sequence)).get().value());
+            } catch (ExecutionException | InterruptedException | IOException e) {
+                LOGGER.error("Couldn't replay journal entry " + journalName(sequence), e);
+                return;
+            }
+        }
+        LOGGER.info("Replayed {} journal entries", sequences.size());
+    }
+
+    private StateJournal createJournal(CrateState st) {
+        try {
+            return new StateJournal(st, (int) (journalEnd - journalStart));
+        } catch (IOException e) {
+            LOGGER.error("Couldn't create state journal, writing snapshots only", e);
+            return null;
+        }
     }
 
     public synchronized void desiredInstances(int instances) {
@@ -0,0 +1,204 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Waits until a started process is ready.
+ *
+ * The check is repeated with an exponentially growing delay until it returns
+ * a result or the timeout expires. If the process exits in the meantime the
+ * probe fails right away instead of waiting for the timeout.
+ */
+public class ReadinessProbe<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadinessProbe.class);
+
+    public interface Check<T> {
+
+        /**
+         * @return the result once the process is ready or null if it isn't yet.
+         * Exceptions are treated like null.
+         */
+        @Nullable
+        T check() throws Exception;
+
+        /**
+         * Releases resources of the check once the probe is done.
+         */
+        void close();
+    }
+
+    public interface Listener<T> {
+
+        void ready(T result);
+
+        void failed(String reason);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Process process;
+    private final Check<T> check;
+    private final Listener<T> listener;
+    private final long maxDelayMillis;
+    private final long deadline;
+    private final AtomicBoolean done = new AtomicBoolean(false);
+    private long delayMillis;
+    private int attempts = 0;
+    private volatile ScheduledFuture<?> next;
+    private Thread watcher;
+
+    /**
+     * @param initialDelayMillis the delay before the first check, doubled after each attempt
+     * @param maxDelayMillis     the upper bound of the delay between two checks
+     * @param timeoutMillis      the time after which the probe fails
+     */
+    public ReadinessProbe(ScheduledExecutorService scheduler,
+                          Process process,
+                          Check<T> check,
+                          Listener<T> listener,
+                          long initialDelayMillis,
+                          long maxDelayMillis,
+                          long timeoutMillis) {
+        this.scheduler = scheduler;
+        this.process = process;
+        this.check = check;
+        this.listener = listener;
+        this.delayMillis = Math.max(1, initialDelayMillis);
+        this.maxDelayMillis = Math.max(delayMillis, maxDelayMillis);
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    public ReadinessProbe<T> start() {
+        watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int exitCode = process.waitFor();
+                    fail("Process exited with status " + exitCode + " before it was ready");
+                } catch (InterruptedException e) {
+                    // probe is done
+                }
+            }
+        }, "crate-readiness-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        schedule(delayMillis);
+        return this;
+    }
+
+    /**
+     * Stops the probe without notifying the listener.
+     */
+    public void cancel() {
+        if (done.compareAndSet(false, true)) {
+            cleanUp();
+        }
+    }
+
+    public boolean isDone() {
+        return done.get();
+    }
+
+    private void schedule(long delay) {
+        next = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attempt();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt() {
+        if (done.get()) {
+            return;
+        }
+        attempts++;
+        T result = null;
+        try {
+            result = check.check();
+        } catch (Exception e) {
+            LOGGER.debug("Readiness check {} failed: {}", attempts, e.toString());
+        }
+        if (result != null) {
+            if (done.compareAndSet(false, true)) {
+                LOGGER.info("Process is ready after {} checks", attempts);
+                cleanUp();
+                listener.ready(result);
+            }
+            return;
+        }
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0) {
+            fail("Process is not ready after " + attempts + " checks");
+            return;
+        }
+        delayMillis = Math.min(delayMillis * 2, maxDelayMillis);
+        schedule(Math.min(delayMillis, remaining));
+    }
+
+    private void fail(String reason) {
+        if (done.compareAndSet(false, true)) {
+            LOGGER.error(reason);
+            cleanUp();
+            listener.failed(reason);
+        }
+    }
+
+    private void cleanUp() {
+        ScheduledFuture<?> scheduled = next;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        if (watcher != null && watcher != Thread.currentThread()) {
+            watcher.interrupt();
+        }
+        try {
+            check.close();
+        } catch (RuntimeException e) {
+            LOGGER.debug("Could not close readiness check", e);
+        }
+    }
+
+    /**
+     * Returns true if a connection to the port can be opened.
+     */
+    public static boolean isListening(String host, int port, int timeoutMillis) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
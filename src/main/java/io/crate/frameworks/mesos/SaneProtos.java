@@ -33,6 +33,10 @@ public class SaneProtos {
         return scalarResource("mem", value);
     }
 
+    public static Protos.Resource disk(double value) {
+        return scalarResource("disk", value);
+    }
+
     public static Protos.TaskID taskID(String taskId) {
         return Protos.TaskID.newBuilder().setValue(taskId).build();
     }
@@ -0,0 +1,410 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import com.google.common.base.Objects;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Computes the changes of the {@link CrateState} since the last journal entry.
+ *
+ * The journal keeps an image of the state as of the last entry and compares
+ * it with the current state, so call sites don't need to record their
+ * mutations. Each operation of an entry sets an absolute value (e.g. "put
+ * instance", "remove instance", "set desired instances"), so entries must be
+ * replayed in order and only on the state they were computed against.
+ * Replaying an old entry on a newer snapshot would revert later changes,
+ * which is why {@link PersistentStateStore} skips the entries that a
+ * snapshot already contains.
+ *
+ * <pre>
+ * message Entry {
+ *   repeated Operation operations = 1;
+ * }
+ * message Operation {
+ *   optional Type type = 1;
+ *   optional string key = 2;
+ *   optional bytes instance = 3;
+ *   optional sint32 value = 4;
+ *   repeated string values = 5;
+ *   optional bytes upgrade = 6;
+ *   optional bytes staging = 7;
+ *   optional bytes lost_instance = 8;
+ * }
+ * </pre>
+ */
+public class StateJournal {
+
+    enum Type {
+        DESIRED_INSTANCES,
+        FRAMEWORK_ID,
+        PUT_INSTANCE,
+        REMOVE_INSTANCE,
+        PUT_EXCLUDED_SLAVES,
+        REMOVE_EXCLUDED_SLAVES,
+        ADD_SLAVE_WITH_INSTANCE,
+        REMOVE_SLAVE_WITH_INSTANCE,
+        UPGRADE,
+        REMOVE_UPGRADE,
+        PUT_STAGING,
+        REMOVE_STAGING,
+        PUT_LOST_INSTANCE,
+        REMOVE_LOST_INSTANCE
+    }
+
+    private static final int ENTRY_OPERATIONS = 1;
+
+    private static final int OPERATION_TYPE = 1;
+    private static final int OPERATION_KEY = 2;
+    private static final int OPERATION_INSTANCE = 3;
+    private static final int OPERATION_VALUE = 4;
+    private static final int OPERATION_VALUES = 5;
+    private static final int OPERATION_UPGRADE = 6;
+    private static final int OPERATION_STAGING = 7;
+    private static final int OPERATION_LOST_INSTANCE = 8;
+
+    private int desiredInstances;
+    private String frameworkId;
+    private Map<String, byte[]> instances = new HashMap<>();
+    private Map<String, List<String>> excludedSlaves = new HashMap<>();
+    private Set<String> slavesWithInstances = new HashSet<>();
+    private byte[] upgrade;
+    private Map<String, byte[]> staging = new HashMap<>();
+    private Map<String, byte[]> lostInstances = new HashMap<>();
+    private int entries = 0;
+
+    public StateJournal(CrateState state) throws IOException {
+        this(state, 0);
+    }
+
+    /**
+     * @param entries number of entries that were written on top of the snapshot the state was read from.
+     */
+    public StateJournal(CrateState state, int entries) throws IOException {
+        reset(state);
+        this.entries = entries;
+    }
+
+    /**
+     * Takes the given state as new base for the following entries, e.g. after
+     * a snapshot of the state was written.
+     */
+    public void reset(CrateState state) throws IOException {
+        desiredInstances = state.desiredInstances().getValue();
+        frameworkId = state.frameworkId().orNull();
+        instances = new HashMap<>(state.crateInstances().size());
+        for (CrateInstance instance : state.crateInstances()) {
+            instances.put(instance.taskId(), CrateStateCodec.encodeInstance(instance));
+        }
+        excludedSlaves = copy(state.excludedSlaves());
+        slavesWithInstances = new HashSet<>(state.slavesWithInstances());
+        upgrade = state.upgrade() == null ? null : CrateStateCodec.encodeUpgrade(state.upgrade());
+        staging = new HashMap<>(state.staging().size());
+        for (AgentStaging agentStaging : state.staging().values()) {
+            staging.put(agentStaging.slaveId(), CrateStateCodec.encodeStaging(agentStaging));
+        }
+        lostInstances = new HashMap<>(state.lostInstances().size());
+        for (LostInstance lost : state.lostInstances().values()) {
+            lostInstances.put(lost.slaveId(), CrateStateCodec.encodeLostInstance(lost));
+        }
+        entries = 0;
+    }
+
+    /**
+     * Number of entries since the last snapshot.
+     */
+    public int entries() {
+        return entries;
+    }
+
+    /**
+     * Returns an entry containing all changes since the previous entry or
+     * null if the state did not change.
+     */
+    public byte[] entry(CrateState state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+
+        int desired = state.desiredInstances().getValue();
+        if (desired != desiredInstances) {
+            writeOperation(out, Type.DESIRED_INSTANCES, null, null, desired, null);
+            desiredInstances = desired;
+        }
+        String currentFrameworkId = state.frameworkId().orNull();
+        if (currentFrameworkId != null && !currentFrameworkId.equals(frameworkId)) {
+            writeOperation(out, Type.FRAMEWORK_ID, currentFrameworkId, null, 0, null);
+            frameworkId = currentFrameworkId;
+        }
+
+        Map<String, byte[]> currentInstances = new HashMap<>(state.crateInstances().size());
+        for (CrateInstance instance : state.crateInstances()) {
+            byte[] encoded = CrateStateCodec.encodeInstance(instance);
+            currentInstances.put(instance.taskId(), encoded);
+            if (!Arrays.equals(encoded, instances.get(instance.taskId()))) {
+                writeOperation(out, Type.PUT_INSTANCE, null, encoded, 0, null);
+            }
+        }
+        for (String taskId : instances.keySet()) {
+            if (!currentInstances.containsKey(taskId)) {
+                writeOperation(out, Type.REMOVE_INSTANCE, taskId, null, 0, null);
+            }
+        }
+        instances = currentInstances;
+
+        for (Map.Entry<String, List<String>> entry : state.excludedSlaves().entrySet()) {
+            if (!Objects.equal(entry.getValue(), excludedSlaves.get(entry.getKey()))) {
+                writeOperation(out, Type.PUT_EXCLUDED_SLAVES, entry.getKey(), null, 0, entry.getValue());
+            }
+        }
+        for (String reason : excludedSlaves.keySet()) {
+            if (!state.excludedSlaves().containsKey(reason)) {
+                writeOperation(out, Type.REMOVE_EXCLUDED_SLAVES, reason, null, 0, null);
+            }
+        }
+        excludedSlaves = copy(state.excludedSlaves());
+
+        for (String slaveId : state.slavesWithInstances()) {
+            if (!slavesWithInstances.contains(slaveId)) {
+                writeOperation(out, Type.ADD_SLAVE_WITH_INSTANCE, slaveId, null, 0, null);
+            }
+        }
+        for (String slaveId : slavesWithInstances) {
+            if (!state.slavesWithInstances().contains(slaveId)) {
+                writeOperation(out, Type.REMOVE_SLAVE_WITH_INSTANCE, slaveId, null, 0, null);
+            }
+        }
+        slavesWithInstances = new HashSet<>(state.slavesWithInstances());
+
+        byte[] currentUpgrade = state.upgrade() == null ? null : CrateStateCodec.encodeUpgrade(state.upgrade());
+        if (!Arrays.equals(currentUpgrade, upgrade)) {
+            if (currentUpgrade == null) {
+                writeOperation(out, Type.REMOVE_UPGRADE, null, null, 0, null);
+            } else {
+                writeOperation(out, Type.UPGRADE, null, null, 0, null, OPERATION_UPGRADE, currentUpgrade);
+            }
+            upgrade = currentUpgrade;
+        }
+
+        Map<String, byte[]> currentStaging = new HashMap<>(state.staging().size());
+        for (AgentStaging agentStaging : state.staging().values()) {
+            byte[] encoded = CrateStateCodec.encodeStaging(agentStaging);
+            currentStaging.put(agentStaging.slaveId(), encoded);
+            if (!Arrays.equals(encoded, staging.get(agentStaging.slaveId()))) {
+                writeOperation(out, Type.PUT_STAGING, null, null, 0, null, OPERATION_STAGING, encoded);
+            }
+        }
+        for (String slaveId : staging.keySet()) {
+            if (!currentStaging.containsKey(slaveId)) {
+                writeOperation(out, Type.REMOVE_STAGING, slaveId, null, 0, null);
+            }
+        }
+        staging = currentStaging;
+
+        Map<String, byte[]> currentLost = new HashMap<>(state.lostInstances().size());
+        for (LostInstance lost : state.lostInstances().values()) {
+            byte[] encoded = CrateStateCodec.encodeLostInstance(lost);
+            currentLost.put(lost.slaveId(), encoded);
+            if (!Arrays.equals(encoded, lostInstances.get(lost.slaveId()))) {
+                writeOperation(out, Type.PUT_LOST_INSTANCE, null, null, 0, null, OPERATION_LOST_INSTANCE, encoded);
+            }
+        }
+        for (String slaveId : lostInstances.keySet()) {
+            if (!currentLost.containsKey(slaveId)) {
+                writeOperation(out, Type.REMOVE_LOST_INSTANCE, slaveId, null, 0, null);
+            }
+        }
+        lostInstances = currentLost;
+
+        out.flush();
+        if (bytes.size() == 0) {
+            return null;
+        }
+        entries++;
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Applies the operations of an entry to the state.
+     * Entries that were concatenated are applied in order.
+     */
+    public static void apply(CrateState state, byte[] entry) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(entry);
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) == ENTRY_OPERATIONS) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                applyOperation(state, in);
+                in.popLimit(limit);
+            } else {
+                in.skipField(tag);
+            }
+        }
+    }
+
+    private static void applyOperation(CrateState state, CodedInputStream in) throws IOException {
+        Type type = null;
+        String key = null;
+        byte[] instance = null;
+        int value = 0;
+        List<String> values = new ArrayList<>();
+        byte[] upgrade = null;
+        byte[] staging = null;
+        byte[] lostInstance = null;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case OPERATION_TYPE:
+                    int ordinal = in.readEnum();
+                    type = ordinal < Type.values().length ? Type.values()[ordinal] : null;
+                    break;
+                case OPERATION_KEY:
+                    key = in.readString();
+                    break;
+                case OPERATION_INSTANCE:
+                    instance = in.readBytes().toByteArray();
+                    break;
+                case OPERATION_VALUE:
+                    value = in.readSInt32();
+                    break;
+                case OPERATION_VALUES:
+                    values.add(in.readString());
+                    break;
+                case OPERATION_UPGRADE:
+                    upgrade = in.readBytes().toByteArray();
+                    break;
+                case OPERATION_STAGING:
+                    staging = in.readBytes().toByteArray();
+                    break;
+                case OPERATION_LOST_INSTANCE:
+                    lostInstance = in.readBytes().toByteArray();
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+        if (type == null) {
+            throw new IOException("Unknown journal operation");
+        }
+        switch (type) {
+            case DESIRED_INSTANCES:
+                state.desiredInstances(value);
+                break;
+            case FRAMEWORK_ID:
+                state.frameworkId(key);
+                break;
+            case PUT_INSTANCE:
+                state.crateInstances().putInstance(CrateStateCodec.decodeInstance(instance));
+                break;
+            case REMOVE_INSTANCE:
+                state.crateInstances().removeTask(key);
+                break;
+            case PUT_EXCLUDED_SLAVES:
+                state.excludedSlaves().put(key, values);
+                break;
+            case REMOVE_EXCLUDED_SLAVES:
+                state.excludedSlaves().remove(key);
+                break;
+            case ADD_SLAVE_WITH_INSTANCE:
+                state.slavesWithInstances().add(key);
+                break;
+            case REMOVE_SLAVE_WITH_INSTANCE:
+                state.slavesWithInstances().remove(key);
+                break;
+            case UPGRADE:
+                state.upgrade(CrateStateCodec.decodeUpgrade(upgrade));
+                break;
+            case REMOVE_UPGRADE:
+                state.upgrade(null);
+                break;
+            case PUT_STAGING:
+                AgentStaging agentStaging = CrateStateCodec.decodeStaging(staging);
+                state.staging().put(agentStaging.slaveId(), agentStaging);
+                break;
+            case REMOVE_STAGING:
+                state.staging().remove(key);
+                break;
+            case PUT_LOST_INSTANCE:
+                LostInstance lost = CrateStateCodec.decodeLostInstance(lostInstance);
+                state.lostInstances().put(lost.slaveId(), lost);
+                break;
+            case REMOVE_LOST_INSTANCE:
+                state.lostInstances().remove(key);
+                break;
+        }
+    }
+
+    private static void writeOperation(CodedOutputStream out,
+                                       Type type,
+                                       String key,
+                                       byte[] instance,
+                                       int value,
+                                       List<String> values) throws IOException {
+        writeOperation(out, type, key, instance, value, values, 0, null);
+    }
+
+    private static void writeOperation(CodedOutputStream out,
+                                       Type type,
+                                       String key,
+                                       byte[] instance,
+                                       int value,
+                                       List<String> values,
+                                       int messageField,
+                                       byte[] message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream operation = CodedOutputStream.newInstance(bytes);
+        operation.writeEnum(OPERATION_TYPE, type.ordinal());
+        if (key != null) {
+            operation.writeString(OPERATION_KEY, key);
+        }
+        if (instance != null) {
+            operation.writeBytes(OPERATION_INSTANCE, ByteString.copyFrom(instance));
+        }
+        if (value != 0) {
+            operation.writeSInt32(OPERATION_VALUE, value);
+        }
+        if (values != null) {
+            for (String v : values) {
+                operation.writeString(OPERATION_VALUES, v);
+            }
+        }
+        if (message != null) {
+            operation.writeBytes(messageField, ByteString.copyFrom(message));
+        }
+        operation.flush();
+        out.writeBytes(ENTRY_OPERATIONS, ByteString.copyFrom(bytes.toByteArray()));
+    }
+
+    private static Map<String, List<String>> copy(Map<String, List<String>> excludedSlaves) {
+        Map<String, List<String>> copy = new HashMap<>(excludedSlaves.size());
+        for (Map.Entry<String, List<String>> entry : excludedSlaves.entrySet()) {
+            copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return copy;
+    }
+}
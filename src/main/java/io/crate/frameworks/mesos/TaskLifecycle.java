@@ -0,0 +1,182 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timestamps (milliseconds since the epoch) of the phases a Crate task goes
+ * through until it is healthy.
+ *
+ * The offer is accepted on the scheduler, all later phases are timestamped on
+ * the agent, so the time until {@link Phase#STARTING} includes the clock
+ * offset between the scheduler and the agent.
+ */
+public class TaskLifecycle implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The phases in the order they are reached. New phases must be appended,
+     * the ordinal is persisted.
+     */
+    public enum Phase {
+        OFFER_ACCEPTED,
+        STARTING,
+        FETCHED,
+        EXTRACTED,
+        PROCESS_STARTED,
+        RUNNING,
+        HEALTHY;
+
+        private static final Phase[] VALUES = values();
+
+        public String key() {
+            return name().toLowerCase();
+        }
+    }
+
+    // 0 if the phase has not been reached (yet)
+    private final long[] timestamps = new long[Phase.VALUES.length];
+
+    public long timestamp(Phase phase) {
+        return timestamps[phase.ordinal()];
+    }
+
+    public boolean reached(Phase phase) {
+        return timestamps[phase.ordinal()] > 0;
+    }
+
+    /**
+     * Records the time a phase was reached. Only the first time is kept, e.g. a
+     * node that becomes healthy again after a failed health check doesn't
+     * change the time it was healthy first.
+     *
+     * @return true if the timestamp was recorded
+     */
+    public boolean reached(Phase phase, long timestamp) {
+        if (timestamp <= 0 || reached(phase)) {
+            return false;
+        }
+        timestamps[phase.ordinal()] = timestamp;
+        return true;
+    }
+
+    /**
+     * Records all phases of the other lifecycle that have not been reached yet.
+     *
+     * @return true if any timestamp was recorded
+     */
+    public boolean merge(TaskLifecycle other) {
+        boolean changed = false;
+        for (Phase phase : Phase.VALUES) {
+            changed |= reached(phase, other.timestamp(phase));
+        }
+        return changed;
+    }
+
+    /**
+     * Time it took to reach the phase from the latest earlier phase that has
+     * been reached, or -1 if the phase or none of the earlier phases have been
+     * reached.
+     */
+    public long durationMillis(Phase phase) {
+        long end = timestamp(phase);
+        if (end <= 0) {
+            return -1;
+        }
+        for (int i = phase.ordinal() - 1; i >= 0; i--) {
+            if (timestamps[i] > 0) {
+                return Math.max(0, end - timestamps[i]);
+            }
+        }
+        return -1;
+    }
+
+    public Map<String, Long> toMap() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (Phase phase : Phase.VALUES) {
+            if (reached(phase)) {
+                map.put(phase.key(), timestamp(phase));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Percentiles of the duration of every phase over the given lifecycles.
+     * Phases that no lifecycle has reached are omitted.
+     */
+    public static Map<String, Map<String, Long>> percentiles(Iterable<TaskLifecycle> lifecycles, int... percentiles) {
+        List<List<Long>> durations = new ArrayList<>(Phase.VALUES.length);
+        for (int i = 0; i < Phase.VALUES.length; i++) {
+            durations.add(new ArrayList<Long>());
+        }
+        for (TaskLifecycle lifecycle : lifecycles) {
+            for (Phase phase : Phase.VALUES) {
+                long duration = lifecycle.durationMillis(phase);
+                if (duration >= 0) {
+                    durations.get(phase.ordinal()).add(duration);
+                }
+            }
+        }
+        Map<String, Map<String, Long>> result = new LinkedHashMap<>();
+        for (Phase phase : Phase.VALUES) {
+            List<Long> values = durations.get(phase.ordinal());
+            if (values.isEmpty()) {
+                continue;
+            }
+            Collections.sort(values);
+            Map<String, Long> stats = new LinkedHashMap<>();
+            stats.put("count", (long) values.size());
+            for (int percentile : percentiles) {
+                // nearest rank
+                int rank = (int) Math.ceil(percentile / 100.0 * values.size());
+                stats.put("p" + percentile, values.get(Math.max(0, rank - 1)));
+            }
+            stats.put("max", values.get(values.size() - 1));
+            result.put(phase.key(), stats);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof TaskLifecycle && Arrays.equals(timestamps, ((TaskLifecycle) o).timestamps));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(timestamps);
+    }
+
+    @Override
+    public String toString() {
+        return "TaskLifecycle" + toMap();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import java.util.*;
+
+/**
+ * Keeps the most recent telemetry samples of every task in memory.
+ *
+ * Each task has a ring buffer of fixed capacity, so the memory used is
+ * bounded by the number of tasks. The samples are lost when the scheduler
+ * fails over.
+ */
+public class TelemetryStore {
+
+    public static final int DEFAULT_CAPACITY = 360;
+
+    private static class Series {
+
+        private final String nodeName;
+        private final MessageTelemetry.Sample[] samples;
+        private int next = 0;
+        private int size = 0;
+
+        Series(String nodeName, int capacity) {
+            this.nodeName = nodeName;
+            this.samples = new MessageTelemetry.Sample[capacity];
+        }
+
+        void add(MessageTelemetry.Sample sample) {
+            samples[next] = sample;
+            next = (next + 1) % samples.length;
+            size = Math.min(size + 1, samples.length);
+        }
+
+        List<MessageTelemetry.Sample> samples() {
+            List<MessageTelemetry.Sample> list = new ArrayList<>(size);
+            int start = (next - size + samples.length) % samples.length;
+            for (int i = 0; i < size; i++) {
+                list.add(samples[(start + i) % samples.length]);
+            }
+            return list;
+        }
+    }
+
+    private final int capacity;
+    private final Map<String, Series> series = new HashMap<>();
+
+    public TelemetryStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of samples kept per task
+     */
+    public TelemetryStore(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    public synchronized void add(MessageTelemetry message) {
+        Series taskSeries = series.get(message.taskId());
+        if (taskSeries == null) {
+            taskSeries = new Series(message.nodeName(), capacity);
+            series.put(message.taskId(), taskSeries);
+        }
+        for (MessageTelemetry.Sample sample : message.samples()) {
+            taskSeries.add(sample);
+        }
+    }
+
+    public synchronized void remove(String taskId) {
+        series.remove(taskId);
+    }
+
+    /**
+     * Returns the samples of a task, oldest first.
+     */
+    public synchronized List<MessageTelemetry.Sample> samples(String taskId) {
+        Series taskSeries = series.get(taskId);
+        return taskSeries == null ? Collections.<MessageTelemetry.Sample>emptyList() : taskSeries.samples();
+    }
+
+    /**
+     * Returns the node name and samples of all tasks, suitable for JSON serialization.
+     */
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> map = new TreeMap<>();
+        for (Map.Entry<String, Series> entry : series.entrySet()) {
+            List<Map<String, Long>> samples = new ArrayList<>();
+            for (MessageTelemetry.Sample sample : entry.getValue().samples()) {
+                samples.add(sample.toMap());
+            }
+            Map<String, Object> task = new LinkedHashMap<>();
+            task.put("nodeName", entry.getValue().nodeName);
+            task.put("samples", samples);
+            map.put(entry.getKey(), task);
+        }
+        return map;
+    }
+}
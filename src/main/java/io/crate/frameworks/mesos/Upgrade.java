@@ -0,0 +1,144 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import com.google.common.base.Objects;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+
+/**
+ * A rolling upgrade of the cluster from one Crate version to another.
+ *
+ * Instances that don't run the {@link #targetVersion()} are replaced one
+ * batch of {@link #parallelism()} instances at a time. A rollback swaps the
+ * target back to the version the upgrade started from, so the instances
+ * that were upgraded already are replaced again.
+ */
+public class Upgrade implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String fromVersion;
+    private final String fromChecksum;
+    private final String toVersion;
+    private final String toChecksum;
+    private final int parallelism;
+    private boolean paused = false;
+    private boolean rolledBack = false;
+
+    /**
+     * Versions are version numbers or download URLs, checksums are SHA-256
+     * checksums of the tarballs or null if they are not known.
+     */
+    public Upgrade(String fromVersion,
+                   @Nullable String fromChecksum,
+                   String toVersion,
+                   @Nullable String toChecksum,
+                   int parallelism) {
+        this.fromVersion = fromVersion;
+        this.fromChecksum = fromChecksum;
+        this.toVersion = toVersion;
+        this.toChecksum = toChecksum;
+        this.parallelism = parallelism;
+    }
+
+    public String fromVersion() {
+        return fromVersion;
+    }
+
+    @Nullable
+    public String fromChecksum() {
+        return fromChecksum;
+    }
+
+    public String toVersion() {
+        return toVersion;
+    }
+
+    @Nullable
+    public String toChecksum() {
+        return toChecksum;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    public boolean paused() {
+        return paused;
+    }
+
+    public void paused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public boolean rolledBack() {
+        return rolledBack;
+    }
+
+    public void rolledBack(boolean rolledBack) {
+        this.rolledBack = rolledBack;
+    }
+
+    /**
+     * The version all instances are replaced with.
+     */
+    public String targetVersion() {
+        return rolledBack ? fromVersion : toVersion;
+    }
+
+    @Nullable
+    public String targetChecksum() {
+        return rolledBack ? fromChecksum : toChecksum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Upgrade upgrade = (Upgrade) o;
+        return parallelism == upgrade.parallelism &&
+               paused == upgrade.paused &&
+               rolledBack == upgrade.rolledBack &&
+               Objects.equal(fromVersion, upgrade.fromVersion) &&
+               Objects.equal(fromChecksum, upgrade.fromChecksum) &&
+               Objects.equal(toVersion, upgrade.toVersion) &&
+               Objects.equal(toChecksum, upgrade.toChecksum);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(fromVersion, fromChecksum, toVersion, toChecksum, parallelism, paused, rolledBack);
+    }
+
+    @Override
+    public String toString() {
+        return "Upgrade{" +
+                "fromVersion='" + fromVersion + '\'' +
+                ", toVersion='" + toVersion + '\'' +
+                ", parallelism=" + parallelism +
+                ", paused=" + paused +
+                ", rolledBack=" + rolledBack +
+                '}';
+    }
+}
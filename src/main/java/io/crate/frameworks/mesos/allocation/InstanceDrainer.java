@@ -0,0 +1,334 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.allocation;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.crate.frameworks.mesos.CrateInstance;
+import io.crate.frameworks.mesos.CrateInstances;
+import io.crate.frameworks.mesos.CrateState;
+import io.crate.frameworks.mesos.PersistentStateStore;
+import org.apache.mesos.SchedulerDriver;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static io.crate.frameworks.mesos.SaneProtos.taskID;
+
+/**
+ * Removes instances from the cluster without losing shards.
+ *
+ * The instances with the fewest shards and the least data are chosen and
+ * excluded from the shard allocation, so the cluster moves their shards to
+ * the remaining nodes. An instance is only killed once it has no shards left
+ * (or after the drain timeout), and at most {@code parallelism} killed tasks
+ * are waiting to finish at the same time.
+ *
+ * The number of instances to remove is worked out from the state on every
+ * poll (the instances minus the desired instances), so victims whose tasks
+ * have finished are never counted twice. {@link #scaleDown} only triggers a
+ * poll; the allocation is checked and the tasks are killed by the periodic
+ * {@link #run()}, so the caller is never blocked by queries.
+ *
+ * The state is read and the victims are changed while holding the lock of
+ * the {@link PersistentStateStore}, which is shared with the scheduler; the
+ * queries are done without it.
+ */
+public class InstanceDrainer implements Runnable, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InstanceDrainer.class);
+
+    private static class Victim {
+
+        private final String taskId;
+        private final long startedMillis;
+        private boolean killed = false;
+
+        Victim(String taskId, long startedMillis) {
+            this.taskId = taskId;
+            this.startedMillis = startedMillis;
+        }
+    }
+
+    private final PersistentStateStore store;
+    private final ShardAllocation allocation;
+    private final int parallelism;
+    private final long timeoutMillis;
+    // in the order in which the instances are killed, guarded by the store
+    private final LinkedHashMap<String, Victim> victims = new LinkedHashMap<>();
+    private Set<String> excluded = Collections.emptySet();
+    private volatile SchedulerDriver driver;
+    private ScheduledExecutorService executor;
+
+    public InstanceDrainer(PersistentStateStore store, ShardAllocation allocation, int parallelism, long timeoutMillis) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.store = store;
+        this.allocation = allocation;
+        this.parallelism = parallelism;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Starts the periodic poll, which also drains the instances that are too
+     * many after a failover, before the scheduler asks for it.
+     */
+    public synchronized void start(SchedulerDriver driver, long intervalMillis) {
+        this.driver = driver;
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("instance-drainer").setDaemon(true).build());
+        executor.scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks the instances against the desired instances as soon as possible.
+     * Instances that are too many are drained, if more instances are desired
+     * again the draining of the instances that are not killed yet is
+     * cancelled.
+     */
+    public synchronized void scaleDown() {
+        if (executor != null) {
+            executor.execute(this);
+        }
+    }
+
+    /**
+     * Task ids of the instances that are being drained or killed.
+     */
+    public List<String> draining() {
+        synchronized (store) {
+            return new ArrayList<>(victims.keySet());
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            poll(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            LOGGER.error("Draining instances failed", e);
+        }
+    }
+
+    void poll(long nowMillis) {
+        synchronized (store) {
+            CrateState state = store.state();
+            forgetFinished(state.crateInstances());
+            if (toRemove(state) == 0 && victims.isEmpty() && excluded.isEmpty()) {
+                return;
+            }
+        }
+        Map<String, NodeShards> nodes = allocation.nodes();
+        Set<String> names = new LinkedHashSet<>();
+        boolean changed;
+        synchronized (store) {
+            CrateState state = store.state();
+            CrateInstances instances = state.crateInstances();
+            forgetFinished(instances);
+            cancelOrSelect(instances, toRemove(state), nodes, nowMillis);
+            // killed nodes stay excluded until their task has finished
+            for (Victim victim : victims.values()) {
+                NodeShards node = node(instances.byTaskId(victim.taskId), nodes);
+                if (node != null) {
+                    names.add(node.name());
+                }
+            }
+            changed = !names.equals(excluded);
+        }
+        if (changed && allocation.exclude(names)) {
+            synchronized (store) {
+                excluded = names;
+            }
+        }
+        synchronized (store) {
+            CrateInstances instances = store.state().crateInstances();
+            // tasks may have finished while the allocation was changed
+            forgetFinished(instances);
+            kill(instances, nodes, nowMillis);
+        }
+    }
+
+    private void forgetFinished(CrateInstances instances) {
+        for (Iterator<Victim> it = victims.values().iterator(); it.hasNext(); ) {
+            if (instances.byTaskId(it.next().taskId) == null) {
+                // the task has finished
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Kills the drained victims, as long as less than {@code parallelism}
+     * killed tasks are waiting to finish.
+     */
+    private void kill(CrateInstances instances, @Nullable Map<String, NodeShards> nodes, long nowMillis) {
+        if (driver == null) {
+            LOGGER.debug("Not started yet, draining {} without killing", victims.keySet());
+            return;
+        }
+        int killed = 0;
+        for (Victim victim : victims.values()) {
+            if (victim.killed) {
+                killed++;
+            }
+        }
+        for (Victim victim : victims.values()) {
+            if (killed >= parallelism) {
+                break;
+            }
+            if (victim.killed) {
+                continue;
+            }
+            CrateInstance instance = instances.byTaskId(victim.taskId);
+            String reason = drained(instance, nodes);
+            if (reason == null && nowMillis - victim.startedMillis >= timeoutMillis) {
+                NodeShards node = node(instance, nodes);
+                LOGGER.warn("Timed out draining task {}, {} shards are left", victim.taskId,
+                        node == null ? "unknown" : node.shards());
+                reason = "drain timeout";
+            }
+            if (reason != null) {
+                LOGGER.info("Kill task {} on {}: {}", victim.taskId, instance.hostname(), reason);
+                driver.killTask(taskID(victim.taskId));
+                victim.killed = true;
+                killed++;
+            }
+        }
+    }
+
+    /**
+     * Number of instances that are too many, including the victims that are
+     * killed but not finished yet. Nothing is drained if the whole cluster is
+     * shut down, there is nowhere to move the shards to.
+     */
+    private static int toRemove(CrateState state) {
+        int desired = state.desiredInstances().getValue();
+        if (desired <= 0) {
+            return 0;
+        }
+        return Math.max(0, state.crateInstances().size() - desired);
+    }
+
+    /**
+     * Returns why the instance can be killed or null if it still has shards.
+     */
+    @Nullable
+    private String drained(CrateInstance instance, @Nullable Map<String, NodeShards> nodes) {
+        if (instance.state() != CrateInstance.State.RUNNING || instance.nodeId() == null) {
+            return "not running";
+        }
+        if (nodes == null) {
+            return null;
+        }
+        NodeShards node = nodes.get(instance.nodeId());
+        if (node == null) {
+            return "not part of the cluster";
+        }
+        if (node.shards() == 0 && excluded.contains(node.name())) {
+            return "drained";
+        }
+        return null;
+    }
+
+    private void cancelOrSelect(CrateInstances instances, int toRemove,
+                                @Nullable Map<String, NodeShards> nodes, long nowMillis) {
+        if (victims.size() > toRemove) {
+            List<String> taskIds = new ArrayList<>(victims.keySet());
+            for (int i = taskIds.size() - 1; i >= 0 && victims.size() > toRemove; i--) {
+                if (!victims.get(taskIds.get(i)).killed) {
+                    LOGGER.info("Stop draining task {}", taskIds.get(i));
+                    victims.remove(taskIds.get(i));
+                }
+            }
+        } else if (victims.size() < toRemove) {
+            List<CrateInstance> candidates = new ArrayList<>();
+            for (CrateInstance instance : instances) {
+                if (!victims.containsKey(instance.taskId())) {
+                    candidates.add(instance);
+                }
+            }
+            Collections.sort(candidates, byFootprint(nodes));
+            for (int i = 0; i < candidates.size() && victims.size() < toRemove; i++) {
+                CrateInstance instance = candidates.get(i);
+                LOGGER.info("Draining task {} on {}: {}", instance.taskId(), instance.hostname(), node(instance, nodes));
+                victims.put(instance.taskId(), new Victim(instance.taskId(), nowMillis));
+            }
+        }
+    }
+
+    /**
+     * Instances without data (not running or not part of the cluster) come
+     * first, then the instances with the fewest shards and bytes.
+     */
+    static Comparator<CrateInstance> byFootprint(@Nullable final Map<String, NodeShards> nodes) {
+        return new Comparator<CrateInstance>() {
+            @Override
+            public int compare(CrateInstance a, CrateInstance b) {
+                int result = Long.compare(footprint(a, 0), footprint(b, 0));
+                return result != 0 ? result : Long.compare(footprint(a, 1), footprint(b, 1));
+            }
+
+            private long footprint(CrateInstance instance, int index) {
+                if (instance.state() != CrateInstance.State.RUNNING || instance.nodeId() == null) {
+                    return -1L;
+                }
+                if (nodes == null) {
+                    return 0L;
+                }
+                NodeShards node = nodes.get(instance.nodeId());
+                if (node == null) {
+                    return -1L;
+                }
+                return index == 0 ? node.shards() : node.bytes();
+            }
+        };
+    }
+
+    @Nullable
+    private static NodeShards node(@Nullable CrateInstance instance, @Nullable Map<String, NodeShards> nodes) {
+        if (instance == null || instance.nodeId() == null || nodes == null) {
+            return null;
+        }
+        return nodes.get(instance.nodeId());
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
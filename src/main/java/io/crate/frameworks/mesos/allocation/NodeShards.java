@@ -0,0 +1,70 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.allocation;
+
+/**
+ * The shards that are allocated on a Crate node.
+ */
+public class NodeShards {
+
+    private final String nodeId;
+    private final String name;
+    private final long shards;
+    private final long bytes;
+
+    public NodeShards(String nodeId, String name, long shards, long bytes) {
+        this.nodeId = nodeId;
+        this.name = name;
+        this.shards = shards;
+        this.bytes = bytes;
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Number of shards on the node, including shards that are relocated to
+     * or from the node.
+     */
+    public long shards() {
+        return shards;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeShards{" +
+                "nodeId='" + nodeId + '\'' +
+                ", name='" + name + '\'' +
+                ", shards=" + shards +
+                ", bytes=" + bytes +
+                '}';
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.allocation;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Reads and controls where the Crate cluster allocates its shards.
+ */
+public interface ShardAllocation {
+
+    /**
+     * Returns the shards of every node of the cluster by node id, or null if
+     * the cluster could not be queried.
+     */
+    @Nullable
+    Map<String, NodeShards> nodes();
+
+    /**
+     * Moves all shards away from the nodes with the given names and keeps
+     * new shards from being allocated on them. An empty collection allows
+     * allocation on all nodes again.
+     *
+     * @return false if the setting could not be applied
+     */
+    boolean exclude(Collection<String> nodeNames);
+
+    /**
+     * Sets which shards may be allocated, e.g. {@code all} or
+     * {@code new_primaries} while a node is restarted.
+     *
+     * @return false if the setting could not be applied
+     */
+    boolean enable(String allocation);
+
+    /**
+     * Returns the number of shards that are not started (unassigned,
+     * initializing or relocating), 0 if the cluster is green, or -1 if the
+     * cluster could not be queried.
+     */
+    long shardsNotStarted();
+}
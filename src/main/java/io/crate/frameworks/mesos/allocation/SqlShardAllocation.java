@@ -0,0 +1,136 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.allocation;
+
+import com.google.common.base.Joiner;
+import io.crate.action.sql.SQLActionException;
+import io.crate.action.sql.SQLResponse;
+import io.crate.client.CrateClient;
+import io.crate.frameworks.mesos.api.CrateClientPool;
+import io.crate.frameworks.mesos.api.CrateRestResource;
+import io.crate.shade.org.elasticsearch.ElasticsearchTimeoutException;
+import io.crate.shade.org.elasticsearch.action.ActionFuture;
+import io.crate.shade.org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link ShardAllocation} that uses {@code sys.nodes}, {@code sys.shards} and
+ * the {@code cluster.routing.allocation} settings.
+ */
+public class SqlShardAllocation implements ShardAllocation {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqlShardAllocation.class);
+
+    static final String EXCLUDE_SETTING = "cluster.routing.allocation.exclude._name";
+    static final String ENABLE_SETTING = "cluster.routing.allocation.enable";
+    static final String SQL_NODES = "SELECT id, name FROM sys.nodes";
+    static final String SQL_SHARDS = "SELECT _node['id'], count(*), sum(size) FROM sys.shards GROUP BY _node['id']";
+    static final String SQL_NOT_STARTED = "SELECT count(*) FROM sys.shards WHERE state <> 'STARTED'";
+
+    private final CrateClientPool clients;
+    private final long timeoutMillis;
+
+    public SqlShardAllocation(CrateClientPool clients, long timeoutMillis) {
+        this.clients = clients;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Nullable
+    @Override
+    public Map<String, NodeShards> nodes() {
+        try (CrateClientPool.Lease lease = clients.acquire()) {
+            if (lease == null) {
+                return null;
+            }
+            CrateClient client = lease.client();
+            ActionFuture<SQLResponse> nodes = client.sql(SQL_NODES);
+            ActionFuture<SQLResponse> shards = client.sql(SQL_SHARDS);
+            return nodes(nodes.actionGet(timeoutMillis).rows(), shards.actionGet(timeoutMillis).rows());
+        } catch (SQLActionException | NoNodeAvailableException | ElasticsearchTimeoutException e) {
+            LOGGER.warn("Could not read the shard allocation", e);
+            return null;
+        }
+    }
+
+    static Map<String, NodeShards> nodes(Object[][] nodeRows, Object[][] shardRows) {
+        Map<String, Object[]> shardsByNode = new HashMap<>();
+        for (Object[] row : shardRows) {
+            // unassigned shards have no node
+            if (row[0] != null) {
+                shardsByNode.put((String) row[0], row);
+            }
+        }
+        Map<String, NodeShards> nodes = new HashMap<>();
+        for (Object[] row : nodeRows) {
+            String nodeId = (String) row[0];
+            Object[] shards = shardsByNode.get(nodeId);
+            nodes.put(nodeId, new NodeShards(nodeId, (String) row[1],
+                    shards == null ? 0L : number(shards[1]),
+                    shards == null ? 0L : number(shards[2])));
+        }
+        return nodes;
+    }
+
+    private static long number(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+
+    @Override
+    public boolean exclude(Collection<String> nodeNames) {
+        try (CrateClientPool.Lease lease = clients.acquire()) {
+            if (lease == null) {
+                return false;
+            }
+            return CrateRestResource.setClusterSetting(lease.client(), EXCLUDE_SETTING, Joiner.on(',').join(nodeNames));
+        }
+    }
+
+    @Override
+    public boolean enable(String allocation) {
+        try (CrateClientPool.Lease lease = clients.acquire()) {
+            if (lease == null) {
+                return false;
+            }
+            return CrateRestResource.setClusterSetting(lease.client(), ENABLE_SETTING, allocation);
+        }
+    }
+
+    @Override
+    public long shardsNotStarted() {
+        try (CrateClientPool.Lease lease = clients.acquire()) {
+            if (lease == null) {
+                return -1L;
+            }
+            Object[][] rows = lease.client().sql(SQL_NOT_STARTED).actionGet(timeoutMillis).rows();
+            return rows.length == 0 ? 0L : number(rows[0][0]);
+        } catch (SQLActionException | NoNodeAvailableException | ElasticsearchTimeoutException e) {
+            LOGGER.warn("Could not read the shard states", e);
+            return -1L;
+        }
+    }
+}
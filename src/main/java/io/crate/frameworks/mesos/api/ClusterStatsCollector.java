@@ -0,0 +1,190 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.api;
+
+import com.google.common.base.Supplier;
+import io.crate.action.sql.SQLActionException;
+import io.crate.action.sql.SQLResponse;
+import io.crate.client.CrateClient;
+import io.crate.frameworks.mesos.CrateInstance;
+import io.crate.frameworks.mesos.CrateInstances;
+import io.crate.frameworks.mesos.PersistentStateStore;
+import io.crate.shade.org.elasticsearch.ElasticsearchTimeoutException;
+import io.crate.shade.org.elasticsearch.action.ActionFuture;
+import io.crate.shade.org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects live statistics of the Crate nodes from {@code sys.nodes} and
+ * {@code sys.shards} and joins them with the instances of the framework.
+ *
+ * Every call queries the cluster, wrap the collector with
+ * {@link com.google.common.base.Suppliers#memoizeWithExpiration} to limit
+ * the number of queries.
+ */
+public class ClusterStatsCollector implements Supplier<Map<String, Object>> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterStatsCollector.class);
+
+    static final String SQL_NODES = "SELECT id, name, load['1'], load['5'], load['15'], " +
+                                    "heap['used'], heap['max'], " +
+                                    "fs['total']['used'], fs['total']['available'], fs['total']['size'], " +
+                                    "thread_pools['name'], thread_pools['active'], thread_pools['queue'], " +
+                                    "thread_pools['rejected'] " +
+                                    "FROM sys.nodes";
+    static final String SQL_SHARDS = "SELECT _node['id'], state, count(*) FROM sys.shards GROUP BY _node['id'], state";
+
+    private final PersistentStateStore store;
+    private final CrateClientPool clients;
+    private final long timeoutMillis;
+
+    public ClusterStatsCollector(PersistentStateStore store, CrateClientPool clients, long timeoutMillis) {
+        this.store = store;
+        this.clients = clients;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public Map<String, Object> get() {
+        Map<String, Map<String, Object>> nodes = new HashMap<>();
+        // HashMap allows the null key of unassigned shards
+        Map<String, Map<String, Long>> shards = new HashMap<>();
+        String error = null;
+        try (CrateClientPool.Lease lease = clients.acquire()) {
+            if (lease != null) {
+                CrateClient client = lease.client();
+                // both queries are sent before waiting for either of them
+                ActionFuture<SQLResponse> nodesResponse = client.sql(SQL_NODES);
+                ActionFuture<SQLResponse> shardsResponse = client.sql(SQL_SHARDS);
+                readNodes(nodesResponse.actionGet(timeoutMillis), nodes);
+                readShards(shardsResponse.actionGet(timeoutMillis), shards);
+            }
+        } catch (SQLActionException | NoNodeAvailableException | ElasticsearchTimeoutException e) {
+            LOGGER.warn("Could not collect cluster statistics", e);
+            error = e.getMessage();
+        }
+
+        List<Map<String, Object>> tasks = new ArrayList<>();
+        Map<String, Long> shardTotals = new TreeMap<>();
+        CrateInstances instances = store.state().crateInstances();
+        for (CrateInstance instance : instances) {
+            Map<String, Object> task = new LinkedHashMap<>();
+            task.put("taskId", instance.taskId());
+            task.put("hostname", instance.hostname());
+            task.put("slaveId", instance.slaveID());
+            task.put("version", instance.version());
+            task.put("state", instance.state().name());
+            task.put("healthy", instance.healthy());
+            task.put("nodeId", instance.nodeId());
+            Map<String, Object> node = instance.nodeId() == null ? null : nodes.get(instance.nodeId());
+            task.put("node", node);
+            Map<String, Long> nodeShards = instance.nodeId() == null ? null : shards.get(instance.nodeId());
+            task.put("shards", nodeShards == null ? new TreeMap<String, Long>() : nodeShards);
+            tasks.add(task);
+        }
+        for (Map<String, Long> nodeShards : shards.values()) {
+            for (Map.Entry<String, Long> entry : nodeShards.entrySet()) {
+                Long total = shardTotals.get(entry.getKey());
+                shardTotals.put(entry.getKey(), (total == null ? 0L : total) + entry.getValue());
+            }
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("timestamp", System.currentTimeMillis());
+        stats.put("tasks", tasks);
+        stats.put("shards", shardTotals);
+        if (error != null) {
+            stats.put("error", error);
+        }
+        return stats;
+    }
+
+    private static void readNodes(SQLResponse response, Map<String, Map<String, Object>> nodes) {
+        for (Object[] row : response.rows()) {
+            Map<String, Object> node = new LinkedHashMap<>();
+            node.put("name", row[1]);
+            Map<String, Object> load = new LinkedHashMap<>();
+            load.put("1", row[2]);
+            load.put("5", row[3]);
+            load.put("15", row[4]);
+            node.put("load", load);
+            Map<String, Object> heap = new LinkedHashMap<>();
+            heap.put("used", row[5]);
+            heap.put("max", row[6]);
+            node.put("heap", heap);
+            Map<String, Object> fs = new LinkedHashMap<>();
+            fs.put("used", row[7]);
+            fs.put("available", row[8]);
+            fs.put("total", row[9]);
+            node.put("fs", fs);
+            node.put("threadPools", threadPools(row[10], row[11], row[12], row[13]));
+            nodes.put((String) row[0], node);
+        }
+    }
+
+    /**
+     * The thread pool columns are arrays with one element per pool.
+     */
+    private static Map<String, Object> threadPools(Object names, Object active, Object queue, Object rejected) {
+        Map<String, Object> pools = new TreeMap<>();
+        if (!(names instanceof Object[])) {
+            return pools;
+        }
+        Object[] nameArray = (Object[]) names;
+        for (int i = 0; i < nameArray.length; i++) {
+            Map<String, Object> pool = new LinkedHashMap<>();
+            pool.put("active", element(active, i));
+            pool.put("queue", element(queue, i));
+            pool.put("rejected", element(rejected, i));
+            pools.put(String.valueOf(nameArray[i]), pool);
+        }
+        return pools;
+    }
+
+    private static Object element(Object array, int index) {
+        if (array instanceof Object[] && index < ((Object[]) array).length) {
+            return ((Object[]) array)[index];
+        }
+        return null;
+    }
+
+    private static void readShards(SQLResponse response, Map<String, Map<String, Long>> shards) {
+        for (Object[] row : response.rows()) {
+            // unassigned shards have no node id, they are only part of the totals
+            String nodeId = (String) row[0];
+            Map<String, Long> nodeShards = shards.get(nodeId);
+            if (nodeShards == null) {
+                nodeShards = new TreeMap<>();
+                shards.put(nodeId, nodeShards);
+            }
+            nodeShards.put(String.valueOf(row[1]), ((Number) row[2]).longValue());
+        }
+    }
+}
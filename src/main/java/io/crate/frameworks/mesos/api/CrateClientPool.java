@@ -0,0 +1,155 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.api;
+
+import com.google.common.base.Supplier;
+import io.crate.client.CrateClient;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Arrays;
+
+/**
+ * Shares one long lived {@link CrateClient} between all API requests.
+ *
+ * Creating a client bootstraps a transport client with its own thread pools
+ * and connections, which is far more expensive than the queries the API
+ * runs. The client is replaced when the hosts of the running instances
+ * change; a replaced client is closed once the last request that uses it
+ * has released it.
+ */
+public class CrateClientPool implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrateClientPool.class);
+
+    public interface Factory {
+        CrateClient create(String... hosts);
+    }
+
+    static final Factory DEFAULT_FACTORY = new Factory() {
+        @Override
+        public CrateClient create(String... hosts) {
+            return new CrateClient(hosts);
+        }
+    };
+
+    private static class Entry {
+
+        private final CrateClient client;
+        private final String[] hosts;
+        private int references = 0;
+        private boolean retired = false;
+
+        Entry(CrateClient client, String[] hosts) {
+            this.client = client;
+            this.hosts = hosts;
+        }
+    }
+
+    /**
+     * A client that is in use, it must be closed after use.
+     */
+    public class Lease implements AutoCloseable {
+
+        private final Entry entry;
+        private boolean released = false;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public CrateClient client() {
+            return entry.client;
+        }
+
+        @Override
+        public void close() {
+            synchronized (CrateClientPool.this) {
+                if (!released) {
+                    released = true;
+                    entry.references--;
+                    closeIfUnused(entry);
+                }
+            }
+        }
+    }
+
+    private final Supplier<String[]> hosts;
+    private final Factory factory;
+    private Entry current;
+
+    public CrateClientPool(Supplier<String[]> hosts) {
+        this(hosts, DEFAULT_FACTORY);
+    }
+
+    public CrateClientPool(Supplier<String[]> hosts, Factory factory) {
+        this.hosts = hosts;
+        this.factory = factory;
+    }
+
+    /**
+     * Returns a client connected to the current hosts or null if no instance
+     * is running.
+     */
+    @Nullable
+    public synchronized Lease acquire() {
+        String[] currentHosts = hosts.get();
+        if (current != null && !Arrays.equals(current.hosts, currentHosts)) {
+            LOGGER.debug("Hosts changed from {} to {}, replacing client",
+                    Arrays.toString(current.hosts), Arrays.toString(currentHosts));
+            retire(current);
+            current = null;
+        }
+        if (currentHosts.length == 0) {
+            return null;
+        }
+        if (current == null) {
+            current = new Entry(factory.create(currentHosts), currentHosts);
+        }
+        current.references++;
+        return new Lease(current);
+    }
+
+    private void retire(Entry entry) {
+        entry.retired = true;
+        closeIfUnused(entry);
+    }
+
+    private void closeIfUnused(Entry entry) {
+        if (entry.retired && entry.references == 0) {
+            entry.client.close();
+        }
+    }
+
+    /**
+     * Closes the client, clients that are in use are closed when they are released.
+     */
+    @Override
+    public synchronized void close() {
+        if (current != null) {
+            retire(current);
+            current = null;
+        }
+    }
+}
@@ -22,7 +22,9 @@
 package io.crate.frameworks.mesos.api;
 
 import io.crate.frameworks.mesos.PersistentStateStore;
+import io.crate.frameworks.mesos.TelemetryStore;
 import io.crate.frameworks.mesos.config.Configuration;
+import io.crate.frameworks.mesos.metrics.MetricsRegistry;
 import org.glassfish.grizzly.http.server.*;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
@@ -41,12 +43,27 @@ import java.util.concurrent.TimeUnit;
 public class CrateHttpService {
 
     private final HttpServer server;
+    private final CrateRestResource restResource;
     private final static String PACKAGE_NAMESPACE = "io.crate.frameworks.mesos.api";
     private static final Logger LOGGER = LoggerFactory.getLogger(CrateHttpService.class);
 
     public CrateHttpService(PersistentStateStore crateState, Configuration conf) {
+        this(crateState, conf, new TelemetryStore());
+    }
+
+    public CrateHttpService(PersistentStateStore crateState, Configuration conf, TelemetryStore telemetry) {
+        this(crateState, conf, telemetry, new MetricsRegistry());
+    }
+
+    public CrateHttpService(PersistentStateStore crateState,
+                            Configuration conf,
+                            TelemetryStore telemetry,
+                            MetricsRegistry metrics) {
+        restResource = new CrateRestResource(crateState, conf, telemetry);
         ResourceConfig httpConf = new ResourceConfig()
-                .register(new CrateRestResource(crateState, conf))
+                .register(restResource)
+                .register(new MetricsResource(metrics))
+                .register(new RequestMetricsFilter(metrics))
                 .packages(PACKAGE_NAMESPACE);
         URI httpUri = UriBuilder.fromPath("/").scheme("http").host("0.0.0.0").port(conf.apiPort).build();
         server = GrizzlyHttpServerFactory.createHttpServer(httpUri, httpConf);
@@ -74,10 +91,12 @@ public class CrateHttpService {
 
     public void start() throws IOException {
         server.start();
+        restResource.start();
     }
 
     public void stop() {
         server.shutdown(30_000, TimeUnit.MILLISECONDS);
+        restResource.close();
     }
 
 }
@@ -21,30 +21,37 @@
 
 package io.crate.frameworks.mesos.api;
 
+import com.beust.jcommander.ParameterException;
 import com.google.common.base.Splitter;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import io.crate.action.sql.SQLActionException;
 import io.crate.action.sql.SQLRequest;
 import io.crate.action.sql.SQLResponse;
 import io.crate.client.CrateClient;
+import io.crate.frameworks.mesos.CrateInstance;
 import io.crate.frameworks.mesos.CrateInstances;
 import io.crate.frameworks.mesos.PersistentStateStore;
+import io.crate.frameworks.mesos.TaskLifecycle;
+import io.crate.frameworks.mesos.TelemetryStore;
+import io.crate.frameworks.mesos.Upgrade;
 import io.crate.frameworks.mesos.Version;
 import io.crate.frameworks.mesos.config.Configuration;
+import io.crate.shade.org.elasticsearch.ElasticsearchTimeoutException;
 import io.crate.shade.org.elasticsearch.client.transport.NoNodeAvailableException;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.retry.RetryNTimes;
 import org.jetbrains.annotations.Nullable;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.annotation.Nonnull;
 import javax.ws.rs.*;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.core.*;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 
 @Path("/")
@@ -54,26 +61,44 @@ public class CrateRestResource {
     private static final Logger LOGGER = LoggerFactory.getLogger(CrateRestResource.class);
     private static final String SQL_MAX_REPLICAS = "SELECT number_of_replicas FROM information_schema.tables GROUP BY number_of_replicas";
     private static final Client RS_CLIENT = ClientBuilder.newClient();
+    private static final long AGENTS_REFRESH_INTERVAL_MILLIS = 10_000L;
+    private static final long QUERY_TIMEOUT_MILLIS = 5_000L;
+    private static final long STATS_TTL_MILLIS = 5_000L;
     private final PersistentStateStore store;
     private final Configuration conf;
+    private final TelemetryStore telemetry;
+    private final CrateClientPool clients;
+    private final Supplier<Map<String, Object>> stats;
+    private MesosMasterMonitor masterMonitor;
 
     public CrateRestResource(PersistentStateStore store, Configuration conf) {
+        this(store, conf, new TelemetryStore());
+    }
+
+    public CrateRestResource(final PersistentStateStore store, Configuration conf, TelemetryStore telemetry) {
         this.store = store;
         this.conf = conf;
+        this.telemetry = telemetry;
+        this.clients = new CrateClientPool(new Supplier<String[]>() {
+            @Override
+            public String[] get() {
+                return store.state().crateInstances().connectionHosts();
+            }
+        });
+        // dashboards poll the statistics, so the cluster is queried at most once per TTL
+        this.stats = Suppliers.memoizeWithExpiration(
+                new ClusterStatsCollector(store, clients, QUERY_TIMEOUT_MILLIS), STATS_TTL_MILLIS, TimeUnit.MILLISECONDS);
     }
 
-    @Nullable
-    private CrateClient client() {
-        if (store.state().crateInstances().size() > 0) {
-            return new CrateClient(store.state().crateInstances().connectionHosts());
-        }
-        return null;
-    }
 
-    private static int getMaxReplicas(CrateClient client) {
+    /**
+     * Returns the highest number of replicas of any table, or 0 if it
+     * cannot be determined.
+     */
+    public static int getMaxReplicas(CrateClient client) {
         int maxReplicas = 0;
         try {
-            SQLResponse response = client.sql(SQL_MAX_REPLICAS).actionGet();
+            SQLResponse response = client.sql(SQL_MAX_REPLICAS).actionGet(QUERY_TIMEOUT_MILLIS);
             for (Object[] objects : response.rows()) {
                 List<String> replicas = Splitter.on("-").splitToList((String) objects[0]);
                 String val = replicas.get(replicas.size()-1);
@@ -85,32 +110,43 @@ public class CrateRestResource {
         } catch (NoNodeAvailableException e) {
             // since we do not have a crate node to connect to we can accept the request to start up / shut down nodes.
             LOGGER.warn("No Crate node available.", e);
-        } catch (SQLActionException e) {
+        } catch (SQLActionException | ElasticsearchTimeoutException e) {
             LOGGER.warn("An error occurred while trying to get max replicas", e);
         }
         return maxReplicas;
     }
 
     /**
-     * Try to set the value of a specific transient cluster setting.
-     * Fails silently if no node is available or the database returns a SQL error.
+     * Sets the value of a specific transient cluster setting.
      * @param client An instantiated Crate client instance.
      * @param setting The full qualified setting name.
      * @param value The new value of the setting.
+     * @return false if no node is available or the database returns a SQL error
      */
-    private void setClusterSetting(CrateClient client, String setting, Object value) {
+    public static boolean setClusterSetting(CrateClient client, String setting, Object value) {
         LOGGER.info("SET {} = {}", setting, value);
         SQLRequest request = new SQLRequest(
                 String.format("SET GLOBAL TRANSIENT \"%s\" = ?", setting),
                 new Object[]{ value }
         );
         try {
-            client.sql(request).actionGet();
-        } catch (SQLActionException | NoNodeAvailableException e) {
+            client.sql(request).actionGet(QUERY_TIMEOUT_MILLIS);
+            return true;
+        } catch (SQLActionException | NoNodeAvailableException | ElasticsearchTimeoutException e) {
             LOGGER.warn("An error occurred while trying to set setting.", e);
+            return false;
         }
     }
 
+    /**
+     * Sets the quorum of master nodes for the given number of instances.
+     */
+    public static void updateMinimumMasterNodes(CrateClient client, int instances) {
+        int quorum = CrateInstances.calculateQuorum(instances);
+        LOGGER.debug("update cluster settings: desired={} quorum={}", instances, quorum);
+        setClusterSetting(client, "discovery.zen.minimum_master_nodes", quorum);
+    }
+
     @GET
     public GenericAPIResponse index(@Context UriInfo uriInfo) {
         return new GenericAPIResponse() {
@@ -121,11 +157,63 @@ public class CrateRestResource {
         };
     }
 
+    @GET
+    @Path("/cluster/telemetry")
+    public Response clusterTelemetry() {
+        final Map<String, Object> tasks = telemetry.toMap();
+        return Response.ok().entity(new GenericAPIResponse() {
+            @Override
+            public Object getMessage() {
+                return tasks;
+            }
+        }).build();
+    }
+
+    @GET
+    @Path("/cluster/stats")
+    public Response clusterStats() {
+        final Map<String, Object> clusterStats = stats.get();
+        return Response.ok().entity(new GenericAPIResponse() {
+            @Override
+            public Object getMessage() {
+                return clusterStats;
+            }
+        }).build();
+    }
+
+    @GET
+    @Path("/cluster/lifecycle")
+    public Response clusterLifecycle() {
+        final Map<String, Object> tasks = new LinkedHashMap<>();
+        List<TaskLifecycle> lifecycles = new ArrayList<>();
+        for (CrateInstance instance : store.state().crateInstances()) {
+            tasks.put(instance.taskId(), instance.lifecycle().toMap());
+            lifecycles.add(instance.lifecycle());
+        }
+        final Map<String, Map<String, Long>> phases = TaskLifecycle.percentiles(lifecycles, 50, 90, 99);
+        return Response.ok().entity(new GenericAPIResponse() {
+            @Override
+            public Object getMessage() {
+                Map<String, Object> message = new LinkedHashMap<>();
+                message.put("phases", phases);
+                message.put("tasks", tasks);
+                return message;
+            }
+        }).build();
+    }
+
     @GET
     @Path("/cluster")
     public Response clusterIndex(@Context UriInfo uriInfo) {
         final int desired = store.state().desiredInstances().getValue();
         final int running = store.state().crateInstances().size();
+        int unhealthyCount = 0;
+        for (CrateInstance instance : store.state().crateInstances()) {
+            if (Boolean.FALSE.equals(instance.healthy())) {
+                unhealthyCount++;
+            }
+        }
+        final int unhealthy = unhealthyCount;
         final HashMap<String, List<String>> excluded = store.state().excludedSlaves();
         return Response.ok().entity(new GenericAPIResponse() {
             @Override
@@ -137,6 +225,7 @@ public class CrateRestResource {
                             {
                                 put("desired", desired);
                                 put("running", running);
+                                put("unhealthy", unhealthy);
                             }
                         });
                         put("excludedSlaves", excluded);
@@ -161,6 +250,18 @@ public class CrateRestResource {
                                 put("apiPort", conf.apiPort);
                             }
                         });
+                        put("stateStore", new HashMap<String, Object>(){
+                            {
+                                put("writeBehind", conf.stateWriteBehind);
+                                put("writes", store.writes());
+                                put("coalescedWrites", store.coalescedWrites());
+                                put("snapshotWrites", store.snapshotWrites());
+                                put("journalEntries", store.journalEntries());
+                                put("queueDepth", store.queueDepth());
+                                put("lastWriteMillis", TimeUnit.NANOSECONDS.toMillis(store.lastWriteNanos()));
+                                put("lastWriteBytes", store.lastWriteBytes());
+                            }
+                        });
                     }
                 };
             }
@@ -187,8 +288,8 @@ public class CrateRestResource {
 
         String address = mesosMasterAddress();
         if (address != null) {
-            int activeMesosSlaves = numActiveSlaves(address);
-            if (desired > activeMesosSlaves) {
+            int activeMesosSlaves = numActiveSlaves();
+            if (activeMesosSlaves >= 0 && desired > activeMesosSlaves) {
                 return Response.status(Response.Status.FORBIDDEN).entity(new GenericAPIResponse() {
                     @Override
                     public int getStatus() {
@@ -203,29 +304,27 @@ public class CrateRestResource {
             }
         }
 
-        CrateClient client = client();
-        if (client != null) {
-            if (desired < store.state().crateInstances().size()) {
-                int maxReplicas = getMaxReplicas(client);
-                LOGGER.debug("max replicas = {} desired instances = {}", maxReplicas, desired);
-                if (maxReplicas > 0 && desired < maxReplicas + 1) {
-                    client.close();
-                    return Response.status(Response.Status.FORBIDDEN).entity(new GenericAPIResponse() {
-                        @Override
-                        public int getStatus() {
-                            return Response.Status.FORBIDDEN.getStatusCode();
-                        }
-                        @Override
-                        public Object getMessage() {
-                            return "Could not change the number of instances. The number of desired instances is lower than the number of replicas + 1.";
-                        }
-                    }).build();
+        try (CrateClientPool.Lease lease = clients.acquire()) {
+            if (lease != null) {
+                CrateClient client = lease.client();
+                if (desired < store.state().crateInstances().size()) {
+                    int maxReplicas = getMaxReplicas(client);
+                    LOGGER.debug("max replicas = {} desired instances = {}", maxReplicas, desired);
+                    if (maxReplicas > 0 && desired < maxReplicas + 1) {
+                        return Response.status(Response.Status.FORBIDDEN).entity(new GenericAPIResponse() {
+                            @Override
+                            public int getStatus() {
+                                return Response.Status.FORBIDDEN.getStatusCode();
+                            }
+                            @Override
+                            public Object getMessage() {
+                                return "Could not change the number of instances. The number of desired instances is lower than the number of replicas + 1.";
+                            }
+                        }).build();
+                    }
                 }
+                updateMinimumMasterNodes(client, desired);
             }
-            int quorum = CrateInstances.calculateQuorum(desired);
-            LOGGER.debug("update cluster settings: desired={} quorum={}", desired, quorum);
-            setClusterSetting(client, "discovery.zen.minimum_master_nodes", quorum);
-            client.close();
         }
         store.state().desiredInstances(desired);
         return Response.ok(new GenericAPIResponse() {}).build();
@@ -238,46 +337,171 @@ public class CrateRestResource {
                 .build();
     }
 
+    /**
+     * Starts watching the Mesos masters, so that the first resize request
+     * doesn't have to wait for the ZooKeeper session.
+     */
+    public void start() {
+        masterMonitor();
+    }
+
+    public synchronized void close() {
+        clients.close();
+        if (masterMonitor != null) {
+            masterMonitor.close();
+            masterMonitor = null;
+        }
+    }
+
     @Nullable
-    String mesosMasterAddress() {
-        try (CuratorFramework cf = zkClient()) {
-            cf.start();
-            List<String> children = cf.getChildren().forPath("/mesos");
-            List<Integer> masterIds= new ArrayList<Integer>();
-            if (children.isEmpty()) {
+    private synchronized MesosMasterMonitor masterMonitor() {
+        if (masterMonitor == null) {
+            MesosMasterMonitor monitor = new MesosMasterMonitor(zkClient(), RS_CLIENT, AGENTS_REFRESH_INTERVAL_MILLIS);
+            try {
+                monitor.start();
+            } catch (Exception e) {
+                LOGGER.error("Could not watch the Mesos masters", e);
+                monitor.close();
                 return null;
             }
-            JSONObject cfData = null;
+            masterMonitor = monitor;
+        }
+        return masterMonitor;
+    }
 
-            for (String child : children) {
-                if (child.startsWith("json.info")) {
-                    masterIds.add(Integer.parseInt(child.split("_")[1]));
-                }
+    @Nullable
+    String mesosMasterAddress() {
+        MesosMasterMonitor monitor = masterMonitor();
+        return monitor == null ? null : monitor.leaderAddress();
+    }
+
+    int numActiveSlaves() {
+        MesosMasterMonitor monitor = masterMonitor();
+        return monitor == null ? -1 : monitor.activeAgents();
+    }
+
+    @GET
+    @Path("/cluster/upgrade")
+    public Response clusterUpgradeStatus() {
+        final Upgrade upgrade;
+        int upgraded = 0;
+        final Map<String, String> tasks = new LinkedHashMap<>();
+        // the state is shared with the scheduler and the rolling upgrade
+        synchronized (store) {
+            upgrade = store.state().upgrade();
+            if (upgrade == null) {
+                return error(Response.Status.NOT_FOUND, "No upgrade in progress.");
             }
-            Collections.sort(masterIds);
-            for (String child : children) {
-                if (child.endsWith(String.valueOf(masterIds.get(0)))) {
-                    cfData = new JSONObject(new String(cf.getData().forPath("/mesos/" + child)));
-                    break;
+            for (CrateInstance instance : store.state().crateInstances()) {
+                tasks.put(instance.taskId(), instance.version());
+                if (upgrade.targetVersion().equals(instance.version())) {
+                    upgraded++;
                 }
             }
+        }
+        final int done = upgraded;
+        return Response.ok().entity(new GenericAPIResponse() {
+            @Override
+            public Object getMessage() {
+                Map<String, Object> message = new LinkedHashMap<>();
+                message.put("fromVersion", upgrade.fromVersion());
+                message.put("toVersion", upgrade.toVersion());
+                message.put("targetVersion", upgrade.targetVersion());
+                message.put("parallelism", upgrade.parallelism());
+                message.put("paused", upgrade.paused());
+                message.put("rolledBack", upgrade.rolledBack());
+                message.put("upgraded", done);
+                message.put("total", tasks.size());
+                message.put("tasks", tasks);
+                return message;
+            }
+        }).build();
+    }
 
-            if (cfData != null) {
-                JSONObject address = cfData.getJSONObject("address");
-                return String.format("%s:%d", address.getString("ip"), address.getInt("port"));
+    @POST
+    @Path("/cluster/upgrade")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response clusterUpgrade(ClusterUpgradeRequest data) {
+        String version = data.getVersion();
+        try {
+            new Configuration.VersionValidator().validate("version", version == null ? "" : version);
+        } catch (ParameterException e) {
+            return error(Response.Status.BAD_REQUEST, e.getMessage());
+        }
+        if (data.getParallelism() < 1) {
+            return error(Response.Status.BAD_REQUEST, "The parallelism must be at least 1.");
+        }
+        synchronized (store) {
+            if (store.state().upgrade() != null) {
+                return error(Response.Status.CONFLICT, "An upgrade is already in progress.");
+            }
+            CrateInstances instances = store.state().crateInstances();
+            String fromVersion = instances.size() > 0 ? instances.get(0).version() : conf.version;
+            if (version.equals(fromVersion)) {
+                return error(Response.Status.BAD_REQUEST, String.format("The cluster already runs %s.", version));
             }
-        } catch (Exception e) {
-            LOGGER.error("Error while obtaining a mesos address from the curator framework: ", e);
+            String fromChecksum = fromVersion.equals(conf.version) ? conf.checksum : null;
+            Upgrade upgrade = new Upgrade(fromVersion, fromChecksum, version, data.getChecksum(), data.getParallelism());
+            LOGGER.info("Starting {}", upgrade);
+            store.state().upgrade(upgrade);
+            store.save();
         }
-        return null;
+        return Response.ok(new GenericAPIResponse() {}).build();
     }
 
-    int numActiveSlaves(@Nonnull String mesosAddr) {
-        String url = String.format("http://%s/metrics/snapshot", mesosAddr);
-        javax.ws.rs.core.Response response = RS_CLIENT.target(url).request(MediaType.APPLICATION_JSON).get();
-        JSONObject clusterState = new JSONObject(response.readEntity(String.class));
+    @POST
+    @Path("/cluster/upgrade/pause")
+    public Response clusterUpgradePause() {
+        return changeUpgrade(true, false);
+    }
 
-        return clusterState.getInt("master/slaves_active");
+    @POST
+    @Path("/cluster/upgrade/resume")
+    public Response clusterUpgradeResume() {
+        return changeUpgrade(false, false);
+    }
+
+    /**
+     * Replaces the instances that have been upgraded with the previous
+     * version again.
+     */
+    @POST
+    @Path("/cluster/upgrade/rollback")
+    public Response clusterUpgradeRollback() {
+        return changeUpgrade(false, true);
+    }
+
+    private Response changeUpgrade(boolean paused, boolean rollback) {
+        synchronized (store) {
+            Upgrade upgrade = store.state().upgrade();
+            if (upgrade == null) {
+                return error(Response.Status.CONFLICT, "No upgrade in progress.");
+            }
+            if (rollback) {
+                if (upgrade.rolledBack()) {
+                    return error(Response.Status.CONFLICT, "The upgrade is already rolled back.");
+                }
+                upgrade.rolledBack(true);
+            }
+            upgrade.paused(paused);
+            LOGGER.info("Changed {}", upgrade);
+            store.save();
+        }
+        return Response.ok(new GenericAPIResponse() {}).build();
+    }
+
+    private static Response error(final Response.Status status, final String message) {
+        return Response.status(status).entity(new GenericAPIResponse() {
+            @Override
+            public int getStatus() {
+                return status.getStatusCode();
+            }
+
+            @Override
+            public Object getMessage() {
+                return message;
+            }
+        }).build();
     }
 
     @POST
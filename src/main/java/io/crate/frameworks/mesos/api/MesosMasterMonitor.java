@@ -0,0 +1,208 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.api;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.MediaType;
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the leading Mesos master and the number of active agents.
+ *
+ * The master znodes are watched with a {@link PathChildrenCache} on a long
+ * lived ZooKeeper session, so the leader is known without a round trip. The
+ * number of active agents is polled from the leading master in the
+ * background and whenever the leader changes.
+ */
+public class MesosMasterMonitor implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MesosMasterMonitor.class);
+    private static final String MESOS_PATH = "/mesos";
+    private static final String MASTER_PREFIX = "json.info_";
+
+    private final CuratorFramework zkClient;
+    private final Client httpClient;
+    private final long refreshIntervalMillis;
+    private final PathChildrenCache masters;
+    private final ScheduledExecutorService refresher;
+
+    private volatile String leaderAddress = null;
+    private volatile int activeAgents = -1;
+
+    public MesosMasterMonitor(CuratorFramework zkClient, Client httpClient, long refreshIntervalMillis) {
+        this.zkClient = zkClient;
+        this.httpClient = httpClient;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.masters = new PathChildrenCache(zkClient, MESOS_PATH, true);
+        this.refresher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("mesos-master-monitor").setDaemon(true).build());
+    }
+
+    /**
+     * Starts watching the masters in the background.
+     */
+    public void start() throws Exception {
+        masters.getListenable().addListener(new PathChildrenCacheListener() {
+            @Override
+            public void childEvent(CuratorFramework client, PathChildrenCacheEvent event) {
+                updateLeader();
+            }
+        });
+        zkClient.start();
+        masters.start(PathChildrenCache.StartMode.POST_INITIALIZED_EVENT);
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refreshActiveAgents();
+            }
+        }, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The address (host:port) of the leading master or null if it is not known.
+     */
+    @Nullable
+    public String leaderAddress() {
+        return leaderAddress;
+    }
+
+    /**
+     * The number of active agents as last reported by the leading master.
+     * If it has not been fetched yet, it is fetched right away.
+     *
+     * @return the number of agents or -1 if it could not be determined
+     */
+    public int activeAgents() {
+        int agents = activeAgents;
+        if (agents < 0) {
+            agents = refreshActiveAgents();
+        }
+        return agents;
+    }
+
+    private void updateLeader() {
+        String address = leaderAddress(masters.getCurrentData());
+        if (!Objects.equals(address, leaderAddress)) {
+            LOGGER.info("Leading Mesos master is {}", address);
+            leaderAddress = address;
+            activeAgents = -1;
+            if (address != null) {
+                refresher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        refreshActiveAgents();
+                    }
+                });
+            }
+        }
+    }
+
+    private int refreshActiveAgents() {
+        String address = leaderAddress;
+        if (address == null) {
+            return -1;
+        }
+        try {
+            int agents = fetchActiveAgents(address);
+            // don't overwrite the count if the leader changed in the meantime
+            if (address.equals(leaderAddress)) {
+                activeAgents = agents;
+            }
+            return agents;
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not get the number of active agents from " + address, e);
+            return -1;
+        }
+    }
+
+    int fetchActiveAgents(String address) {
+        String url = String.format("http://%s/metrics/snapshot", address);
+        String snapshot = httpClient.target(url).request(MediaType.APPLICATION_JSON).get(String.class);
+        return new JSONObject(snapshot).getInt("master/slaves_active");
+    }
+
+    /**
+     * Returns the address of the master with the lowest sequence number,
+     * which is the leader, or null if there is none.
+     */
+    @Nullable
+    static String leaderAddress(List<ChildData> children) {
+        ChildData leader = null;
+        long leaderSequence = Long.MAX_VALUE;
+        for (ChildData child : children) {
+            String name = child.getPath().substring(child.getPath().lastIndexOf('/') + 1);
+            if (!name.startsWith(MASTER_PREFIX)) {
+                continue;
+            }
+            long sequence;
+            try {
+                sequence = Long.parseLong(name.substring(MASTER_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (sequence < leaderSequence) {
+                leader = child;
+                leaderSequence = sequence;
+            }
+        }
+        if (leader == null || leader.getData() == null) {
+            return null;
+        }
+        try {
+            JSONObject info = new JSONObject(new String(leader.getData(), StandardCharsets.UTF_8));
+            JSONObject address = info.getJSONObject("address");
+            return String.format("%s:%d", address.getString("ip"), address.getInt("port"));
+        } catch (JSONException e) {
+            LOGGER.error("Could not read the address of the Mesos master from " + leader.getPath(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+        try {
+            masters.close();
+        } catch (Exception e) {
+            LOGGER.warn("Could not close the cache of the Mesos masters", e);
+        }
+        zkClient.close();
+    }
+}
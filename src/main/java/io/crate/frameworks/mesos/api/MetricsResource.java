@@ -0,0 +1,49 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.api;
+
+import io.crate.frameworks.mesos.metrics.MetricsRegistry;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+
+/**
+ * Exports the metrics of the framework in the Prometheus text format.
+ */
+@Path("/metrics")
+public class MetricsResource {
+
+    private final MetricsRegistry registry;
+
+    public MetricsResource(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @GET
+    public Response metrics() throws IOException {
+        StringBuilder sb = new StringBuilder(4096);
+        registry.writeTo(sb);
+        return Response.ok(sb.toString(), MetricsRegistry.CONTENT_TYPE).build();
+    }
+}
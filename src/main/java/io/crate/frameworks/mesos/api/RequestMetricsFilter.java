@@ -0,0 +1,67 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.api;
+
+import io.crate.frameworks.mesos.metrics.Counter;
+import io.crate.frameworks.mesos.metrics.LatencyHistogram;
+import io.crate.frameworks.mesos.metrics.MetricsRegistry;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+
+/**
+ * Records the latency and the response status of all API requests.
+ */
+public class RequestMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String START_PROPERTY = RequestMetricsFilter.class.getName() + ".start";
+
+    private final LatencyHistogram latencies;
+    private final Counter[] responses = new Counter[5];
+
+    public RequestMetricsFilter(MetricsRegistry registry) {
+        latencies = registry.histogram("crate_mesos_api_request_seconds", "Latency of the framework API requests.");
+        for (int i = 0; i < responses.length; i++) {
+            responses[i] = registry.counter("crate_mesos_api_responses_total",
+                    "Responses of the framework API by status class.", "code", (i + 1) + "xx");
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        request.setProperty(START_PROPERTY, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        Object start = request.getProperty(START_PROPERTY);
+        if (start instanceof Long) {
+            latencies.record(System.nanoTime() - (Long) start);
+        }
+        int statusClass = response.getStatus() / 100;
+        if (statusClass >= 1 && statusClass <= responses.length) {
+            responses[statusClass - 1].inc();
+        }
+    }
+}
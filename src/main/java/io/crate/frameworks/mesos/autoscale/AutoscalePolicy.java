@@ -0,0 +1,101 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.autoscale;
+
+import io.crate.frameworks.mesos.config.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds and thresholds of the {@link Autoscaler}.
+ *
+ * The low thresholds must be below the high thresholds; load between them
+ * neither scales up nor down, which keeps the cluster from flapping around a
+ * single threshold. Query thresholds of 0 are ignored.
+ */
+public class AutoscalePolicy {
+
+    final boolean dryRun;
+    final int minInstances;
+    final int maxInstances;
+    final int samples;
+    final long cooldownUpMillis;
+    final long cooldownDownMillis;
+    final double cpuHigh;
+    final double cpuLow;
+    final double heapHigh;
+    final double heapLow;
+    final double queriesHigh;
+    final double queriesLow;
+    final double diskWatermark;
+
+    public AutoscalePolicy(Configuration configuration) {
+        this(configuration.autoscaleDryRun,
+                configuration.autoscaleMinInstances,
+                configuration.autoscaleMaxInstances,
+                configuration.autoscaleSamples,
+                TimeUnit.SECONDS.toMillis(configuration.autoscaleCooldownUp),
+                TimeUnit.SECONDS.toMillis(configuration.autoscaleCooldownDown),
+                configuration.autoscaleCpuHigh,
+                configuration.autoscaleCpuLow,
+                configuration.autoscaleHeapHigh,
+                configuration.autoscaleHeapLow,
+                configuration.autoscaleQueriesHigh,
+                configuration.autoscaleQueriesLow,
+                configuration.autoscaleDiskWatermark);
+    }
+
+    public AutoscalePolicy(boolean dryRun,
+                           int minInstances,
+                           int maxInstances,
+                           int samples,
+                           long cooldownUpMillis,
+                           long cooldownDownMillis,
+                           double cpuHigh,
+                           double cpuLow,
+                           double heapHigh,
+                           double heapLow,
+                           double queriesHigh,
+                           double queriesLow,
+                           double diskWatermark) {
+        if (minInstances < 1 || maxInstances < minInstances) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid autoscaling bounds: min=%d max=%d", minInstances, maxInstances));
+        }
+        if (cpuLow >= cpuHigh || heapLow >= heapHigh || (queriesHigh > 0 && queriesLow >= queriesHigh)) {
+            throw new IllegalArgumentException("Low autoscaling thresholds must be below the high thresholds");
+        }
+        this.dryRun = dryRun;
+        this.minInstances = minInstances;
+        this.maxInstances = maxInstances;
+        this.samples = Math.max(1, samples);
+        this.cooldownUpMillis = cooldownUpMillis;
+        this.cooldownDownMillis = cooldownDownMillis;
+        this.cpuHigh = cpuHigh;
+        this.cpuLow = cpuLow;
+        this.heapHigh = heapHigh;
+        this.heapLow = heapLow;
+        this.queriesHigh = queriesHigh;
+        this.queriesLow = queriesLow;
+        this.diskWatermark = diskWatermark;
+    }
+}
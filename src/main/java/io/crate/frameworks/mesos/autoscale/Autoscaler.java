@@ -0,0 +1,247 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.autoscale;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.crate.frameworks.mesos.CrateState;
+import io.crate.frameworks.mesos.PersistentStateStore;
+import io.crate.frameworks.mesos.api.CrateClientPool;
+import io.crate.frameworks.mesos.api.CrateRestResource;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Changes the number of desired instances based on the load of the cluster.
+ *
+ * The cluster is scaled by one instance at a time, after the load has been
+ * above the high (or below the low) thresholds for a number of consecutive
+ * samples and the cooldown since the last change has passed. Nothing is
+ * changed while instances are still being started or stopped. The cluster is
+ * never scaled below the number of replicas + 1, like a resize through the
+ * API. In dry run mode decisions are only logged.
+ */
+public class Autoscaler implements Runnable, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Autoscaler.class);
+
+    public enum Action {
+        SCALE_UP,
+        SCALE_DOWN,
+        HOLD
+    }
+
+    public static class Decision {
+
+        private final Action action;
+        private final int target;
+        private final String reason;
+
+        Decision(Action action, int target, String reason) {
+            this.action = action;
+            this.target = target;
+            this.reason = reason;
+        }
+
+        public Action action() {
+            return action;
+        }
+
+        public int target() {
+            return target;
+        }
+
+        public String reason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return action + " to " + target + " (" + reason + ")";
+        }
+    }
+
+    private final PersistentStateStore store;
+    private final LoadSampler sampler;
+    private final AutoscalePolicy policy;
+    private final CrateClientPool clients;
+    private ScheduledExecutorService executor;
+
+    private int upSamples = 0;
+    private int downSamples = 0;
+    private long lastChangeMillis = Long.MIN_VALUE / 2;
+
+    public Autoscaler(PersistentStateStore store, LoadSampler sampler, AutoscalePolicy policy, CrateClientPool clients) {
+        this.store = store;
+        this.sampler = sampler;
+        this.policy = policy;
+        this.clients = clients;
+    }
+
+    public synchronized void start(long intervalMillis) {
+        LOGGER.info("Starting autoscaler{} with {} to {} instances",
+                policy.dryRun ? " in dry run mode" : "", policy.minInstances, policy.maxInstances);
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("autoscaler").setDaemon(true).build());
+        executor.scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        try {
+            LoadSample sample = sampler.sample();
+            Decision decision = decide(sample, System.currentTimeMillis());
+            if (decision.action() == Action.HOLD) {
+                LOGGER.debug("Autoscaler: {} {}", decision, sample);
+                return;
+            }
+            if (policy.dryRun) {
+                LOGGER.info("Autoscaler (dry run): would {} {}", decision, sample);
+            } else {
+                LOGGER.info("Autoscaler: {} {}", decision, sample);
+                apply(decision.target());
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Autoscaler failed", e);
+        }
+    }
+
+    /**
+     * Decides whether to scale based on the sample. Scaling decisions reset
+     * the consecutive samples and start the cooldown, also in dry run mode,
+     * so the logged decisions are the ones that would have been made.
+     */
+    synchronized Decision decide(@Nullable LoadSample sample, long nowMillis) {
+        CrateState state = store.state();
+        int desired = state.desiredInstances().getValue();
+        if (sample == null || sample.nodes() == 0) {
+            return hold(desired, "load unknown");
+        }
+        if (state.missingInstances() != 0 || state.crateInstances().runningInstances().size() < desired) {
+            upSamples = 0;
+            downSamples = 0;
+            return hold(desired, "cluster is being resized");
+        }
+        String up = scaleUpReason(sample);
+        String down = up == null ? scaleDownReason(sample, desired) : null;
+        upSamples = up == null ? 0 : upSamples + 1;
+        downSamples = down == null ? 0 : downSamples + 1;
+
+        if (up != null) {
+            if (desired >= policy.maxInstances) {
+                return hold(desired, up + ", but already at the maximum");
+            }
+            if (upSamples < policy.samples) {
+                return hold(desired, up + ", " + upSamples + " of " + policy.samples + " samples");
+            }
+            if (nowMillis - lastChangeMillis < policy.cooldownUpMillis) {
+                return hold(desired, up + ", cooling down");
+            }
+            return changed(new Decision(Action.SCALE_UP, desired + 1, up), nowMillis);
+        }
+        if (down != null) {
+            int min = Math.max(policy.minInstances, sample.maxReplicas() + 1);
+            if (desired <= min) {
+                return hold(desired, down + ", but already at the minimum of " + min);
+            }
+            if (downSamples < policy.samples) {
+                return hold(desired, down + ", " + downSamples + " of " + policy.samples + " samples");
+            }
+            if (nowMillis - lastChangeMillis < policy.cooldownDownMillis) {
+                return hold(desired, down + ", cooling down");
+            }
+            return changed(new Decision(Action.SCALE_DOWN, desired - 1, down), nowMillis);
+        }
+        return hold(desired, "load within thresholds");
+    }
+
+    private static Decision hold(int desired, String reason) {
+        return new Decision(Action.HOLD, desired, reason);
+    }
+
+    private Decision changed(Decision decision, long nowMillis) {
+        lastChangeMillis = nowMillis;
+        upSamples = 0;
+        downSamples = 0;
+        return decision;
+    }
+
+    @Nullable
+    private String scaleUpReason(LoadSample sample) {
+        if (sample.cpuPercent() >= policy.cpuHigh) {
+            return String.format("cpu %.1f%% >= %.1f%%", sample.cpuPercent(), policy.cpuHigh);
+        }
+        if (sample.heapPercent() >= policy.heapHigh) {
+            return String.format("heap %.1f%% >= %.1f%%", sample.heapPercent(), policy.heapHigh);
+        }
+        if (policy.queriesHigh > 0 && sample.queriesPerSecond() >= policy.queriesHigh) {
+            return String.format("queries %.1f/s >= %.1f/s", sample.queriesPerSecond(), policy.queriesHigh);
+        }
+        if (sample.diskPercent() >= policy.diskWatermark) {
+            return String.format("disk %.1f%% >= %.1f%%", sample.diskPercent(), policy.diskWatermark);
+        }
+        return null;
+    }
+
+    /**
+     * All metrics must be low, and the data of the removed node must fit on
+     * the remaining nodes without crossing the disk watermark.
+     */
+    @Nullable
+    private String scaleDownReason(LoadSample sample, int desired) {
+        if (sample.cpuPercent() < 0 || sample.cpuPercent() > policy.cpuLow) {
+            return null;
+        }
+        if (sample.heapPercent() < 0 || sample.heapPercent() > policy.heapLow) {
+            return null;
+        }
+        if (policy.queriesLow > 0 && (sample.queriesPerSecond() < 0 || sample.queriesPerSecond() > policy.queriesLow)) {
+            return null;
+        }
+        if (desired > 1 && sample.diskPercent() * desired / (desired - 1) >= policy.diskWatermark) {
+            return null;
+        }
+        return String.format("cpu %.1f%% <= %.1f%% and heap %.1f%% <= %.1f%%",
+                sample.cpuPercent(), policy.cpuLow, sample.heapPercent(), policy.heapLow);
+    }
+
+    private void apply(int target) {
+        try (CrateClientPool.Lease lease = clients.acquire()) {
+            if (lease != null) {
+                CrateRestResource.updateMinimumMasterNodes(lease.client(), target);
+            }
+        }
+        store.state().desiredInstances(target);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.autoscale;
+
+/**
+ * The load of the Crate cluster at one point in time. Values that are not
+ * known are negative.
+ */
+public class LoadSample {
+
+    private final int nodes;
+    private final double cpuPercent;
+    private final double heapPercent;
+    private final double queriesPerSecond;
+    private final double diskPercent;
+    private final int maxReplicas;
+
+    /**
+     * @param cpuPercent       average CPU usage of the nodes
+     * @param heapPercent      average heap usage of the nodes
+     * @param queriesPerSecond average query throughput per node
+     * @param diskPercent      disk usage of the fullest node
+     * @param maxReplicas      highest number of replicas of any table
+     */
+    public LoadSample(int nodes,
+                      double cpuPercent,
+                      double heapPercent,
+                      double queriesPerSecond,
+                      double diskPercent,
+                      int maxReplicas) {
+        this.nodes = nodes;
+        this.cpuPercent = cpuPercent;
+        this.heapPercent = heapPercent;
+        this.queriesPerSecond = queriesPerSecond;
+        this.diskPercent = diskPercent;
+        this.maxReplicas = maxReplicas;
+    }
+
+    public int nodes() {
+        return nodes;
+    }
+
+    public double cpuPercent() {
+        return cpuPercent;
+    }
+
+    public double heapPercent() {
+        return heapPercent;
+    }
+
+    public double queriesPerSecond() {
+        return queriesPerSecond;
+    }
+
+    public double diskPercent() {
+        return diskPercent;
+    }
+
+    public int maxReplicas() {
+        return maxReplicas;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LoadSample{nodes=%d, cpu=%.1f%%, heap=%.1f%%, queries=%.1f/s, disk=%.1f%%, maxReplicas=%d}",
+                nodes, cpuPercent, heapPercent, queriesPerSecond, diskPercent, maxReplicas);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.autoscale;
+
+import com.google.common.collect.ImmutableSet;
+import io.crate.action.sql.SQLActionException;
+import io.crate.action.sql.SQLResponse;
+import io.crate.client.CrateClient;
+import io.crate.frameworks.mesos.api.CrateClientPool;
+import io.crate.frameworks.mesos.api.CrateRestResource;
+import io.crate.shade.org.elasticsearch.ElasticsearchTimeoutException;
+import io.crate.shade.org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+
+/**
+ * Samples the load of the cluster from {@code sys.nodes}.
+ *
+ * The query throughput is derived from the number of completed tasks of the
+ * thread pools that execute queries, so it is only known from the second
+ * sample on.
+ */
+public class SysNodesLoadSampler implements LoadSampler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SysNodesLoadSampler.class);
+
+    static final String SQL_LOAD = "SELECT os['cpu']['used'], heap['used'], heap['max'], " +
+                                   "fs['total']['used'], fs['total']['size'], " +
+                                   "thread_pools['name'], thread_pools['completed'] " +
+                                   "FROM sys.nodes";
+    static final Set<String> QUERY_POOLS = ImmutableSet.of("search", "get", "index", "bulk");
+
+    private final CrateClientPool clients;
+    private final long timeoutMillis;
+    private long lastCompleted = -1;
+    private long lastSampleNanos;
+
+    public SysNodesLoadSampler(CrateClientPool clients, long timeoutMillis) {
+        this.clients = clients;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Nullable
+    @Override
+    public synchronized LoadSample sample() {
+        try (CrateClientPool.Lease lease = clients.acquire()) {
+            if (lease == null) {
+                return null;
+            }
+            CrateClient client = lease.client();
+            SQLResponse response = client.sql(SQL_LOAD).actionGet(timeoutMillis);
+            long now = System.nanoTime();
+            return sample(response.rows(), CrateRestResource.getMaxReplicas(client), now);
+        } catch (SQLActionException | NoNodeAvailableException | ElasticsearchTimeoutException e) {
+            LOGGER.warn("Could not sample the load of the cluster", e);
+            return null;
+        }
+    }
+
+    LoadSample sample(Object[][] rows, int maxReplicas, long nowNanos) {
+        double cpu = 0;
+        int cpuNodes = 0;
+        double heap = 0;
+        int heapNodes = 0;
+        double disk = -1;
+        long completed = 0;
+        for (Object[] row : rows) {
+            double nodeCpu = number(row[0]);
+            if (nodeCpu >= 0) {
+                cpu += nodeCpu;
+                cpuNodes++;
+            }
+            double heapMax = number(row[2]);
+            if (heapMax > 0) {
+                heap += 100.0 * number(row[1]) / heapMax;
+                heapNodes++;
+            }
+            double diskSize = number(row[4]);
+            if (diskSize > 0) {
+                disk = Math.max(disk, 100.0 * number(row[3]) / diskSize);
+            }
+            if (row[5] instanceof Object[] && row[6] instanceof Object[]) {
+                Object[] names = (Object[]) row[5];
+                Object[] counts = (Object[]) row[6];
+                for (int i = 0; i < names.length && i < counts.length; i++) {
+                    if (QUERY_POOLS.contains(String.valueOf(names[i]))) {
+                        completed += (long) number(counts[i]);
+                    }
+                }
+            }
+        }
+        double queries = -1;
+        if (lastCompleted >= 0 && completed >= lastCompleted && nowNanos > lastSampleNanos && rows.length > 0) {
+            double seconds = (nowNanos - lastSampleNanos) / 1e9;
+            queries = (completed - lastCompleted) / seconds / rows.length;
+        }
+        // a restarted node resets its counters, the next sample has a valid rate again
+        lastCompleted = completed;
+        lastSampleNanos = nowNanos;
+        return new LoadSample(rows.length,
+                cpuNodes == 0 ? -1 : cpu / cpuNodes,
+                heapNodes == 0 ? -1 : heap / heapNodes,
+                queries,
+                disk,
+                maxReplicas);
+    }
+
+    private static double number(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : -1;
+    }
+}
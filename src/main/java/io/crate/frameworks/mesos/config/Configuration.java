@@ -72,6 +72,36 @@ public class Configuration implements Serializable {
     @Parameter(names = { "--crate-blob-path" })
     public String blobPath = null;
 
+    @Parameter(names = { "--crate-checksum" })
+    public String checksum = null;
+
+    @Parameter(names = { "--agent-cache-dir" })
+    public String agentCacheDir = "/tmp/crate-mesos/cache";
+
+    @Parameter(names = { "--agent-cache-size" })
+    public Long agentCacheSize = 2048L;
+
+    @Parameter(names = { "--fetch-parallelism" })
+    public Integer fetchParallelism = 4;
+
+    @Parameter(names = { "--fetch-chunk-size" })
+    public Long fetchChunkSize = 16L;
+
+    @Parameter(names = { "--startup-timeout" })
+    public Integer startupTimeout = 300;
+
+    @Parameter(names = { "--health-check-interval" })
+    public Integer healthCheckInterval = 10;
+
+    @Parameter(names = { "--health-check-timeout" })
+    public Integer healthCheckTimeout = 5;
+
+    @Parameter(names = { "--health-check-failures" })
+    public Integer healthCheckFailures = 3;
+
+    @Parameter(names = { "--telemetry-interval" })
+    public Integer telemetryInterval = 10;
+
     @Parameter(names = { "--api-port" })
     public Integer apiPort = 4040;
 
@@ -87,6 +117,75 @@ public class Configuration implements Serializable {
     @Parameter(names = { "--resource-disk" })
     public Double resDisk = 1024d;
 
+    @Parameter(names = { "--state-write-behind" })
+    public Boolean stateWriteBehind = false;
+
+    @Parameter(names = { "--state-journal-compact-after" })
+    public Integer stateJournalCompactAfter = 100;
+
+    @Parameter(names = { "--autoscale" })
+    public Boolean autoscale = false;
+
+    @Parameter(names = { "--autoscale-dry-run" })
+    public Boolean autoscaleDryRun = false;
+
+    @Parameter(names = { "--autoscale-min-instances" })
+    public Integer autoscaleMinInstances = 1;
+
+    @Parameter(names = { "--autoscale-max-instances" })
+    public Integer autoscaleMaxInstances = 10;
+
+    @Parameter(names = { "--autoscale-interval" })
+    public Integer autoscaleInterval = 30;
+
+    @Parameter(names = { "--autoscale-samples" })
+    public Integer autoscaleSamples = 3;
+
+    @Parameter(names = { "--autoscale-cooldown-up" })
+    public Integer autoscaleCooldownUp = 300;
+
+    @Parameter(names = { "--autoscale-cooldown-down" })
+    public Integer autoscaleCooldownDown = 900;
+
+    @Parameter(names = { "--autoscale-cpu-high" })
+    public Double autoscaleCpuHigh = 80d;
+
+    @Parameter(names = { "--autoscale-cpu-low" })
+    public Double autoscaleCpuLow = 30d;
+
+    @Parameter(names = { "--autoscale-heap-high" })
+    public Double autoscaleHeapHigh = 85d;
+
+    @Parameter(names = { "--autoscale-heap-low" })
+    public Double autoscaleHeapLow = 50d;
+
+    @Parameter(names = { "--autoscale-queries-high" })
+    public Double autoscaleQueriesHigh = 0d;
+
+    @Parameter(names = { "--autoscale-queries-low" })
+    public Double autoscaleQueriesLow = 0d;
+
+    @Parameter(names = { "--autoscale-disk-watermark" })
+    public Double autoscaleDiskWatermark = 85d;
+
+    @Parameter(names = { "--scale-down-drain-timeout" })
+    public Integer scaleDownDrainTimeout = 3600;
+
+    @Parameter(names = { "--scale-down-parallelism" })
+    public Integer scaleDownParallelism = 1;
+
+    @Parameter(names = { "--agent-prestage" })
+    public Boolean agentPrestage = false;
+
+    @Parameter(names = { "--agent-prestage-spares" })
+    public Integer agentPrestageSpares = 1;
+
+    @Parameter(names = { "--persistent-volumes" })
+    public Boolean persistentVolumes = false;
+
+    @Parameter(names = { "--sticky-relaunch-window" })
+    public Integer stickyRelaunchWindow = 0;
+
     private List<String> crateArgs = ImmutableList.of();
 
     public String mesosMaster() {
@@ -123,6 +222,39 @@ public class Configuration implements Serializable {
                 ", resMemory=" + resMemory +
                 ", resHeap=" + resHeap +
                 ", resDisk=" + resDisk +
+                ", checksum=" + checksum +
+                ", agentCacheDir=" + agentCacheDir +
+                ", agentCacheSize=" + agentCacheSize +
+                ", fetchParallelism=" + fetchParallelism +
+                ", fetchChunkSize=" + fetchChunkSize +
+                ", startupTimeout=" + startupTimeout +
+                ", healthCheckInterval=" + healthCheckInterval +
+                ", healthCheckTimeout=" + healthCheckTimeout +
+                ", healthCheckFailures=" + healthCheckFailures +
+                ", telemetryInterval=" + telemetryInterval +
+                ", stateWriteBehind=" + stateWriteBehind +
+                ", stateJournalCompactAfter=" + stateJournalCompactAfter +
+                ", autoscale=" + autoscale +
+                ", autoscaleDryRun=" + autoscaleDryRun +
+                ", autoscaleMinInstances=" + autoscaleMinInstances +
+                ", autoscaleMaxInstances=" + autoscaleMaxInstances +
+                ", autoscaleInterval=" + autoscaleInterval +
+                ", autoscaleSamples=" + autoscaleSamples +
+                ", autoscaleCooldownUp=" + autoscaleCooldownUp +
+                ", autoscaleCooldownDown=" + autoscaleCooldownDown +
+                ", autoscaleCpuHigh=" + autoscaleCpuHigh +
+                ", autoscaleCpuLow=" + autoscaleCpuLow +
+                ", autoscaleHeapHigh=" + autoscaleHeapHigh +
+                ", autoscaleHeapLow=" + autoscaleHeapLow +
+                ", autoscaleQueriesHigh=" + autoscaleQueriesHigh +
+                ", autoscaleQueriesLow=" + autoscaleQueriesLow +
+                ", autoscaleDiskWatermark=" + autoscaleDiskWatermark +
+                ", scaleDownDrainTimeout=" + scaleDownDrainTimeout +
+                ", scaleDownParallelism=" + scaleDownParallelism +
+                ", agentPrestage=" + agentPrestage +
+                ", agentPrestageSpares=" + agentPrestageSpares +
+                ", persistentVolumes=" + persistentVolumes +
+                ", stickyRelaunchWindow=" + stickyRelaunchWindow +
                 '}';
     }
 
@@ -0,0 +1,308 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.fetch;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A cache for downloaded (and extracted) artifacts that is shared by all
+ * executors on an agent.
+ *
+ * Entries are keyed by the URL and the expected checksum of the artifact. An
+ * entry is loaded into a temporary directory while holding a lock on the key
+ * and then renamed into place, so concurrent executors never see partial
+ * entries and never load the same artifact twice. The content of an entry is
+ * hard-linked (or copied, if the sandbox is on a different file system) into
+ * the sandbox with {@link #materialize}, so files of an entry must not be
+ * modified in place.
+ *
+ * Entries that were not used for the longest time are evicted once the cache
+ * grows beyond its maximum size. Entries are materialized while holding a
+ * shared lock on the key, so an entry is never evicted while it is linked.
+ */
+public class ArtifactCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactCache.class);
+    private static final String TMP_PREFIX = ".tmp-";
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String DOWNLOADS = ".downloads";
+
+    // file locks are held by the JVM, so threads of the same JVM need to be serialized separately
+    private static final ConcurrentMap<String, Object> JVM_LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Loads an artifact into a directory.
+     */
+    public interface Loader {
+        void load(URI uri, @Nullable String checksum, File target) throws IOException;
+    }
+
+    private final Path root;
+    private final long maxBytes;
+
+    public ArtifactCache(File root, long maxBytes) {
+        this.root = root.toPath();
+        this.maxBytes = maxBytes;
+    }
+
+    static String key(URI uri, @Nullable String checksum) {
+        String value = uri.toString() + "\n" + (checksum == null ? "" : checksum.toLowerCase(Locale.ENGLISH));
+        return Hashing.sha256().hashString(value, Charsets.UTF_8).toString();
+    }
+
+    /**
+     * Directory for partial downloads that survives the executor, so that
+     * interrupted downloads can be resumed.
+     */
+    public File downloadDir() {
+        return root.resolve(DOWNLOADS).toFile();
+    }
+
+    /**
+     * Returns the directory of the cache entry for the artifact, loading it
+     * with the loader if it is not cached yet. The entry may be evicted once
+     * this method returns, use {@link #materialize} to use its content.
+     */
+    public File get(URI uri, @Nullable String checksum, Loader loader) throws IOException {
+        return entry(uri, checksum, loader, null);
+    }
+
+    /**
+     * Recreates the content of the cache entry for the artifact in the target
+     * directory, loading it with the loader if it is not cached yet. Files are
+     * hard-linked, or copied if links are not supported.
+     */
+    public void materialize(URI uri, @Nullable String checksum, Loader loader, File target) throws IOException {
+        entry(uri, checksum, loader, target);
+    }
+
+    private File entry(URI uri, @Nullable String checksum, Loader loader, @Nullable File target) throws IOException {
+        Files.createDirectories(root);
+        String key = key(uri, checksum);
+        Path entry = root.resolve(key);
+        boolean loaded = false;
+        synchronized (jvmLock(key)) {
+            try (FileChannel channel = lockChannel(key)) {
+                // a shared lock is enough to use an existing entry, it only keeps it from being evicted
+                FileLock lock = channel.lock(0L, Long.MAX_VALUE, true);
+                try {
+                    if (Files.isDirectory(entry)) {
+                        LOGGER.debug("Cache hit for {}", uri);
+                        use(entry, target);
+                        return entry.toFile();
+                    }
+                } finally {
+                    lock.release();
+                }
+                lock = channel.lock();
+                try {
+                    if (!Files.isDirectory(entry)) {
+                        load(uri, checksum, loader, key, entry);
+                        loaded = true;
+                    } else {
+                        LOGGER.debug("Cache hit for {}", uri);
+                    }
+                    use(entry, target);
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+        if (loaded) {
+            evict(key);
+        }
+        return entry.toFile();
+    }
+
+    private static void use(Path entry, @Nullable File target) throws IOException {
+        // the modification time of the entry is used as access time
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        if (target != null) {
+            link(entry, target.toPath());
+        }
+    }
+
+    private void load(URI uri, @Nullable String checksum, Loader loader, String key, Path entry) throws IOException {
+        Path tmp = root.resolve(TMP_PREFIX + key);
+        deleteRecursively(tmp);
+        Files.createDirectories(tmp);
+        LOGGER.info("Loading {} into cache {}", uri, entry);
+        try {
+            loader.load(uri, checksum, tmp.toFile());
+            Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            deleteRecursively(tmp);
+        }
+    }
+
+    private static Object jvmLock(String key) {
+        Object lock = new Object();
+        Object existing = JVM_LOCKS.putIfAbsent(key, lock);
+        return existing == null ? lock : existing;
+    }
+
+    private FileChannel lockChannel(String key) throws IOException {
+        // shared locks require a readable channel
+        return FileChannel.open(root.resolve(key + LOCK_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits into its
+     * maximum size. Entries that are currently locked are skipped.
+     */
+    void evict(String keep) throws IOException {
+        final Map<String, Long> sizes = new HashMap<>();
+        final Map<String, Long> accessTimes = new HashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (!Files.isDirectory(entry) || name.startsWith(".")) {
+                    continue;
+                }
+                long size = size(entry);
+                sizes.put(name, size);
+                accessTimes.put(name, Files.getLastModifiedTime(entry).toMillis());
+                total += size;
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(sizes.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return Long.compare(accessTimes.get(o1), accessTimes.get(o2));
+            }
+        });
+        for (String key : keys) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (key.equals(keep)) {
+                continue;
+            }
+            synchronized (jvmLock(key)) {
+                try (FileChannel channel = lockChannel(key);
+                     FileLock lock = tryLock(channel)) {
+                    if (lock == null) {
+                        LOGGER.debug("Not evicting {} from cache, it is in use", key);
+                        continue;
+                    }
+                    LOGGER.info("Evicting {} from cache", key);
+                    // files that are linked into sandboxes stay available there
+                    deleteRecursively(root.resolve(key));
+                    total -= sizes.get(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns null if the lock is held by another process or by another
+     * channel of this JVM.
+     */
+    @Nullable
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private static long size(Path directory) throws IOException {
+        final long[] size = {0L};
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                size[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size[0];
+    }
+
+    private static void link(final Path source, final Path destination) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(destination.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path link = destination.resolve(source.relativize(file).toString());
+                Files.deleteIfExists(link);
+                if (attrs.isSymbolicLink()) {
+                    Files.createSymbolicLink(link, Files.readSymbolicLink(file));
+                    return FileVisitResult.CONTINUE;
+                }
+                try {
+                    Files.createLink(link, file);
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(file, link, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
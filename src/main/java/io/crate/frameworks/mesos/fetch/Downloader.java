@@ -0,0 +1,370 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.fetch;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a file over HTTP, splitting it into chunks that are fetched in
+ * parallel using range requests if the server supports them.
+ *
+ * Every chunk is written into its own part file next to the target, so an
+ * interrupted download is resumed from where each chunk stopped. Part files
+ * are only reused if the size and the validator (ETag or Last-Modified) of
+ * the resource are still the same. The downloaded file is validated against
+ * the announced size and, if given, the SHA-256 checksum.
+ */
+public class Downloader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Downloader.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    static final int TIMEOUT_MILLIS = 30_000;
+    private static final String PART_SUFFIX = ".part";
+    private static final String META_SUFFIX = ".part.meta";
+
+    /**
+     * Size and range support of a remote resource.
+     */
+    static class Probe {
+        final long size;
+        final boolean ranges;
+        @Nullable
+        final String validator;
+
+        Probe(long size, boolean ranges, @Nullable String validator) {
+            this.size = size;
+            this.ranges = ranges;
+            this.validator = validator;
+        }
+    }
+
+    private final int parallelism;
+    private final long chunkSize;
+    private final TarballLoader.Progress progress;
+
+    /**
+     * @param parallelism the number of connections used for a single download
+     * @param chunkSize   the size of the ranges requested from the server
+     */
+    public Downloader(int parallelism, long chunkSize, TarballLoader.Progress progress) {
+        this.parallelism = Math.max(1, parallelism);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.progress = progress;
+    }
+
+    /**
+     * Returns the size and range support of the resource or null if the
+     * server doesn't tell.
+     */
+    @Nullable
+    Probe probe(URI uri) throws IOException {
+        URLConnection connection = open(uri);
+        if (!(connection instanceof HttpURLConnection)) {
+            return null;
+        }
+        HttpURLConnection http = (HttpURLConnection) connection;
+        try {
+            http.setRequestMethod("HEAD");
+            if (http.getResponseCode() != HttpURLConnection.HTTP_OK || http.getContentLengthLong() < 0) {
+                return null;
+            }
+            String validator = http.getHeaderField("ETag");
+            if (validator == null) {
+                validator = http.getHeaderField("Last-Modified");
+            }
+            boolean ranges = "bytes".equalsIgnoreCase(http.getHeaderField("Accept-Ranges"));
+            return new Probe(http.getContentLengthLong(), ranges, validator);
+        } finally {
+            http.disconnect();
+        }
+    }
+
+    /**
+     * Whether splitting the download is worth it.
+     */
+    boolean split(@Nullable Probe probe) {
+        return probe != null && probe.ranges && parallelism > 1 && probe.size >= 2 * chunkSize;
+    }
+
+    /**
+     * Downloads the resource into the target file.
+     *
+     * @throws IOException if the download fails or its size or checksum is wrong.
+     *                     Part files of failed downloads are kept to be resumed.
+     */
+    public File download(URI uri, @Nullable String checksum, File target) throws IOException {
+        return download(uri, probe(uri), checksum, target);
+    }
+
+    File download(URI uri, @Nullable Probe probe, @Nullable String checksum, File target) throws IOException {
+        Files.createDirectories(target.getAbsoluteFile().getParentFile().toPath());
+        List<Chunk> chunks = chunks(uri, probe, target);
+        AtomicLong received = new AtomicLong();
+        for (Chunk chunk : chunks) {
+            received.addAndGet(chunk.part.length());
+        }
+        long total = probe == null ? -1 : probe.size;
+        if (received.get() > 0) {
+            LOGGER.info("Resuming download of {} at {} of {} bytes", uri, received.get(), total);
+        }
+        if (chunks.size() == 1) {
+            chunks.get(0).fetch(received, total);
+        } else {
+            fetchParallel(chunks, received, total);
+        }
+        assemble(chunks, target);
+        try {
+            verify(uri, target, probe, checksum);
+        } catch (IOException e) {
+            Files.deleteIfExists(target.toPath());
+            throw e;
+        }
+        Files.deleteIfExists(metaFile(target).toPath());
+        return target;
+    }
+
+    private List<Chunk> chunks(URI uri, @Nullable Probe probe, File target) throws IOException {
+        String meta = probe == null ? "" : probe.size + "\n" + (probe.validator == null ? "" : probe.validator);
+        File metaFile = metaFile(target);
+        boolean resumable = probe != null && probe.ranges && probe.validator != null
+                && metaFile.exists() && meta.equals(new String(Files.readAllBytes(metaFile.toPath()), Charsets.UTF_8));
+        int count = split(probe) ? (int) ((probe.size + chunkSize - 1) / chunkSize) : 1;
+        List<Chunk> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long start = i * chunkSize;
+            long end = count == 1 ? (probe == null ? -1 : probe.size) : Math.min(probe.size, start + chunkSize);
+            File part = new File(target.getPath() + PART_SUFFIX + (count == 1 ? "" : "." + i));
+            chunks.add(new Chunk(uri, part, start, end, probe));
+        }
+        if (!resumable) {
+            deleteParts(target);
+            Files.write(metaFile.toPath(), meta.getBytes(Charsets.UTF_8));
+        }
+        return chunks;
+    }
+
+    private static File metaFile(File target) {
+        return new File(target.getPath() + META_SUFFIX);
+    }
+
+    private static void deleteParts(File target) {
+        final String prefix = target.getName() + PART_SUFFIX;
+        File[] parts = target.getAbsoluteFile().getParentFile().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && !name.endsWith(META_SUFFIX);
+            }
+        });
+        if (parts != null) {
+            for (File part : parts) {
+                //noinspection ResultOfMethodCallIgnored
+                part.delete();
+            }
+        }
+    }
+
+    private void fetchParallel(List<Chunk> chunks, final AtomicLong received, final long total) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, chunks.size()),
+                new ThreadFactoryBuilder().setNameFormat("crate-download-%d").setDaemon(true).build());
+        try {
+            List<Future<Void>> futures = new ArrayList<>(chunks.size());
+            for (final Chunk chunk : chunks) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        chunk.fetch(received, total);
+                        return null;
+                    }
+                }));
+            }
+            // the other chunks are completed even if one fails, so that more can be resumed
+            IOException failure = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException ?
+                                (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assemble(List<Chunk> chunks, File target) throws IOException {
+        if (chunks.size() == 1) {
+            Files.move(chunks.get(0).part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Chunk chunk : chunks) {
+                try (FileChannel in = FileChannel.open(chunk.part.toPath(), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+            }
+        }
+        for (Chunk chunk : chunks) {
+            Files.delete(chunk.part.toPath());
+        }
+    }
+
+    private static void verify(URI uri, File target, @Nullable Probe probe, @Nullable String checksum) throws IOException {
+        if (probe != null && target.length() != probe.size) {
+            throw new IOException(String.format(Locale.ENGLISH, "Size mismatch for %s: expected %d but was %d bytes",
+                    uri, probe.size, target.length()));
+        }
+        if (checksum == null) {
+            return;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = new FileInputStream(target)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        String actual = BaseEncoding.base16().lowerCase().encode(digest.digest());
+        if (!checksum.toLowerCase(Locale.ENGLISH).equals(actual)) {
+            throw new IOException(String.format(Locale.ENGLISH, "Checksum mismatch for %s: expected %s but was %s",
+                    uri, checksum, actual));
+        }
+    }
+
+    /**
+     * Opens a connection that fails instead of hanging if the server stops
+     * responding.
+     */
+    static URLConnection open(URI uri) throws IOException {
+        URLConnection connection = uri.toURL().openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    /**
+     * A range of the resource, stored in its own part file.
+     */
+    private class Chunk {
+
+        private final URI uri;
+        private final File part;
+        private final long start;
+        // exclusive, -1 if unknown
+        private final long end;
+        @Nullable
+        private final Probe probe;
+
+        Chunk(URI uri, File part, long start, long end, @Nullable Probe probe) {
+            this.uri = uri;
+            this.part = part;
+            this.start = start;
+            this.end = end;
+            this.probe = probe;
+        }
+
+        void fetch(AtomicLong received, long total) throws IOException {
+            long offset = part.length();
+            if (end >= 0 && start + offset >= end) {
+                return;
+            }
+            URLConnection connection = open(uri);
+            boolean ranged = probe != null && probe.ranges && (offset > 0 || end >= 0 && (start > 0 || end < probe.size));
+            if (ranged) {
+                connection.setRequestProperty("Range", "bytes=" + (start + offset) + "-" + (end < 0 ? "" : end - 1));
+                if (probe.validator != null) {
+                    connection.setRequestProperty("If-Range", probe.validator);
+                }
+            }
+            boolean append = true;
+            if (connection instanceof HttpURLConnection) {
+                int status = ((HttpURLConnection) connection).getResponseCode();
+                if (status == HttpURLConnection.HTTP_OK) {
+                    if (start > 0 || end >= 0 && end < probe.size) {
+                        throw new IOException("Server ignored the range request for " + uri);
+                    }
+                    // the whole resource is sent, e.g. because it changed in between
+                    received.addAndGet(-offset);
+                    append = false;
+                } else if (status != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("Unexpected response " + status + " for " + uri);
+                }
+            } else if (offset > 0) {
+                received.addAndGet(-offset);
+                append = false;
+            }
+            try (InputStream in = connection.getInputStream();
+                 OutputStream out = new FileOutputStream(part, append)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    progress.update(uri, received.addAndGet(read), total);
+                }
+            }
+            if (end >= 0 && part.length() != end - start) {
+                throw new IOException(String.format(Locale.ENGLISH, "Incomplete range %d-%d of %s: got %d bytes",
+                        start, end, uri, part.length()));
+            }
+        }
+    }
+}
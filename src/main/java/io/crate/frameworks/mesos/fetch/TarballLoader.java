@@ -0,0 +1,358 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.fetch;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.CountingInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Downloads a (gzipped) tarball and unpacks it into the target directory in
+ * a single pass, without writing the tarball to disk and without forking
+ * {@code tar}. If a SHA-256 checksum is given, it is computed while
+ * streaming and the extracted files are removed again if it doesn't match.
+ */
+public class TarballLoader implements ArtifactCache.Loader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TarballLoader.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Receives the number of bytes downloaded so far.
+     */
+    public interface Progress {
+        /**
+         * @param total the size of the download or -1 if it is not known.
+         */
+        void update(URI uri, long bytes, long total);
+    }
+
+    /**
+     * Logs the progress in steps of 10%.
+     */
+    private static class LoggingProgress implements Progress {
+
+        private final Map<URI, Integer> lastSteps = new HashMap<>();
+
+        @Override
+        public synchronized void update(URI uri, long bytes, long total) {
+            if (total <= 0) {
+                return;
+            }
+            int step = (int) (bytes * 10 / total);
+            Integer lastStep = lastSteps.put(uri, step);
+            if (lastStep == null || step != lastStep) {
+                LOGGER.info("Fetched {}% of {} ({} of {} bytes)", step * 10, uri, bytes, total);
+            }
+        }
+    }
+
+    /**
+     * Returns a progress that logs in steps of 10%.
+     */
+    public static Progress logProgress() {
+        return new LoggingProgress();
+    }
+
+    private final Progress progress;
+    @Nullable
+    private final Downloader downloader;
+    @Nullable
+    private final File downloadDir;
+
+    public TarballLoader() {
+        this(logProgress());
+    }
+
+    public TarballLoader(Progress progress) {
+        this(progress, null, null);
+    }
+
+    /**
+     * Creates a loader that fetches large tarballs with the downloader into
+     * the download directory before extracting them, if the server supports
+     * range requests. Other tarballs are extracted while they are read.
+     */
+    public TarballLoader(Progress progress, @Nullable Downloader downloader, @Nullable File downloadDir) {
+        this.progress = progress;
+        this.downloader = downloader;
+        this.downloadDir = downloadDir;
+    }
+
+    @Override
+    public void load(URI uri, @Nullable String checksum, File target) throws IOException {
+        if (downloader != null && downloadDir != null) {
+            Downloader.Probe probe;
+            try {
+                probe = downloader.probe(uri);
+            } catch (IOException e) {
+                LOGGER.debug("Could not probe " + uri, e);
+                probe = null;
+            }
+            if (downloader.split(probe)) {
+                loadRanged(uri, probe, checksum, target);
+                return;
+            }
+        }
+        LOGGER.debug("Fetch and extract: {} -> {}", uri, target);
+        URLConnection connection = Downloader.open(uri);
+        try (InputStream in = connection.getInputStream()) {
+            extract(uri, in, connection.getContentLengthLong(), checksum, target);
+        }
+    }
+
+    private void loadRanged(URI uri, Downloader.Probe probe, @Nullable String checksum, File target) throws IOException {
+        String name = new File(uri.getPath()).getName();
+        // the same file name may be used by different URIs
+        File archive = new File(downloadDir, ArtifactCache.key(uri, checksum).substring(0, 16) + "-" + name);
+        LOGGER.debug("Fetch: {} -> {}", uri, archive);
+        downloader.download(uri, probe, checksum, archive);
+        try (InputStream in = new FileInputStream(archive)) {
+            // the checksum has been verified by the downloader
+            extract(uri, in, archive.length(), null, target);
+        } finally {
+            Files.deleteIfExists(archive.toPath());
+        }
+    }
+
+    /**
+     * Unpacks the tarball read from the stream into the target directory.
+     *
+     * @return the SHA-256 checksum of the stream
+     */
+    String extract(URI uri, InputStream stream, long size, @Nullable String checksum, File target) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        final Path root = target.toPath().toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        // symbolic links of the archive are resolved against the real path
+        final Path realRoot = root.toRealPath();
+        Set<Path> topLevel = new HashSet<>();
+        Set<Path> created = new LinkedHashSet<>();
+        // modes and times of directories are set at the end, a read-only directory could not be filled otherwise
+        Map<Path, TarArchiveEntry> directories = new LinkedHashMap<>();
+        CountingInputStream counting = new CountingInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+        DigestInputStream digestStream = new DigestInputStream(counting, digest);
+        boolean success = false;
+        try {
+            InputStream raw = new ProgressInputStream(digestStream, counting, uri, size);
+            InputStream decompressed = isGzip(uri) ? new GzipCompressorInputStream(raw, true) : raw;
+            TarArchiveInputStream tar = new TarArchiveInputStream(decompressed);
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextTarEntry()) != null) {
+                Path path = root.resolve(entry.getName()).normalize();
+                if (!path.startsWith(root) || path.equals(root)) {
+                    if (path.equals(root) && entry.isDirectory()) {
+                        continue;
+                    }
+                    throw new IOException("Entry " + entry.getName() + " is outside of the target directory");
+                }
+                Path top = root.resolve(root.relativize(path).getName(0));
+                if (topLevel.add(top) && !Files.exists(top, LinkOption.NOFOLLOW_LINKS)) {
+                    created.add(top);
+                }
+                if (entry.isDirectory()) {
+                    checkInside(entry, path, realRoot);
+                    Files.createDirectories(path);
+                    directories.put(path, entry);
+                } else {
+                    checkInside(entry, path.getParent(), realRoot);
+                    writeEntry(tar, entry, path, root, realRoot);
+                }
+            }
+            for (Map.Entry<Path, TarArchiveEntry> directory : directories.entrySet()) {
+                setModeAndTime(directory.getKey(), directory.getValue());
+            }
+            // consume the end of the archive, e.g. the padding, so the checksum covers the whole stream
+            drain(decompressed);
+            drain(digestStream);
+            String actual = BaseEncoding.base16().lowerCase().encode(digest.digest());
+            if (checksum != null && !checksum.toLowerCase(Locale.ENGLISH).equals(actual)) {
+                throw new IOException(String.format(Locale.ENGLISH, "Checksum mismatch for %s: expected %s but was %s",
+                        uri, checksum, actual));
+            }
+            progress.update(uri, counting.getCount(), counting.getCount());
+            success = true;
+            return actual;
+        } finally {
+            if (!success) {
+                for (Path path : created) {
+                    ArtifactCache.deleteRecursively(path);
+                }
+            }
+        }
+    }
+
+    private static boolean isGzip(URI uri) {
+        String path = uri.getPath() == null ? "" : uri.getPath().toLowerCase(Locale.ENGLISH);
+        return path.endsWith(".gz") || path.endsWith(".tgz");
+    }
+
+    /**
+     * Checks that the directory, once symbolic links of earlier entries are
+     * followed, is in the target directory. Only the nearest existing parent
+     * is resolved, missing directories are created below it.
+     */
+    private static void checkInside(TarArchiveEntry entry, Path directory, Path realRoot) throws IOException {
+        Path existing = directory;
+        while (!Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (!existing.toRealPath().startsWith(realRoot)) {
+            throw new IOException("Entry " + entry.getName() + " is outside of the target directory");
+        }
+    }
+
+    private static void writeEntry(TarArchiveInputStream tar, TarArchiveEntry entry, Path path, Path root, Path realRoot)
+            throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.deleteIfExists(path);
+        if (entry.isSymbolicLink()) {
+            Path linkTarget = Paths.get(entry.getLinkName());
+            Path unresolved = path.getParent().resolve(linkTarget);
+            if (linkTarget.isAbsolute()
+                || !unresolved.normalize().startsWith(root)
+                || (Files.exists(unresolved) && !unresolved.toRealPath().startsWith(realRoot))) {
+                throw new IOException("Link " + entry.getName() + " points outside of the target directory");
+            }
+            Files.createSymbolicLink(path, linkTarget);
+            return;
+        }
+        if (entry.isLink()) {
+            Path linked = root.resolve(entry.getLinkName()).normalize();
+            if (!linked.startsWith(root) || !linked.toRealPath().startsWith(realRoot)) {
+                throw new IOException("Link " + entry.getName() + " points outside of the target directory");
+            }
+            Files.createLink(path, linked);
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(path)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = tar.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        setModeAndTime(path, entry);
+    }
+
+    private static void setModeAndTime(Path path, TarArchiveEntry entry) throws IOException {
+        setMode(path, entry.getMode());
+        Files.setLastModifiedTime(path, FileTime.fromMillis(entry.getModTime().getTime()));
+    }
+
+    private static void setMode(Path path, int mode) throws IOException {
+        try {
+            Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+            PosixFilePermission[] values = {
+                    PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+                    PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+                    PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ
+            };
+            for (int i = 0; i < values.length; i++) {
+                if ((mode & (1 << i)) != 0) {
+                    permissions.add(values[i]);
+                }
+            }
+            Files.setPosixFilePermissions(path, permissions);
+        } catch (UnsupportedOperationException e) {
+            path.toFile().setExecutable((mode & 0100) != 0);
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        //noinspection StatementWithEmptyBody
+        while (in.read(buffer) != -1) {
+        }
+    }
+
+    private class ProgressInputStream extends FilterInputStream {
+
+        private final CountingInputStream counting;
+        private final URI uri;
+        private final long size;
+
+        ProgressInputStream(InputStream in, CountingInputStream counting, URI uri, long size) {
+            super(in);
+            this.counting = counting;
+            this.uri = uri;
+            this.size = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            progress.update(uri, counting.getCount(), size);
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            progress.update(uri, counting.getCount(), size);
+            return read;
+        }
+
+        /**
+         * Skipped bytes must pass through the digest as well.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(n, 0))];
+            long skipped = 0;
+            int read;
+            while (skipped < n && (read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) != -1) {
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        /**
+         * A reset would feed bytes into the digest twice.
+         */
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.health;
+
+import io.crate.frameworks.mesos.metrics.LatencyHistogram;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically checks the HTTP endpoint of a Crate node.
+ *
+ * A single pooled client is used for all checks so the connection is kept
+ * alive between them. Connect, read and connection lease timeouts bound the
+ * duration of a check, so a hanging node can't stall the scheduler. The
+ * listener is notified when the health changes and when the number of
+ * consecutive failures reaches the threshold.
+ */
+public class HealthChecker implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HealthChecker.class);
+    private static final int LOG_SUMMARY_EVERY = 60;
+
+    public interface Listener {
+
+        void healthChanged(boolean healthy);
+
+        /**
+         * Called once the check failed the given number of times in a row.
+         */
+        void failed(int consecutiveFailures);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final URI uri;
+    private final long intervalMillis;
+    private final int failureThreshold;
+    private final Listener listener;
+    private final CloseableHttpClient client;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    private ScheduledFuture<?> future;
+    private Boolean healthy = null;
+    private int consecutiveFailures = 0;
+    private long checks = 0;
+    private long failures = 0;
+
+    public HealthChecker(ScheduledExecutorService scheduler,
+                         URI uri,
+                         long intervalMillis,
+                         int timeoutMillis,
+                         int failureThreshold,
+                         Listener listener) {
+        this.scheduler = scheduler;
+        this.uri = uri;
+        this.intervalMillis = intervalMillis;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.listener = listener;
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(1);
+        connectionManager.setDefaultMaxPerRoute(1);
+        this.client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(timeoutMillis)
+                        .setSocketTimeout(timeoutMillis)
+                        .setConnectionRequestTimeout(timeoutMillis)
+                        .build())
+                .disableAutomaticRetries()
+                .build();
+    }
+
+    public synchronized HealthChecker start() {
+        if (future == null) {
+            future = scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    check();
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * Performs a single check.
+     *
+     * @return true if the node responded with a 2xx status
+     */
+    boolean check() {
+        long started = System.nanoTime();
+        boolean success;
+        String reason;
+        try (CloseableHttpResponse response = client.execute(new HttpGet(uri))) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                EntityUtils.consume(entity);
+            }
+            success = statusCode >= 200 && statusCode < 300;
+            reason = "status " + statusCode;
+        } catch (IOException e) {
+            success = false;
+            reason = e.toString();
+        }
+        latencies.record(System.nanoTime() - started);
+        onResult(success, reason);
+        return success;
+    }
+
+    private void onResult(boolean success, String reason) {
+        boolean changed;
+        boolean reachedThreshold = false;
+        int failuresInARow;
+        long checked;
+        synchronized (this) {
+            checks++;
+            if (success) {
+                consecutiveFailures = 0;
+            } else {
+                failures++;
+                consecutiveFailures++;
+                reachedThreshold = consecutiveFailures == failureThreshold;
+            }
+            changed = healthy == null || healthy != success;
+            healthy = success;
+            failuresInARow = consecutiveFailures;
+            checked = checks;
+        }
+        if (success) {
+            LOGGER.debug("Health check: OK ({})", reason);
+        } else {
+            LOGGER.warn("Health check failed ({} in a row): {}", failuresInARow, reason);
+        }
+        if (checked % LOG_SUMMARY_EVERY == 0) {
+            LOGGER.info("Health check latencies: {}", latencies);
+        }
+        if (changed) {
+            listener.healthChanged(success);
+        }
+        if (reachedThreshold) {
+            listener.failed(failureThreshold);
+        }
+    }
+
+    public synchronized Boolean healthy() {
+        return healthy;
+    }
+
+    public synchronized long checks() {
+        return checks;
+    }
+
+    public synchronized long failures() {
+        return failures;
+    }
+
+    public LatencyHistogram latencies() {
+        return latencies;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (future != null) {
+            future.cancel(false);
+        }
+        try {
+            client.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close health check client", e);
+        }
+    }
+}
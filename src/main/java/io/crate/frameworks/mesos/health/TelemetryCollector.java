@@ -0,0 +1,155 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.health;
+
+import io.crate.frameworks.mesos.MessageTelemetry;
+import io.crate.frameworks.mesos.metrics.LatencyHistogram;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the resource usage of a Crate node and batches the samples, so
+ * that they can be sent to the scheduler in a single framework message.
+ */
+public class TelemetryCollector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TelemetryCollector.class);
+
+    /**
+     * Reads the heap usage of the node.
+     */
+    public interface HeapReader {
+
+        /**
+         * @return the used and the maximum heap in bytes
+         */
+        long[] heap() throws Exception;
+    }
+
+    private final String taskId;
+    private final String nodeName;
+    private final File pidFile;
+    private final File dataPath;
+    private final LatencyHistogram latencies;
+    private final HeapReader heapReader;
+    private final int batchSize;
+    private final List<MessageTelemetry.Sample> batch = new ArrayList<>();
+    private long lastChecks = 0;
+    private long lastSumNanos = 0;
+
+    public TelemetryCollector(String taskId,
+                              String nodeName,
+                              File pidFile,
+                              File dataPath,
+                              LatencyHistogram latencies,
+                              HeapReader heapReader,
+                              int batchSize) {
+        this.taskId = taskId;
+        this.nodeName = nodeName;
+        this.pidFile = pidFile;
+        this.dataPath = dataPath;
+        this.latencies = latencies;
+        this.heapReader = heapReader;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Takes a sample.
+     *
+     * @return the batch of samples once it is full, otherwise null
+     */
+    @Nullable
+    public synchronized MessageTelemetry sample() {
+        batch.add(collect());
+        if (batch.size() < batchSize) {
+            return null;
+        }
+        MessageTelemetry message = new MessageTelemetry(taskId, nodeName, batch);
+        batch.clear();
+        return message;
+    }
+
+    MessageTelemetry.Sample collect() {
+        long checks = latencies.count();
+        long sumNanos = latencies.sumNanos();
+        long intervalChecks = checks - lastChecks;
+        long latencyMicros = intervalChecks == 0 ?
+                -1 : TimeUnit.NANOSECONDS.toMicros((sumNanos - lastSumNanos) / intervalChecks);
+        lastChecks = checks;
+        lastSumNanos = sumNanos;
+
+        long heapUsed = -1;
+        long heapMax = -1;
+        try {
+            long[] heap = heapReader.heap();
+            heapUsed = heap[0];
+            heapMax = heap[1];
+        } catch (Exception e) {
+            LOGGER.debug("Could not read heap usage: {}", e.toString());
+        }
+        long diskTotal = dataPath.getTotalSpace();
+        long diskUsed = diskTotal == 0 ? -1 : diskTotal - dataPath.getFreeSpace();
+        return new MessageTelemetry.Sample(
+                System.currentTimeMillis(),
+                intervalChecks,
+                latencyMicros,
+                rssBytes(pidFile),
+                heapUsed,
+                heapMax,
+                diskUsed,
+                diskTotal == 0 ? -1 : diskTotal);
+    }
+
+    /**
+     * Returns the resident set size of the process whose pid is stored in the
+     * pid file, or -1 if it can't be determined (e.g. on systems without /proc).
+     */
+    static long rssBytes(File pidFile) {
+        try {
+            String pid = new String(Files.readAllBytes(pidFile.toPath()), StandardCharsets.UTF_8).trim();
+            File status = new File("/proc/" + Integer.parseInt(pid) + "/status");
+            return rssBytesFromStatus(Files.readAllLines(status.toPath(), StandardCharsets.UTF_8));
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static long rssBytesFromStatus(List<String> lines) {
+        for (String line : lines) {
+            if (line.startsWith("VmRSS:")) {
+                // e.g. "VmRSS:	  123456 kB"
+                String[] parts = line.substring(6).trim().split("\\s+");
+                return Long.parseLong(parts[0]) * 1024;
+            }
+        }
+        return -1;
+    }
+}
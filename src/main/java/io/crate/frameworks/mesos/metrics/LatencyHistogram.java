@@ -0,0 +1,128 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets with fixed upper bounds.
+ *
+ * Recording is lock free, so the histogram can be updated from several
+ * threads while it is read.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Inclusive upper bounds of the buckets in milliseconds, the last bucket
+     * has no bound.
+     */
+    static final long[] BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS_MILLIS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            BOUNDS_NANOS[i] = TimeUnit.MILLISECONDS.toNanos(BOUNDS_MILLIS[i]);
+        }
+    }
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // retry
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long sumNanos() {
+        return sumNanos.get();
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns the number of recorded latencies below the upper bound of each
+     * bucket, the last element is the total count.
+     */
+    public long[] cumulativeCounts() {
+        long[] counts = new long[buckets.length()];
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += buckets.get(i);
+            counts[i] = sum;
+        }
+        return counts;
+    }
+
+    public static long[] boundsMillis() {
+        return BOUNDS_MILLIS.clone();
+    }
+
+    /**
+     * Returns the upper bound of the bucket that contains the given
+     * percentile, or the maximum if it lies in the last bucket.
+     */
+    public long percentileMillis(double percentile) {
+        long[] counts = cumulativeCounts();
+        long total = counts[counts.length - 1];
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            if (counts[i] >= rank) {
+                return BOUNDS_MILLIS[i];
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos());
+    }
+
+    @Override
+    public String toString() {
+        long count = count();
+        return String.format(Locale.ENGLISH, "count=%d mean=%.1fms p50<=%dms p99<=%dms max=%dms",
+                count,
+                count == 0 ? 0.0 : sumNanos() / (double) count / 1_000_000,
+                percentileMillis(50),
+                percentileMillis(99),
+                TimeUnit.NANOSECONDS.toMillis(maxNanos()));
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the metrics of the framework and writes them in the Prometheus text
+ * exposition format.
+ *
+ * Metrics are created once and updated without further lookups or
+ * allocations; the registry is only consulted when the metrics are exported.
+ * Metrics with the same name but different labels form a family that shares
+ * the help text and type.
+ */
+public class MetricsRegistry {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private enum Type {
+        COUNTER("counter"),
+        GAUGE("gauge"),
+        HISTOGRAM("histogram");
+
+        private final String name;
+
+        Type(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Family {
+
+        private final String help;
+        private final Type type;
+        // label string (e.g. {state="TASK_RUNNING"} or empty) -> metric
+        private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+        Family(String help, Type type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public Counter counter(String name, String help, String... labels) {
+        return counter(name, help, new Counter(), labels);
+    }
+
+    /**
+     * Exports an existing counter.
+     */
+    public Counter counter(String name, String help, Counter counter, String... labels) {
+        return register(name, help, Type.COUNTER, labels, counter);
+    }
+
+    public Gauge gauge(String name, String help, Gauge gauge, String... labels) {
+        return register(name, help, Type.GAUGE, labels, gauge);
+    }
+
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return histogram(name, help, new LatencyHistogram(), labels);
+    }
+
+    /**
+     * Exports an existing histogram, e.g. one that is owned by a component
+     * that doesn't know about the registry.
+     */
+    public LatencyHistogram histogram(String name, String help, LatencyHistogram histogram, String... labels) {
+        return register(name, help, Type.HISTOGRAM, labels, histogram);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> T register(String name, String help, Type type, String[] labels, T metric) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family(help, type);
+            families.put(name, family);
+        } else if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type.name);
+        }
+        String labelString = labels(labels);
+        Object existing = family.metrics.get(labelString);
+        if (existing != null) {
+            return (T) existing;
+        }
+        family.metrics.put(labelString, metric);
+        return metric;
+    }
+
+    private static String labels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name/value pairs");
+        }
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            sb.append(i == 0 ? "" : ",").append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return sb.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    public void writeTo(Appendable out) throws IOException {
+        List<Map.Entry<String, Family>> entries;
+        synchronized (this) {
+            entries = new ArrayList<>(families.entrySet());
+        }
+        for (Map.Entry<String, Family> entry : entries) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type.name).append('\n');
+            Map<String, Object> metrics;
+            synchronized (this) {
+                metrics = new LinkedHashMap<>(family.metrics);
+            }
+            for (Map.Entry<String, Object> metric : metrics.entrySet()) {
+                String labels = metric.getKey();
+                switch (family.type) {
+                    case COUNTER:
+                        sample(out, name, labels, ((Counter) metric.getValue()).get());
+                        break;
+                    case GAUGE:
+                        sample(out, name, labels, ((Gauge) metric.getValue()).value());
+                        break;
+                    case HISTOGRAM:
+                        writeHistogram(out, name, labels, (LatencyHistogram) metric.getValue());
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown type " + family.type);
+                }
+            }
+        }
+    }
+
+    /**
+     * Histograms are exported in seconds, as recommended by Prometheus.
+     */
+    private static void writeHistogram(Appendable out, String name, String labels, LatencyHistogram histogram)
+            throws IOException {
+        long[] bounds = LatencyHistogram.BOUNDS_MILLIS;
+        long[] counts = histogram.cumulativeCounts();
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        for (int i = 0; i < bounds.length; i++) {
+            sample(out, name + "_bucket", prefix + "le=\"" + bounds[i] / 1000.0 + "\"", counts[i]);
+        }
+        long count = counts[counts.length - 1];
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"", count);
+        sample(out, name + "_sum", labels, histogram.sumNanos() / (double) TimeUnit.SECONDS.toNanos(1));
+        sample(out, name + "_count", labels, count);
+    }
+
+    private static void sample(Appendable out, String name, String labels, long value) throws IOException {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(Long.toString(value)).append('\n');
+    }
+
+    private static void sample(Appendable out, String name, String labels, double value) throws IOException {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else {
+            out.append(Double.toString(value));
+        }
+        out.append('\n');
+    }
+}
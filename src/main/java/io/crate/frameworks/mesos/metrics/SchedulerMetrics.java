@@ -0,0 +1,221 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.metrics;
+
+import org.apache.mesos.Protos;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Metrics of the scheduler callbacks.
+ */
+public class SchedulerMetrics {
+
+    private final Counter offersReceived;
+    private final Counter offersDeclined;
+    private final Counter offersUsed;
+    private final Counter offersStaged;
+    private final Counter stickyRelaunches;
+    private final Counter stickyRelaunchLocalBytes;
+    private final Counter stickyRelaunchesExpired;
+    private final EnumMap<Protos.TaskState, Counter> statusUpdates = new EnumMap<>(Protos.TaskState.class);
+    private final LatencyHistogram launchToRunning;
+    private final LatencyHistogram stagedLaunchToRunning;
+    private final LatencyHistogram reconciliation;
+    private final LatencyHistogram offerBatchEvaluation;
+    private final LatencyHistogram launchToRecovered;
+    private final LatencyHistogram stickyLaunchToRecovered;
+    private final ConcurrentMap<String, Long> launchNanos = new ConcurrentHashMap<>();
+    private final Set<String> stagedTasks = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile long reconciliationStartNanos = -1;
+
+    public SchedulerMetrics(MetricsRegistry registry) {
+        offersReceived = registry.counter("crate_mesos_offers_received_total", "Offers received from the master.");
+        offersDeclined = registry.counter("crate_mesos_offers_declined_total", "Offers declined.");
+        offersUsed = registry.counter("crate_mesos_offers_used_total", "Offers used to launch tasks.");
+        offersStaged = registry.counter("crate_mesos_offers_staged_total",
+                "Offers used to pre-stage the Crate tarball on agents.");
+        stickyRelaunches = registry.counter("crate_mesos_sticky_relaunches_total",
+                "Instances relaunched on the agent of a lost instance with its node name.");
+        stickyRelaunchLocalBytes = registry.counter("crate_mesos_sticky_relaunch_local_bytes_total",
+                "Shard bytes of lost instances found on the local disk by sticky relaunches.");
+        stickyRelaunchesExpired = registry.counter("crate_mesos_sticky_relaunches_expired_total",
+                "Lost instances that were not relaunched on their agent within the window.");
+        for (Protos.TaskState state : Protos.TaskState.values()) {
+            statusUpdates.put(state, registry.counter("crate_mesos_status_updates_total",
+                    "Task status updates by state.", "state", state.name()));
+        }
+        launchToRunning = registry.histogram("crate_mesos_task_launch_to_running_seconds",
+                "Time from launching a task until it is reported as running.", "staged", "false");
+        stagedLaunchToRunning = registry.histogram("crate_mesos_task_launch_to_running_seconds",
+                "Time from launching a task until it is reported as running.", "staged", "true");
+        reconciliation = registry.histogram("crate_mesos_reconciliation_seconds",
+                "Time from requesting a task reconciliation until all tasks were reconciled.");
+        offerBatchEvaluation = registry.histogram("crate_mesos_offer_batch_evaluation_seconds",
+                "Time it took to evaluate a batch of offers that could have been used to launch tasks.");
+        launchToRecovered = registry.histogram("crate_mesos_task_launch_to_recovered_seconds",
+                "Time from launching a task until all shards of the cluster are started.", "sticky", "false");
+        stickyLaunchToRecovered = registry.histogram("crate_mesos_task_launch_to_recovered_seconds",
+                "Time from launching a task until all shards of the cluster are started.", "sticky", "true");
+    }
+
+    public void offersReceived(int count) {
+        offersReceived.add(count);
+    }
+
+    public void offerDeclined() {
+        offersDeclined.inc();
+    }
+
+    public void offersDeclined(int count) {
+        offersDeclined.add(count);
+    }
+
+    public void offerUsed() {
+        offersUsed.inc();
+    }
+
+    public void offersUsed(int count) {
+        offersUsed.add(count);
+    }
+
+    public void offerStaged() {
+        offersStaged.inc();
+    }
+
+    /**
+     * @param staged true if the Crate tarball was pre-staged on the agent
+     */
+    public void launched(String taskId, boolean staged) {
+        launchNanos.put(taskId, System.nanoTime());
+        if (staged) {
+            stagedTasks.add(taskId);
+        }
+    }
+
+    public void statusUpdate(String taskId, Protos.TaskState state) {
+        statusUpdates.get(state).inc();
+        switch (state) {
+            case TASK_RUNNING:
+                Long launched = launchNanos.remove(taskId);
+                if (launched != null) {
+                    launchToRunning(stagedTasks.remove(taskId)).record(System.nanoTime() - launched);
+                }
+                break;
+            case TASK_LOST:
+            case TASK_FAILED:
+            case TASK_KILLED:
+            case TASK_FINISHED:
+            case TASK_ERROR:
+                launchNanos.remove(taskId);
+                stagedTasks.remove(taskId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @param localBytes shard bytes of the lost instance, -1 if unknown
+     */
+    public void stickyRelaunched(long localBytes) {
+        stickyRelaunches.inc();
+        if (localBytes > 0) {
+            stickyRelaunchLocalBytes.add(localBytes);
+        }
+    }
+
+    public void stickyRelaunchesExpired(int count) {
+        stickyRelaunchesExpired.add(count);
+    }
+
+    public void offerBatchEvaluated(long nanos) {
+        offerBatchEvaluation.record(nanos);
+    }
+
+    public void reconciliationStarted() {
+        reconciliationStartNanos = System.nanoTime();
+    }
+
+    public void reconciliationFinished() {
+        long started = reconciliationStartNanos;
+        if (started >= 0) {
+            reconciliation.record(System.nanoTime() - started);
+            reconciliationStartNanos = -1;
+        }
+    }
+
+    public long offersReceived() {
+        return offersReceived.get();
+    }
+
+    public long offersDeclined() {
+        return offersDeclined.get();
+    }
+
+    public long offersUsed() {
+        return offersUsed.get();
+    }
+
+    public long offersStaged() {
+        return offersStaged.get();
+    }
+
+    public long statusUpdates(Protos.TaskState state) {
+        return statusUpdates.get(state).get();
+    }
+
+    public LatencyHistogram launchToRunning(boolean staged) {
+        return staged ? stagedLaunchToRunning : launchToRunning;
+    }
+
+    public long stickyRelaunches() {
+        return stickyRelaunches.get();
+    }
+
+    public long stickyRelaunchLocalBytes() {
+        return stickyRelaunchLocalBytes.get();
+    }
+
+    public long stickyRelaunchesExpired() {
+        return stickyRelaunchesExpired.get();
+    }
+
+    /**
+     * @param sticky true for instances relaunched on the agent of a lost instance
+     */
+    public LatencyHistogram launchToRecovered(boolean sticky) {
+        return sticky ? stickyLaunchToRecovered : launchToRecovered;
+    }
+
+    public LatencyHistogram reconciliation() {
+        return reconciliation;
+    }
+
+    public LatencyHistogram offerBatchEvaluation() {
+        return offerBatchEvaluation;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.relaunch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.crate.frameworks.mesos.CrateInstance;
+import io.crate.frameworks.mesos.CrateState;
+import io.crate.frameworks.mesos.LostInstance;
+import io.crate.frameworks.mesos.allocation.NodeShards;
+import io.crate.frameworks.mesos.allocation.ShardAllocation;
+import io.crate.frameworks.mesos.config.Configuration;
+import io.crate.frameworks.mesos.metrics.SchedulerMetrics;
+import org.apache.mesos.Protos;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relaunches instances that terminated on the agent they ran on and with
+ * their node name, so Crate recovers the shards from the data that is left
+ * on the local disk instead of copying them from the other nodes.
+ *
+ * Only instances whose data outlives the task (a configured data path or a
+ * persistent volume) are tracked. For {@code windowMillis} after the loss an
+ * offer from the agent of a lost instance is preferred and offers from other
+ * agents are only used for the launches that exceed the number of lost
+ * instances; afterwards the instance is launched on any agent.
+ *
+ * The periodic {@link #run()} samples the shard bytes of every node, which
+ * are reported as saved when an instance is relaunched, and records the time
+ * from launching an instance until the cluster has started all shards again.
+ * The state of the lost instances is kept in the {@link CrateState}; all
+ * other methods are called by the scheduler.
+ */
+public class StickyRelaunch implements Runnable, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StickyRelaunch.class);
+
+    private static class Recovery {
+
+        private final long launchNanos;
+        private final boolean sticky;
+        private boolean running = false;
+
+        Recovery(long launchNanos, boolean sticky) {
+            this.launchNanos = launchNanos;
+            this.sticky = sticky;
+        }
+    }
+
+    private final Configuration configuration;
+    private final long windowMillis;
+    private final ShardAllocation allocation;
+    private final SchedulerMetrics metrics;
+    // shard bytes by node name, as of the last poll
+    private Map<String, Long> nodeBytes = new HashMap<>();
+    private final Map<String, Recovery> recoveries = new LinkedHashMap<>();
+    private ScheduledExecutorService executor;
+
+    public StickyRelaunch(Configuration configuration,
+                          long windowMillis,
+                          ShardAllocation allocation,
+                          SchedulerMetrics metrics) {
+        this.configuration = configuration;
+        this.windowMillis = windowMillis;
+        this.allocation = allocation;
+        this.metrics = metrics;
+    }
+
+    public synchronized void start(long intervalMillis) {
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("sticky-relaunch").setDaemon(true).build());
+        executor.scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records an instance that terminated, if its data is left on the agent.
+     */
+    public void lost(CrateState state, CrateInstance instance, long nowMillis) {
+        if (instance.nodeName() == null || (configuration.dataPath == null && instance.volumeId() == null)) {
+            return;
+        }
+        LostInstance lost = new LostInstance(
+                instance.slaveID(),
+                instance.hostname(),
+                instance.nodeName(),
+                configuration.dataPath,
+                instance.volumeId(),
+                nowMillis,
+                bytes(instance.nodeName()));
+        LOGGER.info("Keep {} for a relaunch of node {} for {}s",
+                instance.hostname(), instance.nodeName(), TimeUnit.MILLISECONDS.toSeconds(windowMillis));
+        state.lostInstances().put(lost.slaveId(), lost);
+    }
+
+    /**
+     * Removes the lost instances that were not relaunched within the window.
+     *
+     * @return the number of removed instances
+     */
+    public int expire(CrateState state, long nowMillis) {
+        int expired = 0;
+        Iterator<LostInstance> it = state.lostInstances().values().iterator();
+        while (it.hasNext()) {
+            LostInstance lost = it.next();
+            if (nowMillis - lost.lostMillis() >= windowMillis) {
+                LOGGER.info("Node {} was not relaunched on {} within {}s",
+                        lost.nodeName(), lost.hostname(), TimeUnit.MILLISECONDS.toSeconds(windowMillis));
+                it.remove();
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            metrics.stickyRelaunchesExpired(expired);
+        }
+        return expired;
+    }
+
+    /**
+     * Orders the offers from agents of lost instances first.
+     */
+    public List<Protos.Offer> lostFirst(CrateState state, List<Protos.Offer> offers) {
+        if (state.lostInstances().isEmpty()) {
+            return offers;
+        }
+        List<Protos.Offer> ordered = new ArrayList<>(offers.size());
+        List<Protos.Offer> others = new ArrayList<>(offers.size());
+        for (Protos.Offer offer : offers) {
+            if (state.lostInstances().containsKey(offer.getSlaveId().getValue())) {
+                ordered.add(offer);
+            } else {
+                others.add(offer);
+            }
+        }
+        ordered.addAll(others);
+        return ordered;
+    }
+
+    /**
+     * Number of lost instances that can still be relaunched on their agent,
+     * i.e. the agent is neither excluded nor runs an instance.
+     */
+    public int pending(CrateState state) {
+        if (state.lostInstances().isEmpty()) {
+            return 0;
+        }
+        Set<String> excluded = new HashSet<>(state.excludedSlaveIds());
+        Set<String> hosts = new HashSet<>(state.crateInstances().hosts());
+        int pending = 0;
+        for (LostInstance lost : state.lostInstances().values()) {
+            if (!excluded.contains(lost.slaveId()) && !hosts.contains(lost.hostname())) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Removes and returns the lost instance of the agent of the offer, which
+     * is relaunched with the offer, or null if the agent has none.
+     */
+    @Nullable
+    public LostInstance claim(CrateState state, Protos.Offer offer) {
+        return state.lostInstances().remove(offer.getSlaveId().getValue());
+    }
+
+    /**
+     * @param lost the lost instance that is relaunched by the task or null
+     */
+    public synchronized void launched(String taskId, @Nullable LostInstance lost) {
+        if (lost != null) {
+            LOGGER.info("Relaunch node {} on {} {}s after it was lost, {} bytes of shards are on the local disk",
+                    lost.nodeName(), lost.hostname(),
+                    TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - lost.lostMillis()),
+                    lost.dataBytes());
+            metrics.stickyRelaunched(lost.dataBytes());
+        }
+        recoveries.put(taskId, new Recovery(System.nanoTime(), lost != null));
+    }
+
+    public synchronized void running(String taskId) {
+        Recovery recovery = recoveries.get(taskId);
+        if (recovery != null) {
+            recovery.running = true;
+        }
+    }
+
+    public synchronized void terminated(String taskId) {
+        recoveries.remove(taskId);
+    }
+
+    /**
+     * Shard bytes of the node as of the last poll, -1 if unknown.
+     */
+    synchronized long bytes(String nodeName) {
+        Long bytes = nodeBytes.get(nodeName);
+        return bytes == null ? -1L : bytes;
+    }
+
+    @Override
+    public void run() {
+        try {
+            poll(System.nanoTime());
+        } catch (RuntimeException e) {
+            LOGGER.error("Sampling the shards of the nodes failed", e);
+        }
+    }
+
+    /**
+     * The queries are done without holding the lock, which is shared with
+     * the scheduler.
+     */
+    void poll(long nowNanos) {
+        Map<String, NodeShards> nodes = allocation.nodes();
+        List<String> running = running();
+        boolean recovered = !running.isEmpty() && allocation.shardsNotStarted() == 0;
+        synchronized (this) {
+            if (nodes != null) {
+                Map<String, Long> bytes = new HashMap<>(nodes.size());
+                for (NodeShards node : nodes.values()) {
+                    bytes.put(node.name(), node.bytes());
+                }
+                nodeBytes = bytes;
+            }
+            if (recovered) {
+                for (String taskId : running) {
+                    Recovery recovery = recoveries.remove(taskId);
+                    if (recovery != null) {
+                        metrics.launchToRecovered(recovery.sticky).record(nowNanos - recovery.launchNanos);
+                    }
+                }
+            }
+        }
+    }
+
+    private synchronized List<String> running() {
+        List<String> running = new ArrayList<>();
+        for (Map.Entry<String, Recovery> entry : recoveries.entrySet()) {
+            if (entry.getValue().running) {
+                running.add(entry.getKey());
+            }
+        }
+        return running;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.staging;
+
+import io.crate.frameworks.mesos.AgentStaging;
+import io.crate.frameworks.mesos.CrateInstance;
+import io.crate.frameworks.mesos.CrateState;
+import io.crate.frameworks.mesos.SaneProtos;
+import io.crate.frameworks.mesos.config.Configuration;
+import io.crate.frameworks.mesos.config.Resources;
+import org.apache.mesos.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which agents get a staging task that fetches the Crate tarball
+ * into the artifact cache of the agent ahead of a launch, so that the Crate
+ * task doesn't have to wait for the download.
+ *
+ * Agents are staged with offers that would be declined otherwise. Candidates
+ * are the agents that hosted an instance before ({@code slavesWithInstances})
+ * and up to {@code spareAgents} other agents whose offers satisfy the
+ * resource requirements of an instance. The staging state is kept in the
+ * {@link CrateState}, so agents are not staged again after a failover.
+ */
+public class Prestager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Prestager.class);
+
+    public static final String TASK_ID_PREFIX = "prestage-";
+
+    // the executor only downloads and copies files
+    private static final double STAGING_CPUS = 0.1d;
+    private static final double STAGING_MEMORY = 128d;
+
+    private static final long STAGING_TIMEOUT_MILLIS = 15 * 60 * 1000L;
+    private static final long RETRY_DELAY_MILLIS = 10 * 60 * 1000L;
+
+    private final Configuration configuration;
+    private final int spareAgents;
+
+    public Prestager(Configuration configuration, int spareAgents) {
+        this.configuration = configuration;
+        this.spareAgents = spareAgents;
+    }
+
+    public static boolean isStagingTask(String taskId) {
+        return taskId.startsWith(TASK_ID_PREFIX);
+    }
+
+    /**
+     * Resources of a staging task, which are much lower than the
+     * resources of a Crate task.
+     */
+    public static List<Protos.Resource> resources() {
+        return Arrays.asList(SaneProtos.cpus(STAGING_CPUS), SaneProtos.mem(STAGING_MEMORY));
+    }
+
+    /**
+     * True if the agent of an offer that is not used to launch an instance
+     * should stage the given version.
+     */
+    public boolean shouldStage(CrateState state, Protos.Offer offer, String version, long nowMillis) {
+        String slaveId = offer.getSlaveId().getValue();
+        AgentStaging staging = state.staging().get(slaveId);
+        if (staging != null && version.equals(staging.version())) {
+            switch (staging.state()) {
+                case STAGED:
+                    return false;
+                case STAGING:
+                    if (nowMillis - staging.startedMillis() < STAGING_TIMEOUT_MILLIS) {
+                        return false;
+                    }
+                    break;
+                case FAILED:
+                    if (nowMillis - staging.finishedMillis() < RETRY_DELAY_MILLIS) {
+                        return false;
+                    }
+                    break;
+            }
+        }
+        if (state.excludedSlaveIds().contains(slaveId)
+            || state.crateInstances().hosts().contains(offer.getHostname())
+            || !Resources.matches(offer.getResourcesList(), configuration)) {
+            return false;
+        }
+        return state.slavesWithInstances().contains(slaveId) || spares(state, version) < spareAgents;
+    }
+
+    /**
+     * Number of agents that are staged with the version but neither run an
+     * instance nor hosted one before.
+     */
+    private static int spares(CrateState state, String version) {
+        Set<String> slavesWithInstances = new HashSet<>(state.slavesWithInstances());
+        for (CrateInstance instance : state.crateInstances()) {
+            slavesWithInstances.add(instance.slaveID());
+        }
+        int spares = 0;
+        for (AgentStaging staging : state.staging().values()) {
+            if (staging.state() != AgentStaging.State.FAILED
+                && version.equals(staging.version())
+                && !slavesWithInstances.contains(staging.slaveId())) {
+                spares++;
+            }
+        }
+        return spares;
+    }
+
+    /**
+     * Records that a staging task has been launched with the offer.
+     */
+    public void staging(CrateState state, Protos.Offer offer, String version, String taskId, long nowMillis) {
+        String slaveId = offer.getSlaveId().getValue();
+        LOGGER.info("Stage {} on {} with task {}", version, offer.getHostname(), taskId);
+        state.staging().put(slaveId, new AgentStaging(
+                slaveId, offer.getHostname(), version, taskId, offer.getId().getValue(), nowMillis));
+    }
+
+    /**
+     * True if the version is staged on the agent, so that a Crate task
+     * that is launched there finds its artifacts in the cache.
+     */
+    public static boolean staged(CrateState state, String slaveId, String version) {
+        AgentStaging staging = state.staging().get(slaveId);
+        return staging != null
+               && staging.state() == AgentStaging.State.STAGED
+               && version.equals(staging.version());
+    }
+
+    /**
+     * Updates the staging state with the status of a staging task.
+     *
+     * @return true if the status belongs to a staging task
+     */
+    public boolean statusUpdate(CrateState state, Protos.TaskStatus status, long nowMillis) {
+        String taskId = status.getTaskId().getValue();
+        if (!isStagingTask(taskId)) {
+            return false;
+        }
+        AgentStaging staging = state.staging().get(status.getSlaveId().getValue());
+        if (staging == null || !staging.taskId().equals(taskId)) {
+            LOGGER.debug("Ignoring status {} of unknown staging task {}", status.getState(), taskId);
+            return true;
+        }
+        switch (status.getState()) {
+            case TASK_FINISHED:
+                LOGGER.info("Staged {} on {} in {}ms",
+                        staging.version(), staging.hostname(), nowMillis - staging.startedMillis());
+                staging.finished(AgentStaging.State.STAGED, nowMillis);
+                break;
+            case TASK_LOST:
+            case TASK_FAILED:
+            case TASK_KILLED:
+            case TASK_ERROR:
+                LOGGER.warn("Staging {} on {} failed: {} {}",
+                        staging.version(), staging.hostname(), status.getState(), status.getMessage());
+                staging.finished(AgentStaging.State.FAILED, nowMillis);
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+}
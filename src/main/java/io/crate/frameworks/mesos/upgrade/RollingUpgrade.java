@@ -0,0 +1,314 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.upgrade;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.crate.frameworks.mesos.CrateExecutableInfo;
+import io.crate.frameworks.mesos.CrateInstance;
+import io.crate.frameworks.mesos.CrateInstances;
+import io.crate.frameworks.mesos.CrateMessage;
+import io.crate.frameworks.mesos.CrateState;
+import io.crate.frameworks.mesos.PersistentStateStore;
+import io.crate.frameworks.mesos.Upgrade;
+import io.crate.frameworks.mesos.allocation.NodeShards;
+import io.crate.frameworks.mesos.allocation.ShardAllocation;
+import io.crate.frameworks.mesos.config.Configuration;
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static io.crate.frameworks.mesos.SaneProtos.taskID;
+
+/**
+ * Replaces the instances that don't run the target version of the
+ * {@link Upgrade} in the {@link CrateState}, one batch at a time.
+ *
+ * For every batch the allocation of existing shards is disabled, the tasks
+ * are killed and the scheduler launches their replacements with the target
+ * version, preferably on the same agents. Once the new nodes have joined
+ * the cluster the allocation is enabled again and the next batch is only
+ * started when the cluster is green. Before the first batch the tarball of
+ * the target version is pre-fetched by the executors of all running
+ * instances, so the replacements don't have to wait for the download.
+ *
+ * The upgrade itself is started, paused and rolled back through the API by
+ * changing the state; a batch that has been started is always completed.
+ */
+public class RollingUpgrade implements Runnable, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RollingUpgrade.class);
+
+    static final String ALLOCATION_ALL = "all";
+    static final String ALLOCATION_NEW_PRIMARIES = "new_primaries";
+
+    public enum Phase {
+        // no batch is in progress
+        IDLE,
+        // the tasks of the batch have been killed
+        STOPPING,
+        // waiting for the replacements to join the cluster
+        STARTING,
+        // allocation is enabled, waiting for the cluster to become green
+        RECOVERING
+    }
+
+    private final PersistentStateStore store;
+    private final Configuration configuration;
+    private final ShardAllocation allocation;
+    private final SchedulerDriver driver;
+    private final Set<String> batch = new LinkedHashSet<>();
+    private Phase phase = Phase.IDLE;
+    private String prefetchedVersion;
+    private boolean allocationChecked = false;
+    private ScheduledExecutorService executor;
+
+    public RollingUpgrade(PersistentStateStore store,
+                          Configuration configuration,
+                          ShardAllocation allocation,
+                          SchedulerDriver driver) {
+        this.store = store;
+        this.configuration = configuration;
+        this.allocation = allocation;
+        this.driver = driver;
+    }
+
+    public synchronized void start(long intervalMillis) {
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("rolling-upgrade").setDaemon(true).build());
+        executor.scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized Phase phase() {
+        return phase;
+    }
+
+    /**
+     * Task ids of the instances that are replaced by the current batch.
+     */
+    public synchronized List<String> batch() {
+        return new ArrayList<>(batch);
+    }
+
+    @Override
+    public void run() {
+        try {
+            poll();
+        } catch (RuntimeException e) {
+            LOGGER.error("Rolling upgrade failed", e);
+        }
+    }
+
+    /**
+     * The state is read and changed while holding the lock of the store,
+     * which is shared with the scheduler; the queries of the allocation are
+     * made without it.
+     */
+    synchronized void poll() {
+        switch (phase) {
+            case IDLE:
+                startBatch();
+                break;
+            case STOPPING:
+                synchronized (store) {
+                    CrateInstances instances = store.state().crateInstances();
+                    for (String taskId : batch) {
+                        if (instances.byTaskId(taskId) != null) {
+                            return;
+                        }
+                    }
+                }
+                LOGGER.info("Stopped {}, waiting for the replacements", batch);
+                phase = Phase.STARTING;
+                driver.reviveOffers();
+                break;
+            case STARTING:
+                Map<String, NodeShards> nodes = allocation.nodes();
+                boolean joined;
+                synchronized (store) {
+                    joined = joined(store.state(), nodes);
+                }
+                if (joined && allocation.enable(ALLOCATION_ALL)) {
+                    LOGGER.info("Replacements of {} have joined the cluster, waiting for the cluster to recover", batch);
+                    phase = Phase.RECOVERING;
+                }
+                break;
+            case RECOVERING:
+                if (allocation.shardsNotStarted() == 0) {
+                    LOGGER.info("Replaced {}", batch);
+                    batch.clear();
+                    phase = Phase.IDLE;
+                }
+                break;
+        }
+    }
+
+    private void startBatch() {
+        synchronized (store) {
+            if (store.state().upgrade() == null) {
+                return;
+            }
+        }
+        if (!allocationChecked) {
+            // the framework may have failed over while the allocation was disabled
+            allocationChecked = allocation.enable(ALLOCATION_ALL);
+        }
+        synchronized (store) {
+            if (!ready(store.state())) {
+                return;
+            }
+        }
+        long notStarted = allocation.shardsNotStarted();
+        if (notStarted != 0) {
+            LOGGER.debug("Waiting for the cluster to become green, {} shards are not started", notStarted);
+            return;
+        }
+        if (!allocation.enable(ALLOCATION_NEW_PRIMARIES)) {
+            return;
+        }
+        synchronized (store) {
+            CrateState state = store.state();
+            // the state may have changed during the queries
+            if (!ready(state)) {
+                return;
+            }
+            Upgrade upgrade = state.upgrade();
+            List<CrateInstance> pending = pending(state, upgrade.targetVersion());
+            for (int i = 0; i < pending.size() && batch.size() < upgrade.parallelism(); i++) {
+                CrateInstance instance = pending.get(i);
+                LOGGER.info("Replace task {} on {} running {} with {}",
+                        instance.taskId(), instance.hostname(), instance.version(), upgrade.targetVersion());
+                // the replacement is launched on the same agent, which has the new version cached
+                state.slavesWithInstances().add(instance.slaveID());
+                batch.add(instance.taskId());
+                driver.killTask(taskID(instance.taskId()));
+            }
+            store.save();
+        }
+        phase = Phase.STOPPING;
+    }
+
+    /**
+     * True if a batch can be started as far as the state is concerned. The
+     * upgrade is finished here once no instance is left to replace.
+     */
+    private boolean ready(CrateState state) {
+        Upgrade upgrade = state.upgrade();
+        if (upgrade == null) {
+            return false;
+        }
+        String target = upgrade.targetVersion();
+        prefetch(state, upgrade);
+        if (!stable(state)) {
+            return false;
+        }
+        if (pending(state, target).isEmpty()) {
+            LOGGER.info("Upgrade to {} finished", target);
+            configuration.version(target);
+            state.upgrade(null);
+            store.save();
+            return false;
+        }
+        return !upgrade.paused();
+    }
+
+    private static List<CrateInstance> pending(CrateState state, String target) {
+        List<CrateInstance> pending = new ArrayList<>();
+        for (CrateInstance instance : state.crateInstances()) {
+            if (!target.equals(instance.version())) {
+                pending.add(instance);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Sends the executors of all running instances the artifacts of the
+     * target version, once per version.
+     */
+    private void prefetch(CrateState state, Upgrade upgrade) {
+        String target = upgrade.targetVersion();
+        if (target.equals(prefetchedVersion)) {
+            return;
+        }
+        byte[] message = new CrateMessage<>(CrateMessage.Type.MESSAGE_PREFETCH, new CrateExecutableInfo(
+                configuration,
+                "",
+                state.crateInstances(),
+                Collections.<Protos.Attribute>emptyList(),
+                state.desiredInstances().getValue(),
+                target,
+                upgrade.targetChecksum())).toStream();
+        for (CrateInstance instance : state.crateInstances()) {
+            if (!target.equals(instance.version())) {
+                LOGGER.debug("Pre-fetch {} on {}", target, instance.hostname());
+                driver.sendFrameworkMessage(
+                        Protos.ExecutorID.newBuilder().setValue(instance.executorID()).build(),
+                        Protos.SlaveID.newBuilder().setValue(instance.slaveID()).build(),
+                        message);
+            }
+        }
+        prefetchedVersion = target;
+    }
+
+    /**
+     * True if all desired instances are running, so that no other change of
+     * the cluster is in progress.
+     */
+    private static boolean stable(CrateState state) {
+        return state.missingInstances() == 0 &&
+               state.crateInstances().runningInstances().size() == state.crateInstances().size();
+    }
+
+    /**
+     * True if all instances are running and their nodes are part of the cluster.
+     */
+    static boolean joined(CrateState state, Map<String, NodeShards> nodes) {
+        if (nodes == null || !stable(state)) {
+            return false;
+        }
+        for (CrateInstance instance : state.crateInstances()) {
+            if (instance.nodeId() == null || !nodes.containsKey(instance.nodeId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
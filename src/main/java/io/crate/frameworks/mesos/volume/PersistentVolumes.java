@@ -0,0 +1,240 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.volume;
+
+import io.crate.frameworks.mesos.SaneProtos;
+import io.crate.frameworks.mesos.config.Configuration;
+import org.apache.mesos.Protos;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Keeps the data of the Crate nodes on persistent volumes, which are created
+ * from resources that are dynamically reserved for the role of the framework.
+ *
+ * The resources of a task and its volume are reserved with the offer that
+ * is used to launch it ({@code RESERVE} and {@code CREATE} operations before
+ * the {@code LAUNCH}). Once the task is gone the reserved resources and the
+ * volume are offered to the framework again, only for its role, so the next
+ * instance that is launched with such an offer finds the data of the previous
+ * one and recovers its shards from the local disk.
+ */
+public class PersistentVolumes {
+
+    /**
+     * Path of the volume relative to the sandbox of the executor.
+     */
+    public static final String CONTAINER_PATH = "crate-data";
+
+    private final Configuration configuration;
+    private final String principal;
+    private final String prefix;
+
+    /**
+     * @param principal principal of the framework, which is required for
+     *                  dynamic reservations
+     */
+    public PersistentVolumes(Configuration configuration, String principal) {
+        this.configuration = configuration;
+        this.principal = principal;
+        this.prefix = configuration.clusterName + "-";
+    }
+
+    /**
+     * Returns the persistence id of an unused volume of the cluster in the
+     * offer or null if the offer doesn't contain one.
+     */
+    @Nullable
+    public String volumeId(Protos.Offer offer) {
+        for (Protos.Resource resource : offer.getResourcesList()) {
+            if (isVolume(resource)) {
+                return resource.getDisk().getPersistence().getId();
+            }
+        }
+        return null;
+    }
+
+    private boolean isVolume(Protos.Resource resource) {
+        return "disk".equals(resource.getName())
+               && configuration.role.equals(resource.getRole())
+               && resource.hasDisk()
+               && resource.getDisk().hasPersistence()
+               && resource.getDisk().getPersistence().getId().startsWith(prefix);
+    }
+
+    public String newVolumeId() {
+        return prefix + UUID.randomUUID().toString();
+    }
+
+    /**
+     * Orders the offers that contain a volume of the cluster first, so that
+     * instances are launched where their data is.
+     */
+    public List<Protos.Offer> volumesFirst(List<Protos.Offer> offers) {
+        List<Protos.Offer> ordered = new ArrayList<>(offers.size());
+        List<Protos.Offer> withoutVolume = new ArrayList<>(offers.size());
+        for (Protos.Offer offer : offers) {
+            if (volumeId(offer) != null) {
+                ordered.add(offer);
+            } else {
+                withoutVolume.add(offer);
+            }
+        }
+        ordered.addAll(withoutVolume);
+        return ordered;
+    }
+
+    /**
+     * True if the offer contains the volume or enough disk to create it.
+     */
+    public boolean hasDisk(Protos.Offer offer) {
+        double disk = 0;
+        for (Protos.Resource resource : offer.getResourcesList()) {
+            if (isVolume(resource)) {
+                return true;
+            }
+            if ("disk".equals(resource.getName()) && !resource.hasDisk()) {
+                disk += resource.getScalar().getValue();
+            }
+        }
+        return disk >= configuration.resDisk;
+    }
+
+    /**
+     * Resources of a Crate task, reserved for the role of the framework,
+     * including its volume. A volume that exists already is used as it is
+     * offered, its size may differ from the configured one.
+     */
+    public List<Protos.Resource> taskResources(Protos.Offer offer, String volumeId) {
+        Protos.Resource volume = volume(volumeId);
+        for (Protos.Resource resource : offer.getResourcesList()) {
+            if (isVolume(resource) && resource.getDisk().getPersistence().getId().equals(volumeId)) {
+                volume = resource;
+            }
+        }
+        return Arrays.asList(
+                reserved(SaneProtos.cpus(configuration.resCpus)),
+                reserved(SaneProtos.mem(configuration.resMemory)),
+                reserved(SaneProtos.ports(configuration.httpPort, configuration.httpPort)),
+                reserved(SaneProtos.ports(configuration.transportPort, configuration.transportPort)),
+                volume);
+    }
+
+    /**
+     * Returns the operations that reserve the resources of a task and create
+     * its volume, which are empty if the offer already contains them.
+     */
+    public List<Protos.Offer.Operation> prepare(Protos.Offer offer, String volumeId) {
+        double cpus = 0;
+        double mem = 0;
+        double disk = 0;
+        boolean httpPort = false;
+        boolean transportPort = false;
+        boolean volume = false;
+        for (Protos.Resource resource : offer.getResourcesList()) {
+            if (!configuration.role.equals(resource.getRole()) || !resource.hasReservation()) {
+                continue;
+            }
+            switch (resource.getName()) {
+                case "cpus":
+                    cpus += resource.getScalar().getValue();
+                    break;
+                case "mem":
+                    mem += resource.getScalar().getValue();
+                    break;
+                case "ports":
+                    httpPort = httpPort || inRange(configuration.httpPort, resource);
+                    transportPort = transportPort || inRange(configuration.transportPort, resource);
+                    break;
+                case "disk":
+                    if (!resource.hasDisk()) {
+                        disk += resource.getScalar().getValue();
+                    } else if (isVolume(resource) && resource.getDisk().getPersistence().getId().equals(volumeId)) {
+                        volume = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        List<Protos.Resource> reserve = new ArrayList<>();
+        if (cpus < configuration.resCpus) {
+            reserve.add(reserved(SaneProtos.cpus(configuration.resCpus - cpus)));
+        }
+        if (mem < configuration.resMemory) {
+            reserve.add(reserved(SaneProtos.mem(configuration.resMemory - mem)));
+        }
+        if (!httpPort) {
+            reserve.add(reserved(SaneProtos.ports(configuration.httpPort, configuration.httpPort)));
+        }
+        if (!transportPort) {
+            reserve.add(reserved(SaneProtos.ports(configuration.transportPort, configuration.transportPort)));
+        }
+        if (!volume && disk < configuration.resDisk) {
+            reserve.add(reserved(SaneProtos.disk(configuration.resDisk - disk)));
+        }
+        List<Protos.Offer.Operation> operations = new ArrayList<>(2);
+        if (!reserve.isEmpty()) {
+            operations.add(Protos.Offer.Operation.newBuilder()
+                    .setType(Protos.Offer.Operation.Type.RESERVE)
+                    .setReserve(Protos.Offer.Operation.Reserve.newBuilder().addAllResources(reserve))
+                    .build());
+        }
+        if (!volume) {
+            operations.add(Protos.Offer.Operation.newBuilder()
+                    .setType(Protos.Offer.Operation.Type.CREATE)
+                    .setCreate(Protos.Offer.Operation.Create.newBuilder().addVolumes(volume(volumeId)))
+                    .build());
+        }
+        return operations;
+    }
+
+    private Protos.Resource reserved(Protos.Resource resource) {
+        return Protos.Resource.newBuilder(resource)
+                .setRole(configuration.role)
+                .setReservation(Protos.Resource.ReservationInfo.newBuilder().setPrincipal(principal))
+                .build();
+    }
+
+    private Protos.Resource volume(String volumeId) {
+        return Protos.Resource.newBuilder(reserved(SaneProtos.disk(configuration.resDisk)))
+                .setDisk(Protos.Resource.DiskInfo.newBuilder()
+                        .setPersistence(Protos.Resource.DiskInfo.Persistence.newBuilder().setId(volumeId))
+                        .setVolume(Protos.Volume.newBuilder()
+                                .setContainerPath(CONTAINER_PATH)
+                                .setMode(Protos.Volume.Mode.RW)))
+                .build();
+    }
+
+    private static boolean inRange(int port, Protos.Resource resource) {
+        for (Protos.Value.Range range : resource.getRanges().getRangeList()) {
+            if (port >= range.getBegin() && port <= range.getEnd()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
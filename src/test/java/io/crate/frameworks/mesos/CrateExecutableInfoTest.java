@@ -27,6 +27,7 @@ import org.apache.mesos.Protos;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 
@@ -63,6 +64,20 @@ public class CrateExecutableInfoTest {
         assertThat(newInfo.arguments(), Matchers.hasItem("-Des.node.mesos_zone=a"));
     }
 
+    @Test
+    public void testVolumePathIsUsedAsDataPath() throws Exception {
+        Configuration configuration = new Configuration();
+        configuration.dataPath = "/mnt/ssd1/crate";
+        CrateExecutableInfo info = new CrateExecutableInfo(configuration, "host1", new CrateInstances(),
+                ImmutableList.<Protos.Attribute>of(), 1);
+        info.volumePath("crate-data");
+
+        CrateExecutableInfo newInfo = CrateExecutableInfo.fromStream(info.toStream());
+        String dataPath = new File("crate-data").getAbsolutePath();
+        assertThat(newInfo.dataDir().getPath(), Matchers.is(dataPath));
+        assertThat(newInfo.arguments(), Matchers.hasItem("-Des.path.data=" + dataPath));
+    }
+
     @Test
     public void testTransportPortIsSetCorrectly() throws Exception {
         Configuration configuration = new Configuration();
@@ -99,6 +99,57 @@ public class CrateInstancesTest {
         assertEquals(new HashSet<String>(), cluster.hosts());
     }
 
+    @Test
+    public void testHostsWithMultipleInstances() throws Exception {
+        CrateInstances cluster = new CrateInstances();
+        cluster.addInstance(newInstance("127.0.0.1", "1"));
+        cluster.addInstance(newInstance("127.0.0.1", "2"));
+        cluster.removeTask("1");
+        assertTrue(cluster.anyOnHost("127.0.0.1"));
+        cluster.removeTask("2");
+        assertFalse(cluster.anyOnHost("127.0.0.1"));
+    }
+
+    @Test
+    public void testByTaskId() throws Exception {
+        CrateInstances cluster = new CrateInstances();
+        cluster.addInstance(newInstance("127.0.0.1", "1"));
+        assertEquals("127.0.0.1", cluster.byTaskId("1").hostname());
+        assertNull(cluster.byTaskId("2"));
+    }
+
+    @Test
+    public void testPutInstanceKeepsOrder() throws Exception {
+        CrateInstances cluster = new CrateInstances();
+        cluster.addInstance(newInstance("127.0.0.1", "1"));
+        cluster.addInstance(newInstance("127.0.0.2", "2"));
+        CrateInstance replacement = newInstance("127.0.0.1", "1");
+        replacement.state(CrateInstance.State.RUNNING);
+        cluster.putInstance(replacement);
+        assertEquals(2, cluster.size());
+        assertSame(replacement, cluster.get(0));
+        assertEquals(1, cluster.runningInstances().size());
+    }
+
+    @Test
+    public void testHostStrings() throws Exception {
+        CrateInstances cluster = new CrateInstances();
+        cluster.addInstance(newInstance("127.0.0.1", "1"));
+        cluster.addInstance(newInstance("127.0.0.2", "2"));
+        assertEquals("127.0.0.1:4300,127.0.0.2:4300", cluster.unicastHosts());
+        assertArrayEquals(new String[0], cluster.connectionHosts());
+
+        cluster.setToRunning("2", "id-2");
+        assertArrayEquals(new String[]{"127.0.0.2:4300"}, cluster.connectionHosts());
+        cluster.setToRunning("1", "id-1");
+        assertArrayEquals(new String[]{"127.0.0.2:4300", "127.0.0.1:4300"}, cluster.connectionHosts());
+
+        cluster.removeTask("2");
+        assertEquals("127.0.0.1:4300", cluster.unicastHosts());
+        assertArrayEquals(new String[]{"127.0.0.1:4300"}, cluster.connectionHosts());
+        assertEquals(1, cluster.runningInstances().size());
+    }
+
     @Test
     public void testCalculateQuorum() throws Exception {
         assertEquals(1, CrateInstances.calculateQuorum(1));
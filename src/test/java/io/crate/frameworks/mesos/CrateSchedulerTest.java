@@ -21,16 +21,27 @@
 
 package io.crate.frameworks.mesos;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.protobuf.ByteString;
+import io.crate.frameworks.mesos.allocation.InstanceDrainer;
+import io.crate.frameworks.mesos.allocation.ShardAllocation;
 import io.crate.frameworks.mesos.config.Configuration;
+import io.crate.frameworks.mesos.metrics.MetricsRegistry;
+import io.crate.frameworks.mesos.metrics.SchedulerMetrics;
+import io.crate.frameworks.mesos.relaunch.StickyRelaunch;
+import io.crate.frameworks.mesos.staging.Prestager;
+import io.crate.frameworks.mesos.volume.PersistentVolumes;
 import org.apache.mesos.Protos;
 import org.apache.mesos.SchedulerDriver;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.IOException;
 import java.util.*;
 
 import static io.crate.frameworks.mesos.SaneProtos.taskID;
@@ -39,6 +50,10 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -60,6 +75,9 @@ public class CrateSchedulerTest {
     @Captor
     private ArgumentCaptor<Collection<Protos.TaskInfo>> taskInfoCaptor;
 
+    @Captor
+    private ArgumentCaptor<Collection<Protos.Offer.Operation>> operationsCaptor;
+
 
     @Before
     public void setUp() throws Exception {
@@ -67,6 +85,7 @@ public class CrateSchedulerTest {
         masterInfo = Protos.MasterInfo.getDefaultInstance();
         state = new CrateState();
         when(store.state()).thenReturn(state);
+        when(store.save()).thenReturn(Futures.<Void>immediateFuture(null));
     }
 
     @Test
@@ -111,8 +130,45 @@ public class CrateSchedulerTest {
 
         crateScheduler.resourceOffers(driver, offers);
 
-        verify(driver, times(4)).launchTasks(anyCollectionOf(Protos.OfferID.class), taskInfoCaptor.capture(), any(Protos.Filters.class));
-        assertThat(taskInfoCaptor.getValue().size(), is(1));
+        assertThat(acceptedTasks(4).size(), is(4));
+    }
+
+    @Test
+    public void testSchedulerMetrics() throws Exception {
+        state.instances(new CrateInstances());
+        Protos.FrameworkID frameworkID = Protos.FrameworkID.newBuilder().setValue("xx").build();
+        Configuration configuration = new Configuration();
+        configuration.nodeCount = 2;
+        SchedulerMetrics metrics = new SchedulerMetrics(new MetricsRegistry());
+        CrateScheduler crateScheduler = CrateScheduler.builder(store, configuration).metrics(metrics).build();
+        crateScheduler.registered(driver, frameworkID, masterInfo);
+
+        List<Protos.Offer> offers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            String idx = Integer.toString(i);
+            offers.add(Protos.Offer.newBuilder()
+                    .setId(Protos.OfferID.newBuilder().setValue(idx))
+                    .setHostname(idx)
+                    .setSlaveId(Protos.SlaveID.newBuilder().setValue(idx))
+                    .setFrameworkId(frameworkID)
+                    .addAllResources(configuration.getAllRequiredResources()).build());
+        }
+        crateScheduler.resourceOffers(driver, offers);
+
+        assertThat(metrics.offersReceived(), is(5L));
+        assertThat(metrics.offersUsed(), is(2L));
+        assertThat(metrics.offersDeclined(), is(3L));
+        assertThat(metrics.offerBatchEvaluation().count(), is(1L));
+
+        Protos.TaskID taskId = acceptedTasks(2).get(1).getTaskId();
+        crateScheduler.statusUpdate(driver, Protos.TaskStatus.newBuilder()
+                .setTaskId(taskId)
+                .setState(Protos.TaskState.TASK_RUNNING)
+                .build());
+        assertThat(metrics.statusUpdates(Protos.TaskState.TASK_RUNNING), is(1L));
+        assertThat(metrics.launchToRunning(false).count(), is(1L));
+        assertTrue(state.crateInstances().byTaskId(taskId.getValue()).lifecycle()
+                .reached(TaskLifecycle.Phase.OFFER_ACCEPTED));
     }
 
     @Test
@@ -179,6 +235,286 @@ public class CrateSchedulerTest {
         assertThat(state.crateInstances().get(1).version(), is("0.48.0"));
     }
 
+    @Test
+    public void testLaunchDuringUpgradeUsesTargetVersion() throws Exception {
+        Protos.FrameworkID frameworkID = Protos.FrameworkID.newBuilder().setValue("xx").build();
+        Configuration configuration = new Configuration();
+        configuration.version("0.47.7");
+        configuration.nodeCount = 2;
+        CrateInstances instances = new CrateInstances();
+        instances.addInstance(new CrateInstance("host1", "task-1", "0.47.7", 4300, "exec1", "slave1"));
+        state.instances(instances);
+        state.upgrade(new Upgrade("0.47.7", null, "0.48.0", "abc", 1));
+        CrateScheduler crateScheduler = initScheduler(configuration, frameworkID);
+        crateScheduler.statusUpdate(driver,
+                Protos.TaskStatus.newBuilder()
+                        .setTaskId(taskID("task-1"))
+                        .setState(Protos.TaskState.TASK_RUNNING).build());
+
+        crateScheduler.resourceOffers(driver, asList(Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("2"))
+                .setHostname("host2")
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave2"))
+                .setFrameworkId(frameworkID)
+                .addAllResources(configuration.getAllRequiredResources()).build()));
+
+        CrateExecutableInfo info = CrateExecutableInfo.fromStream(acceptedTasks(1).get(0).getData().toByteArray());
+        assertThat(info.uris().get(0).toString(), is("https://cdn.crate.io/downloads/releases/crate-0.48.0.tar.gz"));
+        assertThat(info.checksum(), is("abc"));
+        assertThat(state.crateInstances().get(1).version(), is("0.48.0"));
+    }
+
+    @Test
+    public void testPrestaging() throws Exception {
+        Protos.FrameworkID frameworkID = Protos.FrameworkID.newBuilder().setValue("xx").build();
+        Configuration configuration = new Configuration();
+        configuration.version("0.47.7");
+        configuration.nodeCount = 1;
+        CrateInstances instances = new CrateInstances();
+        instances.addInstance(new CrateInstance("host1", "task-1", "0.47.7", 4300, "exec1", "slave1"));
+        state.instances(instances);
+        state.slavesWithInstances().add("slave2");
+        SchedulerMetrics metrics = new SchedulerMetrics(new MetricsRegistry());
+        CrateScheduler crateScheduler = CrateScheduler.builder(store, configuration)
+                .metrics(metrics)
+                .prestager(new Prestager(configuration, 0))
+                .build();
+        crateScheduler.registered(driver, frameworkID, masterInfo);
+        crateScheduler.statusUpdate(driver, Protos.TaskStatus.newBuilder()
+                .setTaskId(taskID("task-1"))
+                .setState(Protos.TaskState.TASK_RUNNING).build());
+
+        List<Protos.Offer> offers = new ArrayList<>();
+        for (int i = 2; i <= 3; i++) {
+            offers.add(Protos.Offer.newBuilder()
+                    .setId(Protos.OfferID.newBuilder().setValue("offer" + i))
+                    .setHostname("host" + i)
+                    .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave" + i))
+                    .setFrameworkId(frameworkID)
+                    .addAllResources(configuration.getAllRequiredResources()).build());
+        }
+        crateScheduler.resourceOffers(driver, offers);
+
+        // only the agent that hosted an instance before is staged
+        verify(driver).launchTasks(anyCollectionOf(Protos.OfferID.class), taskInfoCaptor.capture(), any(Protos.Filters.class));
+        verify(driver).declineOffer(offers.get(1).getId());
+        Protos.TaskInfo stagingTask = taskInfoCaptor.getValue().iterator().next();
+        assertThat(stagingTask.getResourcesList(), is(Prestager.resources()));
+        assertTrue(CrateExecutableInfo.fromStream(stagingTask.getData().toByteArray()).staging());
+        assertThat(metrics.offersStaged(), is(1L));
+        assertThat(state.crateInstances().size(), is(1));
+
+        crateScheduler.statusUpdate(driver, Protos.TaskStatus.newBuilder()
+                .setTaskId(stagingTask.getTaskId())
+                .setSlaveId(stagingTask.getSlaveId())
+                .setState(Protos.TaskState.TASK_FINISHED).build());
+        assertThat(state.staging().get("slave2").state(), is(AgentStaging.State.STAGED));
+
+        // the replacement of a lost instance is launched on the staged agent
+        crateScheduler.statusUpdate(driver, Protos.TaskStatus.newBuilder()
+                .setTaskId(taskID("task-1"))
+                .setState(Protos.TaskState.TASK_LOST).build());
+        crateScheduler.resourceOffers(driver, offers.subList(0, 1));
+        CrateInstance replacement = state.crateInstances().get(0);
+        assertThat(replacement.hostname(), is("host2"));
+        crateScheduler.statusUpdate(driver, Protos.TaskStatus.newBuilder()
+                .setTaskId(taskID(replacement.taskId()))
+                .setState(Protos.TaskState.TASK_RUNNING).build());
+        assertThat(metrics.launchToRunning(true).count(), is(1L));
+        assertThat(metrics.launchToRunning(false).count(), is(0L));
+    }
+
+    @Test
+    public void testLaunchWithPersistentVolume() throws Exception {
+        Protos.FrameworkID frameworkID = Protos.FrameworkID.newBuilder().setValue("xx").build();
+        Configuration configuration = new Configuration();
+        configuration.version("0.47.7");
+        configuration.role = "crate";
+        configuration.nodeCount = 1;
+        CrateScheduler crateScheduler = CrateScheduler.builder(store, configuration)
+                .volumes(new PersistentVolumes(configuration, "crate-framework"))
+                .build();
+        crateScheduler.registered(driver, frameworkID, masterInfo);
+
+        Protos.Offer noDisk = Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("1"))
+                .setHostname("host1")
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave1"))
+                .setFrameworkId(frameworkID)
+                .addAllResources(configuration.getAllRequiredResources()).build();
+        Protos.Offer offer = Protos.Offer.newBuilder(noDisk)
+                .setId(Protos.OfferID.newBuilder().setValue("2"))
+                .setHostname("host2")
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave2"))
+                .addResources(SaneProtos.disk(configuration.resDisk)).build();
+        crateScheduler.resourceOffers(driver, asList(noDisk, offer));
+
+        verify(driver).declineOffer(noDisk.getId());
+        verify(driver, never()).launchTasks(anyCollectionOf(Protos.OfferID.class),
+                anyCollectionOf(Protos.TaskInfo.class), any(Protos.Filters.class));
+        verify(driver).acceptOffers(eq(asList(offer.getId())), operationsCaptor.capture(), any(Protos.Filters.class));
+        List<Protos.Offer.Operation> operations = new ArrayList<>(operationsCaptor.getValue());
+        assertThat(operations.size(), is(3));
+        assertThat(operations.get(0).getType(), is(Protos.Offer.Operation.Type.RESERVE));
+        assertThat(operations.get(1).getType(), is(Protos.Offer.Operation.Type.CREATE));
+        assertThat(operations.get(2).getType(), is(Protos.Offer.Operation.Type.LAUNCH));
+
+        CrateInstance instance = state.crateInstances().get(0);
+        String volumeId = operations.get(1).getCreate().getVolumes(0).getDisk().getPersistence().getId();
+        assertThat(instance.volumeId(), is(volumeId));
+        Protos.TaskInfo task = operations.get(2).getLaunch().getTaskInfos(0);
+        assertTrue(task.getResourcesList().contains(operations.get(1).getCreate().getVolumes(0)));
+        assertThat(CrateExecutableInfo.fromStream(task.getData().toByteArray()).dataDir().getName(),
+                is(PersistentVolumes.CONTAINER_PATH));
+    }
+
+    @Test
+    public void testStickyRelaunch() throws Exception {
+        Protos.FrameworkID frameworkID = Protos.FrameworkID.newBuilder().setValue("xx").build();
+        Configuration configuration = new Configuration();
+        configuration.version("0.47.7");
+        configuration.dataPath = "/mnt/data";
+        configuration.nodeCount = 2;
+        CrateInstances instances = new CrateInstances();
+        for (int i = 1; i <= 2; i++) {
+            CrateInstance instance = new CrateInstance("host" + i, "task-" + i, "0.47.7", 4300, "exec" + i, "slave" + i);
+            instance.nodeName("crate-node-" + i);
+            instances.addInstance(instance);
+        }
+        state.instances(instances);
+        SchedulerMetrics metrics = new SchedulerMetrics(new MetricsRegistry());
+        StickyRelaunch sticky = new StickyRelaunch(configuration, 60_000L, mock(ShardAllocation.class), metrics);
+        CrateScheduler crateScheduler = CrateScheduler.builder(store, configuration)
+                .metrics(metrics)
+                .sticky(sticky)
+                .build();
+        crateScheduler.registered(driver, frameworkID, masterInfo);
+        for (int i = 1; i <= 2; i++) {
+            crateScheduler.statusUpdate(driver, Protos.TaskStatus.newBuilder()
+                    .setTaskId(taskID("task-" + i))
+                    .setState(Protos.TaskState.TASK_RUNNING).build());
+        }
+        crateScheduler.statusUpdate(driver, Protos.TaskStatus.newBuilder()
+                .setTaskId(taskID("task-1"))
+                .setState(Protos.TaskState.TASK_FAILED).build());
+        assertThat(state.lostInstances().get("slave1").nodeName(), is("crate-node-1"));
+
+        List<Protos.Offer> offers = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            offers.add(Protos.Offer.newBuilder()
+                    .setId(Protos.OfferID.newBuilder().setValue("offer" + i))
+                    .setHostname("host" + i)
+                    .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave" + i))
+                    .setFrameworkId(frameworkID)
+                    .addAllResources(configuration.getAllRequiredResources()).build());
+        }
+
+        // the offer from another agent is kept for the lost instance
+        crateScheduler.resourceOffers(driver, offers.subList(2, 3));
+        verify(driver).declineOffer(offers.get(2).getId());
+        assertThat(state.crateInstances().size(), is(1));
+
+        crateScheduler.resourceOffers(driver, asList(offers.get(2), offers.get(0)));
+        verify(driver).acceptOffers(eq(asList(offers.get(0).getId())),
+                anyCollectionOf(Protos.Offer.Operation.class), any(Protos.Filters.class));
+        Protos.TaskInfo task = acceptedTasks(1).get(0);
+        assertThat(CrateExecutableInfo.fromStream(task.getData().toByteArray()).nodeName(), is("crate-node-1"));
+        assertThat(state.crateInstances().byTaskId(task.getTaskId().getValue()).nodeName(), is("crate-node-1"));
+        assertTrue(state.lostInstances().isEmpty());
+        assertThat(metrics.stickyRelaunches(), is(1L));
+    }
+
+    @Test
+    public void testOffersOfAnAgentAreMergedAndLaunchedAfterSave() throws Exception {
+        state.instances(new CrateInstances());
+        Protos.FrameworkID frameworkID = Protos.FrameworkID.newBuilder().setValue("xx").build();
+        Configuration configuration = new Configuration();
+        configuration.nodeCount = 2;
+        CrateScheduler crateScheduler = initScheduler(configuration, frameworkID);
+
+        List<Protos.Offer> offers = new ArrayList<>();
+        List<Protos.Resource> resources = new ArrayList<>();
+        for (Protos.Resource resource : configuration.getAllRequiredResources()) {
+            resources.add(resource);
+        }
+        // the resources of agent 1 are split across two offers
+        for (int i = 0; i < 2; i++) {
+            offers.add(Protos.Offer.newBuilder()
+                    .setId(Protos.OfferID.newBuilder().setValue("1-" + i))
+                    .setHostname("host1")
+                    .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave1"))
+                    .setFrameworkId(frameworkID)
+                    .addAllResources(resources.subList(i * 2, i * 2 + 2)).build());
+        }
+        offers.add(Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("2"))
+                .setHostname("host2")
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave2"))
+                .setFrameworkId(frameworkID)
+                .addAllResources(resources).build());
+        crateScheduler.resourceOffers(driver, offers);
+
+        InOrder inOrder = inOrder(store, driver);
+        inOrder.verify(store).save();
+        inOrder.verify(driver).acceptOffers(eq(asList(offers.get(0).getId(), offers.get(1).getId())),
+                anyCollectionOf(Protos.Offer.Operation.class), any(Protos.Filters.class));
+        inOrder.verify(driver).acceptOffers(eq(asList(offers.get(2).getId())),
+                anyCollectionOf(Protos.Offer.Operation.class), any(Protos.Filters.class));
+        verify(driver, never()).declineOffer(any(Protos.OfferID.class));
+        assertThat(acceptedTasks(2).size(), is(2));
+        assertThat(state.crateInstances().size(), is(2));
+    }
+
+    @Test
+    public void testOffersAreDeclinedIfTheInstancesCantBeSaved() throws Exception {
+        state.instances(new CrateInstances());
+        Protos.FrameworkID frameworkID = Protos.FrameworkID.newBuilder().setValue("xx").build();
+        Configuration configuration = new Configuration();
+        configuration.nodeCount = 2;
+        CrateScheduler crateScheduler = initScheduler(configuration, frameworkID);
+
+        List<Protos.Offer> offers = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            offers.add(Protos.Offer.newBuilder()
+                    .setId(Protos.OfferID.newBuilder().setValue(String.valueOf(i)))
+                    .setHostname("host" + i)
+                    .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave" + i))
+                    .setFrameworkId(frameworkID)
+                    .addAllResources(configuration.getAllRequiredResources()).build());
+        }
+        when(store.save()).thenReturn(Futures.<Void>immediateFailedFuture(new IOException("connection loss")));
+        crateScheduler.resourceOffers(driver, offers);
+
+        verify(driver, never()).acceptOffers(anyCollectionOf(Protos.OfferID.class),
+                anyCollectionOf(Protos.Offer.Operation.class), any(Protos.Filters.class));
+        verify(driver).declineOffer(offers.get(0).getId());
+        verify(driver).declineOffer(offers.get(1).getId());
+        assertThat(state.crateInstances().size(), is(0));
+
+        // the instances are launched with the next offers
+        when(store.save()).thenReturn(Futures.<Void>immediateFuture(null));
+        crateScheduler.resourceOffers(driver, offers);
+        assertThat(acceptedTasks(2).size(), is(2));
+        assertThat(state.crateInstances().size(), is(2));
+    }
+
+    /**
+     * Returns the tasks that were launched with {@code times} calls of {@code acceptOffers}.
+     */
+    private List<Protos.TaskInfo> acceptedTasks(int times) {
+        verify(driver, times(times)).acceptOffers(anyCollectionOf(Protos.OfferID.class),
+                operationsCaptor.capture(), any(Protos.Filters.class));
+        List<Protos.TaskInfo> tasks = new ArrayList<>();
+        for (Collection<Protos.Offer.Operation> operations : operationsCaptor.getAllValues()) {
+            for (Protos.Offer.Operation operation : operations) {
+                if (operation.getType() == Protos.Offer.Operation.Type.LAUNCH) {
+                    tasks.addAll(operation.getLaunch().getTaskInfosList());
+                }
+            }
+        }
+        return tasks;
+    }
+
     private CrateScheduler initScheduler(Configuration configuration, String frameworkID) {
         return initScheduler(configuration, Protos.FrameworkID.newBuilder().setValue(frameworkID).build());
     }
@@ -209,6 +545,118 @@ public class CrateSchedulerTest {
                 .build();
     }
 
+    @Test
+    public void testHealthStatusUpdate() throws Exception {
+        CrateInstances instances = new CrateInstances();
+        instances.addInstance(new CrateInstance("host1", "task-1", "0.54.8", 4300, "exec-1", "slave-1"));
+        state.instances(instances);
+        CrateScheduler scheduler = initScheduler(new Configuration(), "xx");
+        scheduler.statusUpdate(driver, Protos.TaskStatus.newBuilder()
+                .setTaskId(taskID("task-1"))
+                .setState(Protos.TaskState.TASK_RUNNING)
+                .setData(ByteString.copyFromUtf8("node-1"))
+                .build());
+        assertNull(state.crateInstances().byTaskId("task-1").healthy());
+
+        scheduler.statusUpdate(driver, Protos.TaskStatus.newBuilder()
+                .setTaskId(taskID("task-1"))
+                .setState(Protos.TaskState.TASK_RUNNING)
+                .setData(ByteString.copyFromUtf8("node-1"))
+                .setHealthy(false)
+                .build());
+        CrateInstance instance = state.crateInstances().byTaskId("task-1");
+        assertEquals(Boolean.FALSE, instance.healthy());
+        assertEquals("node-1", instance.nodeId());
+        assertEquals(CrateInstance.State.RUNNING, instance.state());
+    }
+
+    @Test
+    public void testTelemetryMessage() throws Exception {
+        CrateInstances instances = new CrateInstances();
+        instances.addInstance(new CrateInstance("host1", "task-1", "0.54.8", 4300, "exec-1", "slave-1"));
+        state.instances(instances);
+        TelemetryStore telemetry = new TelemetryStore();
+        CrateScheduler scheduler = CrateScheduler.builder(store, new Configuration()).telemetry(telemetry).build();
+        scheduler.registered(driver, Protos.FrameworkID.newBuilder().setValue("xx").build(), masterInfo);
+
+        for (String taskId : asList("task-1", "task-unknown")) {
+            MessageTelemetry message = new MessageTelemetry(taskId, "crate-1", asList(
+                    new MessageTelemetry.Sample(1L, 1, 100, 1024, 512, 1024, 10, 100)));
+            scheduler.frameworkMessage(driver, newExecutor("exec-1").getExecutorId(), Protos.SlaveID.newBuilder()
+                    .setValue("slave-1").build(), new CrateMessage<>(CrateMessage.Type.MESSAGE_TELEMETRY, message).toStream());
+        }
+        assertThat(telemetry.samples("task-1").size(), is(1));
+        assertThat(telemetry.samples("task-unknown").size(), is(0));
+
+        scheduler.statusUpdate(driver, Protos.TaskStatus.newBuilder()
+                .setTaskId(taskID("task-1"))
+                .setState(Protos.TaskState.TASK_FAILED)
+                .build());
+        assertThat(telemetry.samples("task-1").size(), is(0));
+    }
+
+    @Test
+    public void testLifecycle() throws Exception {
+        CrateInstances instances = new CrateInstances();
+        instances.addInstance(new CrateInstance("host1", "task-1", "0.54.8", 4300, "exec-1", "slave-1"));
+        state.instances(instances);
+        CrateScheduler scheduler = initScheduler(new Configuration(), "xx");
+
+        scheduler.statusUpdate(driver, Protos.TaskStatus.newBuilder()
+                .setTaskId(taskID("task-1"))
+                .setState(Protos.TaskState.TASK_STARTING)
+                .setTimestamp(1000.0)
+                .build());
+        TaskLifecycle executorPhases = new TaskLifecycle();
+        executorPhases.reached(TaskLifecycle.Phase.FETCHED, 1010000L);
+        executorPhases.reached(TaskLifecycle.Phase.EXTRACTED, 1020000L);
+        executorPhases.reached(TaskLifecycle.Phase.PROCESS_STARTED, 1021000L);
+        scheduler.frameworkMessage(driver, newExecutor("exec-1").getExecutorId(),
+                Protos.SlaveID.newBuilder().setValue("slave-1").build(),
+                new CrateMessage<>(CrateMessage.Type.MESSAGE_LIFECYCLE,
+                        new MessageLifecycle("task-1", executorPhases)).toStream());
+        for (boolean healthy : new boolean[]{false, true, true}) {
+            scheduler.statusUpdate(driver, Protos.TaskStatus.newBuilder()
+                    .setTaskId(taskID("task-1"))
+                    .setState(Protos.TaskState.TASK_RUNNING)
+                    .setData(ByteString.copyFromUtf8("node-1"))
+                    .setHealthy(healthy)
+                    .setTimestamp(healthy ? 1050.0 : 1040.0)
+                    .build());
+        }
+
+        TaskLifecycle lifecycle = state.crateInstances().byTaskId("task-1").lifecycle();
+        assertThat(lifecycle.timestamp(TaskLifecycle.Phase.STARTING), is(1000000L));
+        assertThat(lifecycle.durationMillis(TaskLifecycle.Phase.EXTRACTED), is(10000L));
+        assertThat(lifecycle.timestamp(TaskLifecycle.Phase.RUNNING), is(1040000L));
+        assertThat(lifecycle.timestamp(TaskLifecycle.Phase.HEALTHY), is(1050000L));
+    }
+
+    @Test
+    public void testScaleDownDrainsInstances() throws Exception {
+        CrateInstances instances = new CrateInstances();
+        for (int i = 1; i <= 3; i++) {
+            instances.addInstance(new CrateInstance("host" + i, "task-" + i, "0.47.0", 4300, "exec-" + i, "slave-" + i));
+        }
+        state.instances(instances);
+        Configuration configuration = new Configuration();
+        configuration.nodeCount = 3;
+        InstanceDrainer drainer = mock(InstanceDrainer.class);
+        CrateScheduler scheduler = CrateScheduler.builder(store, configuration).drainer(drainer).build();
+        scheduler.registered(driver, Protos.FrameworkID.newBuilder().setValue("xx").build(), masterInfo);
+
+        state.desiredInstances(1);
+        verify(drainer).scaleDown();
+        verify(driver, never()).killTask(any(Protos.TaskID.class));
+
+        state.desiredInstances(3);
+        verify(drainer, times(2)).scaleDown();
+
+        // there is nowhere to move the shards to if all instances are removed
+        state.desiredInstances(0);
+        verify(driver, times(3)).killTask(any(Protos.TaskID.class));
+    }
+
     @Test
     public void testSlaveExclusion() throws Exception {
         Protos.FrameworkID frameworkID = Protos.FrameworkID.newBuilder().setValue("framework-1").build();
@@ -0,0 +1,202 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.*;
+
+public class CrateStateCodecTest {
+
+    private static CrateState newState(int numInstances) {
+        CrateState state = new CrateState();
+        state.desiredInstances(numInstances);
+        state.frameworkId("crate-mesos");
+        CrateInstances cluster = new CrateInstances();
+        for (int i = 0; i < numInstances; i++) {
+            cluster.addInstance(new CrateInstance("10.0.0." + i, "task-" + i, "0.54.8", 4300, "exec-" + i, "slave-" + i));
+        }
+        state.instances(cluster);
+        return state;
+    }
+
+    private static byte[] javaSerialized(CrateState state) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream objOut = new ObjectOutputStream(out)) {
+            objOut.writeObject(state);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        CrateState state = newState(2);
+        state.crateInstances().setToRunning("task-1", "node-1");
+        state.crateInstances().byTaskId("task-1").lifecycle().reached(TaskLifecycle.Phase.OFFER_ACCEPTED, 1000L);
+        state.crateInstances().byTaskId("task-1").lifecycle().reached(TaskLifecycle.Phase.RUNNING, 1467000000000L);
+        state.crateInstances().byTaskId("task-1").volumeId("crate-volume-1");
+        state.crateInstances().byTaskId("task-1").nodeName("crate-node-1");
+        state.addSlaveIdToExcludeList("MISSING_DATA_PATH", "slave-3");
+        state.addSlaveIdToExcludeList("MISSING_BLOB_PATH", "slave-4");
+        state.removeSlaveIdFromExcludeList("MISSING_BLOB_PATH", "slave-4");
+        state.slavesWithInstances().add("slave-5");
+
+        byte[] bytes = CrateStateCodec.encode(state);
+        assertTrue(CrateStateCodec.isEncoded(bytes));
+
+        CrateState decoded = CrateStateCodec.decode(bytes);
+        assertEquals(2, (int) decoded.desiredInstances().getValue());
+        assertEquals(Optional.of("crate-mesos"), decoded.frameworkId());
+        assertEquals(2, decoded.crateInstances().size());
+
+        CrateInstance instance = decoded.crateInstances().byTaskId("task-1");
+        assertEquals("10.0.0.1", instance.hostname());
+        assertEquals("0.54.8", instance.version());
+        assertEquals(4300, instance.transportPort());
+        assertEquals("exec-1", instance.executorID());
+        assertEquals("slave-1", instance.slaveID());
+        assertEquals("node-1", instance.nodeId());
+        assertEquals(CrateInstance.State.RUNNING, instance.state());
+        assertEquals(1000L, instance.lifecycle().timestamp(TaskLifecycle.Phase.OFFER_ACCEPTED));
+        assertEquals(1467000000000L, instance.lifecycle().timestamp(TaskLifecycle.Phase.RUNNING));
+        assertFalse(instance.lifecycle().reached(TaskLifecycle.Phase.STARTING));
+        assertEquals("crate-volume-1", instance.volumeId());
+        assertEquals("crate-node-1", instance.nodeName());
+        assertNull(decoded.crateInstances().byTaskId("task-0").nodeId());
+        assertNull(decoded.crateInstances().byTaskId("task-0").volumeId());
+        assertEquals(CrateInstance.State.PENDING, decoded.crateInstances().byTaskId("task-0").state());
+
+        assertEquals(new HashMap<String, List<String>>() {
+            {
+                put("MISSING_DATA_PATH", asList("slave-3"));
+                put("MISSING_BLOB_PATH", Collections.<String>emptyList());
+            }
+        }, decoded.excludedSlaves());
+        assertEquals(Collections.singleton("slave-5"), decoded.slavesWithInstances());
+    }
+
+    @Test
+    public void testRoundTripWithoutFrameworkId() throws Exception {
+        CrateState decoded = CrateStateCodec.decode(CrateStateCodec.encode(new CrateState()));
+        assertFalse(decoded.frameworkId().isPresent());
+        assertEquals(CrateState.UNDEFINED_DESIRED_INSTANCES, (int) decoded.desiredInstances().getValue());
+        assertEquals(0, decoded.crateInstances().size());
+        assertNull(decoded.upgrade());
+    }
+
+    @Test
+    public void testRoundTripWithUpgrade() throws Exception {
+        CrateState state = newState(1);
+        Upgrade upgrade = new Upgrade("0.54.9", "abc", "https://cdn.crate.io/downloads/releases/crate-0.55.0.tar.gz", null, 3);
+        upgrade.rolledBack(true);
+        state.upgrade(upgrade);
+        CrateState decoded = CrateStateCodec.decode(CrateStateCodec.encode(state));
+        assertEquals(upgrade, decoded.upgrade());
+        assertEquals("0.54.9", decoded.upgrade().targetVersion());
+        assertEquals("abc", decoded.upgrade().targetChecksum());
+    }
+
+    @Test
+    public void testRoundTripWithStaging() throws Exception {
+        CrateState state = newState(1);
+        AgentStaging staging = new AgentStaging("slave-1", "host1", "0.55.0", "prestage-1", "offer-1", 1000L);
+        staging.finished(AgentStaging.State.FAILED, 2000L);
+        state.staging().put("slave-1", staging);
+        CrateState decoded = CrateStateCodec.decode(CrateStateCodec.encode(state));
+        assertEquals(state.staging(), decoded.staging());
+    }
+
+    @Test
+    public void testRoundTripWithLostInstances() throws Exception {
+        CrateState state = newState(1);
+        state.lostInstances().put("slave-1",
+                new LostInstance("slave-1", "host1", "crate-1", "/mnt/data", null, 1000L, 4096L));
+        state.lostInstances().put("slave-2",
+                new LostInstance("slave-2", "host2", "crate-2", null, "crate-volume-2", 2000L, -1L));
+        CrateState decoded = CrateStateCodec.decode(CrateStateCodec.encode(state));
+        assertEquals(state.lostInstances(), decoded.lostInstances());
+    }
+
+    @Test
+    public void testReadJavaSerializedState() throws Exception {
+        byte[] bytes;
+        try (InputStream in = getClass().getResourceAsStream("/legacy-crate-state.ser")) {
+            bytes = ByteStreams.toByteArray(in);
+        }
+        assertFalse(CrateStateCodec.isEncoded(bytes));
+
+        CrateState state = CrateState.fromStream(bytes);
+        assertEquals(3, (int) state.desiredInstances().getValue());
+        assertEquals(Optional.of("crate-mesos-legacy"), state.frameworkId());
+        assertEquals(2, state.crateInstances().size());
+        assertEquals(CrateInstance.State.RUNNING, state.crateInstances().byTaskId("task-1").state());
+        assertEquals("node-1", state.crateInstances().byTaskId("task-1").nodeId());
+        assertTrue(state.staging().isEmpty());
+        assertTrue(state.lostInstances().isEmpty());
+        assertEquals(asList("slave-3"), state.excludedSlaveIds("MISSING_DATA_PATH"));
+        assertTrue(state.slavesWithInstances().contains("slave-4"));
+
+        // the next write uses the binary encoding
+        assertTrue(CrateStateCodec.isEncoded(state.toStream()));
+    }
+
+    @Test
+    public void testSkipUnknownFields() throws Exception {
+        byte[] bytes = CrateStateCodec.encode(newState(1));
+        // append field 15 (string) which is unknown to this version
+        byte[] extended = new byte[bytes.length + 3];
+        System.arraycopy(bytes, 0, extended, 0, bytes.length);
+        extended[bytes.length] = (15 << 3) | 2;
+        extended[bytes.length + 1] = 1;
+        extended[bytes.length + 2] = 'x';
+
+        CrateState decoded = CrateStateCodec.decode(extended);
+        assertEquals(1, decoded.crateInstances().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectNewerVersion() throws Exception {
+        byte[] bytes = CrateStateCodec.encode(newState(1));
+        bytes[3] = (byte) (CrateStateCodec.VERSION + 1);
+        CrateStateCodec.decode(bytes);
+    }
+
+    @Test
+    public void testEncodingIsSmallerThanJavaSerialization() throws Exception {
+        for (int size : new int[]{10, 1000}) {
+            CrateState state = newState(size);
+            assertThat(CrateStateCodec.encode(state).length, lessThan(javaSerialized(state).length));
+        }
+    }
+}
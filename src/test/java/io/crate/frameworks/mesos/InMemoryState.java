@@ -0,0 +1,155 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import com.google.common.util.concurrent.Futures;
+import org.apache.mesos.state.State;
+import org.apache.mesos.state.Variable;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link State} that keeps variables in memory and can be used instead of
+ * a {@link org.apache.mesos.state.ZooKeeperState} in tests.
+ */
+public class InMemoryState implements State {
+
+    private final Map<String, MemoryVariable> variables = new HashMap<>();
+    private final AtomicInteger stores = new AtomicInteger();
+    private volatile CountDownLatch storeLatch = null;
+    private final AtomicInteger failingStores = new AtomicInteger();
+    private final AtomicInteger failingExpunges = new AtomicInteger();
+
+    private static class MemoryVariable extends Variable {
+
+        private final String name;
+        private final byte[] value;
+        private final long version;
+
+        MemoryVariable(String name, byte[] value, long version) {
+            this.name = name;
+            this.value = value;
+            this.version = version;
+        }
+
+        @Override
+        public byte[] value() {
+            return value;
+        }
+
+        @Override
+        public Variable mutate(byte[] value) {
+            return new MemoryVariable(name, value, version);
+        }
+
+        @Override
+        protected void finalize() {
+        }
+    }
+
+    @Override
+    public synchronized Future<Variable> fetch(String name) {
+        MemoryVariable variable = variables.get(name);
+        if (variable == null) {
+            variable = new MemoryVariable(name, new byte[0], 0);
+        }
+        return Futures.<Variable>immediateFuture(variable);
+    }
+
+    @Override
+    public Future<Variable> store(Variable variable) {
+        CountDownLatch latch = storeLatch;
+        if (latch != null) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            stores.incrementAndGet();
+            if (failingStores.getAndDecrement() > 0) {
+                return Futures.immediateFailedFuture(new IOException("store failed"));
+            }
+            MemoryVariable mutated = (MemoryVariable) variable;
+            MemoryVariable current = variables.get(mutated.name);
+            long currentVersion = current == null ? 0 : current.version;
+            if (currentVersion != mutated.version) {
+                return Futures.immediateFuture(null);
+            }
+            MemoryVariable stored = new MemoryVariable(mutated.name, mutated.value, currentVersion + 1);
+            variables.put(mutated.name, stored);
+            return Futures.<Variable>immediateFuture(stored);
+        }
+    }
+
+    @Override
+    public synchronized Future<Boolean> expunge(Variable variable) {
+        if (failingExpunges.getAndDecrement() > 0) {
+            return Futures.immediateFailedFuture(new IOException("expunge failed"));
+        }
+        return Futures.immediateFuture(variables.remove(((MemoryVariable) variable).name) != null);
+    }
+
+    @Override
+    public synchronized Future<Iterator<String>> names() {
+        return Futures.immediateFuture(new ArrayList<>(variables.keySet()).iterator());
+    }
+
+    /**
+     * Number of successful and failed calls to {@link #store(Variable)}.
+     */
+    public int stores() {
+        return stores.get();
+    }
+
+    public synchronized byte[] value(String name) {
+        MemoryVariable variable = variables.get(name);
+        return variable == null ? null : variable.value;
+    }
+
+    /**
+     * Lets the next {@code count} calls to {@link #store(Variable)} fail.
+     */
+    public void failStores(int count) {
+        failingStores.set(count);
+    }
+
+    /**
+     * Lets the next {@code count} calls to {@link #expunge(Variable)} fail.
+     */
+    public void failExpunges(int count) {
+        failingExpunges.set(count);
+    }
+
+    /**
+     * Blocks all calls to {@link #store(Variable)} until the returned latch is counted down.
+     */
+    public CountDownLatch blockStores() {
+        storeLatch = new CountDownLatch(1);
+        return storeLatch;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import io.crate.frameworks.mesos.config.Configuration;
+import org.apache.mesos.Protos;
+import org.junit.Before;
+import org.junit.Test;
+
+import static io.crate.frameworks.mesos.SaneProtos.cpus;
+import static io.crate.frameworks.mesos.SaneProtos.mem;
+import static io.crate.frameworks.mesos.SaneProtos.ports;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+public class OfferEvaluatorTest {
+
+    private Configuration configuration;
+    private CrateState state;
+
+    @Before
+    public void setUp() throws Exception {
+        configuration = new Configuration();
+        state = new CrateState();
+    }
+
+    private Protos.Offer offer(String host, String slaveId, Iterable<? extends Protos.Resource> resources) {
+        return Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("offer-" + slaveId))
+                .setHostname(host)
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue(slaveId))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("xx"))
+                .addAllResources(resources)
+                .build();
+    }
+
+    private Protos.Offer offer(String host, String slaveId) {
+        return offer(host, slaveId, configuration.getAllRequiredResources());
+    }
+
+    @Test
+    public void testAcceptMatchingOffer() throws Exception {
+        OfferEvaluator evaluator = new OfferEvaluator(configuration, state);
+        assertEquals(OfferEvaluator.Decision.ACCEPT, evaluator.evaluate(offer("host-1", "slave-1")));
+    }
+
+    @Test
+    public void testRejectOfferWithoutEnoughResources() throws Exception {
+        OfferEvaluator evaluator = new OfferEvaluator(configuration, state);
+        Protos.Offer offer = offer("host-1", "slave-1", asList(
+                cpus(0.1), mem(64), ports(4200, 4300)));
+        assertEquals(OfferEvaluator.Decision.INSUFFICIENT_RESOURCES, evaluator.evaluate(offer));
+    }
+
+    @Test
+    public void testRejectOfferFromOccupiedHost() throws Exception {
+        state.crateInstances().addInstance(new CrateInstance("host-1", "1", "0.54.8", 4300, "exec-1", "slave-1"));
+        OfferEvaluator evaluator = new OfferEvaluator(configuration, state);
+        assertEquals(OfferEvaluator.Decision.HOST_OCCUPIED, evaluator.evaluate(offer("host-1", "slave-1")));
+    }
+
+    @Test
+    public void testRejectSecondOfferFromSameHostInBatch() throws Exception {
+        OfferEvaluator evaluator = new OfferEvaluator(configuration, state);
+        Protos.Offer first = offer("host-1", "slave-1");
+        assertEquals(OfferEvaluator.Decision.ACCEPT, evaluator.evaluate(first));
+        evaluator.accepted(first);
+        assertEquals(OfferEvaluator.Decision.HOST_OCCUPIED, evaluator.evaluate(offer("host-1", "slave-1")));
+    }
+
+    @Test
+    public void testRejectOfferFromExcludedSlave() throws Exception {
+        state.addSlaveIdToExcludeList("MISSING_DATA_PATH", "slave-1");
+        OfferEvaluator evaluator = new OfferEvaluator(configuration, state);
+        assertEquals(OfferEvaluator.Decision.EXCLUDED, evaluator.evaluate(offer("host-1", "slave-1")));
+        assertEquals(OfferEvaluator.Decision.ACCEPT, evaluator.evaluate(offer("host-2", "slave-2")));
+    }
+
+    @Test
+    public void testPreferSlavesWithInstances() throws Exception {
+        state.slavesWithInstances().add("slave-2");
+        OfferEvaluator evaluator = new OfferEvaluator(configuration, state);
+        assertEquals(OfferEvaluator.Decision.NOT_PREFERRED, evaluator.evaluate(offer("host-1", "slave-1")));
+        assertEquals(OfferEvaluator.Decision.ACCEPT, evaluator.evaluate(offer("host-2", "slave-2")));
+
+        // once all preferred slaves were offered every slave is acceptable
+        state.slavesWithInstances().remove("slave-2");
+        assertEquals(OfferEvaluator.Decision.ACCEPT, evaluator.evaluate(offer("host-1", "slave-1")));
+        assertEquals(3, evaluator.evaluated());
+        assertEquals(2, evaluator.count(OfferEvaluator.Decision.ACCEPT));
+    }
+}
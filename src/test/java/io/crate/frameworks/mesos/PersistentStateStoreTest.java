@@ -0,0 +1,271 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PersistentStateStoreTest {
+
+    private InMemoryState zk;
+
+    @Before
+    public void setUp() throws Exception {
+        zk = new InMemoryState();
+    }
+
+    @Test
+    public void testSaveAndRestore() throws Exception {
+        PersistentStateStore store = new PersistentStateStore(zk, 3);
+        store.state().frameworkId("framework-1");
+        store.save();
+
+        PersistentStateStore restored = new PersistentStateStore(zk, 5);
+        assertEquals(3, (int) restored.state().desiredInstances().getValue());
+        assertEquals("framework-1", restored.state().frameworkId().get());
+    }
+
+    @Test
+    public void testSynchronousSaveWritesEveryTime() throws Exception {
+        PersistentStateStore store = new PersistentStateStore(zk, 3, false, 0);
+        long writes = store.writes();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(store.save().isDone());
+        }
+        assertEquals(writes + 10, store.writes());
+        assertEquals(0, store.coalescedWrites());
+    }
+
+    @Test
+    public void testWriteBehindCoalescesSaves() throws Exception {
+        PersistentStateStore store = new PersistentStateStore(zk, 3, true);
+        store.flush();
+        long writes = store.writes();
+
+        CountDownLatch latch = zk.blockStores();
+        // the first save is picked up by the writer which blocks in the store call
+        store.state().frameworkId("framework-1");
+        Future<Void> first = store.save();
+        for (int i = 0; i < 50; i++) {
+            store.state().desiredInstances(i);
+            store.save();
+        }
+        assertFalse(first.isDone());
+        latch.countDown();
+
+        store.flush();
+        first.get(5, TimeUnit.SECONDS);
+        assertEquals(0, store.queueDepth());
+        assertTrue("saves must be collapsed", store.writes() - writes <= 2);
+        assertTrue(store.coalescedWrites() >= 49);
+
+        PersistentStateStore restored = new PersistentStateStore(zk, 5);
+        assertEquals(49, (int) restored.state().desiredInstances().getValue());
+        store.close();
+    }
+
+    private static CrateInstance instance(int i) {
+        return new CrateInstance("host-" + i, "task-" + i, "0.55.0", 4300, "exec-" + i, "slave-" + i);
+    }
+
+    private int journalVariables() throws Exception {
+        int count = 0;
+        Iterator<String> names = zk.names().get();
+        while (names.hasNext()) {
+            if (names.next().startsWith("crate.journal.")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testUnchangedStateIsNotWritten() throws Exception {
+        PersistentStateStore store = new PersistentStateStore(zk, 3);
+        long writes = store.writes();
+        assertTrue(store.save().isDone());
+        assertEquals(writes, store.writes());
+    }
+
+    @Test
+    public void testJournalEntryIsProportionalToChange() throws Exception {
+        PersistentStateStore store = new PersistentStateStore(zk, 1000, false, 10);
+        for (int i = 0; i < 1000; i++) {
+            store.state().crateInstances().addInstance(instance(i));
+        }
+        store.save();
+        int fullStateBytes = store.lastWriteBytes();
+
+        store.state().crateInstances().setToRunning("task-500", "node-500");
+        store.save();
+        assertTrue(store.lastWriteBytes() * 100 < fullStateBytes);
+        // desired instances, added instances, running instance
+        assertEquals(3, store.journalEntries());
+
+        PersistentStateStore restored = new PersistentStateStore(zk, 3);
+        assertEquals(1000, restored.state().crateInstances().size());
+        CrateInstance running = restored.state().crateInstances().byTaskId("task-500");
+        assertEquals(CrateInstance.State.RUNNING, running.state());
+        assertEquals("node-500", running.nodeId());
+        assertEquals("task-0", restored.state().crateInstances().get(0).taskId());
+    }
+
+    @Test
+    public void testJournalIsCompactedIntoSnapshot() throws Exception {
+        PersistentStateStore store = new PersistentStateStore(zk, 3, false, 3);
+        for (int i = 0; i < 10; i++) {
+            store.state().crateInstances().addInstance(instance(i));
+            store.state().addSlaveIdToExcludeList("reason", "slave-" + i);
+            store.save();
+        }
+        store.state().crateInstances().removeTask("task-3");
+        store.state().slavesWithInstances().add("slave-1");
+        store.save();
+
+        assertTrue(store.snapshotWrites() >= 2);
+        assertTrue(store.journalEntries() < 3);
+        assertEquals(store.journalEntries(), journalVariables());
+
+        PersistentStateStore restored = new PersistentStateStore(zk, 5);
+        CrateState state = restored.state();
+        assertEquals(3, (int) state.desiredInstances().getValue());
+        assertEquals(9, state.crateInstances().size());
+        assertEquals(10, state.excludedSlaveIds("reason").size());
+        assertTrue(state.slavesWithInstances().contains("slave-1"));
+    }
+
+    @Test
+    public void testJournalEntriesContainedInSnapshotAreSkipped() throws Exception {
+        PersistentStateStore store = new PersistentStateStore(zk, 3, false, 3);
+        for (int i = 0; i < 3; i++) {
+            store.state().crateInstances().addInstance(instance(i));
+            store.save();
+        }
+        long snapshots = store.snapshotWrites();
+        // the compaction can't remove the entries it contains
+        zk.failExpunges(Integer.MAX_VALUE);
+        String frameworkId = null;
+        for (int i = 0; store.snapshotWrites() == snapshots; i++) {
+            frameworkId = "framework-" + i;
+            store.state().frameworkId(frameworkId);
+            store.state().crateInstances().addInstance(instance(10 + i));
+            store.state().crateInstances().removeTask("task-" + (9 + i));
+            store.save();
+        }
+        assertTrue(journalVariables() > 0);
+        zk.failExpunges(0);
+
+        PersistentStateStore restored = new PersistentStateStore(zk, 5);
+        assertEquals(frameworkId, restored.state().frameworkId().get());
+        assertEquals(4, restored.state().crateInstances().size());
+        assertEquals(0, journalVariables());
+
+        // entries written after the restore are replayed
+        restored.state().desiredInstances(7);
+        restored.save();
+        assertEquals(1, journalVariables());
+        assertEquals(7, (int) new PersistentStateStore(zk, 5).state().desiredInstances().getValue());
+    }
+
+    @Test
+    public void testFailedWriteIsFollowedBySnapshot() throws Exception {
+        PersistentStateStore store = new PersistentStateStore(zk, 3, false, 10);
+        store.state().frameworkId("framework-1");
+        store.save();
+
+        zk.failStores(1);
+        store.state().frameworkId("framework-2");
+        store.state().crateInstances().addInstance(instance(1));
+        Future<Void> failed = store.save();
+        try {
+            failed.get();
+            fail("save must fail");
+        } catch (ExecutionException e) {
+            // expected
+        }
+
+        long snapshots = store.snapshotWrites();
+        store.state().desiredInstances(4);
+        store.save().get();
+        assertEquals(snapshots + 1, store.snapshotWrites());
+
+        PersistentStateStore restored = new PersistentStateStore(zk, 5);
+        assertEquals("framework-2", restored.state().frameworkId().get());
+        assertEquals(1, restored.state().crateInstances().size());
+        assertEquals(4, (int) restored.state().desiredInstances().getValue());
+    }
+
+    @Test
+    public void testEntriesPendingDuringFailedWriteAreReplacedBySnapshot() throws Exception {
+        PersistentStateStore store = new PersistentStateStore(zk, 3, true, 10);
+        store.state().frameworkId("framework-1");
+        store.save().get();
+
+        CountDownLatch latch = zk.blockStores();
+        zk.failStores(1);
+        store.state().crateInstances().addInstance(instance(1));
+        Future<Void> failed = store.save();
+        // wait for the writer to pick up the first write, the next one stays pending
+        while (store.queueDepth() > 0) {
+            Thread.sleep(1);
+        }
+        store.state().desiredInstances(4);
+        Future<Void> pending = store.save();
+        latch.countDown();
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("save must fail");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        pending.get(5, TimeUnit.SECONDS);
+
+        PersistentStateStore restored = new PersistentStateStore(zk, 5);
+        assertEquals(1, restored.state().crateInstances().size());
+        assertEquals(4, (int) restored.state().desiredInstances().getValue());
+        store.close();
+    }
+
+    @Test
+    public void testJournalIsReplayedWhenJournalIsDisabled() throws Exception {
+        PersistentStateStore store = new PersistentStateStore(zk, 3);
+        store.state().frameworkId("framework-1");
+        store.save();
+        store.state().crateInstances().addInstance(instance(1));
+        store.save();
+        assertTrue(journalVariables() > 0);
+
+        PersistentStateStore restored = new PersistentStateStore(zk, 5, false, 0);
+        assertEquals("framework-1", restored.state().frameworkId().get());
+        assertEquals(1, restored.state().crateInstances().size());
+        // the first save writes a snapshot and removes the journal
+        assertEquals(0, journalVariables());
+    }
+}
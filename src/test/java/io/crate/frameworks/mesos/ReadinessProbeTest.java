@@ -0,0 +1,171 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.*;
+
+public class ReadinessProbeTest {
+
+    private ScheduledExecutorService scheduler;
+    private Process process;
+
+    private static class Outcome implements ReadinessProbe.Listener<String> {
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile String result;
+        volatile String failure;
+
+        @Override
+        public void ready(String result) {
+            this.result = result;
+            latch.countDown();
+        }
+
+        @Override
+        public void failed(String reason) {
+            this.failure = reason;
+            latch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("probe did not finish", latch.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private static class ReadyAfter implements ReadinessProbe.Check<String> {
+
+        final AtomicInteger attempts = new AtomicInteger();
+        final int readyAfter;
+        volatile boolean closed = false;
+
+        ReadyAfter(int readyAfter) {
+            this.readyAfter = readyAfter;
+        }
+
+        @Override
+        public String check() throws Exception {
+            if (attempts.incrementAndGet() < readyAfter) {
+                throw new IOException("not yet");
+            }
+            return "node-id";
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdownNow();
+        if (process != null) {
+            process.destroy();
+        }
+    }
+
+    private Process start(String command) throws IOException {
+        process = new ProcessBuilder("sh", "-c", command).start();
+        return process;
+    }
+
+    @Test
+    public void testReadyWithBackoff() throws Exception {
+        ReadyAfter check = new ReadyAfter(4);
+        Outcome outcome = new Outcome();
+        long started = System.nanoTime();
+        new ReadinessProbe<>(scheduler, start("sleep 30"), check, outcome, 10, 1000, 10_000).start();
+        outcome.await();
+
+        assertEquals("node-id", outcome.result);
+        assertNull(outcome.failure);
+        assertEquals(4, check.attempts.get());
+        assertTrue(check.closed);
+        // 10 + 20 + 40 + 80 ms
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        assertTrue("elapsed " + elapsed, elapsed >= 150 && elapsed < 5000);
+    }
+
+    @Test
+    public void testFailsFastWhenProcessExits() throws Exception {
+        ReadyAfter check = new ReadyAfter(Integer.MAX_VALUE);
+        Outcome outcome = new Outcome();
+        long started = System.nanoTime();
+        new ReadinessProbe<>(scheduler, start("exit 3"), check, outcome, 10, 100, 60_000).start();
+        outcome.await();
+
+        assertNull(outcome.result);
+        assertThat(outcome.failure, containsString("status 3"));
+        assertTrue(check.closed);
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started) < 10);
+    }
+
+    @Test
+    public void testFailsAfterTimeout() throws Exception {
+        ReadyAfter check = new ReadyAfter(Integer.MAX_VALUE);
+        Outcome outcome = new Outcome();
+        new ReadinessProbe<>(scheduler, start("sleep 30"), check, outcome, 10, 50, 300).start();
+        outcome.await();
+
+        assertNull(outcome.result);
+        assertThat(outcome.failure, containsString("not ready"));
+        assertTrue(check.attempts.get() > 1);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        ReadyAfter check = new ReadyAfter(Integer.MAX_VALUE);
+        Outcome outcome = new Outcome();
+        ReadinessProbe<String> probe = new ReadinessProbe<>(scheduler, start("sleep 30"), check, outcome, 10, 50, 10_000);
+        probe.start().cancel();
+        process.destroy();
+
+        assertFalse(outcome.latch.await(200, TimeUnit.MILLISECONDS));
+        assertTrue(probe.isDone());
+        assertTrue(check.closed);
+    }
+
+    @Test
+    public void testIsListening() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+            assertTrue(ReadinessProbe.isListening("localhost", port, 1000));
+        }
+        assertFalse(ReadinessProbe.isListening("localhost", port, 1000));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A {@link SchedulerDriver} that doesn't talk to a Mesos master but records
+ * the calls of the scheduler, e.g. to drive a {@link CrateScheduler} in
+ * benchmarks.
+ */
+public class RecordingSchedulerDriver implements SchedulerDriver {
+
+    public final List<Protos.TaskInfo> launchedTasks = new ArrayList<>();
+    public final List<Protos.OfferID> usedOffers = new ArrayList<>();
+    public final List<Protos.OfferID> declinedOffers = new ArrayList<>();
+    public final List<Protos.Offer.Operation> operations = new ArrayList<>();
+    public final List<Protos.TaskID> killedTasks = new ArrayList<>();
+    public final List<byte[]> frameworkMessages = new ArrayList<>();
+    public int revives = 0;
+
+    public void reset() {
+        launchedTasks.clear();
+        usedOffers.clear();
+        declinedOffers.clear();
+        operations.clear();
+        killedTasks.clear();
+        frameworkMessages.clear();
+        revives = 0;
+    }
+
+    @Override
+    public Protos.Status start() {
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status stop(boolean failover) {
+        return Protos.Status.DRIVER_STOPPED;
+    }
+
+    @Override
+    public Protos.Status stop() {
+        return Protos.Status.DRIVER_STOPPED;
+    }
+
+    @Override
+    public Protos.Status abort() {
+        return Protos.Status.DRIVER_ABORTED;
+    }
+
+    @Override
+    public Protos.Status join() {
+        return Protos.Status.DRIVER_STOPPED;
+    }
+
+    @Override
+    public Protos.Status run() {
+        return Protos.Status.DRIVER_STOPPED;
+    }
+
+    @Override
+    public Protos.Status requestResources(Collection<Protos.Request> requests) {
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status launchTasks(Collection<Protos.OfferID> offerIds,
+                                     Collection<Protos.TaskInfo> tasks,
+                                     Protos.Filters filters) {
+        usedOffers.addAll(offerIds);
+        launchedTasks.addAll(tasks);
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status launchTasks(Collection<Protos.OfferID> offerIds, Collection<Protos.TaskInfo> tasks) {
+        return launchTasks(offerIds, tasks, null);
+    }
+
+    @Override
+    public Protos.Status launchTasks(Protos.OfferID offerId, Collection<Protos.TaskInfo> tasks, Protos.Filters filters) {
+        usedOffers.add(offerId);
+        launchedTasks.addAll(tasks);
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status launchTasks(Protos.OfferID offerId, Collection<Protos.TaskInfo> tasks) {
+        return launchTasks(offerId, tasks, null);
+    }
+
+    @Override
+    public Protos.Status killTask(Protos.TaskID taskId) {
+        killedTasks.add(taskId);
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status acceptOffers(Collection<Protos.OfferID> offerIds,
+                                      Collection<Protos.Offer.Operation> operations,
+                                      Protos.Filters filters) {
+        usedOffers.addAll(offerIds);
+        this.operations.addAll(operations);
+        for (Protos.Offer.Operation operation : operations) {
+            if (operation.getType() == Protos.Offer.Operation.Type.LAUNCH) {
+                launchedTasks.addAll(operation.getLaunch().getTaskInfosList());
+            }
+        }
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status declineOffer(Protos.OfferID offerId, Protos.Filters filters) {
+        declinedOffers.add(offerId);
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status declineOffer(Protos.OfferID offerId) {
+        return declineOffer(offerId, null);
+    }
+
+    @Override
+    public Protos.Status reviveOffers() {
+        revives++;
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status suppressOffers() {
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status acknowledgeStatusUpdate(Protos.TaskStatus status) {
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status sendFrameworkMessage(Protos.ExecutorID executorId, Protos.SlaveID slaveId, byte[] data) {
+        frameworkMessages.add(data);
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status reconcileTasks(Collection<Protos.TaskStatus> statuses) {
+        return Protos.Status.DRIVER_RUNNING;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class StateJournalTest {
+
+    private static CrateInstance instance(String taskId) {
+        return new CrateInstance("host-" + taskId, taskId, "0.55.0", 4300, "exec-1", "slave-1");
+    }
+
+    @Test
+    public void testNoEntryWithoutChanges() throws Exception {
+        CrateState state = new CrateState();
+        state.crateInstances().addInstance(instance("task-1"));
+        StateJournal journal = new StateJournal(state);
+        assertNull(journal.entry(state));
+        assertEquals(0, journal.entries());
+    }
+
+    @Test
+    public void testApplyEntries() throws Exception {
+        CrateState state = new CrateState();
+        state.crateInstances().addInstance(instance("task-1"));
+        state.crateInstances().addInstance(instance("task-2"));
+        state.addSlaveIdToExcludeList("reason", "slave-1");
+        CrateState replica = CrateState.fromStream(state.toStream());
+        StateJournal journal = new StateJournal(state);
+
+        state.desiredInstances(2);
+        state.frameworkId("framework-1");
+        state.crateInstances().setToRunning("task-1", "node-1");
+        state.crateInstances().removeTask("task-2");
+        state.crateInstances().addInstance(instance("task-3"));
+        state.removeSlaveIdFromExcludeList("reason", "slave-1");
+        state.addSlaveIdToExcludeList("other", "slave-2");
+        state.slavesWithInstances().add("slave-3");
+        byte[] first = journal.entry(state);
+        state.slavesWithInstances().remove("slave-3");
+        byte[] second = journal.entry(state);
+        assertEquals(2, journal.entries());
+
+        StateJournal.apply(replica, first);
+        StateJournal.apply(replica, second);
+        assertEquals(state.toString(), replica.toString());
+        assertArrayEquals(state.toStream(), replica.toStream());
+    }
+
+    @Test
+    public void testUpgrade() throws Exception {
+        CrateState state = new CrateState();
+        StateJournal journal = new StateJournal(state);
+        state.upgrade(new Upgrade("0.54.9", null, "0.55.0", "abc", 2));
+        byte[] first = journal.entry(state);
+        state.upgrade().paused(true);
+        byte[] second = journal.entry(state);
+        assertNull(journal.entry(state));
+
+        CrateState replica = new CrateState();
+        StateJournal.apply(replica, first);
+        StateJournal.apply(replica, second);
+        assertEquals(state.upgrade(), replica.upgrade());
+
+        state.upgrade(null);
+        StateJournal.apply(replica, journal.entry(state));
+        assertNull(replica.upgrade());
+    }
+
+    @Test
+    public void testStaging() throws Exception {
+        CrateState state = new CrateState();
+        StateJournal journal = new StateJournal(state);
+        state.staging().put("slave-1", new AgentStaging("slave-1", "host1", "0.55.0", "prestage-1", "offer-1", 1000L));
+        byte[] first = journal.entry(state);
+        state.staging().get("slave-1").finished(AgentStaging.State.STAGED, 2000L);
+        byte[] second = journal.entry(state);
+        assertNull(journal.entry(state));
+
+        CrateState replica = new CrateState();
+        StateJournal.apply(replica, first);
+        StateJournal.apply(replica, second);
+        assertEquals(state.staging(), replica.staging());
+
+        state.staging().remove("slave-1");
+        StateJournal.apply(replica, journal.entry(state));
+        assertTrue(replica.staging().isEmpty());
+    }
+
+    @Test
+    public void testLostInstances() throws Exception {
+        CrateState state = new CrateState();
+        StateJournal journal = new StateJournal(state);
+        state.lostInstances().put("slave-1",
+                new LostInstance("slave-1", "host1", "crate-1", "/mnt/data", null, 1000L, 4096L));
+        state.lostInstances().put("slave-2",
+                new LostInstance("slave-2", "host2", "crate-2", null, "crate-volume-2", 2000L, -1L));
+        byte[] first = journal.entry(state);
+        assertNull(journal.entry(state));
+
+        CrateState replica = new CrateState();
+        StateJournal.apply(replica, first);
+        assertEquals(state.lostInstances(), replica.lostInstances());
+
+        state.lostInstances().remove("slave-1");
+        StateJournal.apply(replica, journal.entry(state));
+        assertEquals(state.lostInstances(), replica.lostInstances());
+    }
+
+    @Test
+    public void testReplayIsIdempotent() throws Exception {
+        CrateState state = new CrateState();
+        StateJournal journal = new StateJournal(state);
+        state.crateInstances().addInstance(instance("task-1"));
+        state.crateInstances().addInstance(instance("task-2"));
+        byte[] first = journal.entry(state);
+        state.crateInstances().setToRunning("task-1", "node-1");
+        byte[] second = journal.entry(state);
+
+        CrateState replica = new CrateState();
+        StateJournal.apply(replica, first);
+        StateJournal.apply(replica, second);
+        StateJournal.apply(replica, first);
+        StateJournal.apply(replica, second);
+        assertEquals(2, replica.crateInstances().size());
+        assertEquals(CrateInstance.State.RUNNING, replica.crateInstances().byTaskId("task-1").state());
+        assertEquals(Arrays.asList("task-1", "task-2"),
+                Arrays.asList(replica.crateInstances().get(0).taskId(), replica.crateInstances().get(1).taskId()));
+    }
+
+    @Test
+    public void testConcatenatedEntries() throws Exception {
+        CrateState state = new CrateState();
+        StateJournal journal = new StateJournal(state);
+        state.desiredInstances(1);
+        byte[] first = journal.entry(state);
+        state.desiredInstances(4);
+        byte[] second = journal.entry(state);
+
+        byte[] concatenated = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, concatenated, first.length, second.length);
+        CrateState replica = new CrateState();
+        StateJournal.apply(replica, concatenated);
+        assertEquals(4, (int) replica.desiredInstances().getValue());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TaskLifecycleTest {
+
+    private static TaskLifecycle lifecycle(long... timestamps) {
+        TaskLifecycle lifecycle = new TaskLifecycle();
+        for (int i = 0; i < timestamps.length; i++) {
+            lifecycle.reached(TaskLifecycle.Phase.values()[i], timestamps[i]);
+        }
+        return lifecycle;
+    }
+
+    @Test
+    public void testFirstTimestampIsKept() throws Exception {
+        TaskLifecycle lifecycle = new TaskLifecycle();
+        assertThat(lifecycle.reached(TaskLifecycle.Phase.HEALTHY, 100L), is(true));
+        assertThat(lifecycle.reached(TaskLifecycle.Phase.HEALTHY, 200L), is(false));
+        assertThat(lifecycle.timestamp(TaskLifecycle.Phase.HEALTHY), is(100L));
+
+        assertThat(lifecycle.merge(lifecycle(10L, 20L)), is(true));
+        assertThat(lifecycle.merge(lifecycle(10L, 20L)), is(false));
+        assertThat(lifecycle.timestamp(TaskLifecycle.Phase.STARTING), is(20L));
+    }
+
+    @Test
+    public void testDurationSkipsMissingPhases() throws Exception {
+        // the cached artifact was not fetched
+        TaskLifecycle lifecycle = lifecycle(1000L, 1500L, 0L, 1700L);
+        assertThat(lifecycle.durationMillis(TaskLifecycle.Phase.OFFER_ACCEPTED), is(-1L));
+        assertThat(lifecycle.durationMillis(TaskLifecycle.Phase.STARTING), is(500L));
+        assertThat(lifecycle.durationMillis(TaskLifecycle.Phase.FETCHED), is(-1L));
+        assertThat(lifecycle.durationMillis(TaskLifecycle.Phase.EXTRACTED), is(200L));
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        Map<String, Map<String, Long>> phases = TaskLifecycle.percentiles(asList(
+                lifecycle(1000L, 1100L),
+                lifecycle(1000L, 1200L),
+                lifecycle(1000L, 1300L),
+                lifecycle(1000L, 2000L)), 50, 99);
+        assertThat(phases.size(), is(1));
+        Map<String, Long> starting = phases.get("starting");
+        assertThat(starting.get("count"), is(4L));
+        assertThat(starting.get("p50"), is(200L));
+        assertThat(starting.get("p99"), is(1000L));
+        assertThat(starting.get("max"), is(1000L));
+    }
+}
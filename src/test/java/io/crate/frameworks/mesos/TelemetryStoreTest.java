@@ -0,0 +1,86 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetryStoreTest {
+
+    private static MessageTelemetry message(String taskId, long... timestamps) {
+        List<MessageTelemetry.Sample> samples = new ArrayList<>();
+        for (long timestamp : timestamps) {
+            samples.add(new MessageTelemetry.Sample(timestamp, 1, 100, 1024, 512, 1024, 10, 100));
+        }
+        return new MessageTelemetry(taskId, "crate-" + taskId, samples);
+    }
+
+    private static List<Long> timestamps(List<MessageTelemetry.Sample> samples) {
+        List<Long> timestamps = new ArrayList<>();
+        for (MessageTelemetry.Sample sample : samples) {
+            timestamps.add(sample.timestamp);
+        }
+        return timestamps;
+    }
+
+    @Test
+    public void testRingBufferKeepsMostRecentSamples() throws Exception {
+        TelemetryStore store = new TelemetryStore(4);
+        store.add(message("1", 1, 2, 3));
+        assertThat(timestamps(store.samples("1")), is(Arrays.asList(1L, 2L, 3L)));
+
+        store.add(message("1", 4, 5, 6));
+        assertThat(timestamps(store.samples("1")), is(Arrays.asList(3L, 4L, 5L, 6L)));
+        assertTrue(store.samples("2").isEmpty());
+    }
+
+    @Test
+    public void testRemoveAndToMap() throws Exception {
+        TelemetryStore store = new TelemetryStore();
+        store.add(message("1", 1));
+        store.add(message("2", 2));
+        store.remove("1");
+
+        Map<String, Object> map = store.toMap();
+        assertThat(map.keySet().toString(), is("[2]"));
+        assertThat(map.get("2").toString(), is("{nodeName=crate-2, samples=[{timestamp=2, healthChecks=1, " +
+                "healthLatencyMicros=100, rssBytes=1024, heapUsedBytes=512, heapMaxBytes=1024, " +
+                "diskUsedBytes=10, diskTotalBytes=100}]}"));
+    }
+
+    @Test
+    public void testMessageSerialization() throws Exception {
+        byte[] bytes = new CrateMessage<>(CrateMessage.Type.MESSAGE_TELEMETRY, message("1", 1, 2)).toStream();
+        CrateMessage<MessageTelemetry> message = CrateMessage.fromStream(bytes);
+        assertThat(message.type(), is(CrateMessage.Type.MESSAGE_TELEMETRY));
+        assertThat(message.data().taskId(), is("1"));
+        assertThat(timestamps(message.data().samples()), is(Arrays.asList(1L, 2L)));
+    }
+}
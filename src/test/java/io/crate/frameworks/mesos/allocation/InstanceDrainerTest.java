@@ -0,0 +1,266 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.allocation;
+
+import io.crate.frameworks.mesos.CrateInstance;
+import io.crate.frameworks.mesos.CrateInstances;
+import io.crate.frameworks.mesos.CrateState;
+import io.crate.frameworks.mesos.PersistentStateStore;
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static io.crate.frameworks.mesos.SaneProtos.taskID;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InstanceDrainerTest {
+
+    private static class FakeAllocation implements ShardAllocation {
+
+        private final Map<String, NodeShards> nodes = new HashMap<>();
+        private final List<Collection<String>> excludes = new ArrayList<>();
+
+        void node(String nodeId, long shards, long bytes) {
+            nodes.put(nodeId, new NodeShards(nodeId, "name-" + nodeId, shards, bytes));
+        }
+
+        @Override
+        public Map<String, NodeShards> nodes() {
+            return new HashMap<>(nodes);
+        }
+
+        @Override
+        public boolean exclude(Collection<String> nodeNames) {
+            excludes.add(new ArrayList<>(nodeNames));
+            return true;
+        }
+
+        @Override
+        public boolean enable(String allocation) {
+            return true;
+        }
+
+        @Override
+        public long shardsNotStarted() {
+            return 0L;
+        }
+
+        Collection<String> excluded() {
+            return excludes.get(excludes.size() - 1);
+        }
+    }
+
+    private final CrateState state = new CrateState();
+    private final FakeAllocation allocation = new FakeAllocation();
+    private CrateInstances instances;
+    private SchedulerDriver driver;
+    private PersistentStateStore store;
+    private final List<InstanceDrainer> drainers = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        store = mock(PersistentStateStore.class);
+        when(store.state()).thenReturn(state);
+        driver = mock(SchedulerDriver.class);
+        instances = new CrateInstances();
+        for (int i = 1; i <= 4; i++) {
+            instances.addInstance(new CrateInstance("host" + i, "task-" + i, "0.54.8", 4300, "exec", "slave-" + i));
+            instances.setToRunning("task-" + i, "node-" + i);
+        }
+        state.instances(instances);
+        allocation.node("node-1", 10, 1000);
+        allocation.node("node-2", 4, 5000);
+        allocation.node("node-3", 4, 400);
+        allocation.node("node-4", 12, 100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (InstanceDrainer drainer : drainers) {
+            drainer.close();
+        }
+    }
+
+    /**
+     * Returns a started drainer, which is polled by the test.
+     */
+    private InstanceDrainer drainer(int parallelism) {
+        InstanceDrainer drainer = new InstanceDrainer(store, allocation, parallelism, 60_000L);
+        drainer.start(driver, TimeUnit.HOURS.toMillis(1));
+        drainers.add(drainer);
+        return drainer;
+    }
+
+    @Test
+    public void testDrainThenKill() throws Exception {
+        InstanceDrainer drainer = drainer(1);
+        state.desiredInstances(2);
+        drainer.poll(0L);
+
+        // fewest shards first, then least data
+        assertThat(drainer.draining(), is(Arrays.asList("task-3", "task-2")));
+        assertThat(allocation.excluded(), is((Collection<String>) Arrays.asList("name-node-3", "name-node-2")));
+        verify(driver, never()).killTask(taskID("task-3"));
+
+        allocation.node("node-3", 1, 10);
+        allocation.node("node-2", 0, 0);
+        drainer.poll(1000L);
+        verify(driver).killTask(taskID("task-2"));
+        verify(driver, never()).killTask(taskID("task-3"));
+
+        // only one killed task at a time
+        allocation.node("node-3", 0, 0);
+        drainer.poll(2000L);
+        verify(driver, never()).killTask(taskID("task-3"));
+
+        instances.removeTask("task-2");
+        drainer.poll(3000L);
+        verify(driver).killTask(taskID("task-3"));
+        assertThat(allocation.excluded(), is((Collection<String>) Arrays.asList("name-node-3")));
+
+        instances.removeTask("task-3");
+        drainer.poll(4000L);
+        assertThat(drainer.draining().isEmpty(), is(true));
+        assertThat(allocation.excluded().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testParallelism() throws Exception {
+        InstanceDrainer drainer = drainer(2);
+        state.desiredInstances(2);
+        drainer.poll(0L);
+        allocation.node("node-2", 0, 0);
+        allocation.node("node-3", 0, 0);
+        drainer.poll(1000L);
+        verify(driver).killTask(taskID("task-2"));
+        verify(driver).killTask(taskID("task-3"));
+    }
+
+    @Test
+    public void testInstancesWithoutDataAreKilledFirst() throws Exception {
+        instances.addInstance(new CrateInstance("host5", "task-5", "0.54.8", 4300, "exec", "slave-5"));
+        InstanceDrainer drainer = drainer(1);
+        state.desiredInstances(4);
+        drainer.poll(0L);
+        verify(driver).killTask(taskID("task-5"));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        InstanceDrainer drainer = drainer(1);
+        state.desiredInstances(3);
+        drainer.poll(0L);
+        drainer.poll(59_999L);
+        verify(driver, never()).killTask(taskID("task-3"));
+        drainer.poll(60_000L);
+        verify(driver).killTask(taskID("task-3"));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        InstanceDrainer drainer = drainer(1);
+        state.desiredInstances(2);
+        drainer.poll(0L);
+        allocation.node("node-3", 0, 0);
+        drainer.poll(1000L);
+        verify(driver).killTask(taskID("task-3"));
+
+        // the killed instance can't be brought back
+        state.desiredInstances(4);
+        drainer.poll(2000L);
+        assertThat(drainer.draining(), is(Arrays.asList("task-3")));
+        assertThat(allocation.excluded(), is((Collection<String>) Arrays.asList("name-node-3")));
+
+        instances.removeTask("task-3");
+        drainer.poll(3000L);
+        assertThat(drainer.draining().isEmpty(), is(true));
+        assertThat(allocation.excluded().isEmpty(), is(true));
+        verify(driver, never()).killTask(taskID("task-2"));
+    }
+
+    @Test
+    public void testDesiredInstancesChangeWhileDraining() throws Exception {
+        instances.addInstance(new CrateInstance("host5", "task-5", "0.54.8", 4300, "exec", "slave-5"));
+        instances.setToRunning("task-5", "node-5");
+        allocation.node("node-5", 20, 2000);
+        InstanceDrainer drainer = drainer(1);
+        state.desiredInstances(3);
+        drainer.poll(0L);
+        assertThat(drainer.draining(), is(Arrays.asList("task-3", "task-2")));
+
+        allocation.node("node-3", 0, 0);
+        drainer.poll(1000L);
+        verify(driver).killTask(taskID("task-3"));
+        instances.removeTask("task-3");
+
+        // the finished victim is not counted against the new number
+        state.desiredInstances(2);
+        drainer.poll(2000L);
+        assertThat(drainer.draining(), is(Arrays.asList("task-2", "task-1")));
+
+        allocation.node("node-2", 0, 0);
+        drainer.poll(3000L);
+        instances.removeTask("task-2");
+        allocation.node("node-1", 0, 0);
+        drainer.poll(4000L);
+        verify(driver).killTask(taskID("task-1"));
+        instances.removeTask("task-1");
+        drainer.poll(5000L);
+        assertThat(instances.size(), is(2));
+        assertThat(drainer.draining().isEmpty(), is(true));
+        verify(driver, never()).killTask(taskID("task-4"));
+        verify(driver, never()).killTask(taskID("task-5"));
+    }
+
+    @Test
+    public void testInstancesAreDrainedWithoutScaleDown() throws Exception {
+        // e.g. after a failover with more instances running than desired
+        state.desiredInstances(3);
+        InstanceDrainer notStarted = new InstanceDrainer(store, allocation, 1, 60_000L);
+        notStarted.poll(0L);
+        assertThat(notStarted.draining(), is(Arrays.asList("task-3")));
+        allocation.node("node-3", 0, 0);
+        notStarted.poll(1000L);
+        verify(driver, never()).killTask(any(Protos.TaskID.class));
+
+        InstanceDrainer drainer = drainer(1);
+        drainer.poll(0L);
+        drainer.poll(1000L);
+        verify(driver).killTask(taskID("task-3"));
+    }
+}
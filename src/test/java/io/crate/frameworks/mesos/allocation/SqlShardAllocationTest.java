@@ -0,0 +1,51 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.allocation;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SqlShardAllocationTest {
+
+    @Test
+    public void testNodes() throws Exception {
+        Map<String, NodeShards> nodes = SqlShardAllocation.nodes(
+                new Object[][]{
+                        new Object[]{"node-1", "crate-1"},
+                        new Object[]{"node-2", "crate-2"}
+                },
+                new Object[][]{
+                        new Object[]{"node-1", 12L, 4096L},
+                        new Object[]{null, 2L, null}
+                });
+        assertThat(nodes.size(), is(2));
+        assertThat(nodes.get("node-1").name(), is("crate-1"));
+        assertThat(nodes.get("node-1").shards(), is(12L));
+        assertThat(nodes.get("node-1").bytes(), is(4096L));
+        assertThat(nodes.get("node-2").shards(), is(0L));
+        assertThat(nodes.get("node-2").bytes(), is(0L));
+    }
+}
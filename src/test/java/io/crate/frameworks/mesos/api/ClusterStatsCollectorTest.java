@@ -0,0 +1,125 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.api;
+
+import com.google.common.base.Supplier;
+import io.crate.action.sql.SQLResponse;
+import io.crate.client.CrateClient;
+import io.crate.frameworks.mesos.CrateInstance;
+import io.crate.frameworks.mesos.CrateState;
+import io.crate.frameworks.mesos.PersistentStateStore;
+import io.crate.shade.org.elasticsearch.action.ActionFuture;
+import io.crate.shade.org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class ClusterStatsCollectorTest {
+
+    private final CrateClient client = mock(CrateClient.class);
+    private final CrateState state = new CrateState();
+    private ClusterStatsCollector collector;
+
+    @Before
+    public void setUp() throws Exception {
+        state.crateInstances().addInstance(new CrateInstance("host1", "task-1", "0.54.8", 4300, "exec-1", "slave-1"));
+        state.crateInstances().addInstance(new CrateInstance("host2", "task-2", "0.54.8", 4300, "exec-2", "slave-2"));
+        state.crateInstances().setToRunning("task-1", "node-1");
+        PersistentStateStore store = mock(PersistentStateStore.class);
+        when(store.state()).thenReturn(state);
+        CrateClientPool pool = new CrateClientPool(new Supplier<String[]>() {
+            @Override
+            public String[] get() {
+                return state.crateInstances().connectionHosts();
+            }
+        }, new CrateClientPool.Factory() {
+            @Override
+            public CrateClient create(String... hosts) {
+                return client;
+            }
+        });
+        collector = new ClusterStatsCollector(store, pool, 1000L);
+    }
+
+    private void respond(String statement, Object[][] rows) {
+        SQLResponse response = mock(SQLResponse.class);
+        when(response.rows()).thenReturn(rows);
+        ActionFuture<SQLResponse> future = mock(ActionFuture.class);
+        when(future.actionGet(anyLong())).thenReturn(response);
+        when(client.sql(statement)).thenReturn(future);
+    }
+
+    @Test
+    public void testStatsAreJoinedWithInstances() throws Exception {
+        respond(ClusterStatsCollector.SQL_NODES, new Object[][]{
+                {"node-1", "crate-1", 0.5, 0.4, 0.3, 100L, 1000L, 10L, 90L, 100L,
+                        new Object[]{"search", "index"}, new Object[]{1, 2}, new Object[]{0, 3}, new Object[]{0L, 0L}}
+        });
+        respond(ClusterStatsCollector.SQL_SHARDS, new Object[][]{
+                {"node-1", "STARTED", 4L},
+                {"node-1", "RELOCATING", 1L},
+                {null, "UNASSIGNED", 2L}
+        });
+
+        Map<String, Object> stats = collector.get();
+        List<Map<String, Object>> tasks = (List<Map<String, Object>>) stats.get("tasks");
+        assertThat(tasks.size(), is(2));
+
+        Map<String, Object> running = tasks.get(0);
+        assertThat(running.get("taskId"), is((Object) "task-1"));
+        Map<String, Object> node = (Map<String, Object>) running.get("node");
+        assertThat(((Map<String, Object>) node.get("heap")).get("max"), is((Object) 1000L));
+        Map<String, Object> pools = (Map<String, Object>) node.get("threadPools");
+        assertThat(((Map<String, Object>) pools.get("index")).get("queue"), is((Object) 3));
+        Map<String, Long> shards = (Map<String, Long>) running.get("shards");
+        assertThat(shards.get("STARTED"), is(4L));
+        assertThat(shards.get("RELOCATING"), is(1L));
+
+        Map<String, Object> pending = tasks.get(1);
+        assertThat(pending.get("node"), is(nullValue()));
+        assertThat(((Map<String, Long>) pending.get("shards")).size(), is(0));
+
+        Map<String, Long> totals = (Map<String, Long>) stats.get("shards");
+        assertThat(totals.get("UNASSIGNED"), is(2L));
+        assertThat(totals.get("STARTED"), is(4L));
+        assertThat(stats.containsKey("error"), is(false));
+    }
+
+    @Test
+    public void testInstancesAreReturnedIfClusterIsNotAvailable() throws Exception {
+        when(client.sql(ClusterStatsCollector.SQL_NODES)).thenThrow(new NoNodeAvailableException("no node"));
+
+        Map<String, Object> stats = collector.get();
+        assertThat(stats.get("error"), is((Object) "no node"));
+        assertThat(((List<?>) stats.get("tasks")).size(), is(2));
+    }
+}
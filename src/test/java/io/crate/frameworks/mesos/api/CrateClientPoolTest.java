@@ -0,0 +1,108 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.api;
+
+import com.google.common.base.Supplier;
+import io.crate.client.CrateClient;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class CrateClientPoolTest {
+
+    private String[] hosts = new String[]{"host1:4300"};
+    private final List<CrateClient> created = new ArrayList<>();
+    private CrateClientPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new CrateClientPool(new Supplier<String[]>() {
+            @Override
+            public String[] get() {
+                return hosts.clone();
+            }
+        }, new CrateClientPool.Factory() {
+            @Override
+            public CrateClient create(String... hosts) {
+                CrateClient client = mock(CrateClient.class);
+                created.add(client);
+                return client;
+            }
+        });
+    }
+
+    @Test
+    public void testClientIsReused() throws Exception {
+        CrateClient client;
+        try (CrateClientPool.Lease lease = pool.acquire()) {
+            client = lease.client();
+        }
+        try (CrateClientPool.Lease lease = pool.acquire()) {
+            assertThat(lease.client(), sameInstance(client));
+        }
+        assertThat(created.size(), is(1));
+        verify(client, never()).close();
+    }
+
+    @Test
+    public void testClientIsReplacedWhenHostsChange() throws Exception {
+        CrateClientPool.Lease inUse = pool.acquire();
+        CrateClient old = inUse.client();
+
+        hosts = new String[]{"host1:4300", "host2:4300"};
+        try (CrateClientPool.Lease lease = pool.acquire()) {
+            assertThat(lease.client(), not(sameInstance(old)));
+        }
+        // the old client is still used by the first request
+        verify(old, never()).close();
+        inUse.close();
+        verify(old).close();
+        inUse.close();
+        assertThat(created.size(), is(2));
+    }
+
+    @Test
+    public void testNoClientWithoutRunningInstances() throws Exception {
+        pool.acquire().close();
+        hosts = new String[0];
+        assertThat(pool.acquire(), is(nullValue()));
+        verify(created.get(0)).close();
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        pool.acquire().close();
+        pool.close();
+        verify(created.get(0)).close();
+    }
+}
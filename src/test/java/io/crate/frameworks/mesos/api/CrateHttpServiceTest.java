@@ -85,6 +85,17 @@ public class CrateHttpServiceTest {
         assertEquals(200, res.getStatus());
     }
 
+    @Test
+    public void testMetrics() throws Exception {
+        client.target(newRequestBuilder("/cluster").build()).request().get();
+        Response res = client.target(newRequestBuilder("/metrics").build()).request().get();
+        assertEquals(200, res.getStatus());
+        assertTrue(res.getMediaType().toString().startsWith("text/plain"));
+        String body = res.readEntity(String.class);
+        assertTrue(body, body.contains("crate_mesos_api_request_seconds_count 1\n"));
+        assertTrue(body, body.contains("crate_mesos_api_responses_total{code=\"2xx\"} 1\n"));
+    }
+
     @Test
     public void testStaticHandler() throws Throwable {
         URI uri = newRequestBuilder("/static/").build();
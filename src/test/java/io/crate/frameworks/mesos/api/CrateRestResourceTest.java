@@ -26,20 +26,14 @@ import io.crate.frameworks.mesos.CrateState;
 import io.crate.frameworks.mesos.PersistentStateStore;
 import io.crate.frameworks.mesos.Version;
 import io.crate.frameworks.mesos.config.Configuration;
-import org.apache.curator.framework.CuratorFramework;
-import org.apache.curator.framework.api.GetChildrenBuilder;
-import org.apache.curator.framework.api.GetDataBuilder;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 
 import javax.ws.rs.core.UriInfo;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
-import static org.hamcrest.CoreMatchers.is;
-import static org.hamcrest.CoreMatchers.nullValue;
 import static org.mockito.Mockito.*;
 import static org.junit.Assert.*;
 
@@ -47,10 +41,6 @@ public class CrateRestResourceTest {
 
     private CrateRestResource resource;
 
-    private CuratorFramework cf = mock(CuratorFramework.class);
-    private GetDataBuilder dataBuilder = mock(GetDataBuilder.class);
-    private GetChildrenBuilder childBuilder = mock(GetChildrenBuilder.class);
-
     @Before
     public void setUp() throws Exception {
         Configuration configuration = new Configuration();
@@ -62,11 +52,7 @@ public class CrateRestResourceTest {
         when(mockedStore.state()).thenReturn(state);
         resource = spy(new CrateRestResource(mockedStore, configuration));
 
-        when(cf.getChildren()).thenReturn(childBuilder);
-        when(cf.getData()).thenReturn(dataBuilder);
-        when(resource.zkClient()).thenReturn(cf);
-
-        doReturn(Integer.MAX_VALUE).when(resource).numActiveSlaves(anyString());
+        doReturn(Integer.MAX_VALUE).when(resource).numActiveSlaves();
         doReturn("").when(resource).mesosMasterAddress();
     }
 
@@ -95,6 +81,7 @@ public class CrateRestResourceTest {
             {
                 put("desired", -1);
                 put("running", 1);
+                put("unhealthy", 0);
             }
         });
         assertEquals(200, res.getStatus());
@@ -121,7 +108,7 @@ public class CrateRestResourceTest {
 
     @Test
     public void testClusterResizeNumInstancesEqualOrLessThanActiveAgents() throws Exception {
-        doReturn(3).when(resource).numActiveSlaves(anyString());
+        doReturn(3).when(resource).numActiveSlaves();
 
         GenericAPIResponse res = (GenericAPIResponse) resource.clusterResize(new ClusterResizeRequest(2)).getEntity();
         assertEquals("SUCCESS", res.getMessage());
@@ -134,7 +121,7 @@ public class CrateRestResourceTest {
 
     @Test
     public void testClusterResizeNumInstancesGreaterThanActiveAgents() throws Exception {
-        doReturn(3).when(resource).numActiveSlaves(anyString());
+        doReturn(3).when(resource).numActiveSlaves();
 
         GenericAPIResponse res = (GenericAPIResponse) resource.clusterResize(new ClusterResizeRequest(4)).getEntity();
         assertEquals("Could not initialize more Crate nodes than existing number of mesos agents", res.getMessage());
@@ -142,50 +129,52 @@ public class CrateRestResourceTest {
     }
 
     @Test
-    public void testMasterMesosAddress() throws Exception {
-        when(childBuilder.forPath(anyString())).thenReturn(Arrays.asList("json.info_0000000000"));
-        when(dataBuilder.forPath(anyString())).thenReturn("{\"address\":{\"ip\":\"host\",\"port\":5050}}".getBytes());
-        doCallRealMethod().when(resource).mesosMasterAddress();
-
-        String address = resource.mesosMasterAddress();
-        assertThat(address, is("host:5050"));
+    public void testClusterShutdown() throws Exception {
+        GenericAPIResponse res = (GenericAPIResponse) resource.clusterShutdown().getEntity();
+        assertEquals("SUCCESS", res.getMessage());
+        assertEquals(200, res.getStatus());
     }
 
     @Test
-    public void testMultiMasterMesosAddress() throws Exception {
-        when(childBuilder.forPath("/mesos")).thenReturn(Arrays.asList("json.info_0000000100","json.info_0000000004","json.info_0000000020","json.info_0000000001"));
-        when(dataBuilder.forPath("/mesos/json.info_0000000001")).thenReturn("{\"address\":{\"ip\":\"host\",\"port\":5050}}".getBytes());
-        doCallRealMethod().when(resource).mesosMasterAddress();
-
-        String address = resource.mesosMasterAddress();
-        assertThat(address, is("host:5050"));
-    }
+    public void testClusterUpgrade() throws Exception {
+        assertEquals(404, resource.clusterUpgradeStatus().getStatus());
 
+        GenericAPIResponse res = (GenericAPIResponse) resource.clusterUpgrade(new ClusterUpgradeRequest("0.49.0")).getEntity();
+        assertEquals("SUCCESS", res.getMessage());
+        assertEquals(200, res.getStatus());
 
-    @Test
-    public void testMasterMesosAddressNoAddressKeyInCFJsonData() throws Exception {
-        when(childBuilder.forPath(anyString())).thenReturn(Arrays.asList("json.info_0000000000"));
-        when(dataBuilder.forPath(anyString())).thenReturn("{\"a\":{\"ip\":\"172.17.0.3\",\"port\":5050}}".getBytes());
-        doCallRealMethod().when(resource).mesosMasterAddress();
+        res = (GenericAPIResponse) resource.clusterUpgradeStatus().getEntity();
+        Map<String, Object> entity = (Map<String, Object>) res.getMessage();
+        assertEquals("0.48.0", entity.get("fromVersion"));
+        assertEquals("0.49.0", entity.get("targetVersion"));
+        assertEquals(0, entity.get("upgraded"));
+        assertEquals(1, entity.get("total"));
 
-        String address = resource.mesosMasterAddress();
-        assertThat(address, is(nullValue()));
+        assertEquals(409, resource.clusterUpgrade(new ClusterUpgradeRequest("0.50.0")).getStatus());
     }
 
     @Test
-    public void testMasterMesosAddressChildrenListIsEmpty() throws Exception {
-        when(childBuilder.forPath(anyString())).thenReturn(Collections.<String>emptyList());
-        doCallRealMethod().when(resource).mesosMasterAddress();
-
-        String address = resource.mesosMasterAddress();
-        assertThat(address, is(nullValue()));
+    public void testClusterUpgradeInvalidRequest() throws Exception {
+        assertEquals(400, resource.clusterUpgrade(new ClusterUpgradeRequest("latest")).getStatus());
+        assertEquals(400, resource.clusterUpgrade(new ClusterUpgradeRequest("0.48.0")).getStatus());
+        ClusterUpgradeRequest request = new ClusterUpgradeRequest("0.49.0");
+        request.setParallelism(0);
+        assertEquals(400, resource.clusterUpgrade(request).getStatus());
+        assertEquals(409, resource.clusterUpgradePause().getStatus());
     }
 
     @Test
-    public void testClusterShutdown() throws Exception {
-        GenericAPIResponse res = (GenericAPIResponse) resource.clusterShutdown().getEntity();
-        assertEquals("SUCCESS", res.getMessage());
-        assertEquals(200, res.getStatus());
+    public void testClusterUpgradePauseAndRollback() throws Exception {
+        resource.clusterUpgrade(new ClusterUpgradeRequest("0.49.0"));
+        assertEquals(200, resource.clusterUpgradePause().getStatus());
+        Map<String, Object> entity = (Map<String, Object>) ((GenericAPIResponse) resource.clusterUpgradeStatus().getEntity()).getMessage();
+        assertEquals(true, entity.get("paused"));
+
+        assertEquals(200, resource.clusterUpgradeRollback().getStatus());
+        entity = (Map<String, Object>) ((GenericAPIResponse) resource.clusterUpgradeStatus().getEntity()).getMessage();
+        assertEquals(false, entity.get("paused"));
+        assertEquals(true, entity.get("rolledBack"));
+        assertEquals("0.48.0", entity.get("targetVersion"));
+        assertEquals(409, resource.clusterUpgradeRollback().getStatus());
     }
 }
-
@@ -0,0 +1,71 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.api;
+
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MesosMasterMonitorTest {
+
+    private static ChildData master(String name, String json) {
+        return new ChildData("/mesos/" + name, null, json == null ? null : json.getBytes());
+    }
+
+    @Test
+    public void testLeaderAddress() throws Exception {
+        String address = MesosMasterMonitor.leaderAddress(asList(
+                master("json.info_0000000000", "{\"address\":{\"ip\":\"host\",\"port\":5050}}")));
+        assertThat(address, is("host:5050"));
+    }
+
+    @Test
+    public void testLeaderIsMasterWithLowestSequence() throws Exception {
+        List<ChildData> children = new ArrayList<>();
+        for (String name : asList("json.info_0000000100", "json.info_0000000004", "log_replicas",
+                "json.info_0000000020", "json.info_0000000001")) {
+            String ip = name.equals("json.info_0000000001") ? "leader" : "follower";
+            children.add(master(name, "{\"address\":{\"ip\":\"" + ip + "\",\"port\":5050}}"));
+        }
+        assertThat(MesosMasterMonitor.leaderAddress(children), is("leader:5050"));
+    }
+
+    @Test
+    public void testLeaderAddressWithoutAddressKey() throws Exception {
+        String address = MesosMasterMonitor.leaderAddress(asList(
+                master("json.info_0000000000", "{\"a\":{\"ip\":\"172.17.0.3\",\"port\":5050}}")));
+        assertThat(address, is(nullValue()));
+    }
+
+    @Test
+    public void testNoMasters() throws Exception {
+        assertThat(MesosMasterMonitor.leaderAddress(Collections.<ChildData>emptyList()), is(nullValue()));
+    }
+}
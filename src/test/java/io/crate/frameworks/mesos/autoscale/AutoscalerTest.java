@@ -0,0 +1,157 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.autoscale;
+
+import com.google.common.base.Supplier;
+import io.crate.frameworks.mesos.CrateInstance;
+import io.crate.frameworks.mesos.CrateInstances;
+import io.crate.frameworks.mesos.CrateState;
+import io.crate.frameworks.mesos.PersistentStateStore;
+import io.crate.frameworks.mesos.api.CrateClientPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AutoscalerTest {
+
+    private static final LoadSample HIGH_CPU = new LoadSample(3, 90, 40, -1, 20, 1);
+    private static final LoadSample LOW = new LoadSample(3, 10, 20, -1, 20, 1);
+    private static final LoadSample NORMAL = new LoadSample(3, 50, 60, -1, 20, 1);
+
+    private final CrateState state = new CrateState();
+    private PersistentStateStore store;
+    private LoadSample next;
+
+    @Before
+    public void setUp() throws Exception {
+        store = mock(PersistentStateStore.class);
+        when(store.state()).thenReturn(state);
+        running(3);
+    }
+
+    private void running(int instances) {
+        CrateInstances crateInstances = new CrateInstances();
+        for (int i = 0; i < instances; i++) {
+            crateInstances.addInstance(new CrateInstance("host" + i, "task-" + i, "0.54.8", 4300, "exec", "slave-" + i));
+            crateInstances.setToRunning("task-" + i, "node-" + i);
+        }
+        state.instances(crateInstances);
+        state.desiredInstances(instances);
+    }
+
+    private Autoscaler autoscaler(boolean dryRun) {
+        AutoscalePolicy policy = new AutoscalePolicy(dryRun, 1, 5, 2, 1000L, 5000L, 80, 30, 85, 50, 0, 0, 85);
+        CrateClientPool clients = new CrateClientPool(new Supplier<String[]>() {
+            @Override
+            public String[] get() {
+                return new String[0];
+            }
+        });
+        return new Autoscaler(store, new LoadSampler() {
+            @Override
+            public LoadSample sample() {
+                return next;
+            }
+        }, policy, clients);
+    }
+
+    @Test
+    public void testScaleUpAfterConsecutiveSamples() throws Exception {
+        Autoscaler autoscaler = autoscaler(false);
+        assertThat(autoscaler.decide(HIGH_CPU, 0L).action(), is(Autoscaler.Action.HOLD));
+        // a normal sample resets the count
+        assertThat(autoscaler.decide(NORMAL, 0L).action(), is(Autoscaler.Action.HOLD));
+        assertThat(autoscaler.decide(HIGH_CPU, 0L).action(), is(Autoscaler.Action.HOLD));
+        Autoscaler.Decision decision = autoscaler.decide(HIGH_CPU, 0L);
+        assertThat(decision.action(), is(Autoscaler.Action.SCALE_UP));
+        assertThat(decision.target(), is(4));
+    }
+
+    @Test
+    public void testCooldown() throws Exception {
+        Autoscaler autoscaler = autoscaler(false);
+        autoscaler.decide(HIGH_CPU, 0L);
+        assertThat(autoscaler.decide(HIGH_CPU, 0L).action(), is(Autoscaler.Action.SCALE_UP));
+        running(4);
+
+        autoscaler.decide(HIGH_CPU, 500L);
+        assertThat(autoscaler.decide(HIGH_CPU, 500L).reason(), is("cpu 90.0% >= 80.0%, cooling down"));
+        assertThat(autoscaler.decide(HIGH_CPU, 1000L).action(), is(Autoscaler.Action.SCALE_UP));
+
+        running(5);
+        autoscaler.decide(LOW, 2000L);
+        assertThat(autoscaler.decide(LOW, 2000L).action(), is(Autoscaler.Action.HOLD));
+        assertThat(autoscaler.decide(LOW, 6000L).action(), is(Autoscaler.Action.SCALE_DOWN));
+    }
+
+    @Test
+    public void testBounds() throws Exception {
+        Autoscaler autoscaler = autoscaler(false);
+        running(5);
+        autoscaler.decide(HIGH_CPU, 0L);
+        assertThat(autoscaler.decide(HIGH_CPU, 0L).reason(), is("cpu 90.0% >= 80.0%, but already at the maximum"));
+
+        // 2 replicas need at least 3 instances
+        running(3);
+        LoadSample lowWithReplicas = new LoadSample(3, 10, 20, -1, 20, 2);
+        autoscaler.decide(lowWithReplicas, 0L);
+        assertThat(autoscaler.decide(lowWithReplicas, 0L).action(), is(Autoscaler.Action.HOLD));
+    }
+
+    @Test
+    public void testNoScaleDownIfDataDoesNotFit() throws Exception {
+        Autoscaler autoscaler = autoscaler(false);
+        // 60% on 3 nodes would be 90% on 2 nodes
+        LoadSample fullDisks = new LoadSample(3, 10, 20, -1, 60, 0);
+        autoscaler.decide(fullDisks, 0L);
+        assertThat(autoscaler.decide(fullDisks, 0L).reason(), is("load within thresholds"));
+    }
+
+    @Test
+    public void testHoldWhileResizing() throws Exception {
+        Autoscaler autoscaler = autoscaler(false);
+        state.desiredInstances(4);
+        assertThat(autoscaler.decide(HIGH_CPU, 0L).reason(), is("cluster is being resized"));
+    }
+
+    @Test
+    public void testRunAppliesDecision() throws Exception {
+        Autoscaler autoscaler = autoscaler(false);
+        next = HIGH_CPU;
+        autoscaler.run();
+        autoscaler.run();
+        assertThat(state.desiredInstances().getValue(), is(4));
+    }
+
+    @Test
+    public void testDryRunOnlyLogs() throws Exception {
+        Autoscaler autoscaler = autoscaler(true);
+        next = HIGH_CPU;
+        autoscaler.run();
+        autoscaler.run();
+        assertThat(state.desiredInstances().getValue(), is(3));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.autoscale;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SysNodesLoadSamplerTest {
+
+    private static Object[] node(Object cpu, long heapUsed, long heapMax, long diskUsed, long diskSize, long completed) {
+        return new Object[]{cpu, heapUsed, heapMax, diskUsed, diskSize,
+                new Object[]{"search", "management"}, new Object[]{completed, 1000L}};
+    }
+
+    @Test
+    public void testSample() throws Exception {
+        SysNodesLoadSampler sampler = new SysNodesLoadSampler(null, 1000L);
+        LoadSample first = sampler.sample(new Object[][]{
+                node((short) 20, 25, 100, 10, 100, 100),
+                node((short) 40, 75, 100, 30, 100, 300)
+        }, 1, 0L);
+        assertThat(first.nodes(), is(2));
+        assertThat(first.cpuPercent(), is(30.0));
+        assertThat(first.heapPercent(), is(50.0));
+        assertThat(first.diskPercent(), is(30.0));
+        assertThat(first.queriesPerSecond(), is(-1.0));
+        assertThat(first.maxReplicas(), is(1));
+
+        LoadSample second = sampler.sample(new Object[][]{
+                node((short) 20, 25, 100, 10, 100, 300),
+                node(null, 75, 100, 30, 100, 500)
+        }, 1, TimeUnit.SECONDS.toNanos(2));
+        // 400 queries in 2 seconds on 2 nodes
+        assertThat(second.queriesPerSecond(), is(100.0));
+        assertThat(second.cpuPercent(), is(20.0));
+    }
+}
@@ -53,4 +53,19 @@ public class ResourcesTest {
                 ports(4200, 4200),
                 ports(4300, 4300)), configuration), is(true));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMatchesSumsUpScalarResources() throws Exception {
+        assertThat(Resources.matches(Arrays.asList(
+                cpus(1),
+                cpus(1),
+                mem(20_000),
+                ports(4200, 4200),
+                ports(4300, 4300)), configuration), is(true));
+    }
+
+    @Test
+    public void testMatchesWithOfferThatHasNoCpus() throws Exception {
+        assertThat(Resources.matches(Arrays.asList(mem(20_000), ports(4000, 5000)), configuration), is(false));
+    }
+}
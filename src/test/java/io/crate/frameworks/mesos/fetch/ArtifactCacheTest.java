@@ -0,0 +1,205 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.fetch;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ArtifactCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File root;
+    private CountingLoader loader;
+
+    private static class CountingLoader implements ArtifactCache.Loader {
+
+        final AtomicInteger loads = new AtomicInteger();
+        int bytes = 10;
+        volatile boolean fail = false;
+
+        @Override
+        public void load(URI uri, String checksum, File target) throws IOException {
+            loads.incrementAndGet();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (fail) {
+                Files.write(new File(target, "partial").toPath(), new byte[1]);
+                throw new IOException("download failed");
+            }
+            File dir = new File(target, "crate-0.55.0/bin");
+            assertTrue(dir.mkdirs());
+            Files.write(new File(dir, "crate").toPath(), new byte[bytes]);
+            Files.write(new File(target, "uri").toPath(), uri.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        root = tmp.newFolder("cache");
+        loader = new CountingLoader();
+    }
+
+    @Test
+    public void testArtifactIsLoadedOnce() throws Exception {
+        ArtifactCache cache = new ArtifactCache(root, 1024);
+        URI uri = URI.create("https://cdn.crate.io/downloads/releases/crate-0.55.0.tar.gz");
+        File first = cache.get(uri, null, loader);
+        File second = cache.get(uri, null, loader);
+        assertEquals(first, second);
+        assertEquals(1, loader.loads.get());
+        assertTrue(new File(first, "crate-0.55.0/bin/crate").isFile());
+    }
+
+    @Test
+    public void testChecksumIsPartOfTheKey() throws Exception {
+        ArtifactCache cache = new ArtifactCache(root, 1024);
+        URI uri = URI.create("https://cdn.crate.io/downloads/releases/crate-0.55.0.tar.gz");
+        File first = cache.get(uri, "abc", loader);
+        File second = cache.get(uri, "ABC", loader);
+        File third = cache.get(uri, "def", loader);
+        assertEquals(first, second);
+        assertNotEquals(first, third);
+        assertEquals(2, loader.loads.get());
+    }
+
+    @Test
+    public void testConcurrentGetsLoadOnce() throws Exception {
+        final ArtifactCache cache = new ArtifactCache(root, 1024);
+        final URI uri = URI.create("https://cdn.crate.io/downloads/releases/crate-0.55.0.tar.gz");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<File>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    return cache.get(uri, null, loader);
+                }
+            }));
+        }
+        for (Future<File> future : futures) {
+            assertTrue(new File(future.get(10, TimeUnit.SECONDS), "crate-0.55.0/bin/crate").isFile());
+        }
+        executor.shutdown();
+        assertEquals(1, loader.loads.get());
+    }
+
+    @Test
+    public void testFailedLoadLeavesNoEntry() throws Exception {
+        ArtifactCache cache = new ArtifactCache(root, 1024);
+        URI uri = URI.create("https://cdn.crate.io/downloads/releases/crate-0.55.0.tar.gz");
+        loader.fail = true;
+        try {
+            cache.get(uri, null, loader);
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertEquals("download failed", e.getMessage());
+        }
+        loader.fail = false;
+        File entry = cache.get(uri, null, loader);
+        assertFalse(new File(entry, "partial").exists());
+        assertEquals(2, loader.loads.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+        loader.bytes = 400;
+        ArtifactCache cache = new ArtifactCache(root, 1000);
+        URI first = URI.create("http://example.com/crate-1.tar.gz");
+        URI second = URI.create("http://example.com/crate-2.tar.gz");
+        URI third = URI.create("http://example.com/crate-3.tar.gz");
+        File firstEntry = cache.get(first, null, loader);
+        File secondEntry = cache.get(second, null, loader);
+        // make the first entry the most recently used one
+        assertTrue(secondEntry.setLastModified(System.currentTimeMillis() - 60_000));
+        assertTrue(firstEntry.setLastModified(System.currentTimeMillis() - 30_000));
+        File thirdEntry = cache.get(third, null, loader);
+
+        assertTrue(firstEntry.exists());
+        assertFalse(secondEntry.exists());
+        assertTrue(thirdEntry.exists());
+    }
+
+    @Test
+    public void testLockedEntriesAreNotEvicted() throws Exception {
+        loader.bytes = 400;
+        ArtifactCache cache = new ArtifactCache(root, 1000);
+        URI first = URI.create("http://example.com/crate-1.tar.gz");
+        URI second = URI.create("http://example.com/crate-2.tar.gz");
+        URI third = URI.create("http://example.com/crate-3.tar.gz");
+        File firstEntry = cache.get(first, null, loader);
+        File secondEntry = cache.get(second, null, loader);
+        assertTrue(firstEntry.setLastModified(System.currentTimeMillis() - 60_000));
+        assertTrue(secondEntry.setLastModified(System.currentTimeMillis() - 30_000));
+
+        // another executor is materializing the least recently used entry
+        Path lockFile = root.toPath().resolve(firstEntry.getName() + ".lock");
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.READ);
+             FileLock lock = channel.lock(0L, Long.MAX_VALUE, true)) {
+            assertTrue(lock.isShared());
+            cache.get(third, null, loader);
+        }
+
+        assertTrue(firstEntry.exists());
+        assertFalse(secondEntry.exists());
+    }
+
+    @Test
+    public void testMaterializeUsesHardLinks() throws Exception {
+        ArtifactCache cache = new ArtifactCache(root, 1024);
+        URI uri = URI.create("http://example.com/crate.tar.gz");
+        File sandbox = tmp.newFolder("sandbox");
+        cache.materialize(uri, null, loader, sandbox);
+        File entry = cache.get(uri, null, loader);
+        assertEquals(1, loader.loads.get());
+
+        File linked = new File(sandbox, "crate-0.55.0/bin/crate");
+        assertTrue(linked.isFile());
+        assertEquals(Files.getAttribute(new File(entry, "crate-0.55.0/bin/crate").toPath(), "unix:ino"),
+                Files.getAttribute(linked.toPath(), "unix:ino"));
+        // files in the sandbox stay available after eviction
+        ArtifactCache.deleteRecursively(entry.toPath());
+        assertTrue(linked.isFile());
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.fetch;
+
+import com.google.common.hash.Hashing;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class DownloaderTest {
+
+    private static final TarballLoader.Progress NO_PROGRESS = new TarballLoader.Progress() {
+        @Override
+        public void update(URI uri, long bytes, long total) {
+        }
+    };
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private byte[] content;
+    private FileServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[10_000];
+        new Random(0).nextBytes(content);
+        server = new FileServer(content);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private String sha256() {
+        return Hashing.sha256().hashBytes(content).toString();
+    }
+
+    @Test
+    public void testDownloadInRanges() throws Exception {
+        File target = new File(tmp.getRoot(), "crate.tar.gz");
+        new Downloader(4, 3000, NO_PROGRESS).download(server.uri("crate.tar.gz"), sha256(), target);
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertThat(server.requests, hasItems("HEAD", "GET bytes=0-2999", "GET bytes=3000-5999",
+                "GET bytes=6000-8999", "GET bytes=9000-9999"));
+        assertArrayEquals(new String[]{"crate.tar.gz"}, tmp.getRoot().list());
+    }
+
+    @Test
+    public void testSingleRequestWithoutRangeSupport() throws Exception {
+        server.ranges = false;
+        File target = new File(tmp.getRoot(), "crate.tar.gz");
+        new Downloader(4, 3000, NO_PROGRESS).download(server.uri("crate.tar.gz"), sha256(), target);
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertThat(server.requests.toString(), is("[HEAD, GET]"));
+    }
+
+    @Test
+    public void testResumeInterruptedDownload() throws Exception {
+        File target = new File(tmp.getRoot(), "crate.tar.gz");
+        Downloader downloader = new Downloader(4, 3000, NO_PROGRESS);
+        server.failAfter = 1000;
+        try {
+            downloader.download(server.uri("crate.tar.gz"), sha256(), target);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // the connection was cut off
+        }
+        assertFalse(target.exists());
+
+        server.failAfter = -1;
+        server.bytesSent.set(0);
+        server.requests.clear();
+        downloader.download(server.uri("crate.tar.gz"), sha256(), target);
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        // the last chunk was already complete
+        List<String> requests = new ArrayList<>(server.requests);
+        Collections.sort(requests);
+        assertThat(requests.toString(), is("[GET bytes=1000-2999, GET bytes=4000-5999, GET bytes=7000-8999, HEAD]"));
+        // only the missing parts of the chunks are requested again
+        assertEquals(content.length - 4 * 1000, server.bytesSent.get());
+    }
+
+    @Test
+    public void testChangedResourceIsDownloadedAgain() throws Exception {
+        File target = new File(tmp.getRoot(), "crate.tar.gz");
+        Downloader downloader = new Downloader(4, 3000, NO_PROGRESS);
+        server.failAfter = 1000;
+        try {
+            downloader.download(server.uri("crate.tar.gz"), null, target);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // the connection was cut off
+        }
+        server.failAfter = -1;
+        server.etag = "\"v2\"";
+        content[0]++;
+        server.bytesSent.set(0);
+        downloader.download(server.uri("crate.tar.gz"), sha256(), target);
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(content.length, server.bytesSent.get());
+    }
+
+    @Test
+    public void testChecksumMismatch() throws Exception {
+        File target = new File(tmp.getRoot(), "crate.tar.gz");
+        try {
+            new Downloader(4, 3000, NO_PROGRESS).download(server.uri("crate.tar.gz"), "0000", target);
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("Checksum mismatch"));
+        }
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void testLoadLargeTarballInRanges() throws Exception {
+        File tarball = TarballLoaderTest.crateTarball(tmp.newFile("crate-0.55.0.tar.gz"), 10, 10_000);
+        server.content = Files.readAllBytes(tarball.toPath());
+        File downloads = tmp.newFolder("downloads");
+        File target = tmp.newFolder("target");
+        new TarballLoader(NO_PROGRESS, new Downloader(4, 100, NO_PROGRESS), downloads)
+                .load(server.uri("crate-0.55.0.tar.gz"), null, target);
+
+        assertEquals(10_000, new File(target, "crate-0.55.0/lib/lib-0009.jar").length());
+        assertTrue(server.requests.contains("GET bytes=0-99"));
+        assertArrayEquals(new String[0], downloads.list());
+    }
+}
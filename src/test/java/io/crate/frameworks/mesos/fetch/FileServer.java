@@ -0,0 +1,115 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.fetch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves a single file over HTTP, optionally with support for range requests.
+ */
+class FileServer implements AutoCloseable {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final HttpServer server;
+    volatile byte[] content;
+    volatile boolean ranges = true;
+    volatile String etag = "\"v1\"";
+    // responses are cut off after this many bytes, -1 to send them completely
+    volatile long failAfter = -1;
+    final List<String> requests = new CopyOnWriteArrayList<>();
+    final AtomicLong bytesSent = new AtomicLong();
+
+    FileServer(byte[] content) throws IOException {
+        this.content = content;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    URI uri(String name) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/" + name);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        requests.add(exchange.getRequestMethod() + (range == null ? "" : " " + range));
+        byte[] body = content;
+        if (ranges) {
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        }
+        if (etag != null) {
+            exchange.getResponseHeaders().add("ETag", etag);
+        }
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(body.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        int start = 0;
+        int end = body.length;
+        int status = 200;
+        Matcher matcher = range == null ? null : RANGE.matcher(range);
+        if (ranges && matcher != null && matcher.matches() && (ifRange == null || ifRange.equals(etag))) {
+            start = Integer.parseInt(matcher.group(1));
+            end = matcher.group(2).isEmpty() ? body.length : Integer.parseInt(matcher.group(2)) + 1;
+            status = 206;
+            exchange.getResponseHeaders().add("Content-Range",
+                    String.format("bytes %d-%d/%d", start, end - 1, body.length));
+        }
+        exchange.sendResponseHeaders(status, end - start);
+        long limit = failAfter < 0 ? end - start : Math.min(failAfter, end - start);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body, start, (int) limit);
+            bytesSent.addAndGet(limit);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
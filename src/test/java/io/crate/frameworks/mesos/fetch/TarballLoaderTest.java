@@ -0,0 +1,191 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.fetch;
+
+import com.google.common.hash.Hashing;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.*;
+
+public class TarballLoaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Creates a tarball similar to a Crate release.
+     */
+    static File crateTarball(File file, int files, int fileSize) throws IOException {
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(new BufferedOutputStream(new FileOutputStream(file))))) {
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            TarArchiveEntry dir = new TarArchiveEntry("crate-0.55.0/bin/");
+            dir.setMode(040755);
+            tar.putArchiveEntry(dir);
+            tar.closeArchiveEntry();
+
+            byte[] script = "#!/bin/sh\necho crate\n".getBytes(StandardCharsets.UTF_8);
+            TarArchiveEntry bin = new TarArchiveEntry("crate-0.55.0/bin/crate");
+            bin.setMode(0100755);
+            bin.setSize(script.length);
+            tar.putArchiveEntry(bin);
+            tar.write(script);
+            tar.closeArchiveEntry();
+
+            TarArchiveEntry link = new TarArchiveEntry("crate-0.55.0/crate", TarArchiveEntry.LF_SYMLINK);
+            link.setLinkName("bin/crate");
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+
+            byte[] content = new byte[fileSize];
+            for (int i = 0; i < content.length; i++) {
+                content[i] = (byte) (i % 31);
+            }
+            for (int i = 0; i < files; i++) {
+                TarArchiveEntry lib = new TarArchiveEntry(String.format("crate-0.55.0/lib/lib-%04d.jar", i));
+                lib.setMode(0100644);
+                lib.setSize(content.length);
+                tar.putArchiveEntry(lib);
+                tar.write(content);
+                tar.closeArchiveEntry();
+            }
+        }
+        return file;
+    }
+
+    private static String sha256(File file) throws IOException {
+        return Hashing.sha256().hashBytes(Files.readAllBytes(file.toPath())).toString();
+    }
+
+    @Test
+    public void testExtract() throws Exception {
+        File tarball = crateTarball(tmp.newFile("crate-0.55.0.tar.gz"), 10, 1000);
+        File target = tmp.newFolder("target");
+        new TarballLoader().load(tarball.toURI(), sha256(tarball), target);
+
+        Path bin = target.toPath().resolve("crate-0.55.0/bin/crate");
+        assertEquals("rwxr-xr-x", PosixFilePermissions.toString(Files.getPosixFilePermissions(bin)));
+        assertEquals("bin/crate", Files.readSymbolicLink(target.toPath().resolve("crate-0.55.0/crate")).toString());
+        assertEquals(1000, Files.size(target.toPath().resolve("crate-0.55.0/lib/lib-0009.jar")));
+    }
+
+    @Test
+    public void testChecksumMismatchRemovesExtractedFiles() throws Exception {
+        File tarball = crateTarball(tmp.newFile("crate-0.55.0.tar.gz"), 2, 100);
+        File target = tmp.newFolder("target");
+        assertTrue(new File(target, "jre").mkdir());
+        try {
+            new TarballLoader().load(tarball.toURI(), "0000", target);
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("Checksum mismatch"));
+        }
+        assertArrayEquals(new String[]{"jre"}, target.list());
+    }
+
+    @Test
+    public void testEntriesOutsideOfTargetAreRejected() throws Exception {
+        File tarball = tmp.newFile("evil.tar");
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(tarball))) {
+            TarArchiveEntry entry = new TarArchiveEntry("../evil");
+            entry.setSize(1);
+            tar.putArchiveEntry(entry);
+            tar.write(1);
+            tar.closeArchiveEntry();
+        }
+        File target = tmp.newFolder("target");
+        try {
+            new TarballLoader().load(tarball.toURI(), null, target);
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("outside of the target directory"));
+        }
+        assertFalse(new File(tmp.getRoot(), "evil").exists());
+    }
+
+    @Test
+    public void testEntriesBehindSymbolicLinksOutsideOfTargetAreRejected() throws Exception {
+        File outside = tmp.newFolder("outside");
+        assertLinkRejected(outside, outside.getAbsolutePath());
+        // the link to the target itself is allowed, but .. of it leaves the target
+        assertLinkRejected(outside, "self/../outside");
+    }
+
+    private void assertLinkRejected(File outside, String linkName) throws IOException {
+        File tarball = tmp.newFile();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new FileOutputStream(tarball))) {
+            TarArchiveEntry self = new TarArchiveEntry("self", TarArchiveEntry.LF_SYMLINK);
+            self.setLinkName(".");
+            tar.putArchiveEntry(self);
+            tar.closeArchiveEntry();
+
+            TarArchiveEntry link = new TarArchiveEntry("a", TarArchiveEntry.LF_SYMLINK);
+            link.setLinkName(linkName);
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+
+            TarArchiveEntry entry = new TarArchiveEntry("a/x");
+            entry.setSize(1);
+            tar.putArchiveEntry(entry);
+            tar.write(1);
+            tar.closeArchiveEntry();
+        }
+        File target = new File(tmp.getRoot(), "target");
+        try {
+            new TarballLoader().load(tarball.toURI(), null, target);
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("outside of the target directory"));
+        }
+        assertFalse(new File(outside, "x").exists());
+        assertFalse(target.toPath().resolve("a").toFile().exists());
+    }
+
+    @Test
+    public void testProgressIsReported() throws Exception {
+        File tarball = crateTarball(tmp.newFile("crate-0.55.0.tar.gz"), 10, 10000);
+        final long[] last = {0, 0};
+        new TarballLoader(new TarballLoader.Progress() {
+            @Override
+            public void update(URI uri, long bytes, long total) {
+                assertTrue(bytes >= last[0]);
+                last[0] = bytes;
+                last[1] = total;
+            }
+        }).load(tarball.toURI(), null, tmp.newFolder("target"));
+        assertEquals(tarball.length(), last[0]);
+        assertEquals(tarball.length(), last[1]);
+    }
+}
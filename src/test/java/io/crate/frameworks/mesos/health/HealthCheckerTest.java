@@ -0,0 +1,135 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.health;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class HealthCheckerTest {
+
+    private HttpServer server;
+    private volatile int status = 200;
+    private volatile long delayMillis = 0;
+    private ScheduledExecutorService scheduler;
+    private final List<String> events = new CopyOnWriteArrayList<>();
+
+    private final HealthChecker.Listener listener = new HealthChecker.Listener() {
+        @Override
+        public void healthChanged(boolean healthy) {
+            events.add(healthy ? "healthy" : "unhealthy");
+        }
+
+        @Override
+        public void failed(int consecutiveFailures) {
+            events.add("failed " + consecutiveFailures);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(delayMillis);
+                    byte[] body = "{\"ok\": true}".getBytes("UTF-8");
+                    exchange.sendResponseHeaders(status, body.length);
+                    exchange.getResponseBody().write(body);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdownNow();
+        server.stop(0);
+    }
+
+    private HealthChecker checker(int failureThreshold) {
+        URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        return new HealthChecker(scheduler, uri, 10, 500, failureThreshold, listener);
+    }
+
+    @Test
+    public void testHealthTransitions() throws Exception {
+        try (HealthChecker checker = checker(2)) {
+            assertTrue(checker.check());
+            assertTrue(checker.check());
+            status = 503;
+            assertFalse(checker.check());
+            assertFalse(checker.check());
+            assertFalse(checker.check());
+            status = 200;
+            assertTrue(checker.check());
+
+            assertThat(events.toString(), is("[healthy, unhealthy, failed 2, healthy]"));
+            assertThat(checker.checks(), is(6L));
+            assertThat(checker.failures(), is(3L));
+            assertThat(checker.latencies().count(), is(6L));
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        delayMillis = 5000;
+        try (HealthChecker checker = checker(1)) {
+            long started = System.nanoTime();
+            assertFalse(checker.check());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 4000);
+            assertThat(events.toString(), is("[unhealthy, failed 1]"));
+        }
+    }
+
+    @Test
+    public void testScheduledChecks() throws Exception {
+        try (HealthChecker checker = checker(3).start()) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (checker.checks() < 5 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(checker.checks() >= 5);
+            assertEquals(Boolean.TRUE, checker.healthy());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.health;
+
+import io.crate.frameworks.mesos.MessageTelemetry;
+import io.crate.frameworks.mesos.metrics.LatencyHistogram;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class TelemetryCollectorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testBatchesSamples() throws Exception {
+        LatencyHistogram latencies = new LatencyHistogram();
+        TelemetryCollector collector = new TelemetryCollector("task-1", "crate-1",
+                new File(tmp.getRoot(), "crate.pid"), tmp.getRoot(), latencies,
+                new TelemetryCollector.HeapReader() {
+                    @Override
+                    public long[] heap() {
+                        return new long[] { 100L, 200L };
+                    }
+                }, 2);
+
+        latencies.record(TimeUnit.MILLISECONDS.toNanos(2));
+        latencies.record(TimeUnit.MILLISECONDS.toNanos(4));
+        assertNull(collector.sample());
+        MessageTelemetry message = collector.sample();
+        assertNotNull(message);
+        assertThat(message.taskId(), is("task-1"));
+        assertThat(message.samples().size(), is(2));
+
+        MessageTelemetry.Sample first = message.samples().get(0);
+        assertThat(first.healthChecks, is(2L));
+        assertThat(first.healthLatencyMicros, is(3000L));
+        assertThat(first.heapUsedBytes, is(100L));
+        assertThat(first.heapMaxBytes, is(200L));
+        // no pid file
+        assertThat(first.rssBytes, is(-1L));
+        assertTrue(first.diskTotalBytes > 0);
+
+        MessageTelemetry.Sample second = message.samples().get(1);
+        assertThat(second.healthChecks, is(0L));
+        assertThat(second.healthLatencyMicros, is(-1L));
+        assertNull(collector.sample());
+    }
+
+    @Test
+    public void testFailingHeapReader() throws Exception {
+        TelemetryCollector collector = new TelemetryCollector("task-1", "crate-1",
+                new File(tmp.getRoot(), "crate.pid"), tmp.getRoot(), new LatencyHistogram(),
+                new TelemetryCollector.HeapReader() {
+                    @Override
+                    public long[] heap() throws Exception {
+                        throw new IllegalStateException("node not available");
+                    }
+                }, 1);
+        MessageTelemetry.Sample sample = collector.sample().samples().get(0);
+        assertThat(sample.heapUsedBytes, is(-1L));
+        assertThat(sample.heapMaxBytes, is(-1L));
+    }
+
+    @Test
+    public void testRssFromProcStatus() throws Exception {
+        assertThat(TelemetryCollector.rssBytesFromStatus(Arrays.asList(
+                "Name:\tjava", "VmPeak:\t 4000 kB", "VmRSS:\t  123456 kB", "Threads:\t42")), is(123456L * 1024));
+        assertThat(TelemetryCollector.rssBytesFromStatus(Arrays.asList("Name:\tjava")), is(-1L));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void testCountersAndGauges() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("offers_total", "Offers.", "state", "used").add(3);
+        registry.counter("offers_total", "Offers.", "state", "declined").inc();
+        registry.gauge("size_bytes", "Size.", new Gauge() {
+            @Override
+            public double value() {
+                return 1.5;
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+        registry.writeTo(sb);
+        assertThat(sb.toString(), is(
+                "# HELP offers_total Offers.\n" +
+                "# TYPE offers_total counter\n" +
+                "offers_total{state=\"used\"} 3\n" +
+                "offers_total{state=\"declined\"} 1\n" +
+                "# HELP size_bytes Size.\n" +
+                "# TYPE size_bytes gauge\n" +
+                "size_bytes 1.5\n"));
+    }
+
+    @Test
+    public void testSameMetricIsReturnedForSameLabels() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("c", "C.", "a", "b");
+        assertThat(registry.counter("c", "C.", "a", "b"), sameInstance(counter));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypeConflict() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("m", "M.");
+        registry.histogram("m", "M.");
+    }
+
+    @Test
+    public void testHistogramInSeconds() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        LatencyHistogram histogram = registry.histogram("latency_seconds", "Latency.", "op", "save");
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(500));
+        histogram.record(TimeUnit.SECONDS.toNanos(60));
+
+        StringBuilder sb = new StringBuilder();
+        registry.writeTo(sb);
+        String out = sb.toString();
+        assertThat(out, containsString("# TYPE latency_seconds histogram\n"));
+        assertThat(out, containsString("latency_seconds_bucket{op=\"save\",le=\"0.5\"} 1\n"));
+        assertThat(out, containsString("latency_seconds_bucket{op=\"save\",le=\"+Inf\"} 2\n"));
+        assertThat(out, containsString("latency_seconds_sum{op=\"save\"} 60.5\n"));
+        assertThat(out, containsString("latency_seconds_count{op=\"save\"} 2\n"));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.relaunch;
+
+import io.crate.frameworks.mesos.CrateInstance;
+import io.crate.frameworks.mesos.CrateState;
+import io.crate.frameworks.mesos.LostInstance;
+import io.crate.frameworks.mesos.allocation.NodeShards;
+import io.crate.frameworks.mesos.allocation.ShardAllocation;
+import io.crate.frameworks.mesos.config.Configuration;
+import io.crate.frameworks.mesos.metrics.MetricsRegistry;
+import io.crate.frameworks.mesos.metrics.SchedulerMetrics;
+import org.apache.mesos.Protos;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class StickyRelaunchTest {
+
+    private static final long WINDOW_MILLIS = 60_000L;
+
+    private static class FakeAllocation implements ShardAllocation {
+
+        private final Map<String, NodeShards> nodes = new HashMap<>();
+        private long notStarted = 0L;
+
+        @Override
+        public Map<String, NodeShards> nodes() {
+            return nodes;
+        }
+
+        @Override
+        public boolean exclude(Collection<String> nodeNames) {
+            return true;
+        }
+
+        @Override
+        public boolean enable(String allocation) {
+            return true;
+        }
+
+        @Override
+        public long shardsNotStarted() {
+            return notStarted;
+        }
+    }
+
+    private final Configuration configuration = new Configuration();
+    private final FakeAllocation allocation = new FakeAllocation();
+    private SchedulerMetrics metrics;
+    private StickyRelaunch sticky;
+    private CrateState state;
+
+    @Before
+    public void setUp() throws Exception {
+        configuration.dataPath = "/mnt/data";
+        metrics = new SchedulerMetrics(new MetricsRegistry());
+        sticky = new StickyRelaunch(configuration, WINDOW_MILLIS, allocation, metrics);
+        state = new CrateState();
+    }
+
+    private static CrateInstance instance(int i) {
+        CrateInstance instance = new CrateInstance("host" + i, "task-" + i, "0.55.0", 4300, "exec-" + i, "slave-" + i);
+        instance.nodeName("crate-" + i);
+        return instance;
+    }
+
+    private static Protos.Offer offer(int i) {
+        return Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("offer-" + i))
+                .setHostname("host" + i)
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-" + i))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("xx"))
+                .build();
+    }
+
+    @Test
+    public void testLostInstanceKeepsDataBytes() throws Exception {
+        allocation.nodes.put("node-1", new NodeShards("node-1", "crate-1", 5, 4096));
+        sticky.poll(0L);
+
+        sticky.lost(state, instance(1), 1000L);
+        LostInstance lost = state.lostInstances().get("slave-1");
+        assertThat(lost.nodeName(), is("crate-1"));
+        assertThat(lost.dataPath(), is("/mnt/data"));
+        assertThat(lost.lostMillis(), is(1000L));
+        assertThat(lost.dataBytes(), is(4096L));
+    }
+
+    @Test
+    public void testInstanceWithoutLocalDataIsNotTracked() throws Exception {
+        configuration.dataPath = null;
+        sticky.lost(state, instance(1), 1000L);
+        assertTrue(state.lostInstances().isEmpty());
+
+        CrateInstance withVolume = instance(2);
+        withVolume.volumeId("crate-volume-2");
+        sticky.lost(state, withVolume, 1000L);
+        assertThat(state.lostInstances().get("slave-2").volumeId(), is("crate-volume-2"));
+    }
+
+    @Test
+    public void testClaimAndExpire() throws Exception {
+        sticky.lost(state, instance(1), 1000L);
+        sticky.lost(state, instance(2), 2000L);
+        sticky.lost(state, instance(3), 3000L);
+        state.addSlaveIdToExcludeList("MISSING_DATA_PATH", "slave-3");
+        assertThat(sticky.pending(state), is(2));
+
+        assertThat(sticky.lostFirst(state, Arrays.asList(offer(4), offer(2))),
+                is(Arrays.asList(offer(2), offer(4))));
+        assertThat(sticky.claim(state, offer(4)), nullValue());
+        assertThat(sticky.claim(state, offer(2)).nodeName(), is("crate-2"));
+        assertThat(sticky.pending(state), is(1));
+
+        assertThat(sticky.expire(state, 1000L + WINDOW_MILLIS), is(1));
+        assertThat(sticky.pending(state), is(0));
+        assertThat(state.lostInstances().keySet(), is(Collections.singleton("slave-3")));
+        assertThat(metrics.stickyRelaunchesExpired(), is(1L));
+    }
+
+    @Test
+    public void testRecoveryIsRecordedOnceShardsAreStarted() throws Exception {
+        allocation.nodes.put("node-1", new NodeShards("node-1", "crate-1", 5, 4096));
+        sticky.poll(0L);
+        sticky.lost(state, instance(1), 1000L);
+
+        sticky.launched("task-2", sticky.claim(state, offer(1)));
+        sticky.launched("task-3", null);
+        assertThat(metrics.stickyRelaunches(), is(1L));
+        assertThat(metrics.stickyRelaunchLocalBytes(), is(4096L));
+
+        // not running yet
+        sticky.poll(System.nanoTime());
+        assertThat(metrics.launchToRecovered(true).count(), is(0L));
+
+        sticky.running("task-2");
+        sticky.running("task-3");
+        allocation.notStarted = 3L;
+        sticky.poll(System.nanoTime());
+        assertThat(metrics.launchToRecovered(true).count(), is(0L));
+
+        allocation.notStarted = 0L;
+        sticky.poll(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+        assertThat(metrics.launchToRecovered(true).count(), is(1L));
+        assertThat(metrics.launchToRecovered(false).count(), is(1L));
+    }
+}
@@ -0,0 +1,766 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.sim;
+
+import com.google.protobuf.ByteString;
+import io.crate.frameworks.mesos.CrateScheduler;
+import io.crate.frameworks.mesos.InMemoryState;
+import io.crate.frameworks.mesos.PersistentStateStore;
+import io.crate.frameworks.mesos.SaneProtos;
+import io.crate.frameworks.mesos.config.Configuration;
+import io.crate.frameworks.mesos.config.Resources;
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-process Mesos master with synthetic agents that runs an unmodified
+ * {@link CrateScheduler} on a virtual clock.
+ *
+ * The simulation is a discrete event loop: the master sends offer batches
+ * every {@link Settings#offerIntervalMillis}, calls of the scheduler are
+ * delivered to the master and status updates to the scheduler after a random
+ * latency, and tasks become running after a random startup time. Tasks,
+ * launches and agents fail according to the failure settings. All randomness
+ * comes from {@link Settings#seed}, so a run can be repeated.
+ */
+public class Simulation implements SchedulerDriver {
+
+    /**
+     * Parameters of a simulation, the defaults describe a healthy cluster.
+     */
+    public static class Settings {
+        public long seed = 42L;
+        public int agents = 1000;
+        public int desiredInstances = 100;
+        public long durationMillis = TimeUnit.HOURS.toMillis(1);
+        /** stop as soon as the desired number of instances is running */
+        public boolean stopAtDesiredSize = true;
+
+        // agents
+        public double agentCpus = 8;
+        public double agentMem = 16384;
+        public double agentDisk = 100000;
+        /** fraction of agents that are too small to run an instance */
+        public double smallAgentFraction = 0.0;
+
+        // offers
+        public long offerIntervalMillis = 1000L;
+        /** fraction of the available agents that are part of an offer batch (offer churn) */
+        public double offerFraction = 1.0;
+        /** maximum number of offers in one batch */
+        public int maxOffersPerBatch = Integer.MAX_VALUE;
+        /** probability that an offer is rescinded before the answer of the scheduler arrives */
+        public double rescindProbability = 0.0;
+
+        // latencies
+        public long minLatencyMillis = 1L;
+        public long maxLatencyMillis = 20L;
+        public long minStartupMillis = 5_000L;
+        public long maxStartupMillis = 30_000L;
+
+        // failures
+        /** probability that a launched task fails while starting */
+        public double launchFailureProbability = 0.0;
+        /** mean time to failure of a running task, 0 means tasks don't fail */
+        public long taskMeanTimeToFailureMillis = 0L;
+        /** mean time to failure of an agent, 0 means agents don't fail */
+        public long agentMeanTimeToFailureMillis = 0L;
+        public long agentRecoveryMillis = TimeUnit.MINUTES.toMillis(5);
+
+        // state store
+        public boolean stateWriteBehind = false;
+        public int stateJournalCompactAfter = PersistentStateStore.DEFAULT_COMPACT_AFTER;
+    }
+
+    /**
+     * Results of a simulation run.
+     */
+    public static class Report {
+        /** virtual time until the desired number of instances was running for the first time, -1 if never */
+        public long timeToDesiredSizeMillis = -1L;
+        public long simulatedMillis;
+        public int runningInstances;
+        public int desiredInstances;
+        public long offerBatches;
+        public long offersMade;
+        public long offersUsed;
+        public long offersDeclined;
+        /** declined offers that could have run an instance while instances were missing */
+        public long offersWasted;
+        /** offers that were neither used nor declined by the scheduler */
+        public long offersUnanswered;
+        public long offersRescinded;
+        public long tasksLaunched;
+        public long tasksFailed;
+        public long tasksLost;
+        public long tasksKilled;
+        public long statusUpdates;
+        public long stateWrites;
+        /** wall clock time spent in scheduler callbacks */
+        public long schedulerMillis;
+
+        @Override
+        public String toString() {
+            return "Report{" +
+                    "timeToDesiredSizeMillis=" + timeToDesiredSizeMillis +
+                    ", simulatedMillis=" + simulatedMillis +
+                    ", runningInstances=" + runningInstances +
+                    ", desiredInstances=" + desiredInstances +
+                    ", offerBatches=" + offerBatches +
+                    ", offersMade=" + offersMade +
+                    ", offersUsed=" + offersUsed +
+                    ", offersDeclined=" + offersDeclined +
+                    ", offersWasted=" + offersWasted +
+                    ", offersUnanswered=" + offersUnanswered +
+                    ", offersRescinded=" + offersRescinded +
+                    ", tasksLaunched=" + tasksLaunched +
+                    ", tasksFailed=" + tasksFailed +
+                    ", tasksLost=" + tasksLost +
+                    ", tasksKilled=" + tasksKilled +
+                    ", statusUpdates=" + statusUpdates +
+                    ", stateWrites=" + stateWrites +
+                    ", schedulerMillis=" + schedulerMillis +
+                    '}';
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        final Runnable action;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            if (time != o.time) {
+                return time < o.time ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+
+    private static class Agent {
+        final Protos.SlaveID id;
+        final String hostname;
+        final double cpus;
+        final double mem;
+        final double disk;
+        final Set<String> tasks = new HashSet<>();
+        double usedCpus = 0;
+        double usedMem = 0;
+        double usedDisk = 0;
+        boolean alive = true;
+        boolean offered = false;
+        long filteredUntil = 0L;
+
+        Agent(int index, double cpus, double mem, double disk) {
+            this.id = Protos.SlaveID.newBuilder().setValue(String.format("sim-S%d", index)).build();
+            this.hostname = String.format("agent-%05d.sim", index);
+            this.cpus = cpus;
+            this.mem = mem;
+            this.disk = disk;
+        }
+    }
+
+    private static class Offer {
+        final Protos.Offer offer;
+        final Agent agent;
+        boolean rescinded = false;
+        boolean answered = false;
+
+        Offer(Protos.Offer offer, Agent agent) {
+            this.offer = offer;
+            this.agent = agent;
+        }
+    }
+
+    private static class Task {
+        final Protos.TaskInfo info;
+        final Agent agent;
+        Protos.TaskState state = Protos.TaskState.TASK_STAGING;
+
+        Task(Protos.TaskInfo info, Agent agent) {
+            this.info = info;
+            this.agent = agent;
+        }
+    }
+
+    private static final Protos.FrameworkID FRAMEWORK_ID = Protos.FrameworkID.newBuilder().setValue("simulation").build();
+
+    private final Settings settings;
+    private final Configuration configuration;
+    private final Random random;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final List<Agent> agents = new ArrayList<>();
+    private final Map<String, Offer> offers = new HashMap<>();
+    private final Map<String, Task> tasks = new HashMap<>();
+    // declined offers of the current batch that could have run an instance
+    private final Set<String> declinedUsable = new HashSet<>();
+    private final Report report = new Report();
+    private final PersistentStateStore store;
+    private final CrateScheduler scheduler;
+    private long now = 0L;
+    private long sequence = 0L;
+    private long offerSequence = 0L;
+    private long schedulerNanos = 0L;
+
+    public Simulation(Settings settings) {
+        this(settings, defaultConfiguration(settings));
+    }
+
+    public Simulation(Settings settings, Configuration configuration) {
+        this.settings = settings;
+        this.configuration = configuration;
+        this.random = new Random(settings.seed);
+        for (int i = 0; i < settings.agents; i++) {
+            boolean small = random.nextDouble() < settings.smallAgentFraction;
+            agents.add(new Agent(i,
+                    small ? configuration.resCpus / 2 : settings.agentCpus,
+                    small ? configuration.resMemory / 2 : settings.agentMem,
+                    settings.agentDisk));
+        }
+        store = new PersistentStateStore(new InMemoryState(), configuration.nodeCount,
+                settings.stateWriteBehind, settings.stateJournalCompactAfter);
+        scheduler = new CrateScheduler(store, configuration);
+    }
+
+    private static Configuration defaultConfiguration(Settings settings) {
+        Configuration configuration = new Configuration();
+        configuration.version("0.54.8");
+        configuration.nodeCount = settings.desiredInstances;
+        return configuration;
+    }
+
+    public CrateScheduler scheduler() {
+        return scheduler;
+    }
+
+    public PersistentStateStore store() {
+        return store;
+    }
+
+    /**
+     * Current virtual time in milliseconds.
+     */
+    public long now() {
+        return now;
+    }
+
+    public Report simulate() {
+        schedule(0, new Runnable() {
+            @Override
+            public void run() {
+                long callbackStart = System.nanoTime();
+                scheduler.registered(Simulation.this, FRAMEWORK_ID, Protos.MasterInfo.getDefaultInstance());
+                schedulerNanos += System.nanoTime() - callbackStart;
+            }
+        });
+        schedule(settings.offerIntervalMillis, new OfferCycle());
+        if (settings.agentMeanTimeToFailureMillis > 0) {
+            for (Agent agent : agents) {
+                scheduleAgentFailure(agent);
+            }
+        }
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            if (event.time > settings.durationMillis) {
+                break;
+            }
+            now = event.time;
+            event.action.run();
+            if (settings.stopAtDesiredSize && report.timeToDesiredSizeMillis >= 0) {
+                break;
+            }
+        }
+        try {
+            store.flush();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        store.close();
+        report.simulatedMillis = now;
+        report.runningInstances = store.state().crateInstances().runningInstances().size();
+        report.desiredInstances = store.state().desiredInstances().getValue();
+        report.stateWrites = store.writes();
+        report.schedulerMillis = TimeUnit.NANOSECONDS.toMillis(schedulerNanos);
+        return report;
+    }
+
+    private void schedule(long delay, Runnable action) {
+        events.add(new Event(now + delay, sequence++, action));
+    }
+
+    private long latency() {
+        return between(settings.minLatencyMillis, settings.maxLatencyMillis);
+    }
+
+    private long between(long min, long max) {
+        return max <= min ? min : min + (long) (random.nextDouble() * (max - min));
+    }
+
+    private long exponential(long mean) {
+        return (long) (-Math.log(1 - random.nextDouble()) * mean);
+    }
+
+    private abstract class Callback implements Runnable {
+
+        @Override
+        public final void run() {
+            long start = System.nanoTime();
+            call();
+            schedulerNanos += System.nanoTime() - start;
+        }
+
+        abstract void call();
+    }
+
+    private class OfferCycle implements Runnable {
+
+        @Override
+        public void run() {
+            final List<Protos.Offer> batch = new ArrayList<>();
+            for (Agent agent : agents) {
+                if (batch.size() >= settings.maxOffersPerBatch) {
+                    break;
+                }
+                if (!agent.alive || agent.offered || agent.filteredUntil > now
+                    || agent.usedCpus >= agent.cpus || agent.usedMem >= agent.mem) {
+                    continue;
+                }
+                if (random.nextDouble() >= settings.offerFraction) {
+                    continue;
+                }
+                batch.add(createOffer(agent));
+            }
+            if (!batch.isEmpty()) {
+                report.offerBatches++;
+                report.offersMade += batch.size();
+                schedule(latency(), new Callback() {
+                    @Override
+                    void call() {
+                        scheduler.resourceOffers(Simulation.this, batch);
+                        afterBatch(batch);
+                    }
+                });
+            }
+            schedule(settings.offerIntervalMillis, this);
+        }
+    }
+
+    private Protos.Offer createOffer(Agent agent) {
+        Protos.Offer offer = Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("offer-" + offerSequence++))
+                .setFrameworkId(FRAMEWORK_ID)
+                .setSlaveId(agent.id)
+                .setHostname(agent.hostname)
+                .addResources(SaneProtos.cpus(agent.cpus - agent.usedCpus))
+                .addResources(SaneProtos.mem(agent.mem - agent.usedMem))
+                .addResources(SaneProtos.scalarResource("disk", agent.disk - agent.usedDisk))
+                .addResources(SaneProtos.ports(4200, 4300))
+                .addResources(SaneProtos.ports(31000, 32000))
+                .build();
+        agent.offered = true;
+        Offer simOffer = new Offer(offer, agent);
+        offers.put(offer.getId().getValue(), simOffer);
+        if (random.nextDouble() < settings.rescindProbability) {
+            simOffer.rescinded = true;
+        }
+        return offer;
+    }
+
+    private void afterBatch(List<Protos.Offer> batch) {
+        boolean missing = store.state().missingInstances() > 0;
+        for (Protos.Offer offer : batch) {
+            Offer simOffer = offers.get(offer.getId().getValue());
+            if (simOffer != null && !simOffer.answered) {
+                // Mesos would keep the resources until the offer times out
+                report.offersUnanswered++;
+                release(simOffer);
+            }
+        }
+        if (missing) {
+            for (Protos.Offer offer : batch) {
+                if (declinedUsable.remove(offer.getId().getValue())) {
+                    report.offersWasted++;
+                }
+            }
+        }
+        declinedUsable.clear();
+    }
+
+    private void release(Offer offer) {
+        offers.remove(offer.offer.getId().getValue());
+        offer.agent.offered = false;
+    }
+
+    private Offer answer(Protos.OfferID offerId) {
+        Offer offer = offers.get(offerId.getValue());
+        if (offer == null || offer.answered) {
+            return null;
+        }
+        offer.answered = true;
+        return offer;
+    }
+
+    private void scheduleAgentFailure(final Agent agent) {
+        schedule(exponential(settings.agentMeanTimeToFailureMillis), new Runnable() {
+            @Override
+            public void run() {
+                agent.alive = false;
+                for (String taskId : new ArrayList<>(agent.tasks)) {
+                    finishTask(tasks.get(taskId), Protos.TaskState.TASK_LOST);
+                }
+                schedule(latency(), new Callback() {
+                    @Override
+                    void call() {
+                        scheduler.slaveLost(Simulation.this, agent.id);
+                    }
+                });
+                schedule(settings.agentRecoveryMillis, new Runnable() {
+                    @Override
+                    public void run() {
+                        agent.alive = true;
+                        scheduleAgentFailure(agent);
+                    }
+                });
+            }
+        });
+    }
+
+    private void launch(final Offer offer, Protos.TaskInfo info) {
+        final Task task = new Task(info, offer.agent);
+        if (offer.rescinded) {
+            report.offersRescinded++;
+            schedule(latency(), new Callback() {
+                @Override
+                void call() {
+                    scheduler.offerRescinded(Simulation.this, offer.offer.getId());
+                }
+            });
+            sendStatus(task, Protos.TaskState.TASK_LOST);
+            report.tasksLost++;
+            return;
+        }
+        report.tasksLaunched++;
+        tasks.put(info.getTaskId().getValue(), task);
+        Agent agent = offer.agent;
+        agent.tasks.add(info.getTaskId().getValue());
+        for (Protos.Resource resource : info.getResourcesList()) {
+            switch (resource.getName()) {
+                case "cpus":
+                    agent.usedCpus += resource.getScalar().getValue();
+                    break;
+                case "mem":
+                    agent.usedMem += resource.getScalar().getValue();
+                    break;
+                case "disk":
+                    agent.usedDisk += resource.getScalar().getValue();
+                    break;
+                default:
+            }
+        }
+        setState(task, Protos.TaskState.TASK_STARTING);
+        long startup = between(settings.minStartupMillis, settings.maxStartupMillis);
+        if (random.nextDouble() < settings.launchFailureProbability) {
+            schedule(startup, new Runnable() {
+                @Override
+                public void run() {
+                    finishTask(task, Protos.TaskState.TASK_FAILED);
+                }
+            });
+            return;
+        }
+        schedule(startup, new Runnable() {
+            @Override
+            public void run() {
+                if (task.state == Protos.TaskState.TASK_STARTING) {
+                    setState(task, Protos.TaskState.TASK_RUNNING);
+                    if (settings.taskMeanTimeToFailureMillis > 0) {
+                        schedule(exponential(settings.taskMeanTimeToFailureMillis), new Runnable() {
+                            @Override
+                            public void run() {
+                                finishTask(task, Protos.TaskState.TASK_FAILED);
+                            }
+                        });
+                    }
+                }
+            }
+        });
+    }
+
+    private void finishTask(Task task, Protos.TaskState state) {
+        if (task == null || isTerminal(task.state)) {
+            return;
+        }
+        switch (state) {
+            case TASK_FAILED:
+                report.tasksFailed++;
+                break;
+            case TASK_LOST:
+                report.tasksLost++;
+                break;
+            case TASK_KILLED:
+                report.tasksKilled++;
+                break;
+            default:
+        }
+        Agent agent = task.agent;
+        agent.tasks.remove(task.info.getTaskId().getValue());
+        for (Protos.Resource resource : task.info.getResourcesList()) {
+            switch (resource.getName()) {
+                case "cpus":
+                    agent.usedCpus -= resource.getScalar().getValue();
+                    break;
+                case "mem":
+                    agent.usedMem -= resource.getScalar().getValue();
+                    break;
+                case "disk":
+                    agent.usedDisk -= resource.getScalar().getValue();
+                    break;
+                default:
+            }
+        }
+        setState(task, state);
+    }
+
+    private static boolean isTerminal(Protos.TaskState state) {
+        switch (state) {
+            case TASK_FINISHED:
+            case TASK_FAILED:
+            case TASK_KILLED:
+            case TASK_LOST:
+            case TASK_ERROR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void setState(Task task, Protos.TaskState state) {
+        task.state = state;
+        sendStatus(task, state);
+    }
+
+    private void sendStatus(Task task, Protos.TaskState state) {
+        Protos.TaskStatus.Builder status = Protos.TaskStatus.newBuilder()
+                .setTaskId(task.info.getTaskId())
+                .setSlaveId(task.agent.id)
+                .setState(state);
+        if (state == Protos.TaskState.TASK_RUNNING) {
+            status.setData(ByteString.copyFromUtf8("node-" + task.info.getTaskId().getValue()));
+        }
+        deliver(status.build());
+    }
+
+    private void deliver(final Protos.TaskStatus status) {
+        schedule(latency(), new Callback() {
+            @Override
+            void call() {
+                report.statusUpdates++;
+                scheduler.statusUpdate(Simulation.this, status);
+                if (report.timeToDesiredSizeMillis < 0
+                    && store.state().crateInstances().runningInstances().size() >= store.state().desiredInstances().getValue()) {
+                    report.timeToDesiredSizeMillis = now;
+                }
+            }
+        });
+    }
+
+    // SchedulerDriver
+
+    @Override
+    public Protos.Status start() {
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status stop(boolean failover) {
+        return Protos.Status.DRIVER_STOPPED;
+    }
+
+    @Override
+    public Protos.Status stop() {
+        return Protos.Status.DRIVER_STOPPED;
+    }
+
+    @Override
+    public Protos.Status abort() {
+        return Protos.Status.DRIVER_ABORTED;
+    }
+
+    @Override
+    public Protos.Status join() {
+        return Protos.Status.DRIVER_STOPPED;
+    }
+
+    @Override
+    public Protos.Status run() {
+        return Protos.Status.DRIVER_STOPPED;
+    }
+
+    @Override
+    public Protos.Status requestResources(Collection<Protos.Request> requests) {
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status launchTasks(Collection<Protos.OfferID> offerIds,
+                                     final Collection<Protos.TaskInfo> taskInfos,
+                                     Protos.Filters filters) {
+        final List<Offer> used = new ArrayList<>(offerIds.size());
+        for (Protos.OfferID offerId : offerIds) {
+            Offer offer = answer(offerId);
+            if (offer != null) {
+                report.offersUsed++;
+                used.add(offer);
+            }
+        }
+        schedule(latency(), new Runnable() {
+            @Override
+            public void run() {
+                for (Offer offer : used) {
+                    release(offer);
+                }
+                if (used.isEmpty()) {
+                    return;
+                }
+                for (Protos.TaskInfo info : taskInfos) {
+                    launch(used.get(0), info);
+                }
+            }
+        });
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status launchTasks(Collection<Protos.OfferID> offerIds, Collection<Protos.TaskInfo> tasks) {
+        return launchTasks(offerIds, tasks, null);
+    }
+
+    @Override
+    public Protos.Status launchTasks(Protos.OfferID offerId, Collection<Protos.TaskInfo> tasks, Protos.Filters filters) {
+        return launchTasks(Collections.singletonList(offerId), tasks, filters);
+    }
+
+    @Override
+    public Protos.Status launchTasks(Protos.OfferID offerId, Collection<Protos.TaskInfo> tasks) {
+        return launchTasks(Collections.singletonList(offerId), tasks, null);
+    }
+
+    @Override
+    public Protos.Status killTask(final Protos.TaskID taskId) {
+        schedule(latency(), new Runnable() {
+            @Override
+            public void run() {
+                Task task = tasks.get(taskId.getValue());
+                if (task != null) {
+                    finishTask(task, Protos.TaskState.TASK_KILLED);
+                }
+            }
+        });
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status acceptOffers(Collection<Protos.OfferID> offerIds,
+                                      Collection<Protos.Offer.Operation> operations,
+                                      Protos.Filters filters) {
+        List<Protos.TaskInfo> launches = new ArrayList<>();
+        for (Protos.Offer.Operation operation : operations) {
+            if (operation.getType() == Protos.Offer.Operation.Type.LAUNCH) {
+                launches.addAll(operation.getLaunch().getTaskInfosList());
+            }
+        }
+        return launchTasks(offerIds, launches, filters);
+    }
+
+    @Override
+    public Protos.Status declineOffer(Protos.OfferID offerId, Protos.Filters filters) {
+        Offer offer = answer(offerId);
+        if (offer != null) {
+            report.offersDeclined++;
+            if (offer.agent.tasks.isEmpty() && Resources.matches(offer.offer.getResourcesList(), configuration)) {
+                declinedUsable.add(offerId.getValue());
+            }
+            // Mesos filters declined resources for 5 seconds by default
+            double refuseSeconds = filters != null && filters.hasRefuseSeconds() ? filters.getRefuseSeconds() : 5.0;
+            offer.agent.filteredUntil = now + (long) (refuseSeconds * 1000);
+            release(offer);
+        }
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status declineOffer(Protos.OfferID offerId) {
+        return declineOffer(offerId, null);
+    }
+
+    @Override
+    public Protos.Status reviveOffers() {
+        for (Agent agent : agents) {
+            agent.filteredUntil = 0L;
+        }
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status suppressOffers() {
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status acknowledgeStatusUpdate(Protos.TaskStatus status) {
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status sendFrameworkMessage(Protos.ExecutorID executorId, Protos.SlaveID slaveId, byte[] data) {
+        return Protos.Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Protos.Status reconcileTasks(Collection<Protos.TaskStatus> statuses) {
+        if (statuses.isEmpty()) {
+            for (Task task : tasks.values()) {
+                sendStatus(task, task.state);
+            }
+        } else {
+            for (Protos.TaskStatus status : statuses) {
+                Task task = tasks.get(status.getTaskId().getValue());
+                if (task == null) {
+                    deliver(Protos.TaskStatus.newBuilder(status).setState(Protos.TaskState.TASK_LOST).build());
+                } else {
+                    sendStatus(task, task.state);
+                }
+            }
+        }
+        return Protos.Status.DRIVER_RUNNING;
+    }
+}
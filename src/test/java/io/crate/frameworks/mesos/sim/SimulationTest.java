@@ -0,0 +1,95 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.sim;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SimulationTest {
+
+    @Test
+    public void testReachesDesiredSize() throws Exception {
+        Simulation.Settings settings = new Simulation.Settings();
+        settings.agents = 2000;
+        settings.desiredInstances = 500;
+        Simulation.Report report = new Simulation(settings).simulate();
+
+        assertTrue(report.toString(), report.timeToDesiredSizeMillis > 0);
+        assertEquals(500, report.runningInstances);
+        assertEquals(500, report.tasksLaunched);
+        assertEquals(0, report.offersWasted);
+        assertEquals(0, report.offersUnanswered);
+        assertTrue(report.offersUsed + report.offersDeclined <= report.offersMade);
+        assertTrue(report.stateWrites > 0);
+    }
+
+    @Test
+    public void testRecoversFromFailures() throws Exception {
+        Simulation.Settings settings = new Simulation.Settings();
+        settings.agents = 500;
+        settings.desiredInstances = 100;
+        settings.smallAgentFraction = 0.2;
+        settings.launchFailureProbability = 0.2;
+        settings.taskMeanTimeToFailureMillis = TimeUnit.HOURS.toMillis(2);
+        settings.agentMeanTimeToFailureMillis = TimeUnit.HOURS.toMillis(10);
+        settings.stopAtDesiredSize = false;
+        settings.durationMillis = TimeUnit.MINUTES.toMillis(30);
+        Simulation.Report report = new Simulation(settings).simulate();
+
+        assertTrue(report.toString(), report.timeToDesiredSizeMillis > 0);
+        assertTrue(report.toString(), report.tasksFailed > 0);
+        assertTrue(report.toString(), report.tasksLaunched > 100);
+        assertTrue(report.toString(), report.runningInstances >= 90);
+        assertEquals(0, report.offersUnanswered);
+    }
+
+    @Test
+    public void testOfferChurnAndRescinds() throws Exception {
+        Simulation.Settings settings = new Simulation.Settings();
+        settings.agents = 1000;
+        settings.desiredInstances = 200;
+        settings.offerFraction = 0.3;
+        settings.maxOffersPerBatch = 50;
+        settings.rescindProbability = 0.1;
+        Simulation.Report report = new Simulation(settings).simulate();
+
+        assertTrue(report.toString(), report.timeToDesiredSizeMillis > 0);
+        assertTrue(report.toString(), report.offersRescinded > 0);
+        assertEquals(200, report.runningInstances);
+    }
+
+    @Test
+    public void testRunsAreRepeatable() throws Exception {
+        Simulation.Settings settings = new Simulation.Settings();
+        settings.agents = 300;
+        settings.desiredInstances = 50;
+        settings.launchFailureProbability = 0.1;
+        Simulation.Report first = new Simulation(settings).simulate();
+        Simulation.Report second = new Simulation(settings).simulate();
+        assertEquals(first.timeToDesiredSizeMillis, second.timeToDesiredSizeMillis);
+        assertEquals(first.offersMade, second.offersMade);
+        assertEquals(first.tasksFailed, second.tasksFailed);
+    }
+}
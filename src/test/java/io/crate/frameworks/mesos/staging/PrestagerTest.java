@@ -0,0 +1,126 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.staging;
+
+import io.crate.frameworks.mesos.AgentStaging;
+import io.crate.frameworks.mesos.CrateInstance;
+import io.crate.frameworks.mesos.CrateState;
+import io.crate.frameworks.mesos.config.Configuration;
+import org.apache.mesos.Protos;
+import org.junit.Before;
+import org.junit.Test;
+
+import static io.crate.frameworks.mesos.SaneProtos.taskID;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PrestagerTest {
+
+    private final Configuration configuration = new Configuration();
+    private final Prestager prestager = new Prestager(configuration, 1);
+    private CrateState state;
+
+    @Before
+    public void setUp() throws Exception {
+        state = new CrateState();
+        state.crateInstances().addInstance(new CrateInstance("host1", "task-1", "0.55.0", 4300, "exec-1", "slave-1"));
+        state.slavesWithInstances().add("slave-2");
+    }
+
+    private Protos.Offer offer(int i) {
+        return Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("offer-" + i))
+                .setHostname("host" + i)
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-" + i))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("xx"))
+                .addAllResources(configuration.getAllRequiredResources())
+                .build();
+    }
+
+    private Protos.TaskStatus status(String taskId, int slave, Protos.TaskState taskState) {
+        return Protos.TaskStatus.newBuilder()
+                .setTaskId(taskID(taskId))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-" + slave))
+                .setState(taskState)
+                .build();
+    }
+
+    @Test
+    public void testCandidates() throws Exception {
+        // the agent runs an instance already
+        assertThat(prestager.shouldStage(state, offer(1), "0.55.0", 0L), is(false));
+        // the agent hosted an instance before
+        assertThat(prestager.shouldStage(state, offer(2), "0.55.0", 0L), is(true));
+        prestager.staging(state, offer(2), "0.55.0", "prestage-2", 0L);
+        assertThat(prestager.shouldStage(state, offer(2), "0.55.0", 0L), is(false));
+
+        // a single spare agent is staged
+        assertThat(prestager.shouldStage(state, offer(3), "0.55.0", 0L), is(true));
+        prestager.staging(state, offer(3), "0.55.0", "prestage-3", 0L);
+        assertThat(prestager.shouldStage(state, offer(4), "0.55.0", 0L), is(false));
+
+        state.addSlaveIdToExcludeList("MISSING_DATA_PATH", "slave-5");
+        state.slavesWithInstances().add("slave-5");
+        assertThat(prestager.shouldStage(state, offer(5), "0.55.0", 0L), is(false));
+    }
+
+    @Test
+    public void testInsufficientResources() throws Exception {
+        Protos.Offer offer = Protos.Offer.newBuilder(offer(2))
+                .clearResources()
+                .addAllResources(Prestager.resources())
+                .build();
+        assertThat(prestager.shouldStage(state, offer, "0.55.0", 0L), is(false));
+    }
+
+    @Test
+    public void testStatusUpdate() throws Exception {
+        prestager.staging(state, offer(2), "0.55.0", "prestage-2", 1000L);
+        assertThat(prestager.statusUpdate(state, status("task-1", 1, Protos.TaskState.TASK_RUNNING), 2000L), is(false));
+        assertThat(prestager.statusUpdate(state, status("prestage-2", 2, Protos.TaskState.TASK_RUNNING), 2000L), is(true));
+        assertThat(Prestager.staged(state, "slave-2", "0.55.0"), is(false));
+
+        assertThat(prestager.statusUpdate(state, status("prestage-2", 2, Protos.TaskState.TASK_FINISHED), 3000L), is(true));
+        assertThat(Prestager.staged(state, "slave-2", "0.55.0"), is(true));
+        assertThat(Prestager.staged(state, "slave-2", "0.56.0"), is(false));
+        assertThat(state.staging().get("slave-2").finishedMillis(), is(3000L));
+        // another version is staged again
+        assertThat(prestager.shouldStage(state, offer(2), "0.56.0", 4000L), is(true));
+
+        // status updates of previous staging tasks are ignored
+        assertThat(prestager.statusUpdate(state, status("prestage-1", 2, Protos.TaskState.TASK_FAILED), 5000L), is(true));
+        assertThat(state.staging().get("slave-2").state(), is(AgentStaging.State.STAGED));
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        prestager.staging(state, offer(2), "0.55.0", "prestage-2", 0L);
+        // staging tasks that don't report back time out
+        assertThat(prestager.shouldStage(state, offer(2), "0.55.0", 60_000L), is(false));
+        assertThat(prestager.shouldStage(state, offer(2), "0.55.0", 15 * 60_000L), is(true));
+
+        prestager.statusUpdate(state, status("prestage-2", 2, Protos.TaskState.TASK_FAILED), 15 * 60_000L);
+        assertThat(state.staging().get("slave-2").state(), is(AgentStaging.State.FAILED));
+        assertThat(prestager.shouldStage(state, offer(2), "0.55.0", 16 * 60_000L), is(false));
+        assertThat(prestager.shouldStage(state, offer(2), "0.55.0", 25 * 60_000L), is(true));
+    }
+}
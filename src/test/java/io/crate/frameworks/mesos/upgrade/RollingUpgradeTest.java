@@ -0,0 +1,219 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.upgrade;
+
+import io.crate.frameworks.mesos.CrateInstance;
+import io.crate.frameworks.mesos.CrateInstances;
+import io.crate.frameworks.mesos.CrateState;
+import io.crate.frameworks.mesos.PersistentStateStore;
+import io.crate.frameworks.mesos.Upgrade;
+import io.crate.frameworks.mesos.allocation.NodeShards;
+import io.crate.frameworks.mesos.allocation.ShardAllocation;
+import io.crate.frameworks.mesos.config.Configuration;
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.crate.frameworks.mesos.SaneProtos.taskID;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RollingUpgradeTest {
+
+    private static class FakeAllocation implements ShardAllocation {
+
+        private final List<String> enabled = new ArrayList<>();
+        private long notStarted = 0L;
+
+        @Override
+        public Map<String, NodeShards> nodes() {
+            return nodes;
+        }
+
+        @Override
+        public boolean exclude(Collection<String> nodeNames) {
+            return true;
+        }
+
+        @Override
+        public boolean enable(String allocation) {
+            enabled.add(allocation);
+            return true;
+        }
+
+        @Override
+        public long shardsNotStarted() {
+            return notStarted;
+        }
+
+        String enabled() {
+            return enabled.get(enabled.size() - 1);
+        }
+    }
+
+    private static final Map<String, NodeShards> nodes = new HashMap<>();
+
+    private final CrateState state = new CrateState();
+    private final FakeAllocation allocation = new FakeAllocation();
+    private final Configuration configuration = new Configuration();
+    private CrateInstances instances;
+    private SchedulerDriver driver;
+    private RollingUpgrade rollingUpgrade;
+
+    @Before
+    public void setUp() throws Exception {
+        PersistentStateStore store = mock(PersistentStateStore.class);
+        when(store.state()).thenReturn(state);
+        driver = mock(SchedulerDriver.class);
+        configuration.version("0.54.9");
+        nodes.clear();
+        instances = new CrateInstances();
+        for (int i = 1; i <= 3; i++) {
+            launched(i, "0.54.9");
+        }
+        state.instances(instances);
+        state.desiredInstances(3);
+        rollingUpgrade = new RollingUpgrade(store, configuration, allocation, driver);
+    }
+
+    private void launched(int i, String version) {
+        instances.addInstance(new CrateInstance("host" + i, "task-" + i, version, 4300, "exec-" + i, "slave-" + i));
+        instances.setToRunning("task-" + i, "node-" + i);
+        nodes.put("node-" + i, new NodeShards("node-" + i, "crate-" + i, 5, 100));
+    }
+
+    /**
+     * Lets the scheduler replace the instance
+     */
+    private void replace(int old, int replacement, String version) {
+        instances.removeTask("task-" + old);
+        nodes.remove("node-" + old);
+        rollingUpgrade.poll();
+        assertThat(rollingUpgrade.phase(), is(RollingUpgrade.Phase.STARTING));
+        launched(replacement, version);
+    }
+
+    @Test
+    public void testUpgrade() throws Exception {
+        state.upgrade(new Upgrade("0.54.9", null, "0.55.0", null, 1));
+        rollingUpgrade.poll();
+
+        verify(driver, times(3)).sendFrameworkMessage(any(Protos.ExecutorID.class), any(Protos.SlaveID.class), any(byte[].class));
+        assertThat(allocation.enabled, is(Arrays.asList("all", "new_primaries")));
+        verify(driver).killTask(taskID("task-1"));
+        assertThat(state.slavesWithInstances().contains("slave-1"), is(true));
+        assertThat(rollingUpgrade.phase(), is(RollingUpgrade.Phase.STOPPING));
+        rollingUpgrade.poll();
+        assertThat(rollingUpgrade.phase(), is(RollingUpgrade.Phase.STOPPING));
+
+        replace(1, 4, "0.55.0");
+        verify(driver).reviveOffers();
+        rollingUpgrade.poll();
+        assertThat(rollingUpgrade.phase(), is(RollingUpgrade.Phase.RECOVERING));
+        assertThat(allocation.enabled(), is("all"));
+
+        allocation.notStarted = 3;
+        rollingUpgrade.poll();
+        assertThat(rollingUpgrade.phase(), is(RollingUpgrade.Phase.RECOVERING));
+        allocation.notStarted = 0;
+        rollingUpgrade.poll();
+        assertThat(rollingUpgrade.phase(), is(RollingUpgrade.Phase.IDLE));
+
+        rollingUpgrade.poll();
+        verify(driver).killTask(taskID("task-2"));
+        replace(2, 5, "0.55.0");
+        rollingUpgrade.poll();
+        rollingUpgrade.poll();
+        rollingUpgrade.poll();
+        verify(driver).killTask(taskID("task-3"));
+        replace(3, 6, "0.55.0");
+        rollingUpgrade.poll();
+        rollingUpgrade.poll();
+        assertThat(rollingUpgrade.phase(), is(RollingUpgrade.Phase.IDLE));
+
+        rollingUpgrade.poll();
+        assertThat(state.upgrade(), nullValue());
+        assertThat(configuration.version, is("0.55.0"));
+        // the executors are only asked once to pre-fetch the version
+        verify(driver, times(3)).sendFrameworkMessage(any(Protos.ExecutorID.class), any(Protos.SlaveID.class), any(byte[].class));
+    }
+
+    @Test
+    public void testParallelism() throws Exception {
+        state.upgrade(new Upgrade("0.54.9", null, "0.55.0", null, 2));
+        rollingUpgrade.poll();
+        assertThat(rollingUpgrade.batch(), is(Arrays.asList("task-1", "task-2")));
+    }
+
+    @Test
+    public void testWaitForGreenCluster() throws Exception {
+        state.upgrade(new Upgrade("0.54.9", null, "0.55.0", null, 1));
+        allocation.notStarted = 1;
+        rollingUpgrade.poll();
+        verify(driver, never()).killTask(any(Protos.TaskID.class));
+        allocation.notStarted = 0;
+        rollingUpgrade.poll();
+        verify(driver).killTask(taskID("task-1"));
+    }
+
+    @Test
+    public void testPauseAndRollback() throws Exception {
+        Upgrade upgrade = new Upgrade("0.54.9", null, "0.55.0", null, 1);
+        state.upgrade(upgrade);
+        rollingUpgrade.poll();
+        upgrade.paused(true);
+        // the batch that has been started is completed
+        replace(1, 4, "0.55.0");
+        rollingUpgrade.poll();
+        rollingUpgrade.poll();
+        assertThat(rollingUpgrade.phase(), is(RollingUpgrade.Phase.IDLE));
+        rollingUpgrade.poll();
+        verify(driver, never()).killTask(taskID("task-2"));
+
+        upgrade.rolledBack(true);
+        upgrade.paused(false);
+        rollingUpgrade.poll();
+        verify(driver).killTask(taskID("task-4"));
+        replace(4, 5, "0.54.9");
+        rollingUpgrade.poll();
+        rollingUpgrade.poll();
+        rollingUpgrade.poll();
+        assertThat(state.upgrade(), nullValue());
+        assertThat(configuration.version, is("0.54.9"));
+        verify(driver, never()).killTask(taskID("task-2"));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to CRATE Technology GmbH ("Crate") under one or more contributor
+ * license agreements.  See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.  Crate licenses
+ * this file to you under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial agreement.
+ */
+
+package io.crate.frameworks.mesos.volume;
+
+import io.crate.frameworks.mesos.SaneProtos;
+import io.crate.frameworks.mesos.config.Configuration;
+import org.apache.mesos.Protos;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentVolumesTest {
+
+    private final Configuration configuration = new Configuration();
+    private PersistentVolumes volumes;
+
+    @Before
+    public void setUp() throws Exception {
+        configuration.role = "crate";
+        volumes = new PersistentVolumes(configuration, "crate-framework");
+    }
+
+    private static Protos.Offer offer(int i, Iterable<? extends Protos.Resource> resources) {
+        return Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("offer-" + i))
+                .setHostname("host" + i)
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-" + i))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("xx"))
+                .addAllResources(resources)
+                .build();
+    }
+
+    private Protos.Offer unreserved(int i) {
+        return Protos.Offer.newBuilder(offer(i, configuration.getAllRequiredResources()))
+                .addResources(SaneProtos.disk(configuration.resDisk))
+                .build();
+    }
+
+    private Protos.Offer withVolume(int i, String volumeId) {
+        return offer(i, volumes.taskResources(offer(i, configuration.getAllRequiredResources()), volumeId));
+    }
+
+    @Test
+    public void testPrepareUnreservedOffer() throws Exception {
+        Protos.Offer offer = unreserved(1);
+        assertTrue(volumes.hasDisk(offer));
+        assertThat(volumes.volumeId(offer), nullValue());
+
+        String volumeId = volumes.newVolumeId();
+        List<Protos.Offer.Operation> operations = volumes.prepare(offer, volumeId);
+        assertThat(operations.size(), is(2));
+        assertThat(operations.get(0).getType(), is(Protos.Offer.Operation.Type.RESERVE));
+        assertThat(operations.get(0).getReserve().getResourcesCount(), is(5));
+        for (Protos.Resource resource : operations.get(0).getReserve().getResourcesList()) {
+            assertThat(resource.getRole(), is("crate"));
+            assertThat(resource.getReservation().getPrincipal(), is("crate-framework"));
+        }
+        assertThat(operations.get(1).getType(), is(Protos.Offer.Operation.Type.CREATE));
+        Protos.Resource volume = operations.get(1).getCreate().getVolumes(0);
+        assertThat(volume.getDisk().getPersistence().getId(), is(volumeId));
+        assertThat(volume.getDisk().getVolume().getContainerPath(), is(PersistentVolumes.CONTAINER_PATH));
+        assertTrue(volumes.taskResources(offer, volumeId).contains(volume));
+    }
+
+    @Test
+    public void testPrepareOfferWithVolume() throws Exception {
+        Protos.Offer offer = withVolume(1, "crate-1");
+        assertTrue(volumes.hasDisk(offer));
+        assertThat(volumes.volumeId(offer), is("crate-1"));
+        assertTrue(volumes.prepare(offer, "crate-1").isEmpty());
+        assertThat(volumes.taskResources(offer, "crate-1"), is(offer.getResourcesList()));
+    }
+
+    @Test
+    public void testVolumesOfOtherClustersAreIgnored() throws Exception {
+        Protos.Offer offer = withVolume(1, "other-1");
+        assertThat(volumes.volumeId(offer), nullValue());
+        assertFalse(volumes.hasDisk(offer));
+    }
+
+    @Test
+    public void testVolumesFirst() throws Exception {
+        Protos.Offer first = unreserved(1);
+        Protos.Offer second = withVolume(2, "crate-2");
+        Protos.Offer third = unreserved(3);
+        assertThat(volumes.volumesFirst(Arrays.asList(first, second, third)),
+                is(Arrays.asList(second, first, third)));
+    }
+}